@@ -0,0 +1,40 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.common.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reads and writes the strings of the files that the caches persist.
+ * Each string is written as its UTF-8 length followed by its bytes, with a length of -1 for null. Unlike writeUTF,
+ * this has no limit on the length of the string.
+ */
+public final class DataStreamHelper {
+    private static final String ENCODING = "UTF-8";
+
+    private DataStreamHelper() {
+    }
+
+    public static void writeString(final DataOutput stream, final String value) throws IOException {
+        if (value == null) {
+            stream.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(ENCODING);
+            stream.writeInt(bytes.length);
+            stream.write(bytes);
+        }
+    }
+
+    public static String readString(final DataInput stream) throws IOException {
+        final int length = stream.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        stream.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+}
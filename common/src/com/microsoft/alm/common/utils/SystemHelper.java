@@ -5,6 +5,7 @@ package com.microsoft.alm.common.utils;
 
 import com.sun.jna.Platform;
 import org.apache.commons.io.comparator.PathFileComparator;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,14 +68,35 @@ public class SystemHelper {
 
     /**
      * Convert a string value into an integer or a default value.
+     * Empty values return the default without a warning so that unset system properties can be passed in directly.
      * @return
      */
     public static int toInt(final String value, final int defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
         try {
-            return Integer.parseInt(value);
+            return Integer.parseInt(value.trim());
         } catch (NumberFormatException e) {
             logger.warn("Could not convert '" + value + "' into an integer.", e);
             return defaultValue;
         }
     }
+
+    /**
+     * Convert a string value into a long or a default value.
+     * Empty values return the default without a warning so that unset system properties can be passed in directly.
+     * @return
+     */
+    public static long toLong(final String value, final long defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Could not convert '" + value + "' into a long.", e);
+            return defaultValue;
+        }
+    }
 }
@@ -0,0 +1,33 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.common.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DataStreamHelperTest {
+
+    @Test
+    public void testWriteAndReadString() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        DataStreamHelper.writeString(output, "$/project/für.txt");
+        DataStreamHelper.writeString(output, null);
+        DataStreamHelper.writeString(output, "");
+        output.flush();
+
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("$/project/für.txt", DataStreamHelper.readString(input));
+        assertNull(DataStreamHelper.readString(input));
+        assertEquals("", DataStreamHelper.readString(input));
+    }
+}
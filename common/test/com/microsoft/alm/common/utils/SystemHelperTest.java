@@ -36,4 +36,20 @@ public class SystemHelperTest {
         Mockito.when(Platform.isWindows()).thenReturn(false);
         assertEquals(UNIX_PATH, SystemHelper.getUnixPath(UNIX_PATH));
     }
+
+    @Test
+    public void testToInt() {
+        assertEquals(12, SystemHelper.toInt(" 12 ", 5));
+        assertEquals(5, SystemHelper.toInt("abc", 5));
+        assertEquals(5, SystemHelper.toInt(null, 5));
+        assertEquals(5, SystemHelper.toInt("", 5));
+    }
+
+    @Test
+    public void testToLong() {
+        assertEquals(5000000000L, SystemHelper.toLong("5000000000", 5L));
+        assertEquals(5L, SystemHelper.toLong("12x", 5L));
+        assertEquals(5L, SystemHelper.toLong(null, 5L));
+        assertEquals(5L, SystemHelper.toLong(" ", 5L));
+    }
 }
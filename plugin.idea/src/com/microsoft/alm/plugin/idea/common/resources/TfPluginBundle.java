@@ -739,6 +739,8 @@ public class TfPluginBundle {
     @NonNls
     public static final String KEY_TFVC_CONFLICT_RESOLVING_STATUS = "Tfvc.Conflict.Resolving.Status";
     @NonNls
+    public static final String KEY_TFVC_CONFLICT_RESOLVING_BATCH_STATUS = "Tfvc.Conflict.Resolving.Batch.Status";
+    @NonNls
     public static final String KEY_TFVC_CONFLICT_RESOLVING_REFRESH = "Tfvc.Conflict.Resolving.Refresh";
     @NonNls
     public static final String KEY_TFVC_CONFLICT_LOAD_FAILED = "Tfvc.Conflict.Load.Failed";
@@ -3,6 +3,8 @@
 
 package com.microsoft.alm.plugin.idea.common.services;
 
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.microsoft.alm.plugin.idea.common.utils.IdeaHelper;
 import com.microsoft.alm.plugin.services.AsyncService;
 
@@ -15,4 +17,10 @@ public class IdeaAsyncService implements AsyncService {
     public void executeOnPooledThread(final Runnable runnable) {
         IdeaHelper.executeOnPooledThread(runnable);
     }
+
+    @Override
+    public boolean isCancelled() {
+        final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+        return indicator != null && indicator.isCanceled();
+    }
 }
\ No newline at end of file
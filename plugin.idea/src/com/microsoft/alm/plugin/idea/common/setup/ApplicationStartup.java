@@ -5,11 +5,15 @@ package com.microsoft.alm.plugin.idea.common.setup;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.intellij.idea.Main;
+import com.intellij.openapi.application.ApplicationActivationListener;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ApplicationNamesInfo;
 import com.intellij.openapi.components.ApplicationComponent;
+import com.intellij.openapi.wm.IdeFrame;
 import com.intellij.util.containers.HashMap;
 import com.microsoft.alm.plugin.authentication.AuthHelper;
 import com.microsoft.alm.plugin.authentication.AuthTypes;
+import com.microsoft.alm.plugin.context.DiscoveryCache;
 import com.microsoft.alm.plugin.events.ServerPollingManager;
 import com.microsoft.alm.plugin.idea.common.services.CredentialsPromptImpl;
 import com.microsoft.alm.plugin.idea.common.services.DeviceFlowResponsePromptImpl;
@@ -47,6 +51,7 @@ public class ApplicationStartup implements ApplicationComponent {
     private static final String USER_HOME_DIR = System.getProperty("user.home");
     private static final String VSTS_DIR = ".vsts";
     private static final String LOCATION_FILE = "locations.csv";
+    private static final String DISCOVERY_CACHE_FILE = "discovery.dat";
     private static final String LINUX_EXE_DIR = "bin";
     private static final String MAC_EXE_DIR = "MacOS";
     private static final String CSV_COMMA = ",";
@@ -71,20 +76,36 @@ public class ApplicationStartup implements ApplicationComponent {
         final String ideLocation = getIdeLocation();
         doOsSetup(vstsDirectory, ideLocation);
 
+        // Keep the accounts, collections and repositories found between sessions
+        DiscoveryCache.getInstance().load(new File(vstsDirectory, DISCOVERY_CACHE_FILE));
+
         // Setup status bar
         StatusBarManager.setupStatusBar();
 
         // Hook up to VCS and Project events
         ProjectRepoEventManager.getInstance().startListening();
 
-        // Start polling for server events
+        // Start polling for server events, but only while the IDE is active
         ServerPollingManager.getInstance().startPolling();
+        ApplicationManager.getApplication().getMessageBus().connect().subscribe(ApplicationActivationListener.TOPIC,
+                new ApplicationActivationListener() {
+                    @Override
+                    public void applicationActivated(final IdeFrame ideFrame) {
+                        ServerPollingManager.getInstance().setActive(true);
+                    }
+
+                    @Override
+                    public void applicationDeactivated(final IdeFrame ideFrame) {
+                        ServerPollingManager.getInstance().setActive(false);
+                    }
+                });
 
         // Check for auth type settings
         configureAuthType();
     }
 
     public void disposeComponent() {
+        DiscoveryCache.getInstance().save();
     }
 
     @NotNull
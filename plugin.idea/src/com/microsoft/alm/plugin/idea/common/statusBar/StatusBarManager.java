@@ -109,6 +109,7 @@ public class StatusBarManager {
                     updateBuildWidget(project, statusBar, widget, (BuildStatusLookupOperation.BuildStatusResults) results);
                 }
             });
+            op.setPriority(Operation.Priority.BACKGROUND);
             op.doWorkAsync(null);
 
         } else {
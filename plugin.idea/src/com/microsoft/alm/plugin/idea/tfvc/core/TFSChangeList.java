@@ -26,6 +26,7 @@ import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vcs.versionBrowser.CommittedChangeList;
 import com.intellij.vcsUtil.VcsUtil;
+import com.microsoft.alm.plugin.idea.tfvc.core.revision.TFSContentPrefetcher;
 import com.microsoft.alm.plugin.idea.tfvc.core.revision.TFSContentRevision;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
@@ -150,6 +151,10 @@ public class TFSChangeList implements CommittedChangeList {
                 final TFSContentRevision after = TFSContentRevision.create(myVcs.getProject(), path, changeSetId, changeSetDate);
                 changes.add(new Change(before, after));
             }
+
+            // The changes are initialized when the changelist is opened, so start downloading the revisions that
+            // the diffs of its files will show
+            TFSContentPrefetcher.getInstance().prefetchChanges(myVcs.getProject(), changes);
         }
         return changes;
     }
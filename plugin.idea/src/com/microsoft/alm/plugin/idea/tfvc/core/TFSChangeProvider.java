@@ -19,9 +19,11 @@
 
 package com.microsoft.alm.plugin.idea.tfvc.core;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ChangeListManagerGate;
@@ -29,9 +31,8 @@ import com.intellij.openapi.vcs.changes.ChangeProvider;
 import com.intellij.openapi.vcs.changes.ChangelistBuilder;
 import com.intellij.openapi.vcs.changes.VcsDirtyScope;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.microsoft.alm.plugin.external.commands.Command;
-import com.microsoft.alm.plugin.external.commands.StatusCommand;
 import com.microsoft.alm.plugin.external.models.PendingChange;
+import com.microsoft.alm.plugin.external.utils.CommandUtils;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.RootsCollection;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.StatusProvider;
 import com.microsoft.alm.plugin.idea.tfvc.exceptions.TfsException;
@@ -40,8 +41,11 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Extends the VCS change provider to execture the correct events to find out the local changes in the workspace
@@ -96,8 +100,46 @@ public class TFSChangeProvider implements ChangeProvider {
             return;
         }
 
+        final Map<VirtualFile, List<FilePath>> rootsByWorkspace =
+                groupByVcsRoot(roots, ProjectLevelVcsManager.getInstance(myProject));
+
+        final TFSPendingChangeIndex index = TFSVcs.getInstance(myProject).getPendingChangeIndex();
+        final List<PendingChange> changes = new ArrayList<PendingChange>();
+        final List<String> reconcileRoots = new ArrayList<String>();
+        for (final Map.Entry<VirtualFile, List<FilePath>> entry : rootsByWorkspace.entrySet()) {
+            progress.checkCanceled();
+            if (entry.getKey() == null) {
+                changes.addAll(getStatus(getPaths(entry.getValue()), new ArrayList<String>()));
+                continue;
+            }
+
+            final String vcsRoot = entry.getKey().getPath();
+            changes.addAll(getChanges(index, vcsRoot, entry.getValue(), dirtyScope.getRecursivelyDirtyDirectories()));
+            if (index.isReconcileDue(vcsRoot)) {
+                reconcileRoots.add(vcsRoot);
+            }
+        }
+        index.reconcileInBackground(myProject, reconcileRoots);
+
+        // for each change, find out the status of the changes and then add to the list
         final ChangelistBuilderStatusVisitor changelistBuilderStatusVisitor = new ChangelistBuilderStatusVisitor(myProject, builder);
+        for (final PendingChange change : changes) {
+            try {
+                StatusProvider.visitByStatus(changelistBuilderStatusVisitor, change);
+            } catch (TfsException e) {
+                throw new VcsException(e.getMessage(), e);
+            }
+        }
+    }
 
+    /**
+     * Groups the roots by the vcs root (and therefore workspace) that they belong to so that each group can be sent to
+     * the command line in as few status calls as possible. Roots that are not under a vcs root are grouped under null.
+     */
+    @VisibleForTesting
+    static Map<VirtualFile, List<FilePath>> groupByVcsRoot(final Iterable<FilePath> roots,
+                                                           final ProjectLevelVcsManager vcsManager) {
+        final Map<VirtualFile, List<FilePath>> rootsByWorkspace = new LinkedHashMap<VirtualFile, List<FilePath>>();
         for (final FilePath root : roots) {
             // if we get a change notification in the $tf folder, we need to just ignore it
             if (StringUtils.containsIgnoreCase(root.getPath(), "$tf") ||
@@ -105,25 +147,94 @@ public class TFSChangeProvider implements ChangeProvider {
                 continue;
             }
 
-            List<PendingChange> changes;
-            try {
-                // TODO: add the ability to pass multiple roots to the command line
-                final Command<List<PendingChange>> command = new StatusCommand(null, root.getPath());
-                changes = command.runSynchronously();
-            } catch (final Throwable t) {
-                logger.warn("Failed to get changes from command line. root=" + root.getPath(), t);
-                changes = Collections.emptyList();
+            final VirtualFile vcsRoot = vcsManager.getVcsRootFor(root);
+            List<FilePath> paths = rootsByWorkspace.get(vcsRoot);
+            if (paths == null) {
+                paths = new ArrayList<FilePath>();
+                rootsByWorkspace.put(vcsRoot, paths);
             }
+            paths.add(root);
+        }
+        return rootsByWorkspace;
+    }
 
-            // for each change, find out the status of the changes and then add to the list
-            for (final PendingChange change : changes) {
-                try {
-                    StatusProvider.visitByStatus(changelistBuilderStatusVisitor, change);
-                } catch (TfsException e) {
-                    throw new VcsException(e.getMessage(), e);
+    /**
+     * Gets the changes for the dirty paths of one vcs root from the pending change index where possible:
+     * - files whose status can't be changed by editing them are answered from the index
+     * - when the whole root is dirty (at startup or when the user refreshes) the index answers right away and a
+     * reconcile is started in the background, which marks anything that turns out to be different dirty again
+     * - other directories are answered from the index only while it still holds what was saved by the last session
+     * Everything else, including the paths that commands have invalidated, is read from the command line and put
+     * into the index.
+     */
+    private List<PendingChange> getChanges(final TFSPendingChangeIndex index, final String vcsRoot,
+                                           final List<FilePath> paths, final Set<FilePath> recursivelyDirtyDirectories) {
+        final List<PendingChange> changes = new ArrayList<PendingChange>();
+        final List<String> statusPaths = new ArrayList<String>();
+        for (final FilePath path : paths) {
+            final boolean isVcsRoot = StringUtils.equals(path.getPath(), vcsRoot);
+            final boolean answerFromIndex;
+            if (recursivelyDirtyDirectories.contains(path)) {
+                answerFromIndex = isVcsRoot ? index.isCurrent(vcsRoot) : index.isRestored(vcsRoot);
+                if (answerFromIndex && isVcsRoot) {
+                    index.requestReconcile();
                 }
+            } else {
+                answerFromIndex = index.isContentChangeTracked(path.getPath());
             }
+
+            if (answerFromIndex) {
+                changes.addAll(index.getChanges(path.getPath()));
+                statusPaths.addAll(index.getStalePaths(path.getPath()));
+            } else {
+                statusPaths.add(path.getPath());
+            }
+        }
+
+        if (!statusPaths.isEmpty()) {
+            final List<String> failedPaths = new ArrayList<String>();
+            final List<PendingChange> statusChanges = getStatus(statusPaths, failedPaths);
+            if (failedPaths.isEmpty()) {
+                if (statusPaths.size() == 1 && StringUtils.equals(statusPaths.get(0), vcsRoot)) {
+                    index.reconcile(vcsRoot, statusChanges);
+                } else {
+                    index.update(statusPaths, statusChanges);
+                }
+            } else {
+                // a failed status says nothing about the changes, so the index keeps what it has for those paths
+                // and they are read again the next time
+                final List<String> readPaths = new ArrayList<String>(statusPaths);
+                readPaths.removeAll(failedPaths);
+                index.update(readPaths, statusChanges);
+                index.markStale(failedPaths);
+                for (final String failedPath : failedPaths) {
+                    changes.addAll(index.getChanges(failedPath));
+                }
+            }
+            changes.addAll(statusChanges);
+        }
+        return changes;
+    }
+
+    private static List<String> getPaths(final List<FilePath> filePaths) {
+        final List<String> paths = new ArrayList<String>(filePaths.size());
+        for (final FilePath filePath : filePaths) {
+            paths.add(filePath.getPath());
+        }
+        return paths;
+    }
+
+    /**
+     * Gets the status of all the paths in batches. If a batch fails (for instance because one of the paths is
+     * not mapped) only that batch is read again, in smaller batches, so that the other paths still get their status.
+     * The paths whose status couldn't be read are added to failedPaths.
+     */
+    private List<PendingChange> getStatus(final List<String> paths, final List<String> failedPaths) {
+        final List<PendingChange> changes = CommandUtils.getStatusForFilesInBatches(null, paths, failedPaths);
+        if (!failedPaths.isEmpty()) {
+            logger.warn("Failed to get changes from command line for " + failedPaths.size() + " of " + paths.size() + " roots");
         }
+        return changes;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,530 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.DataStreamHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
+import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.external.commands.HistoryCommand;
+import com.microsoft.alm.plugin.external.models.ChangeSet;
+import com.microsoft.alm.plugin.external.models.CheckedInChange;
+import com.microsoft.alm.plugin.external.models.VersionSpec;
+import com.microsoft.alm.plugin.external.parsers.OutputParser;
+import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsFileUtil;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local store of the changesets read by history commands, so that showing the history of the same paths again doesn't
+ * run the whole history command again.
+ * <p/>
+ * Changesets never change once they are checked in. The owner, committer, date and comment of each changeset are kept
+ * once, by changeset id. The history of each path is kept in a per-path index along with the range of changesets it is
+ * known to be complete for, and the changes of each changeset for that path (history only lists the changes under the
+ * path that was asked for, so they can't be shared between paths). A history request that falls inside the known range
+ * is answered from the index. The history of a path that reaches the latest version is brought up to date by asking the
+ * server only for the changesets newer than the newest one in the index, at most every {@link #PROP_REFRESH_SECONDS}.
+ * A refresh reads at most {@link #PROP_MAX_CHANGESETS} changesets, and only that many of the newest changesets are kept
+ * for each path.
+ * <p/>
+ * Everything is kept per scope, the collection and the workspace that the local paths belong to, so that switching
+ * workspaces doesn't show the history of another item. The histories are dropped when the mappings of the workspace
+ * change, since the local paths may then point at other items.
+ * <p/>
+ * The store is saved between sessions. Only plain history requests are cached, requests filtered by user or made in
+ * item mode always go to the server.
+ */
+public class TFSChangesetCache {
+    private static final Logger logger = LoggerFactory.getLogger(TFSChangesetCache.class);
+
+    public static final String PROP_REFRESH_SECONDS = "com.microsoft.alm.plugin.tfvc.historyRefreshSeconds";
+    public static final String PROP_MAX_PATHS = "com.microsoft.alm.plugin.tfvc.historyCachePaths";
+    public static final String PROP_MAX_CHANGESETS = "com.microsoft.alm.plugin.tfvc.historyCacheChangesets";
+    private static final long DEFAULT_REFRESH_SECONDS = 60L;
+    private static final int DEFAULT_MAX_PATHS = 500;
+    private static final int DEFAULT_MAX_CHANGESETS = 1000;
+
+    // Used as the end of a range that goes up to the latest version
+    public static final int LATEST = Integer.MAX_VALUE;
+
+    private static final String CACHE_DIR_NAME = "tfvc-history";
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Runs a history command for the path of a request
+     */
+    @VisibleForTesting
+    interface HistorySource {
+        List<ChangeSet> getHistory(final String versionRange, final int stopAfter);
+    }
+
+    /**
+     * The history of a path. The ids are every changeset between oldest and newest (inclusive) that changed the path.
+     * A newest of LATEST means the history was complete up to the latest version when it was last refreshed.
+     */
+    private static class PathHistory {
+        private final String scope;
+        private final TreeMap<Integer, List<CheckedInChange>> changes = new TreeMap<Integer, List<CheckedInChange>>(Collections.reverseOrder());
+        private int oldest;
+        private int newest;
+        private long refreshedTime;
+
+        private PathHistory(final String scope) {
+            this.scope = scope;
+        }
+    }
+
+    private final File file;
+    private final long refreshInterval;
+    private final int maxPaths;
+    private final int maxChangeSets;
+
+    // All of the fields below are guarded by this
+    // Keyed by scope and changeset id, since the ids of different collections are unrelated
+    private final Map<String, ChangeSet> changeSets = new HashMap<String, ChangeSet>();
+    // Access ordered so that the least recently used paths can be dropped
+    private final LinkedHashMap<String, PathHistory> histories = new LinkedHashMap<String, PathHistory>(16, 0.75f, true);
+    private boolean modified;
+    // What the mappings revision was when the histories were last checked against it
+    private long mappingsRevision;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public TFSChangesetCache(final Project project) {
+        this(new File(new File(PathManager.getSystemPath(), CACHE_DIR_NAME), project.getLocationHash() + ".dat"),
+                TimeUnit.SECONDS.toMillis(Math.max(
+                        SystemHelper.toLong(System.getProperty(PROP_REFRESH_SECONDS), DEFAULT_REFRESH_SECONDS), 0L)),
+                Math.max(SystemHelper.toInt(System.getProperty(PROP_MAX_PATHS), DEFAULT_MAX_PATHS), 0),
+                SystemHelper.toInt(System.getProperty(PROP_MAX_CHANGESETS), DEFAULT_MAX_CHANGESETS));
+    }
+
+    @VisibleForTesting
+    TFSChangesetCache(final File file, final long refreshInterval, final int maxPaths, final int maxChangeSets) {
+        this.file = file;
+        this.refreshInterval = refreshInterval;
+        this.maxPaths = maxPaths;
+        this.maxChangeSets = Math.max(maxChangeSets, 1);
+        this.mappingsRevision = getMappingsRevision();
+    }
+
+    /**
+     * Gets the scope that the histories of the paths of a workspace are kept under
+     *
+     * @return the scope, or null if the workspace isn't known
+     */
+    public static String getScope(final ServerContext context, final String workspaceName) {
+        if (context == null || context.getCollectionURI() == null || StringUtils.isEmpty(workspaceName)) {
+            return null;
+        }
+        return context.getCollectionURI().toString() + "|" + workspaceName;
+    }
+
+    /**
+     * Gets the history of the local path, newest first, from the cache where possible and from the server otherwise.
+     * Cancelling the progress indicator kills the history command.
+     *
+     * @param from     the oldest changeset to include
+     * @param to       the newest changeset to include, or LATEST
+     * @param maxCount the maximum number of changesets to return, zero or less for no limit
+     */
+    public List<ChangeSet> getHistory(final ServerContext context, final String scope, final String localPath,
+                                      final boolean recursive, final int from, final int to, final int maxCount,
+                                      final ProgressIndicator progressIndicator) {
+        ArgumentHelper.checkNotEmptyString(scope, "scope");
+        ArgumentHelper.checkNotEmptyString(localPath, "localPath");
+        return getHistory(createSource(context, localPath, recursive, progressIndicator), scope, localPath, recursive,
+                from, to, maxCount);
+    }
+
+    @VisibleForTesting
+    List<ChangeSet> getHistory(final HistorySource source, final String scope, final String localPath,
+                               final boolean recursive, final int from, final int to, final int maxCount) {
+        if (to == LATEST) {
+            refresh(source, scope, localPath, recursive);
+        }
+
+        final List<ChangeSet> cached = find(scope, localPath, recursive, from, to, maxCount);
+        if (cached != null) {
+            return cached;
+        }
+
+        final List<ChangeSet> results = source.getHistory(getRange(from, to), maxCount);
+        record(scope, localPath, recursive, from, to, maxCount, results);
+        return results;
+    }
+
+    /**
+     * Brings the history of the path up to the latest version if it was last brought up to date longer than the
+     * refresh interval ago. Only the changesets newer than the ones already known are read from the server, and no
+     * more than the number of changesets kept for a path. Cancelling the progress indicator kills the history command.
+     */
+    public void refresh(final ServerContext context, final String scope, final String localPath,
+                        final boolean recursive, final ProgressIndicator progressIndicator) {
+        ArgumentHelper.checkNotEmptyString(scope, "scope");
+        ArgumentHelper.checkNotEmptyString(localPath, "localPath");
+        refresh(createSource(context, localPath, recursive, progressIndicator), scope, localPath, recursive);
+    }
+
+    private static HistorySource createSource(final ServerContext context, final String localPath,
+                                              final boolean recursive, final ProgressIndicator progressIndicator) {
+        return new HistorySource() {
+            @Override
+            public List<ChangeSet> getHistory(final String versionRange, final int stopAfter) {
+                final HistoryCommand command = new HistoryCommand(context, localPath, versionRange, stopAfter,
+                        recursive, StringUtils.EMPTY);
+                return TFSProgressUtil.runSynchronously(command, progressIndicator, new OutputParser.ItemHandler<ChangeSet>() {
+                    @Override
+                    public void onItem(final ChangeSet item) {
+                        // The results are used once they are all read
+                    }
+                });
+            }
+        };
+    }
+
+    @VisibleForTesting
+    void refresh(final HistorySource source, final String scope, final String localPath, final boolean recursive) {
+        final String key = getKey(scope, localPath, recursive);
+        final int newestKnown;
+        synchronized (this) {
+            checkMappings();
+            final PathHistory history = histories.get(key);
+            if (history == null || history.newest != LATEST ||
+                    System.currentTimeMillis() - history.refreshedTime < refreshInterval) {
+                return;
+            }
+            newestKnown = history.changes.isEmpty() ? history.oldest - 1 : history.changes.firstKey();
+        }
+
+        logger.info("refresh: reading the changesets after " + newestKnown + " for " + localPath);
+        final List<ChangeSet> newer = source.getHistory(getRange(newestKnown + 1, LATEST), maxChangeSets);
+        synchronized (this) {
+            if (newer.size() >= maxChangeSets) {
+                // The changesets between the ones read and the ones known are missing, so the known ones can't be used
+                histories.remove(key);
+            }
+            record(scope, localPath, recursive, newestKnown + 1, LATEST, maxChangeSets, newer);
+        }
+    }
+
+    /**
+     * Returns the history of the path for the range from the cache, or null if the cache doesn't know all of it.
+     * A range that goes up to the latest version is answered as of the last refresh of the path.
+     */
+    public synchronized List<ChangeSet> find(final String scope, final String localPath, final boolean recursive,
+                                             final int from, final int to, final int maxCount) {
+        checkMappings();
+        final PathHistory history = histories.get(getKey(scope, localPath, recursive));
+        if (history == null || history.newest < to) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        final List<ChangeSet> results = new ArrayList<ChangeSet>();
+        if (from > to) {
+            hitCount.incrementAndGet();
+            return results;
+        }
+        final SortedMap<Integer, List<CheckedInChange>> range = history.changes.subMap(to, true, from, true);
+        for (final Map.Entry<Integer, List<CheckedInChange>> entry : range.entrySet()) {
+            if (maxCount > 0 && results.size() >= maxCount) {
+                break;
+            }
+            final ChangeSet changeSet = changeSets.get(getChangeSetKey(scope, entry.getKey()));
+            if (changeSet == null) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            results.add(new ChangeSet(changeSet.getId(), changeSet.getOwner(), changeSet.getCommitter(),
+                    changeSet.getDate(), changeSet.getComment(), entry.getValue()));
+        }
+
+        // Either the results are cut off by the max count, or the cache has to know the whole range
+        if ((maxCount > 0 && results.size() >= maxCount) || history.oldest <= from) {
+            hitCount.incrementAndGet();
+            return results;
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds the results of a history request for the path to the cache. The results are merged into the history
+     * already known for the path if the ranges meet, otherwise they replace it if they are newer. Only the newest
+     * changesets are kept if there are more than the number kept for a path.
+     *
+     * @param stopAfter the maximum number of changesets that was asked for, zero or less for no limit
+     */
+    public synchronized void record(final String scope, final String localPath, final boolean recursive,
+                                    final int from, final int to, final int stopAfter, final List<ChangeSet> results) {
+        checkMappings();
+        // If the results were cut off, they are only complete back to the oldest one returned
+        final int oldest = stopAfter > 0 && stopAfter != LATEST && results.size() >= stopAfter ?
+                results.get(results.size() - 1).getIdAsInt() : from;
+        final String key = getKey(scope, localPath, recursive);
+        PathHistory history = histories.get(key);
+        if (history == null || oldest > (long) history.newest + 1 || (long) to + 1 < history.oldest) {
+            if (history != null && to < history.newest) {
+                // The ranges don't meet and the cached one is newer, so it is more useful to keep
+                return;
+            }
+            history = new PathHistory(scope);
+            history.oldest = oldest;
+            history.newest = to;
+            histories.put(key, history);
+        } else {
+            history.oldest = Math.min(history.oldest, oldest);
+            history.newest = Math.max(history.newest, to);
+        }
+        if (to == LATEST) {
+            history.refreshedTime = System.currentTimeMillis();
+        }
+
+        for (final ChangeSet changeSet : results) {
+            final int id = changeSet.getIdAsInt();
+            history.changes.put(id, changeSet.getChanges());
+            final String changeSetKey = getChangeSetKey(scope, id);
+            if (!changeSets.containsKey(changeSetKey)) {
+                changeSets.put(changeSetKey, new ChangeSet(changeSet.getId(), changeSet.getOwner(), changeSet.getCommitter(),
+                        changeSet.getDate(), changeSet.getComment(), Collections.<CheckedInChange>emptyList()));
+            }
+        }
+        // Drop the oldest changesets, the history is then only complete back to the oldest one kept
+        while (history.changes.size() > maxChangeSets) {
+            history.oldest = history.changes.lastKey() + 1;
+            history.changes.remove(history.changes.lastKey());
+        }
+
+        while (histories.size() > maxPaths) {
+            histories.remove(histories.keySet().iterator().next());
+        }
+        modified = true;
+    }
+
+    /**
+     * Returns the newest changeset known to have changed the path, or zero if the path isn't cached
+     */
+    public synchronized int getNewestChangeset(final String scope, final String localPath, final boolean recursive) {
+        checkMappings();
+        final PathHistory history = histories.get(getKey(scope, localPath, recursive));
+        return history == null || history.changes.isEmpty() ? 0 : history.changes.firstKey();
+    }
+
+    /**
+     * Marks the histories that reach the latest version as out of date, so that the next request for one of them
+     * reads the changesets that were checked in since instead of waiting for the refresh interval. Call this after
+     * a checkin.
+     */
+    public synchronized void expire() {
+        for (final PathHistory history : histories.values()) {
+            history.refreshedTime = 0L;
+        }
+    }
+
+    public synchronized void clear() {
+        changeSets.clear();
+        histories.clear();
+        modified = true;
+    }
+
+    /**
+     * Drops the histories if the mappings changed since they were last checked, the local paths may point at other
+     * items now. The changesets themselves are kept until the next save.
+     */
+    private void checkMappings() {
+        final long currentRevision = getMappingsRevision();
+        if (currentRevision != mappingsRevision) {
+            logger.info("checkMappings: the mappings changed, dropping the cached histories");
+            mappingsRevision = currentRevision;
+            histories.clear();
+            modified = true;
+        }
+    }
+
+    @VisibleForTesting
+    protected long getMappingsRevision() {
+        return TfsFileUtil.getMappingsRevision();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Loads the changesets saved by a previous session, if any. The histories that reach the latest version are
+     * refreshed the first time they are used.
+     */
+    public synchronized void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream stream = null;
+        try {
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (stream.readInt() != FORMAT_VERSION) {
+                logger.info("load: ignoring changeset cache in an older format");
+                return;
+            }
+            final int changeSetCount = stream.readInt();
+            for (int i = 0; i < changeSetCount; i++) {
+                final String scope = DataStreamHelper.readString(stream);
+                final ChangeSet changeSet = new ChangeSet(DataStreamHelper.readString(stream),
+                        DataStreamHelper.readString(stream), DataStreamHelper.readString(stream),
+                        DataStreamHelper.readString(stream), DataStreamHelper.readString(stream),
+                        Collections.<CheckedInChange>emptyList());
+                changeSets.put(getChangeSetKey(scope, changeSet.getIdAsInt()), changeSet);
+            }
+            final int historyCount = stream.readInt();
+            for (int i = 0; i < historyCount; i++) {
+                final String key = DataStreamHelper.readString(stream);
+                final PathHistory history = new PathHistory(DataStreamHelper.readString(stream));
+                history.oldest = stream.readInt();
+                history.newest = stream.readInt();
+                final int idCount = stream.readInt();
+                for (int j = 0; j < idCount; j++) {
+                    final int id = stream.readInt();
+                    final int changeCount = stream.readInt();
+                    final List<CheckedInChange> changes = new ArrayList<CheckedInChange>(changeCount);
+                    for (int k = 0; k < changeCount; k++) {
+                        changes.add(new CheckedInChange(DataStreamHelper.readString(stream),
+                                DataStreamHelper.readString(stream), String.valueOf(id),
+                                DataStreamHelper.readString(stream)));
+                    }
+                    history.changes.put(id, changes);
+                }
+                histories.put(key, history);
+            }
+            modified = false;
+        } catch (final IOException e) {
+            logger.warn("Unable to load changeset cache " + file.getPath(), e);
+            changeSets.clear();
+            histories.clear();
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Saves the changesets for the next session. Nothing is written if nothing changed since the last load or save.
+     */
+    public synchronized void save() {
+        if (!modified) {
+            return;
+        }
+
+        // Only keep the changesets that are still in the history of a path
+        final Set<String> usedKeys = new HashSet<String>();
+        for (final PathHistory history : histories.values()) {
+            for (final Integer id : history.changes.keySet()) {
+                usedKeys.add(getChangeSetKey(history.scope, id));
+            }
+        }
+        changeSets.keySet().retainAll(usedKeys);
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream stream = null;
+        try {
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Unable to create directory " + file.getParent());
+            }
+            stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            stream.writeInt(FORMAT_VERSION);
+            stream.writeInt(changeSets.size());
+            for (final Map.Entry<String, ChangeSet> entry : changeSets.entrySet()) {
+                final ChangeSet changeSet = entry.getValue();
+                DataStreamHelper.writeString(stream, StringUtils.substringBeforeLast(entry.getKey(), "|"));
+                DataStreamHelper.writeString(stream, changeSet.getId());
+                DataStreamHelper.writeString(stream, changeSet.getOwner());
+                DataStreamHelper.writeString(stream, changeSet.getCommitter());
+                DataStreamHelper.writeString(stream, changeSet.getDate());
+                DataStreamHelper.writeString(stream, changeSet.getComment());
+            }
+            stream.writeInt(histories.size());
+            for (final Map.Entry<String, PathHistory> entry : histories.entrySet()) {
+                final PathHistory history = entry.getValue();
+                DataStreamHelper.writeString(stream, entry.getKey());
+                DataStreamHelper.writeString(stream, history.scope);
+                stream.writeInt(history.oldest);
+                stream.writeInt(history.newest);
+                stream.writeInt(history.changes.size());
+                for (final Map.Entry<Integer, List<CheckedInChange>> changes : history.changes.entrySet()) {
+                    stream.writeInt(changes.getKey());
+                    stream.writeInt(changes.getValue().size());
+                    for (final CheckedInChange change : changes.getValue()) {
+                        DataStreamHelper.writeString(stream, change.getServerItem());
+                        DataStreamHelper.writeString(stream, StringUtils.join(change.getChangeTypes(), ","));
+                        DataStreamHelper.writeString(stream, change.getDate());
+                    }
+                }
+            }
+            stream.close();
+            stream = null;
+
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile.getPath());
+            }
+            modified = false;
+        } catch (final IOException e) {
+            logger.warn("Unable to save changeset cache " + file.getPath(), e);
+            tempFile.delete();
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    private static String getRange(final int from, final int to) {
+        return new VersionSpec.Range(VersionSpec.create(Math.max(from, 1)),
+                to == LATEST ? VersionSpec.LATEST : VersionSpec.create(to)).toString();
+    }
+
+    @VisibleForTesting
+    static String getKey(final String scope, final String localPath, final boolean recursive) {
+        String key = StringUtils.removeEnd(localPath.replace('\\', '/'), "/");
+        if (!SystemInfo.isFileSystemCaseSensitive) {
+            key = key.toLowerCase(Locale.ENGLISH);
+        }
+        return scope + (recursive ? "|R|" : "|I|") + key;
+    }
+
+    private static String getChangeSetKey(final String scope, final int id) {
+        return scope + "|" + id;
+    }
+}
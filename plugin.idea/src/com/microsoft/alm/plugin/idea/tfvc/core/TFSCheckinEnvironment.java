@@ -44,6 +44,7 @@ import com.microsoft.alm.plugin.external.utils.CommandUtils;
 import com.microsoft.alm.plugin.idea.common.resources.TfPluginBundle;
 import com.microsoft.alm.plugin.idea.common.services.LocalizationServiceImpl;
 import com.microsoft.alm.plugin.idea.common.utils.VcsHelper;
+import com.microsoft.alm.plugin.idea.tfvc.core.revision.TFSContentPrefetcher;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsFileUtil;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.VersionControlPath;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.operations.ScheduleForDeletion;
@@ -124,6 +125,11 @@ public class TFSCheckinEnvironment implements CheckinEnvironment {
 //        });
 //
 //        return new TFSAdditionalOptionsPanel(panel, checkinProjectPanel, configureButton);
+
+        // Start downloading the base revisions of the selected changes so that the diffs shown from the commit
+        // dialog don't have to run a TF command per file
+        TFSContentPrefetcher.getInstance().prefetchChanges(checkinProjectPanel.getProject(),
+                checkinProjectPanel.getSelectedChanges());
         return null;
     }
 
@@ -194,6 +200,9 @@ public class TFSCheckinEnvironment implements CheckinEnvironment {
             final ServerContext context = myVcs.getServerContext(true);
             final List<Integer> workItemIds = VcsHelper.getWorkItemIdsFromMessage(preparedComment);
             final String changesetNumber = CommandUtils.checkinFiles(context, files, preparedComment, workItemIds);
+            TFSPendingChangeIndex.invalidate(myVcs, files);
+            ((TFSDiffProvider) myVcs.getDiffProvider()).invalidateLatestVersions();
+            myVcs.expireChangesetCache();
 
             // notify user of success
             final String changesetLink = String.format(UrlHelper.SHORT_HTTP_LINK_FORMATTER, UrlHelper.getTfvcChangesetURI(context.getUri().toString(), changesetNumber),
@@ -234,6 +243,12 @@ public class TFSCheckinEnvironment implements CheckinEnvironment {
             }
         }, TfPluginBundle.message(TfPluginBundle.KEY_TFVC_DELETE_SCHEDULING), false, myVcs.getProject());
 
+        final List<String> paths = new ArrayList<String>(files.size());
+        for (final FilePath file : files) {
+            paths.add(file.getPath());
+        }
+        TFSPendingChangeIndex.invalidate(myVcs, paths);
+
         return errors;
     }
 
@@ -247,6 +262,7 @@ public class TFSCheckinEnvironment implements CheckinEnvironment {
                 filesToAddPaths.add(file.getPath());
             }
             final List<String> successfullyAdded = CommandUtils.addFiles(myVcs.getServerContext(false), filesToAddPaths);
+            TFSPendingChangeIndex.invalidate(myVcs, filesToAddPaths);
 
             // mark files as dirty so that they refresh in local changes tab
             for (final String path : successfullyAdded) {
@@ -19,6 +19,8 @@
 
 package com.microsoft.alm.plugin.idea.tfvc.core;
 
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.vcs.CachingCommittedChangesProvider;
@@ -36,10 +38,13 @@ import com.intellij.openapi.vcs.versionBrowser.ChangesBrowserSettingsEditor;
 import com.intellij.openapi.vcs.versionBrowser.CommittedChangeList;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.AsynchConsumer;
+import com.microsoft.alm.common.utils.SystemHelper;
 import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.external.commands.HistoryCommand;
 import com.microsoft.alm.plugin.external.models.ChangeSet;
 import com.microsoft.alm.plugin.external.models.VersionSpec;
 import com.microsoft.alm.plugin.external.models.Workspace;
+import com.microsoft.alm.plugin.external.parsers.OutputParser;
 import com.microsoft.alm.plugin.external.utils.CommandUtils;
 import com.microsoft.alm.plugin.idea.common.resources.TfPluginBundle;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsRevisionNumber;
@@ -60,6 +65,9 @@ import java.util.List;
 public class TFSCommittedChangesProvider implements CachingCommittedChangesProvider<TFSChangeList, ChangeBrowserSettings> {
     public static final Logger logger = LoggerFactory.getLogger(TFSCommittedChangesProvider.class);
 
+    public static final String PROP_HISTORY_PAGE_SIZE = "com.microsoft.alm.plugin.tfvc.historyPageSize";
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 100;
+
     private final Project project;
     private final TFSVcs vcs;
 
@@ -94,16 +102,24 @@ public class TFSCommittedChangesProvider implements CachingCommittedChangesProvi
 
     @Override
     public Pair<TFSChangeList, FilePath> getOneList(final VirtualFile file, final VcsRevisionNumber number) throws VcsException {
-        final ChangeBrowserSettings settings = createDefaultSettings();
-        settings.USE_CHANGE_AFTER_FILTER = true;
-        settings.USE_CHANGE_BEFORE_FILTER = true;
-        settings.CHANGE_BEFORE = settings.CHANGE_AFTER = String.valueOf(((TfsRevisionNumber) number).getValue());
+        final int changeset = ((TfsRevisionNumber) number).getValue();
         final FilePath filePath = VcsContextFactory.SERVICE.getInstance().createFilePathOn(file);
-        final List<TFSChangeList> list = getCommittedChanges(settings, getLocationFor(filePath), 1);
-        if (list.size() == 1) {
-            return Pair.create(list.get(0), filePath);
+        final TFSRepositoryLocation location = (TFSRepositoryLocation) getLocationFor(filePath);
+
+        // Only the changeset and the one before it are needed, the one before it is the previous checkin
+        final VersionSpec.Range range = new VersionSpec.Range(VersionSpec.create(1), VersionSpec.create(changeset));
+        final HistoryCommand command = new HistoryCommand(TFSVcs.getInstance(project).getServerContext(false),
+                location.getRoot().getPath(), range.toString(), 2, true, StringUtils.EMPTY);
+        final List<ChangeSet> changeSets = command.runSynchronously();
+        if (changeSets.isEmpty() || changeSets.get(0).getIdAsInt() != changeset) {
+            return null;
         }
-        return null;
+
+        final TFSChangeListBuilder tfsChangeListBuilder = new TFSChangeListBuilder(vcs, location.getWorkspace());
+        final TFSChangeList changeList = changeSets.size() > 1 ?
+                tfsChangeListBuilder.createChangeList(changeSets.get(0), changeSets.get(1).getIdAsInt(), changeSets.get(1).getDate()) :
+                tfsChangeListBuilder.createChangeList(changeSets.get(0), 0, StringUtils.EMPTY);
+        return Pair.create(changeList, filePath);
     }
 
     @Override
@@ -141,27 +157,106 @@ public class TFSCommittedChangesProvider implements CachingCommittedChangesProvi
         logger.info(String.format("Loading committed changes for range %s", range.toString()));
         final TFSRepositoryLocation tfsRepositoryLocation = (TFSRepositoryLocation) location;
         final ServerContext context = TFSVcs.getInstance(project).getServerContext(false);
-        final List<ChangeSet> changeSets = CommandUtils.getHistoryCommand(context, tfsRepositoryLocation.getRoot().getPath(),
-                range.toString(), maxCount, true, settings.getUserFilter() == null ? StringUtils.EMPTY : settings.getUserFilter());
+        final String user = settings.getUserFilter() == null ? StringUtils.EMPTY : settings.getUserFilter();
+        final TFSChangeListBuilder tfsChangeListBuilder = new TFSChangeListBuilder(vcs, tfsRepositoryLocation.getWorkspace());
+        final ProgressIndicator progressIndicator = ProgressManager.getInstance().getProgressIndicator();
+
+        // The history is read a page at a time, newest first, so the first changesets show up right away even when
+        // the range covers the whole history of the collection. Each page starts just before the last changeset of
+        // the previous page.
+        // The changesets are handed to the consumer on this thread while the history is still being read. Each one is
+        // held back until the next one arrives, since the next checkin in the list is the actual previous checkin in time
+        final ChangeSet[] previous = new ChangeSet[1];
+        final OutputParser.ItemHandler<ChangeSet> handler = new OutputParser.ItemHandler<ChangeSet>() {
+            @Override
+            public void onItem(final ChangeSet changeSet) {
+                TFSProgressUtil.checkCanceled(progressIndicator);
+                if (previous[0] != null) {
+                    consumer.consume(tfsChangeListBuilder.createChangeList(previous[0], changeSet.getIdAsInt(), changeSet.getDate()));
+                }
+                previous[0] = changeSet;
+            }
+        };
+
+        // Pages of a changeset range without a user filter can be answered from the changeset cache
+        final String rootPath = tfsRepositoryLocation.getRoot().getPath();
+        final String cacheScope = TFSChangesetCache.getScope(context, tfsRepositoryLocation.getWorkspace().getName());
+        final boolean useCache = cacheScope != null && StringUtils.isEmpty(user) &&
+                versionFrom.getType() == VersionSpec.Type.Changeset && getLastChangeset(versionTo) > 0;
+        final TFSChangesetCache changesetCache = useCache ? vcs.getChangesetCache() : null;
+        if (useCache && versionTo.getType() == VersionSpec.Type.Latest) {
+            changesetCache.refresh(context, cacheScope, rootPath, true, progressIndicator);
+        }
+
+        final int pageSize = getHistoryPageSize();
+        int count = 0;
+        VersionSpec pageEnd = versionTo;
+        while (true) {
+            final int stopAfter = maxCount > 0 ? Math.min(pageSize, maxCount - count) : pageSize;
+            final VersionSpec.Range pageRange = new VersionSpec.Range(versionFrom, pageEnd);
+            List<ChangeSet> changeSets = useCache ? changesetCache.find(cacheScope, rootPath, true,
+                    getFirstChangeset(versionFrom), getLastChangeset(pageEnd), stopAfter) : null;
+            if (changeSets != null) {
+                logger.info(String.format("Using %d cached committed changes for range %s", changeSets.size(), pageRange.toString()));
+                for (final ChangeSet changeSet : changeSets) {
+                    handler.onItem(changeSet);
+                }
+            } else {
+                logger.info(String.format("Loading a page of %d committed changes for range %s", stopAfter, pageRange.toString()));
+                final HistoryCommand command = new HistoryCommand(context, rootPath, pageRange.toString(), stopAfter, true, user);
+                changeSets = TFSProgressUtil.runSynchronously(command, progressIndicator, handler);
+                if (useCache) {
+                    changesetCache.record(cacheScope, rootPath, true, getFirstChangeset(versionFrom), getLastChangeset(pageEnd),
+                            stopAfter, changeSets);
+                }
+            }
+            count += changeSets.size();
+
+            // A page that isn't full means the start of the range was reached
+            if (changeSets.size() < stopAfter || (maxCount > 0 && count >= maxCount)) {
+                break;
+            }
+            final int nextEnd = changeSets.get(changeSets.size() - 1).getIdAsInt() - 1;
+            if (nextEnd < getFirstChangeset(versionFrom)) {
+                break;
+            }
+            TFSProgressUtil.checkCanceled(progressIndicator);
+            pageEnd = VersionSpec.create(nextEnd);
+        }
 
         // no changesets were found with the parameters
-        if (changeSets.isEmpty()) {
-            logger.info(String.format("No changesets were found in history for the range %s and user %s"
-                    , range.toString(), settings.getUserFilter() == null ? StringUtils.EMPTY : settings.getUserFilter()));
+        if (previous[0] == null) {
+            logger.info(String.format("No changesets were found in history for the range %s and user %s", range.toString(), user));
             consumer.finished();
             return;
         }
 
-        final TFSChangeListBuilder tfsChangeListBuilder = new TFSChangeListBuilder(vcs, tfsRepositoryLocation.getWorkspace());
-        // list is in order of newest to oldest so we can assume the next checkin in the list is the actual previous checkin in time
-        for (int i = 0; i < changeSets.size() - 1; i++) {
-            consumer.consume(tfsChangeListBuilder.createChangeList(changeSets.get(i), changeSets.get(i + 1).getIdAsInt(), changeSets.get(i + 1).getDate()));
-        }
-        // this is the first checkin to the repo so there is no previous checkin to refer to
-        consumer.consume(tfsChangeListBuilder.createChangeList(changeSets.get(changeSets.size() - 1), 0, StringUtils.EMPTY));
+        // this is the last changeset that was read so there is no previous checkin to refer to
+        consumer.consume(tfsChangeListBuilder.createChangeList(previous[0], 0, StringUtils.EMPTY));
         consumer.finished();
     }
 
+    /**
+     * Returns the lowest changeset the range can reach, so that paging stops without asking for an empty range
+     */
+    private int getFirstChangeset(final VersionSpec versionFrom) {
+        return versionFrom.getType() == VersionSpec.Type.Changeset ? SystemHelper.toInt(versionFrom.getValue(), 1) : 1;
+    }
+
+    /**
+     * Returns the highest changeset the range can reach, LATEST for the latest version, or zero for a date
+     */
+    private int getLastChangeset(final VersionSpec versionTo) {
+        if (versionTo.getType() == VersionSpec.Type.Latest) {
+            return TFSChangesetCache.LATEST;
+        }
+        return versionTo.getType() == VersionSpec.Type.Changeset ? SystemHelper.toInt(versionTo.getValue(), 0) : 0;
+    }
+
+    private static int getHistoryPageSize() {
+        return Math.max(SystemHelper.toInt(System.getProperty(PROP_HISTORY_PAGE_SIZE), DEFAULT_HISTORY_PAGE_SIZE), 2);
+    }
+
     public List<TFSChangeList> getCommittedChanges(final ChangeBrowserSettings settings,
                                                    final RepositoryLocation location,
                                                    final int maxCount) throws VcsException {
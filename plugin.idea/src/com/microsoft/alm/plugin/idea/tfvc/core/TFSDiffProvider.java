@@ -30,16 +30,12 @@ import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.microsoft.alm.plugin.context.ServerContext;
-import com.microsoft.alm.plugin.context.rest.VersionControlRecursionTypeCaseSensitive;
 import com.microsoft.alm.plugin.external.models.Workspace;
 import com.microsoft.alm.plugin.external.utils.CommandUtils;
 import com.microsoft.alm.plugin.idea.common.services.LocalizationServiceImpl;
 import com.microsoft.alm.plugin.idea.tfvc.core.revision.TFSContentRevision;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsFileUtil;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsRevisionNumber;
-import com.microsoft.alm.sourcecontrol.webapi.model.TfvcItem;
-import com.microsoft.alm.sourcecontrol.webapi.model.TfvcVersionDescriptor;
-import com.microsoft.alm.sourcecontrol.webapi.model.TfvcVersionType;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -48,6 +44,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 public class TFSDiffProvider implements DiffProvider {
@@ -55,8 +52,10 @@ public class TFSDiffProvider implements DiffProvider {
     private static final int MINIMAL_WAIT_FOR_RETRY = 60 * 1000;
 
     private final Project project;
+    private final TFSItemVersionResolver versionResolver = new TFSItemVersionResolver();
     private List<Workspace.Mapping> mappings;
     private Calendar lastUpdated;
+    private long mappingsRevision;
 
     public TFSDiffProvider(@NotNull final Project project) {
         this.project = project;
@@ -143,30 +142,55 @@ public class TFSDiffProvider implements DiffProvider {
      * @return
      */
     private VcsRevisionNumber getRevisionNumber(final String filePath, final String fileName) {
-        final TfvcVersionDescriptor versionDescriptor = new TfvcVersionDescriptor();
-        versionDescriptor.setVersionType(TfvcVersionType.LATEST);
-        final ServerContext context = TFSVcs.getInstance(project).getServerContext(true);
-        final List<TfvcItem> item = context.getTfvcHttpClient().getItems(context.getTeamProjectReference().getId(),
-                TfsFileUtil.translateLocalItemToServerItem(filePath, getUpdatedMappings()),
-                VersionControlRecursionTypeCaseSensitive.NONE, versionDescriptor);
+        final String serverPath = getServerPath(filePath);
+        if (StringUtils.isEmpty(serverPath)) {
+            return VcsRevisionNumber.NULL;
+        }
 
-        if (!item.isEmpty() && item.get(0) != null) {
-            return new TfsRevisionNumber(item.get(0).getChangesetVersion(), fileName, item.get(0).getChangeDate().toString());
+        final ServerContext context = TFSVcs.getInstance(project).getServerContext(true);
+        final TFSItemVersionResolver.ItemVersion version =
+                versionResolver.resolve(context, Collections.singletonList(serverPath)).get(serverPath);
+        if (version != null) {
+            return createRevisionNumber(version, fileName);
         }
         return VcsRevisionNumber.NULL;
     }
 
+    private TfsRevisionNumber createRevisionNumber(final TFSItemVersionResolver.ItemVersion version, final String fileName) {
+        return new TfsRevisionNumber(version.getChangeset(), fileName, version.getChangeDate());
+    }
+
+    /**
+     * Forgets the cached latest versions of the files, call this when new changes have been checked in
+     */
+    public void invalidateLatestVersions() {
+        versionResolver.invalidate();
+    }
+
+    /**
+     * Translates a local path to a server path using the cached workspace mappings
+     *
+     * @param localPath
+     * @return the server path or null if the path is not mapped
+     */
+    @Nullable
+    public String getServerPath(final String localPath) {
+        return TfsFileUtil.translateLocalItemToServerItem(localPath, getUpdatedMappings());
+    }
+
     /**
      * Gets the mappings from the current workspaces based on the last minute. We want to cache this information
      * because sometimes revision numbers are retrieved for all files in a repo at once and if we resolve the workspace
      * mappings every time the performance is horrible
      * <p>
-     * The mappings will update if more than a minute is passed to make sure the mapping is up-to-date
+     * The mappings will update if more than a minute is passed to make sure the mapping is up-to-date, or right away
+     * if the mappings were changed in the workspace dialog
      *
      * @return
      */
     private List<Workspace.Mapping> getUpdatedMappings() {
-        if (mappings == null || lastUpdated == null || (Calendar.getInstance().getTimeInMillis() - lastUpdated.getTimeInMillis() > MINIMAL_WAIT_FOR_RETRY)) {
+        if (mappings == null || lastUpdated == null || mappingsRevision != TfsFileUtil.getMappingsRevision()
+                || (Calendar.getInstance().getTimeInMillis() - lastUpdated.getTimeInMillis() > MINIMAL_WAIT_FOR_RETRY)) {
             updateMappings();
         }
         return mappings;
@@ -175,11 +199,15 @@ public class TFSDiffProvider implements DiffProvider {
     /**
      * Updates the cached mappings
      * <p>
-     * TODO: call this from places where we know a mapping change has occurred
+     * The workspace dialog calls TfsFileUtil.invalidateMappings when it changes the mappings, which makes the next
+     * translation call this
      */
     public void updateMappings() {
+        mappingsRevision = TfsFileUtil.getMappingsRevision();
         final Workspace workspace = CommandUtils.getPartialWorkspace(project);
         mappings = workspace.getMappings();
         lastUpdated = Calendar.getInstance();
+        // The workspace may be different now so the versions cached for it are no longer useful
+        versionResolver.invalidate();
     }
 }
\ No newline at end of file
@@ -76,6 +76,7 @@ public class TFSFileListener extends VcsVFSListener {
                 public void run() {
                     ProgressManager.getInstance().getProgressIndicator().setIndeterminate(true);
                     pendingChanges.addAll(CommandUtils.getStatusForFiles(TFSVcs.getInstance(myProject).getServerContext(true), filePaths));
+                    TFSVcs.getInstance(myProject).getPendingChangeIndex().update(filePaths, pendingChanges);
                 }
             }, TfPluginBundle.message(TfPluginBundle.KEY_TFVC_ADD_SCHEDULING), false, myProject);
 
@@ -177,9 +178,13 @@ public class TFSFileListener extends VcsVFSListener {
 
         // Refreshes the files so that the changes show up in the Local Changes tab
         final Collection<FilePath> invalidate = new ArrayList<FilePath>(movedFiles.size());
+        final List<String> movedPaths = new ArrayList<String>(movedFiles.size() * 2);
         for (final MovedFileInfo info : movedFiles) {
             invalidate.add(VcsUtil.getFilePath(info.myOldPath));
+            movedPaths.add(info.myOldPath);
+            movedPaths.add(info.myNewPath);
         }
+        TFSPendingChangeIndex.invalidate(TFSVcs.getInstance(myProject), movedPaths);
         TfsFileUtil.markDirtyRecursively(myProject, invalidate);
 
         if (!errors.isEmpty()) {
@@ -3,25 +3,32 @@
 
 package com.microsoft.alm.plugin.idea.tfvc.core;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcsHelper;
 import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.VcsShowConfirmationOption;
 import com.intellij.openapi.vfs.LocalFileOperationsHandler;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ThrowableConsumer;
+import com.microsoft.alm.common.utils.SystemHelper;
 import com.microsoft.alm.helpers.Path;
 import com.microsoft.alm.plugin.external.models.PendingChange;
 import com.microsoft.alm.plugin.external.models.ServerStatusType;
+import com.microsoft.alm.plugin.external.utils.BatchHelper;
 import com.microsoft.alm.plugin.external.utils.CommandUtils;
 import com.microsoft.alm.plugin.idea.common.utils.VcsHelper;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.ServerStatus;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.StatusProvider;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.StatusVisitor;
+import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsFileUtil;
+import com.microsoft.alm.plugin.idea.tfvc.core.tfs.VersionControlPath;
 import com.microsoft.alm.plugin.idea.tfvc.exceptions.TfsException;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
@@ -32,23 +39,116 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Listener that intercepts file system actions and executes the appropriate TFVC command if needed
+ * <p/>
+ * The pending changes of a file that is deleted, renamed or moved are answered from the {@link TFSPendingChangeIndex}
+ * when it knows them. Otherwise the status of the file is read, and when more files in the same folder follow right
+ * after it (like when deleting or moving a package) the status of the folder is read once and used for the rest of them.
+ * <p/>
+ * The IDE always deletes the file from disk itself, and the undo and TFVC delete that the pending changes call for are
+ * queued instead of being run one file at a time on the IDE's file operation thread. The queue is flushed
+ * {@link #PROP_BATCH_DELAY_MILLIS} after the first delete was queued, or as soon as it holds a full batch, and then all
+ * of the undos and the deletes of each workspace are run as one command per batch. A file operation on a path that has a
+ * queued delete flushes the queue first.
+ * <p/>
+ * Renames still have to be done by the time the IDE is told about them, so each one runs its own rename command.
  */
 public class TFSFileSystemListener implements LocalFileOperationsHandler, Disposable {
     public static final Logger logger = LoggerFactory.getLogger(TFSFileSystemListener.class);
 
+    public static final String PROP_BATCH_DELAY_MILLIS = "com.microsoft.alm.plugin.tfvc.fileOperationBatchMillis";
+    private static final long DEFAULT_BATCH_DELAY_MILLIS = 300L;
+
+    /**
+     * A file or folder that has been deleted from disk but whose pending changes haven't been updated yet
+     */
+    private static class QueuedDelete {
+        private final TFSVcs vcs;
+        private final String path;
+        private final boolean isDirectory;
+        private final boolean undo;
+        // What to pass to the delete command, and the workspace to run it in (null for the one of the path).
+        // The item is null when the file only needs its changes undone.
+        private final String itemToDelete;
+        private final String workspace;
+
+        public QueuedDelete(final TFSVcs vcs, final String path, final boolean isDirectory, final boolean undo,
+                            final String itemToDelete, final String workspace) {
+            this.vcs = vcs;
+            this.path = path;
+            this.isDirectory = isDirectory;
+            this.undo = undo;
+            this.itemToDelete = itemToDelete;
+            this.workspace = workspace;
+        }
+    }
+
+    /**
+     * The status of a folder that files are being deleted, renamed or moved out of. The paths that have been changed
+     * since the status was read are no longer answered from it.
+     */
+    private static class FolderStatus {
+        private final TFSVcs vcs;
+        private final String folder;
+        private final List<PendingChange> changes;
+        private final Set<String> changedPaths = new HashSet<String>();
+        private long lastUsedTime;
+
+        public FolderStatus(final TFSVcs vcs, final String folder, final List<PendingChange> changes) {
+            this.vcs = vcs;
+            this.folder = folder;
+            this.changes = changes;
+            this.lastUsedTime = System.currentTimeMillis();
+        }
+    }
+
+    private final long batchDelayMillis;
+    private final ScheduledExecutorService executor;
+
+    private final Object flushLock = new Object();
+    // The fields below are guarded by queuedDeletes
+    private final Map<String, QueuedDelete> queuedDeletes = new LinkedHashMap<String, QueuedDelete>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    // The fields below are guarded by this
+    private FolderStatus folderStatus;
+    private String lastFolder;
+    private long lastFolderTime;
+
     public TFSFileSystemListener() {
+        this(getBatchDelayMillis());
+    }
+
+    @VisibleForTesting
+    TFSFileSystemListener(final long batchDelayMillis) {
+        this.batchDelayMillis = batchDelayMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TFSFileOperations-%d").build());
         LocalFileSystem.getInstance().registerAuxiliaryFileOperationsHandler(this);
     }
 
+    private static long getBatchDelayMillis() {
+        return Math.max(SystemHelper.toLong(System.getProperty(PROP_BATCH_DELAY_MILLIS), DEFAULT_BATCH_DELAY_MILLIS), 0L);
+    }
+
     @Override
     public void dispose() {
         LocalFileSystem.getInstance().unregisterAuxiliaryFileOperationsHandler(this);
+        // don't lose the deletes that are still queued
+        flush();
+        executor.shutdown();
     }
 
     @Override
@@ -67,18 +167,178 @@ public class TFSFileSystemListener implements LocalFileOperationsHandler, Dispos
             return false;
         }
 
-        logger.info("Deleting file with TFVC: " + virtualFile.getPath());
-        final List<PendingChange> pendingChanges = new ArrayList<PendingChange>();
+        final String path = virtualFile.getPath();
+        final String key = TFSPendingChangeIndex.normalize(path);
+        synchronized (queuedDeletes) {
+            if (queuedDeletes.containsKey(key)) {
+                logger.info("File is already queued to be deleted with TFVC: " + path);
+                return false;
+            }
+        }
+
+        logger.info("Deleting file with TFVC: " + path);
+        final Project currentProject = vcs.getProject();
+        final List<PendingChange> pendingChanges = new ArrayList<PendingChange>(getStatus(vcs, virtualFile));
+
+        final List<String> filesToUndo = new ArrayList<String>();
+        final Map<String, List<String>> filesToDeleteByWorkspace = new LinkedHashMap<String, List<String>>();
+        planDelete(currentProject, path, pendingChanges, filesToUndo, filesToDeleteByWorkspace);
+        markChanged(path);
+
+        if (!filesToUndo.isEmpty() || !filesToDeleteByWorkspace.isEmpty()) {
+            String itemToDelete = null;
+            String workspace = null;
+            if (!filesToDeleteByWorkspace.isEmpty()) {
+                final Map.Entry<String, List<String>> delete = filesToDeleteByWorkspace.entrySet().iterator().next();
+                itemToDelete = delete.getValue().get(0);
+                workspace = delete.getKey();
+            }
+            queueDelete(key, new QueuedDelete(vcs, path, virtualFile.isDirectory(), !filesToUndo.isEmpty(),
+                    itemToDelete, workspace));
+        }
+
+        // the IDE deletes the file from disk right away, and TFVC is told about it when the queue is flushed
+        return false;
+    }
+
+    private void queueDelete(final String key, final QueuedDelete queuedDelete) {
+        synchronized (queuedDeletes) {
+            queuedDeletes.put(key, queuedDelete);
+            if (queuedDeletes.size() >= BatchHelper.MAX_BATCH_SIZE) {
+                // a full batch doesn't wait for the rest of the delay
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                }
+                scheduledFlush = executor.schedule(createFlushTask(), 0, TimeUnit.MILLISECONDS);
+            } else if (scheduledFlush == null) {
+                scheduledFlush = executor.schedule(createFlushTask(), batchDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Flushes the queue if one of the paths is, contains or is under a path that is queued to be deleted, so that the
+     * file operation on it doesn't race with the delete
+     */
+    private void flushIfQueued(final String... paths) {
+        synchronized (queuedDeletes) {
+            boolean queued = false;
+            for (final String path : paths) {
+                final String key = TFSPendingChangeIndex.normalize(path);
+                for (final String queuedKey : queuedDeletes.keySet()) {
+                    if (isSameOrUnder(key, queuedKey) || isSameOrUnder(queuedKey, key)) {
+                        queued = true;
+                        break;
+                    }
+                }
+            }
+            if (!queued) {
+                return;
+            }
+        }
+        flush();
+    }
+
+    private static boolean isSameOrUnder(final String key, final String parentKey) {
+        return key.equals(parentKey) || key.startsWith(StringUtils.removeEnd(parentKey, "/") + "/");
+    }
+
+    private Runnable createFlushTask() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Runs the queued deletes now, on the calling thread
+     */
+    @VisibleForTesting
+    void flush() {
+        synchronized (flushLock) {
+            final Map<TFSVcs, List<QueuedDelete>> deletesByVcs = new LinkedHashMap<TFSVcs, List<QueuedDelete>>();
+            synchronized (queuedDeletes) {
+                for (final QueuedDelete queuedDelete : queuedDeletes.values()) {
+                    if (!deletesByVcs.containsKey(queuedDelete.vcs)) {
+                        deletesByVcs.put(queuedDelete.vcs, new ArrayList<QueuedDelete>());
+                    }
+                    deletesByVcs.get(queuedDelete.vcs).add(queuedDelete);
+                }
+                queuedDeletes.clear();
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+            }
+
+            for (final Map.Entry<TFSVcs, List<QueuedDelete>> entry : deletesByVcs.entrySet()) {
+                runDeletes(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Runs the queued undos and deletes of the workspaces with as few commands as possible
+     */
+    private void runDeletes(final TFSVcs vcs, final List<QueuedDelete> deletes) {
         final Project currentProject = vcs.getProject();
+        final List<String> paths = new ArrayList<String>(deletes.size());
+        final List<String> filesToUndo = new ArrayList<String>();
+        final Map<String, List<String>> filesToDeleteByWorkspace = new LinkedHashMap<String, List<String>>();
+        for (final QueuedDelete queuedDelete : deletes) {
+            paths.add(queuedDelete.path);
+            if (queuedDelete.undo) {
+                filesToUndo.add(queuedDelete.path);
+            }
+            if (queuedDelete.itemToDelete != null) {
+                addToWorkspace(filesToDeleteByWorkspace, queuedDelete.workspace, queuedDelete.itemToDelete);
+            }
+        }
+        logger.info(String.format("Updating the pending changes of %d deleted files with TFVC", paths.size()));
+
+        try {
+            for (final List<String> batch : BatchHelper.splitIntoBatches(filesToUndo)) {
+                logger.info("Reverting pending changes for delete candidates");
+                CommandUtils.undoLocalFiles(vcs.getServerContext(true), batch);
+            }
+            for (final Map.Entry<String, List<String>> entry : filesToDeleteByWorkspace.entrySet()) {
+                for (final List<String> batch : BatchHelper.splitIntoBatches(entry.getValue())) {
+                    CommandUtils.deleteFiles(vcs.getServerContext(true), batch, entry.getKey(), true);
+                }
+            }
+        } catch (final Throwable t) {
+            // an undo may have put files back on disk that weren't deleted after all, so the IDE has to look again
+            logger.warn("Error while deleting files with TFVC", t);
+            AbstractVcsHelper.getInstance(currentProject).showError(new VcsException(t), TFSVcs.TFVC_NAME);
+            final List<File> files = new ArrayList<File>(paths.size());
+            for (final String path : paths) {
+                files.add(new File(path));
+            }
+            LocalFileSystem.getInstance().refreshIoFiles(files, true, false, null);
+        }
 
-        pendingChanges.addAll(CommandUtils.getStatusForFiles(vcs.getServerContext(true),
-                Arrays.asList(virtualFile.getPath())));
+        // the pending changes of the files have changed, so the index needs to read them again
+        TFSPendingChangeIndex.invalidate(vcs, paths);
+        final List<FilePath> dirtyPaths = new ArrayList<FilePath>(deletes.size());
+        for (final QueuedDelete queuedDelete : deletes) {
+            dirtyPaths.add(VersionControlPath.getFilePath(queuedDelete.path, queuedDelete.isDirectory));
+        }
+        TfsFileUtil.markDirtyRecursively(currentProject, dirtyPaths);
+    }
 
-        // if 0 pending changes then just delete the file and return
+    /**
+     * Works out what a delete needs from the pending changes of the file: an undo, a TFVC delete, or only letting the
+     * IDE delete the file from disk
+     */
+    private void planDelete(final Project currentProject, final String path, final List<PendingChange> pendingChanges,
+                            final List<String> filesToUndo, final Map<String, List<String>> filesToDeleteByWorkspace) {
+        // if 0 pending changes then just delete the file
         if (pendingChanges.isEmpty()) {
-            logger.info("No changes to file so deleting though TFVC");
-            CommandUtils.deleteFiles(vcs.getServerContext(true), Arrays.asList(virtualFile.getPath()), null, true);
-            return true;
+            logger.info("No changes to file so deleting though TFVC: " + path);
+            addToWorkspace(filesToDeleteByWorkspace, null, path);
+            return;
         }
 
         // start with assuming you don't need to revert but look at the pending changes to see if that's incorrect
@@ -158,19 +418,36 @@ public class TFSFileSystemListener implements LocalFileOperationsHandler, Dispos
         }
 
         if (revert.get()) {
-            logger.info("Reverting pending changes for delete candidate");
-            CommandUtils.undoLocalFiles(vcs.getServerContext(true), Arrays.asList(virtualFile.getPath()));
+            filesToUndo.add(path);
         }
 
         if (success.get() && !isUndelete.get()) {
-            logger.info("Deleting file with TFVC after undoing pending changes");
-            // PendingChnages will always have at least 1 element or else we wouldn't have gotten this far
+            // PendingChanges will always have at least 1 element or else we wouldn't have gotten this far
             final String filePath = StringUtils.isNotEmpty(pendingChanges.get(0).getSourceItem()) ? pendingChanges.get(0).getSourceItem() : pendingChanges.get(0).getLocalItem();
-            CommandUtils.deleteFiles(vcs.getServerContext(true),
-                    Arrays.asList(filePath), pendingChanges.get(0).getWorkspace(), true);
+            addToWorkspace(filesToDeleteByWorkspace, pendingChanges.get(0).getWorkspace(), filePath);
+        }
+        logger.info("File will be deleted using TFVC: " + (success.get() && !isUndelete.get()) + " " + path);
+    }
+
+    private static void addToWorkspace(final Map<String, List<String>> filesByWorkspace, final String workspace, final String path) {
+        if (!filesByWorkspace.containsKey(workspace)) {
+            filesByWorkspace.put(workspace, new ArrayList<String>());
+        }
+        filesByWorkspace.get(workspace).add(path);
+    }
+
+    private static List<PendingChange> getChangesUnder(final List<PendingChange> pendingChanges, final String path) {
+        final String key = TFSPendingChangeIndex.normalize(path);
+        final List<PendingChange> changes = new ArrayList<PendingChange>();
+        for (final PendingChange pendingChange : pendingChanges) {
+            if (StringUtils.isNotEmpty(pendingChange.getLocalItem())) {
+                final String localKey = TFSPendingChangeIndex.normalize(pendingChange.getLocalItem());
+                if (localKey.equals(key) || localKey.startsWith(key + "/")) {
+                    changes.add(pendingChange);
+                }
+            }
         }
-        logger.info("File was deleted using TFVC: " + success.get());
-        return success.get();
+        return changes;
     }
 
     @Override
@@ -193,14 +470,24 @@ public class TFSFileSystemListener implements LocalFileOperationsHandler, Dispos
 
     @Override
     public boolean createFile(final VirtualFile virtualFile, final String s) throws IOException {
+        created(virtualFile, Path.combine(virtualFile.getPath(), s));
         return false;
     }
 
     @Override
     public boolean createDirectory(final VirtualFile virtualFile, final String s) throws IOException {
+        created(virtualFile, Path.combine(virtualFile.getPath(), s));
         return false;
     }
 
+    private void created(final VirtualFile parent, final String path) {
+        // a file that is created again must not be deleted by a queued delete
+        flushIfQueued(path);
+        // the new file isn't known to the index until its status is read
+        TFSPendingChangeIndex.invalidate(VcsHelper.getTFSVcsByPath(parent), ImmutableList.of(path));
+        markChanged(path);
+    }
+
     @Override
     public void afterDone(final ThrowableConsumer<LocalFileOperationsHandler, IOException> throwableConsumer) {
         // nothing to do
@@ -222,16 +509,16 @@ public class TFSFileSystemListener implements LocalFileOperationsHandler, Dispos
             return false;
         }
 
-        final Project currentProject = vcs.getProject();
         final String oldPath = oldFile.getPath();
         try {
+            // a queued delete of the same files has to be done first
+            flushIfQueued(oldPath, newPath);
+
             // a single file may have 0, 1, or 2 pending changes to it
             // 0 - file has not been touched in the local workspace
             // 1 - file has versioned OR unversioned changes
             // 2 - file has versioned AND unversioned changes (rare but can happen)
-            final List<PendingChange> pendingChanges = new ArrayList<PendingChange>(2);
-            pendingChanges.addAll(CommandUtils.getStatusForFiles(vcs.getServerContext(true),
-                    ImmutableList.of(oldPath)));
+            final List<PendingChange> pendingChanges = getStatus(vcs, oldFile);
 
             // ** Rename logic **
             // If 1 change and it's a candidate add that means it's a new unversioned file so rename thru the file system
@@ -243,6 +530,8 @@ public class TFSFileSystemListener implements LocalFileOperationsHandler, Dispos
             } else {
                 logger.info("Renaming file thru tf commandline");
                 CommandUtils.renameFile(vcs.getServerContext(true), oldPath, newPath);
+                TFSPendingChangeIndex.invalidate(vcs, ImmutableList.of(oldPath, newPath));
+                markChanged(oldPath, newPath);
                 return true;
             }
         } catch (Throwable t) {
@@ -250,4 +539,61 @@ public class TFSFileSystemListener implements LocalFileOperationsHandler, Dispos
             throw new IOException(t);
         }
     }
+
+    /**
+     * Gets the pending changes of the file, or of the folder and everything under it. They are answered from the
+     * pending change index when it knows them. Otherwise the status of the file is read, unless another file in the same
+     * folder was deleted, renamed or moved right before it. Then the status of the whole folder is read and used for the
+     * following files in that folder, as long as they keep coming within the batch delay.
+     */
+    private List<PendingChange> getStatus(final TFSVcs vcs, final VirtualFile file) {
+        final String path = file.getPath();
+        final TFSPendingChangeIndex index = vcs.getPendingChangeIndex();
+        if (index != null) {
+            final VirtualFile vcsRoot = ProjectLevelVcsManager.getInstance(vcs.getProject()).getVcsRootFor(file);
+            final List<PendingChange> changes = vcsRoot != null ? index.getKnownChanges(vcsRoot.getPath(), path) : null;
+            if (changes != null) {
+                return changes;
+            }
+        }
+
+        final String folder = StringUtils.substringBeforeLast(StringUtils.removeEnd(path, "/"), "/");
+        final String key = TFSPendingChangeIndex.normalize(path);
+        final boolean readFolder;
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            if (folderStatus != null && folderStatus.vcs == vcs && StringUtils.equals(folderStatus.folder, folder) &&
+                    now - folderStatus.lastUsedTime < batchDelayMillis && !folderStatus.changedPaths.contains(key)) {
+                folderStatus.lastUsedTime = now;
+                return getChangesUnder(folderStatus.changes, path);
+            }
+            readFolder = StringUtils.isNotEmpty(folder) && StringUtils.equals(lastFolder, folder) &&
+                    now - lastFolderTime < batchDelayMillis;
+            lastFolder = folder;
+            lastFolderTime = now;
+        }
+
+        if (!readFolder) {
+            return CommandUtils.getStatusForFiles(vcs.getServerContext(true), ImmutableList.of(path));
+        }
+
+        logger.info("Reading the status of the folder files are being changed in: " + folder);
+        final FolderStatus status = new FolderStatus(vcs, folder,
+                CommandUtils.getStatusForFiles(vcs.getServerContext(true), ImmutableList.of(folder)));
+        synchronized (this) {
+            folderStatus = status;
+        }
+        return getChangesUnder(status.changes, path);
+    }
+
+    /**
+     * Keeps the changed paths from being answered from a folder status that was read before the change
+     */
+    private synchronized void markChanged(final String... paths) {
+        if (folderStatus != null) {
+            for (final String path : paths) {
+                folderStatus.changedPaths.add(TFSPendingChangeIndex.normalize(path));
+            }
+        }
+    }
 }
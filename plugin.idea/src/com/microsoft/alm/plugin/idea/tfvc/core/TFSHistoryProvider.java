@@ -20,6 +20,9 @@
 package com.microsoft.alm.plugin.idea.tfvc.core;
 
 import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsConfiguration;
@@ -35,9 +38,11 @@ import com.intellij.openapi.vcs.history.VcsHistorySession;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ui.ColumnInfo;
+import com.microsoft.alm.plugin.context.RepositoryContext;
 import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.external.commands.HistoryCommand;
 import com.microsoft.alm.plugin.external.models.ChangeSet;
-import com.microsoft.alm.plugin.external.utils.CommandUtils;
+import com.microsoft.alm.plugin.external.parsers.OutputParser;
 import com.microsoft.alm.plugin.idea.tfvc.core.revision.TfsFileRevision;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -48,6 +53,7 @@ import org.slf4j.LoggerFactory;
 import javax.swing.JComponent;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TFSHistoryProvider implements VcsHistoryProvider {
     public static final Logger logger = LoggerFactory.getLogger(TFSHistoryProvider.class);
@@ -115,28 +121,114 @@ public class TFSHistoryProvider implements VcsHistoryProvider {
         };
     }
 
+    /**
+     * Streams the history to the partner so that the first revisions are shown while the rest are still being read.
+     * The partner is called on this thread as the revisions are parsed. Cancelling the progress indicator kills the
+     * history command. History that is already in the changeset cache is
+     * reported from there, after asking the server only for the changesets newer than the cached ones.
+     */
     public void reportAppendableHistory(final FilePath path, final VcsAppendableHistorySessionPartner partner) throws VcsException {
-        final VcsHistorySession session = createSessionFor(path);
-        partner.reportCreatedEmptySession((VcsAbstractHistorySession) session);
+        final ServerContext serverContext = TFSVcs.getInstance(project).getServerContext(true);
+        final TFSChangesetCache changesetCache = TFSVcs.getInstance(project).getChangesetCache();
+        final boolean isDirectory = path.isDirectory();
+        final int maxCount = getMaxCount(project);
+        final ProgressIndicator progressIndicator = ProgressManager.getInstance().getProgressIndicator();
+        final AtomicBoolean sessionCreated = new AtomicBoolean(false);
+        final List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
+        final OutputParser.ItemHandler<ChangeSet> handler = new OutputParser.ItemHandler<ChangeSet>() {
+            @Override
+            public void onItem(final ChangeSet changeSet) {
+                TFSProgressUtil.checkCanceled(progressIndicator);
+                changeSets.add(changeSet);
+                final TfsFileRevision revision = createRevision(project, path, changeSet);
+                if (sessionCreated.compareAndSet(false, true)) {
+                    // The newest revision is the first one returned
+                    partner.reportCreatedEmptySession(createSession(revision.getRevisionNumber(),
+                            new ArrayList<TfsFileRevision>(), !isDirectory));
+                }
+                partner.acceptRevision(revision);
+            }
+        };
+
+        final String cacheScope = getCacheScope(project, serverContext);
+        try {
+            List<ChangeSet> cachedChangeSets = null;
+            if (cacheScope != null) {
+                changesetCache.refresh(serverContext, cacheScope, path.getPath(), isDirectory, progressIndicator);
+                cachedChangeSets = changesetCache.find(cacheScope, path.getPath(), isDirectory, 1,
+                        TFSChangesetCache.LATEST, maxCount);
+            }
+            if (cachedChangeSets != null) {
+                for (final ChangeSet changeSet : cachedChangeSets) {
+                    handler.onItem(changeSet);
+                }
+            } else {
+                final HistoryCommand command = new HistoryCommand(serverContext, path.getPath(), null,
+                        maxCount, isDirectory, null, false);
+                TFSProgressUtil.runSynchronously(command, progressIndicator, handler);
+                if (cacheScope != null) {
+                    changesetCache.record(cacheScope, path.getPath(), isDirectory, 1, TFSChangesetCache.LATEST,
+                            maxCount, changeSets);
+                }
+            }
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new VcsException(e);
+        }
+
+        if (!sessionCreated.get()) {
+            partner.reportCreatedEmptySession(null);
+        }
     }
 
     public static List<TfsFileRevision> getRevisions(final Project project,
                                                      final ServerContext serverContext,
                                                      final FilePath localPath,
                                                      final boolean isDirectory) {
-        final VcsConfiguration vcsConfiguration = VcsConfiguration.getInstance(project);
-        final int maxCount = vcsConfiguration.LIMIT_HISTORY ? vcsConfiguration.MAXIMUM_HISTORY_ROWS : Integer.MAX_VALUE;
-        final List<ChangeSet> changesets = CommandUtils.getHistoryCommand(serverContext, localPath.getPath(), null, maxCount, isDirectory, null, false);
+        final String cacheScope = getCacheScope(project, serverContext);
+        final ProgressIndicator progressIndicator = ProgressManager.getInstance().getProgressIndicator();
+        final List<ChangeSet> changesets;
+        if (cacheScope != null) {
+            changesets = TFSVcs.getInstance(project).getChangesetCache().getHistory(serverContext, cacheScope,
+                    localPath.getPath(), isDirectory, 1, TFSChangesetCache.LATEST, getMaxCount(project), progressIndicator);
+        } else {
+            final HistoryCommand command = new HistoryCommand(serverContext, localPath.getPath(), null,
+                    getMaxCount(project), isDirectory, null, false);
+            changesets = TFSProgressUtil.runSynchronously(command, progressIndicator, new OutputParser.ItemHandler<ChangeSet>() {
+                @Override
+                public void onItem(final ChangeSet item) {
+                    // The revisions are created once they are all read
+                }
+            });
+        }
 
         final List<TfsFileRevision> revisions = new ArrayList<TfsFileRevision>(changesets.size());
         for (final ChangeSet changeSet : changesets) {
-            revisions.add(new TfsFileRevision(project, localPath, changeSet.getIdAsInt(),
-                    changeSet.getCommitter(), changeSet.getComment(), changeSet.getDate()));
+            revisions.add(createRevision(project, localPath, changeSet));
         }
 
         return revisions;
     }
 
+    /**
+     * Gets the scope that the history of the workspace is cached under, or null if the workspace isn't known
+     */
+    private static String getCacheScope(final Project project, final ServerContext serverContext) {
+        final RepositoryContext repositoryContext = TFSVcs.getInstance(project).getServerContextResolver().getRepositoryContext();
+        return TFSChangesetCache.getScope(serverContext, repositoryContext != null ? repositoryContext.getName() : null);
+    }
+
+    private static TfsFileRevision createRevision(final Project project, final FilePath localPath, final ChangeSet changeSet) {
+        return new TfsFileRevision(project, localPath, changeSet.getIdAsInt(),
+                changeSet.getCommitter(), changeSet.getComment(), changeSet.getDate());
+    }
+
+    private static int getMaxCount(final Project project) {
+        final VcsConfiguration vcsConfiguration = VcsConfiguration.getInstance(project);
+        return vcsConfiguration.LIMIT_HISTORY ? vcsConfiguration.MAXIMUM_HISTORY_ROWS : Integer.MAX_VALUE;
+    }
+
     public boolean supportsHistoryForDirectories() {
         return true;
     }
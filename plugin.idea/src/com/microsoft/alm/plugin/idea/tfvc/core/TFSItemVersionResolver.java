@@ -0,0 +1,341 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.SettableFuture;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
+import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.context.rest.VersionControlRecursionTypeCaseSensitive;
+import com.microsoft.alm.sourcecontrol.webapi.model.TfvcItem;
+import com.microsoft.alm.sourcecontrol.webapi.model.TfvcVersionDescriptor;
+import com.microsoft.alm.sourcecontrol.webapi.model.TfvcVersionType;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the latest changeset and change date of server items for the diff provider.
+ * <p/>
+ * Asking the server about one item at a time makes checking a folder of files cost a round trip per file. Instead,
+ * items are looked up by folder: a single request with one level of recursion returns the latest version of every
+ * item in the folder, and the results are kept for a short time so that the rest of the files in the folder are
+ * answered from memory. When a lookup spans more than {@link #MAX_FOLDER_REQUESTS} folders, one request with full
+ * recursion on their common parent folder is made instead, as long as none of the folders is more than
+ * {@link #MAX_FULL_RECURSION_LEVELS} levels below it so that the request can't list a whole tree. Concurrent lookups of
+ * the same folder share one request.
+ * <p/>
+ * A lookup of a single item that isn't cached lists its folder as well, since the diff provider asks for the files
+ * one at a time and the other files in the folder are usually asked for right after it.
+ */
+public class TFSItemVersionResolver {
+    private static final Logger logger = LoggerFactory.getLogger(TFSItemVersionResolver.class);
+
+    public static final String PROP_CACHE_SECONDS = "com.microsoft.alm.plugin.tfvc.latestVersionCacheSeconds";
+    private static final long DEFAULT_CACHE_SECONDS = 30L;
+    @VisibleForTesting
+    static final int MAX_FOLDER_REQUESTS = 8;
+    @VisibleForTesting
+    static final int MAX_FULL_RECURSION_LEVELS = 3;
+    private static final int MAX_CACHED_FOLDERS = 5000;
+    // A full recursion request is never made on a folder above the team projects
+    private static final int MIN_FULL_RECURSION_DEPTH = 2;
+    private static final String SEPARATOR = "/";
+
+    /**
+     * The latest version of a server item
+     */
+    public static class ItemVersion {
+        private final int changeset;
+        private final String changeDate;
+
+        public ItemVersion(final int changeset, final String changeDate) {
+            this.changeset = changeset;
+            this.changeDate = changeDate;
+        }
+
+        public int getChangeset() {
+            return changeset;
+        }
+
+        public String getChangeDate() {
+            return changeDate;
+        }
+    }
+
+    /**
+     * Lists the latest versions of the items under a server path
+     */
+    @VisibleForTesting
+    interface ItemSource {
+        List<TfvcItem> getItems(final String scopePath, final VersionControlRecursionTypeCaseSensitive recursionLevel);
+    }
+
+    /**
+     * The items directly in a folder, keyed by their lower case server path
+     */
+    private static class FolderListing {
+        private final long fetchedTime;
+        private final Map<String, ItemVersion> items = new HashMap<String, ItemVersion>();
+
+        public FolderListing(final long fetchedTime) {
+            this.fetchedTime = fetchedTime;
+        }
+    }
+
+    private final long cacheMilliseconds;
+    private final ConcurrentMap<String, FolderListing> folders = new ConcurrentHashMap<String, FolderListing>();
+    private final ConcurrentMap<String, SettableFuture<Void>> requestsInFlight = new ConcurrentHashMap<String, SettableFuture<Void>>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public TFSItemVersionResolver() {
+        this(TimeUnit.SECONDS.toMillis(getCacheSeconds()));
+    }
+
+    @VisibleForTesting
+    TFSItemVersionResolver(final long cacheMilliseconds) {
+        this.cacheMilliseconds = cacheMilliseconds;
+    }
+
+    private static long getCacheSeconds() {
+        return Math.max(SystemHelper.toLong(System.getProperty(PROP_CACHE_SECONDS), DEFAULT_CACHE_SECONDS), 0L);
+    }
+
+    /**
+     * Returns the latest versions of the given server items. Items that don't exist on the server are left out of
+     * the map that is returned.
+     */
+    public Map<String, ItemVersion> resolve(final ServerContext context, final Collection<String> serverPaths) {
+        ArgumentHelper.checkNotNull(context, "context");
+        final TfvcVersionDescriptor versionDescriptor = new TfvcVersionDescriptor();
+        versionDescriptor.setVersionType(TfvcVersionType.LATEST);
+        return resolve(new ItemSource() {
+            @Override
+            public List<TfvcItem> getItems(final String scopePath, final VersionControlRecursionTypeCaseSensitive recursionLevel) {
+                return context.getTfvcHttpClient().getItems(context.getTeamProjectReference().getId(),
+                        scopePath, recursionLevel, versionDescriptor);
+            }
+        }, serverPaths);
+    }
+
+    @VisibleForTesting
+    Map<String, ItemVersion> resolve(final ItemSource source, final Collection<String> serverPaths) {
+        ArgumentHelper.checkNotNull(serverPaths, "serverPaths");
+        final Map<String, ItemVersion> versions = new HashMap<String, ItemVersion>(serverPaths.size());
+        final Map<String, String> foldersToFetch = new LinkedHashMap<String, String>();
+        final List<String> pathsToResolve = new ArrayList<String>();
+        final long now = System.currentTimeMillis();
+
+        for (final String serverPath : serverPaths) {
+            final String folder = getParent(serverPath);
+            final FolderListing listing = folders.get(getKey(folder));
+            if (listing != null && now - listing.fetchedTime < cacheMilliseconds) {
+                hitCount.incrementAndGet();
+                addVersion(versions, serverPath, listing);
+            } else {
+                missCount.incrementAndGet();
+                foldersToFetch.put(getKey(folder), folder);
+                pathsToResolve.add(serverPath);
+            }
+        }
+
+        if (!foldersToFetch.isEmpty()) {
+            final String commonFolder = getCommonFolder(foldersToFetch.values());
+            if (foldersToFetch.size() > MAX_FOLDER_REQUESTS && getDepth(commonFolder) >= MIN_FULL_RECURSION_DEPTH &&
+                    getMaxDepth(foldersToFetch.values()) - getDepth(commonFolder) <= MAX_FULL_RECURSION_LEVELS) {
+                fetch(source, commonFolder, VersionControlRecursionTypeCaseSensitive.FULL);
+            } else {
+                for (final String folder : foldersToFetch.values()) {
+                    fetch(source, folder, VersionControlRecursionTypeCaseSensitive.ONE_LEVEL);
+                }
+            }
+
+            for (final String serverPath : pathsToResolve) {
+                final FolderListing listing = folders.get(getKey(getParent(serverPath)));
+                if (listing != null) {
+                    addVersion(versions, serverPath, listing);
+                }
+            }
+        }
+
+        if (!pathsToResolve.isEmpty()) {
+            logger.info(String.format("resolve: %d of %d items were not cached (requests=%d hits=%d misses=%d)",
+                    pathsToResolve.size(), serverPaths.size(), requestCount.get(), hitCount.get(), missCount.get()));
+        }
+        return versions;
+    }
+
+    /**
+     * Forgets all of the versions, so that the next lookups go to the server
+     */
+    public void invalidate() {
+        folders.clear();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private void addVersion(final Map<String, ItemVersion> versions, final String serverPath, final FolderListing listing) {
+        final ItemVersion version = listing.items.get(getKey(serverPath));
+        if (version != null) {
+            versions.put(serverPath, version);
+        }
+    }
+
+    /**
+     * Gets the items under the folder from the server and caches them. If the same request is already being made
+     * by another thread, this waits for that request to finish instead.
+     */
+    private void fetch(final ItemSource source, final String folder, final VersionControlRecursionTypeCaseSensitive recursionLevel) {
+        final String requestKey = getKey(folder) + "|" + recursionLevel;
+        final SettableFuture<Void> request = SettableFuture.create();
+        final SettableFuture<Void> existingRequest = requestsInFlight.putIfAbsent(requestKey, request);
+        if (existingRequest != null) {
+            waitFor(existingRequest);
+            return;
+        }
+
+        try {
+            logger.info("fetch: getting the latest versions of " + folder + " with recursion " + recursionLevel);
+            requestCount.incrementAndGet();
+            List<TfvcItem> items;
+            try {
+                items = source.getItems(folder, recursionLevel);
+            } catch (final AssertionError e) {
+                // This is how the client reports a folder that doesn't exist on the server (like a new local folder)
+                logger.info("fetch: folder was not found on the server: " + folder);
+                items = new ArrayList<TfvcItem>();
+            }
+            store(folder, items, recursionLevel);
+            request.set(null);
+        } catch (final RuntimeException e) {
+            request.setException(e);
+            throw e;
+        } finally {
+            requestsInFlight.remove(requestKey, request);
+        }
+    }
+
+    private void waitFor(final SettableFuture<Void> request) {
+        try {
+            request.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void store(final String folder, final List<TfvcItem> items, final VersionControlRecursionTypeCaseSensitive recursionLevel) {
+        final long now = System.currentTimeMillis();
+        final Map<String, FolderListing> listings = new HashMap<String, FolderListing>();
+        listings.put(getKey(folder), new FolderListing(now));
+        if (recursionLevel == VersionControlRecursionTypeCaseSensitive.FULL) {
+            // Every folder under the scope is complete, including the ones without any items in them
+            for (final TfvcItem item : items) {
+                if (item.isFolder()) {
+                    listings.put(getKey(item.getPath()), new FolderListing(now));
+                }
+            }
+        }
+
+        for (final TfvcItem item : items) {
+            // The scope folder is returned as well, but its parent is not complete so it is skipped
+            final FolderListing listing = listings.get(getKey(getParent(item.getPath())));
+            if (listing != null && !StringUtils.equalsIgnoreCase(item.getPath(), folder)) {
+                listing.items.put(getKey(item.getPath()), new ItemVersion(item.getChangesetVersion(),
+                        item.getChangeDate() != null ? item.getChangeDate().toString() : StringUtils.EMPTY));
+            }
+        }
+
+        if (folders.size() + listings.size() > MAX_CACHED_FOLDERS) {
+            removeExpired(now);
+        }
+        folders.putAll(listings);
+    }
+
+    private void removeExpired(final long now) {
+        final Iterator<FolderListing> iterator = folders.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().fetchedTime >= cacheMilliseconds) {
+                iterator.remove();
+            }
+        }
+        if (folders.size() > MAX_CACHED_FOLDERS) {
+            folders.clear();
+        }
+    }
+
+    @VisibleForTesting
+    static String getParent(final String serverPath) {
+        final String path = StringUtils.removeEnd(serverPath, SEPARATOR);
+        final int index = path.lastIndexOf(SEPARATOR);
+        return index > 0 ? path.substring(0, index) : path;
+    }
+
+    @VisibleForTesting
+    static String getCommonFolder(final Collection<String> folders) {
+        String common = null;
+        for (final String folder : folders) {
+            if (common == null) {
+                common = folder;
+                continue;
+            }
+            while (!StringUtils.equalsIgnoreCase(common, folder) &&
+                    !StringUtils.startsWithIgnoreCase(folder, common + SEPARATOR)) {
+                final String parent = getParent(common);
+                if (parent.equals(common)) {
+                    return common;
+                }
+                common = parent;
+            }
+        }
+        return common;
+    }
+
+    private static int getDepth(final String serverPath) {
+        return StringUtils.countMatches(StringUtils.removeEnd(serverPath, SEPARATOR), SEPARATOR);
+    }
+
+    private static int getMaxDepth(final Collection<String> serverPaths) {
+        int maxDepth = 0;
+        for (final String serverPath : serverPaths) {
+            maxDepth = Math.max(maxDepth, getDepth(serverPath));
+        }
+        return maxDepth;
+    }
+
+    private static String getKey(final String serverPath) {
+        return StringUtils.removeEnd(serverPath, SEPARATOR).toLowerCase();
+    }
+}
@@ -0,0 +1,476 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
+import com.intellij.vcsUtil.VcsUtil;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.DataStreamHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
+import com.microsoft.alm.plugin.external.models.PendingChange;
+import com.microsoft.alm.plugin.external.models.ServerStatusType;
+import com.microsoft.alm.plugin.external.utils.CommandUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Index of the pending changes in the workspaces of a project, keyed by local path.
+ * <p/>
+ * The change provider answers from the index wherever the status of a path can't have changed since it was last read,
+ * and only asks the command line for the paths that may have. Commands and file listeners invalidate the paths they
+ * touch, so those paths are always read again. The whole index is reconciled against a full status of each root in
+ * the background every so often, or when asked to, and is saved between sessions so that the Local Changes view can be
+ * filled in right away at startup while the first reconcile runs.
+ */
+public class TFSPendingChangeIndex {
+    private static final Logger logger = LoggerFactory.getLogger(TFSPendingChangeIndex.class);
+
+    public static final String PROP_RECONCILE_INTERVAL_MINUTES = "com.microsoft.alm.plugin.tfvc.pendingChangeReconcileMinutes";
+    private static final long DEFAULT_RECONCILE_INTERVAL_MINUTES = 10L;
+
+    private static final String INDEX_DIR_NAME = "tfvc-pending-changes";
+    private static final int FORMAT_VERSION = 3;
+
+    private final File file;
+    private final long reconcileInterval;
+    private final AtomicBoolean reconcileRunning = new AtomicBoolean(false);
+
+    // All of the fields below are guarded by this
+    private final TreeMap<String, List<PendingChange>> changesByPath = new TreeMap<String, List<PendingChange>>();
+    // Paths touched by a command or a listener since their status was last read
+    private final Set<String> stalePaths = new HashSet<String>();
+    // The time each root was last reconciled in this session
+    private final Map<String, Long> reconcileTimes = new HashMap<String, Long>();
+    // The roots that had been reconciled when the index was saved by the last session
+    private final Set<String> restoredRoots = new HashSet<String>();
+    private boolean reconcileRequested;
+    private boolean modified;
+
+    public TFSPendingChangeIndex(final Project project) {
+        this(new File(new File(PathManager.getSystemPath(), INDEX_DIR_NAME), project.getLocationHash() + ".dat"),
+                getReconcileIntervalFromProperties());
+    }
+
+    @VisibleForTesting
+    TFSPendingChangeIndex(final File file, final long reconcileInterval) {
+        ArgumentHelper.checkNotNull(file, "file");
+        this.file = file;
+        this.reconcileInterval = reconcileInterval;
+    }
+
+    private static long getReconcileIntervalFromProperties() {
+        final long minutes = SystemHelper.toLong(System.getProperty(PROP_RECONCILE_INTERVAL_MINUTES),
+                DEFAULT_RECONCILE_INTERVAL_MINUTES);
+        return Math.max(minutes, 1L) * 60L * 1000L;
+    }
+
+    /**
+     * Invalidates the paths in the index of the vcs, if there is one
+     */
+    public static void invalidate(final TFSVcs vcs, final Collection<String> paths) {
+        final TFSPendingChangeIndex index = vcs != null ? vcs.getPendingChangeIndex() : null;
+        if (index != null) {
+            index.invalidate(paths);
+        }
+    }
+
+    /**
+     * Returns true if the index holds the changes for the root, either because the root has been reconciled in this
+     * session or because the index was restored from disk
+     */
+    public synchronized boolean isCurrent(final String root) {
+        final String key = normalize(root);
+        return restoredRoots.contains(key) || reconcileTimes.containsKey(key);
+    }
+
+    /**
+     * Returns true if what the index has for the root was restored from disk and hasn't been reconciled yet
+     */
+    public synchronized boolean isRestored(final String root) {
+        final String key = normalize(root);
+        return restoredRoots.contains(key) && !reconcileTimes.containsKey(key);
+    }
+
+    /**
+     * Returns true if editing the content of the file can't change its status. This is the case for files that are
+     * already pending an add or an edit, which are the files that are usually being worked on.
+     */
+    public synchronized boolean isContentChangeTracked(final String path) {
+        final String key = normalize(path);
+        if (stalePaths.contains(key)) {
+            return false;
+        }
+        final List<PendingChange> changes = changesByPath.get(key);
+        if (changes == null || changes.isEmpty()) {
+            return false;
+        }
+        for (final PendingChange change : changes) {
+            if (change.isCandidate() || change.getChangeTypes().contains(ServerStatusType.DELETE) ||
+                    !(change.getChangeTypes().contains(ServerStatusType.EDIT) || change.getChangeTypes().contains(ServerStatusType.ADD))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the changes for the path and everything under it
+     */
+    public synchronized List<PendingChange> getChanges(final String path) {
+        final List<PendingChange> result = new ArrayList<PendingChange>();
+        for (final List<PendingChange> changes : getEntriesUnder(normalize(path)).values()) {
+            result.addAll(changes);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the paths at or under the path that have been invalidated since their status was last read
+     */
+    public synchronized List<String> getStalePaths(final String path) {
+        final String key = normalize(path);
+        final List<String> result = new ArrayList<String>();
+        for (final String stalePath : stalePaths) {
+            if (isUnder(stalePath, key)) {
+                result.add(stalePath);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the changes for the path and everything under it when the index can answer for them, which is when the root
+     * has been reconciled in this session and nothing at, above or under the path has been invalidated since.
+     *
+     * @return the changes, or null if the status of the path has to be read
+     */
+    @Nullable
+    public synchronized List<PendingChange> getKnownChanges(final String root, final String path) {
+        final String rootKey = normalize(root);
+        final String key = normalize(path);
+        if (!reconcileTimes.containsKey(rootKey) || !isUnder(key, rootKey)) {
+            return null;
+        }
+        for (final String stalePath : stalePaths) {
+            if (isUnder(stalePath, key) || isUnder(key, stalePath)) {
+                return null;
+            }
+        }
+        return getChanges(path);
+    }
+
+    /**
+     * Replaces what the index has for the paths (recursively) with the changes from a status of those paths
+     */
+    public synchronized void update(final Collection<String> paths, final Collection<PendingChange> changes) {
+        for (final String path : paths) {
+            final String key = normalize(path);
+            removeUnder(key);
+            for (final String stalePath : getStalePaths(key)) {
+                stalePaths.remove(stalePath);
+            }
+        }
+        for (final PendingChange change : changes) {
+            add(change);
+        }
+        modified = true;
+    }
+
+    /**
+     * Removes the paths from the index and marks them stale so that their status is read again the next time
+     */
+    public synchronized void invalidate(final Collection<String> paths) {
+        for (final String path : paths) {
+            final String key = normalize(path);
+            removeUnder(key);
+            stalePaths.add(key);
+        }
+        modified = true;
+    }
+
+    /**
+     * Marks the paths stale without removing what the index has for them, so that it is still shown until their status
+     * can be read again
+     */
+    public synchronized void markStale(final Collection<String> paths) {
+        for (final String path : paths) {
+            stalePaths.add(normalize(path));
+        }
+    }
+
+    /**
+     * Replaces everything the index has under the root with the result of a full status of the root
+     *
+     * @return the paths whose changes are different from what the index had
+     */
+    public synchronized Set<String> reconcile(final String root, final Collection<PendingChange> changes) {
+        final String key = normalize(root);
+        final Map<String, List<PendingChange>> previous = new HashMap<String, List<PendingChange>>(getEntriesUnder(key));
+        update(Collections.singletonList(root), changes);
+        reconcileTimes.put(key, System.currentTimeMillis());
+
+        final Set<String> differences = new HashSet<String>();
+        final Map<String, List<PendingChange>> current = getEntriesUnder(key);
+        for (final Map.Entry<String, List<PendingChange>> entry : current.entrySet()) {
+            if (!isSame(previous.remove(entry.getKey()), entry.getValue())) {
+                differences.add(entry.getValue().get(0).getLocalItem());
+            }
+        }
+        for (final List<PendingChange> removed : previous.values()) {
+            differences.add(removed.get(0).getLocalItem());
+        }
+        return differences;
+    }
+
+    public synchronized boolean isReconcileDue(final String root) {
+        final Long reconcileTime = reconcileTimes.get(normalize(root));
+        return reconcileRequested || reconcileTime == null || System.currentTimeMillis() - reconcileTime > reconcileInterval;
+    }
+
+    /**
+     * Makes the next refresh reconcile the index against a full status
+     */
+    public synchronized void requestReconcile() {
+        reconcileRequested = true;
+    }
+
+    /**
+     * Reconciles the roots on a pooled thread and marks the paths that turned out to be different dirty, so that the
+     * Local Changes view picks them up. Only one reconcile runs at a time.
+     */
+    public void reconcileInBackground(final Project project, final Collection<String> roots) {
+        if (roots.isEmpty() || !reconcileRunning.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            reconcileRequested = false;
+        }
+
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final List<FilePath> dirtyPaths = new ArrayList<FilePath>();
+                    for (final String root : roots) {
+                        if (project.isDisposed()) {
+                            return;
+                        }
+                        try {
+                            final List<PendingChange> changes = CommandUtils.getStatusForFiles(null, Collections.singletonList(root));
+                            for (final String path : reconcile(root, changes)) {
+                                dirtyPaths.add(VcsUtil.getFilePath(path));
+                            }
+                        } catch (final Throwable t) {
+                            logger.warn("Failed to reconcile pending changes. root=" + root, t);
+                        }
+                    }
+                    logger.info("reconcileInBackground: " + dirtyPaths.size() + " paths changed");
+                    save();
+
+                    if (!dirtyPaths.isEmpty() && !project.isDisposed()) {
+                        VcsDirtyScopeManager.getInstance(project).filePathsDirty(dirtyPaths, null);
+                    }
+                } finally {
+                    reconcileRunning.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the changes saved by a previous session, if any
+     */
+    public synchronized void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream stream = null;
+        try {
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (stream.readInt() != FORMAT_VERSION) {
+                logger.info("load: ignoring pending change index in an older format");
+                return;
+            }
+            final int rootCount = stream.readInt();
+            final Set<String> roots = new HashSet<String>();
+            for (int i = 0; i < rootCount; i++) {
+                roots.add(DataStreamHelper.readString(stream));
+            }
+            final int count = stream.readInt();
+            for (int i = 0; i < count; i++) {
+                add(readChange(stream));
+            }
+            restoredRoots.addAll(roots);
+            modified = false;
+        } catch (final IOException e) {
+            logger.warn("Unable to load pending change index " + file.getPath(), e);
+            changesByPath.clear();
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Saves the changes so that they can be shown right away by the next session. Nothing is written if nothing
+     * changed since the last load or save.
+     */
+    public synchronized void save() {
+        if (!modified) {
+            return;
+        }
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream stream = null;
+        try {
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Unable to create directory " + file.getParent());
+            }
+            stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            stream.writeInt(FORMAT_VERSION);
+            // only the roots whose changes are all known can be answered from the index by the next session
+            final Set<String> roots = new HashSet<String>(restoredRoots);
+            roots.addAll(reconcileTimes.keySet());
+            stream.writeInt(roots.size());
+            for (final String root : roots) {
+                DataStreamHelper.writeString(stream, root);
+            }
+            int count = 0;
+            for (final List<PendingChange> changes : changesByPath.values()) {
+                count += changes.size();
+            }
+            stream.writeInt(count);
+            for (final List<PendingChange> changes : changesByPath.values()) {
+                for (final PendingChange change : changes) {
+                    writeChange(stream, change);
+                }
+            }
+            stream.close();
+            stream = null;
+
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile.getPath());
+            }
+            modified = false;
+        } catch (final IOException e) {
+            logger.warn("Unable to save pending change index " + file.getPath(), e);
+            tempFile.delete();
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    private void add(final PendingChange change) {
+        final String key = normalize(StringUtils.defaultString(change.getLocalItem(), change.getServerItem()));
+        List<PendingChange> changes = changesByPath.get(key);
+        if (changes == null) {
+            changes = new ArrayList<PendingChange>(1);
+            changesByPath.put(key, changes);
+        }
+        changes.add(change);
+    }
+
+    private void removeUnder(final String key) {
+        changesByPath.remove(key);
+        getEntriesUnder(key).clear();
+    }
+
+    /**
+     * Returns a live view of the entries at or under the key. The keys of the entries under the key start with the
+     * key followed by a slash, and they sort between that and the key followed by the character after the slash.
+     */
+    private SortedMap<String, List<PendingChange>> getEntriesUnder(final String key) {
+        final SortedMap<String, List<PendingChange>> children = changesByPath.subMap(key + "/", key + "0");
+        if (!changesByPath.containsKey(key)) {
+            return children;
+        }
+        final TreeMap<String, List<PendingChange>> entries = new TreeMap<String, List<PendingChange>>(children);
+        entries.put(key, changesByPath.get(key));
+        return entries;
+    }
+
+    private static boolean isUnder(final String key, final String root) {
+        return key.equals(root) || key.startsWith(root + "/");
+    }
+
+    private static boolean isSame(final List<PendingChange> changes1, final List<PendingChange> changes2) {
+        if (changes1 == null || changes2 == null || changes1.size() != changes2.size()) {
+            return changes1 == changes2;
+        }
+        for (int i = 0; i < changes1.size(); i++) {
+            final PendingChange change1 = changes1.get(i);
+            final PendingChange change2 = changes2.get(i);
+            if (change1.isCandidate() != change2.isCandidate() ||
+                    !change1.getChangeTypes().equals(change2.getChangeTypes()) ||
+                    !StringUtils.equals(change1.getServerItem(), change2.getServerItem()) ||
+                    !StringUtils.equals(change1.getSourceItem(), change2.getSourceItem())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String normalize(final String path) {
+        String normalized = StringUtils.removeEnd(path.replace('\\', '/'), "/");
+        if (!SystemInfo.isFileSystemCaseSensitive) {
+            normalized = normalized.toLowerCase(Locale.ENGLISH);
+        }
+        return normalized;
+    }
+
+    private static void writeChange(final DataOutput stream, final PendingChange change) throws IOException {
+        DataStreamHelper.writeString(stream, change.getServerItem());
+        DataStreamHelper.writeString(stream, change.getLocalItem());
+        DataStreamHelper.writeString(stream, change.getVersion());
+        DataStreamHelper.writeString(stream, change.getOwner());
+        DataStreamHelper.writeString(stream, change.getDate());
+        DataStreamHelper.writeString(stream, change.getLock());
+        DataStreamHelper.writeString(stream, StringUtils.join(change.getChangeTypes(), ","));
+        DataStreamHelper.writeString(stream, change.getWorkspace());
+        DataStreamHelper.writeString(stream, change.getComputer());
+        stream.writeBoolean(change.isCandidate());
+        DataStreamHelper.writeString(stream, change.getSourceItem());
+    }
+
+    private static PendingChange readChange(final DataInput stream) throws IOException {
+        return new PendingChange(DataStreamHelper.readString(stream), DataStreamHelper.readString(stream),
+                DataStreamHelper.readString(stream), DataStreamHelper.readString(stream),
+                DataStreamHelper.readString(stream), DataStreamHelper.readString(stream),
+                DataStreamHelper.readString(stream), DataStreamHelper.readString(stream),
+                DataStreamHelper.readString(stream), stream.readBoolean(), DataStreamHelper.readString(stream));
+    }
+}
@@ -19,11 +19,26 @@
 
 package com.microsoft.alm.plugin.idea.tfvc.core;
 
+import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.microsoft.alm.plugin.external.commands.Command;
+import com.microsoft.alm.plugin.external.commands.StreamingCommand;
+import com.microsoft.alm.plugin.external.exceptions.ToolCancelledException;
+import com.microsoft.alm.plugin.external.exceptions.ToolException;
+import com.microsoft.alm.plugin.external.parsers.OutputParser;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class TFSProgressUtil {
+    private static final long CANCEL_CHECK_INTERVAL_MILLISECONDS = 100L;
+    private static final int MAX_QUEUED_ITEMS = 1000;
 
     public static void checkCanceled(final @Nullable ProgressIndicator progressIndicator) throws ProcessCanceledException {
         if (progressIndicator != null && progressIndicator.isCanceled()) {
@@ -52,4 +67,87 @@ public class TFSProgressUtil {
             progressIndicator.setIndeterminate(indeterminate);
         }
     }
+
+    /**
+     * Runs the command and waits on the result, handing each item to the item handler as soon as it is parsed.
+     * The items are passed from the parser thread through a bounded queue and the item handler is called on the
+     * calling thread, so it runs under the caller's progress indicator and a slow handler only holds up the parser
+     * while the queue is full.
+     * If the progress indicator is cancelled while waiting, or the item handler throws, the command process is killed
+     * and a ProcessCanceledException (or the handler's exception) is thrown.
+     */
+    public static <E> List<E> runSynchronously(final StreamingCommand<E> command,
+                                               final @Nullable ProgressIndicator progressIndicator,
+                                               final OutputParser.ItemHandler<E> itemHandler) throws ProcessCanceledException {
+        final SettableFuture<List<E>> result = SettableFuture.create();
+        final BlockingQueue<E> queuedItems = new ArrayBlockingQueue<E>(MAX_QUEUED_ITEMS);
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        command.run(new Command.Listener<List<E>>() {
+            @Override
+            public void progress(final String output, final int outputType, final int percentComplete) {
+                // Do nothing
+            }
+
+            @Override
+            public void completed(final List<E> items, final Throwable error) {
+                if (error != null) {
+                    result.setException(error);
+                } else {
+                    result.set(items);
+                }
+            }
+        }, new OutputParser.ItemHandler<E>() {
+            @Override
+            public void onItem(final E item) {
+                try {
+                    // Block while the queue is full, but give up once the caller has stopped waiting
+                    while (!stopped.get()) {
+                        if (queuedItems.offer(item, CANCEL_CHECK_INTERVAL_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                            return;
+                        }
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try {
+            while (true) {
+                checkCanceled(progressIndicator);
+                // The parser has handed over all of the items by the time the command completes
+                final boolean done = result.isDone();
+                E item = queuedItems.poll();
+                while (item != null) {
+                    itemHandler.onItem(item);
+                    checkCanceled(progressIndicator);
+                    item = queuedItems.poll();
+                }
+                if (done) {
+                    return result.get();
+                }
+                item = queuedItems.poll(CANCEL_CHECK_INTERVAL_MILLISECONDS, TimeUnit.MILLISECONDS);
+                if (item != null) {
+                    itemHandler.onItem(item);
+                }
+            }
+        } catch (final InterruptedException e) {
+            throw new ProcessCanceledException(e);
+        } catch (final ExecutionException e) {
+            final Throwable error = e.getCause();
+            if (error instanceof ToolCancelledException) {
+                throw new ProcessCanceledException(error);
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            throw new ToolException(ToolException.KEY_TF_BAD_EXIT_CODE, error);
+        } finally {
+            // Kill the command if the caller stops waiting before it completes, including when the item handler throws
+            if (!result.isDone()) {
+                command.cancel();
+            }
+            stopped.set(true);
+            queuedItems.clear();
+        }
+    }
 }
@@ -37,6 +37,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class TFSRollbackEnvironment extends DefaultRollbackEnvironment {
@@ -75,6 +76,7 @@ public class TFSRollbackEnvironment extends DefaultRollbackEnvironment {
             try {
                 // get the file from the server so it's restored locally
                 CommandUtils.forceGetFile(vcs.getServerContext(false), file.getPath());
+                TFSPendingChangeIndex.invalidate(vcs, Collections.singletonList(file.getPath()));
             } catch (final Throwable t) {
                 logger.warn("Exception hit while rolling back deleted file: " + file.getPath(), t);
                 errors.add(new VcsException(t.getMessage(), t));
@@ -134,6 +136,7 @@ public class TFSRollbackEnvironment extends DefaultRollbackEnvironment {
             // Call the undo command synchronously
             final ServerContext context = vcs.getServerContext(false);
             final List<String> filesUndone = CommandUtils.undoLocalFiles(context, localFiles);
+            TFSPendingChangeIndex.invalidate(vcs, localFiles);
 
             // Trigger the accept callback and build up our refresh list
             final List<VirtualFile> refresh = new ArrayList<VirtualFile>(filesUndone.size());
@@ -0,0 +1,247 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.project.Project;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.plugin.context.RepositoryContext;
+import com.microsoft.alm.plugin.context.RepositoryContextManager;
+import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.context.ServerContextManager;
+import com.microsoft.alm.plugin.idea.common.utils.VcsHelper;
+import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsFileUtil;
+import com.microsoft.alm.plugin.operations.OperationExecutor;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the server context of the TFVC workspace of a project so that the VCS operations don't have to find the
+ * workspace and its server again every time they need it.
+ * <p/>
+ * The context is resolved the first time it is asked for and kept until something that it depends on changes:
+ * <ul>
+ * <li>when the mappings of the workspace are saved, the kept context is still returned while the workspace is found
+ * again in the background since the server of a workspace rarely changes</li>
+ * <li>when contexts are removed from the ServerContextManager, e.g. because their credentials were updated, the
+ * server context is created again before it is returned since the old one may not be authorized anymore. The
+ * workspace that was found is kept, so this doesn't run the command line.</li>
+ * </ul>
+ * Only one thread resolves the context at a time; the others wait for it and use what it found.
+ */
+public class TFSServerContextResolver {
+    private static final Logger logger = LoggerFactory.getLogger(TFSServerContextResolver.class);
+
+    private static final Executor OPERATION_EXECUTOR = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            OperationExecutor.getInstance().submitOperationTask(command);
+        }
+    };
+
+    private final Project project;
+    private final Executor refreshExecutor;
+    private final Object resolveLock = new Object();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    // The fields below are guarded by this
+    private RepositoryContext repositoryContext;
+    private ServerContext serverContext;
+    // What the revisions were when the context was resolved
+    private long removedRevision;
+    private long mappingsRevision;
+    private boolean refreshing = false;
+
+    public TFSServerContextResolver(final Project project) {
+        this(project, OPERATION_EXECUTOR);
+    }
+
+    @VisibleForTesting
+    TFSServerContextResolver(final Project project, final Executor refreshExecutor) {
+        ArgumentHelper.checkNotNull(project, "project");
+        ArgumentHelper.checkNotNull(refreshExecutor, "refreshExecutor");
+        this.project = project;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Gets the server context of the workspace of the project, resolving it only if it isn't kept or can't be used
+     * anymore
+     *
+     * @return the server context, or null if the project has no workspace or its server couldn't be reached
+     */
+    public ServerContext getServerContext() {
+        final ServerContext cachedServerContext;
+        final boolean reuseRepositoryContext;
+        synchronized (this) {
+            if (serverContext != null && removedRevision == getRemovedRevision()) {
+                cachedServerContext = serverContext;
+                reuseRepositoryContext = false;
+            } else {
+                if (serverContext != null) {
+                    logger.info("getServerContext: server contexts were removed, creating the server context again");
+                }
+                cachedServerContext = null;
+                reuseRepositoryContext = repositoryContext != null;
+            }
+        }
+
+        if (cachedServerContext != null) {
+            hitCount.incrementAndGet();
+            if (isMappingsChanged()) {
+                refreshAsync();
+            }
+            return cachedServerContext;
+        }
+
+        missCount.incrementAndGet();
+        return resolve(reuseRepositoryContext);
+    }
+
+    /**
+     * Gets the repository context that the kept server context was created from, resolving it if nothing is kept
+     */
+    public RepositoryContext getRepositoryContext() {
+        synchronized (this) {
+            if (repositoryContext != null) {
+                return repositoryContext;
+            }
+        }
+        return findRepositoryContext();
+    }
+
+    /**
+     * Forgets the kept contexts so that the next call finds the workspace and creates the server context again
+     */
+    public void invalidate() {
+        synchronized (resolveLock) {
+            synchronized (this) {
+                repositoryContext = null;
+                serverContext = null;
+            }
+            forgetRepositoryContext();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    private ServerContext resolve(final boolean reuseRepositoryContext) {
+        synchronized (resolveLock) {
+            final long startRemovedRevision = getRemovedRevision();
+            final long startMappingsRevision = getMappingsRevision();
+            RepositoryContext resolvedRepositoryContext = null;
+            final boolean workspaceChanged;
+            synchronized (this) {
+                // Another thread may have resolved the context while this one was waiting for it
+                if (serverContext != null && removedRevision == startRemovedRevision
+                        && mappingsRevision == startMappingsRevision) {
+                    return serverContext;
+                }
+                workspaceChanged = repositoryContext != null && mappingsRevision != startMappingsRevision;
+                if (reuseRepositoryContext && !workspaceChanged) {
+                    resolvedRepositoryContext = repositoryContext;
+                }
+            }
+
+            if (workspaceChanged) {
+                // the workspace that was found before may have other mappings or another server now
+                forgetRepositoryContext();
+            }
+            if (resolvedRepositoryContext == null) {
+                resolvedRepositoryContext = findRepositoryContext();
+            }
+            final ServerContext resolvedServerContext = createServerContext(resolvedRepositoryContext);
+
+            synchronized (this) {
+                repositoryContext = resolvedRepositoryContext;
+                serverContext = resolvedServerContext;
+                removedRevision = startRemovedRevision;
+                mappingsRevision = startMappingsRevision;
+            }
+            return resolvedServerContext;
+        }
+    }
+
+    private synchronized boolean isMappingsChanged() {
+        return mappingsRevision != getMappingsRevision();
+    }
+
+    /**
+     * Finds the workspace again in the background unless that is already being done
+     */
+    private void refreshAsync() {
+        synchronized (this) {
+            if (refreshing) {
+                return;
+            }
+            refreshing = true;
+        }
+        refreshCount.incrementAndGet();
+
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolve(false);
+                } catch (final Throwable t) {
+                    // the context is resolved again when it is needed
+                    logger.warn("refreshAsync: unable to resolve the server context", t);
+                    synchronized (TFSServerContextResolver.this) {
+                        serverContext = null;
+                    }
+                } finally {
+                    synchronized (TFSServerContextResolver.this) {
+                        refreshing = false;
+                    }
+                }
+            }
+        });
+    }
+
+    @VisibleForTesting
+    protected RepositoryContext findRepositoryContext() {
+        return VcsHelper.getRepositoryContext(project);
+    }
+
+    @VisibleForTesting
+    protected void forgetRepositoryContext() {
+        RepositoryContextManager.getInstance().remove(project.getBasePath());
+    }
+
+    @VisibleForTesting
+    protected ServerContext createServerContext(final RepositoryContext repositoryContext) {
+        return repositoryContext != null
+                && StringUtils.isNotEmpty(repositoryContext.getTeamProjectName())
+                && StringUtils.isNotEmpty(repositoryContext.getUrl()) ?
+                ServerContextManager.getInstance().createContextFromTfvcServerUrl(
+                        repositoryContext.getUrl(), repositoryContext.getTeamProjectName(), true)
+                : null;
+    }
+
+    @VisibleForTesting
+    protected long getRemovedRevision() {
+        return ServerContextManager.getInstance().getRemovedRevision();
+    }
+
+    @VisibleForTesting
+    protected long getMappingsRevision() {
+        return TfsFileUtil.getMappingsRevision();
+    }
+}
@@ -52,7 +52,6 @@ import com.intellij.openapi.vcs.versionBrowser.ChangeBrowserSettings;
 import com.intellij.vcsUtil.VcsUtil;
 import com.microsoft.alm.plugin.context.RepositoryContext;
 import com.microsoft.alm.plugin.context.ServerContext;
-import com.microsoft.alm.plugin.context.ServerContextManager;
 import com.microsoft.alm.plugin.external.exceptions.SyncException;
 import com.microsoft.alm.plugin.external.exceptions.ToolException;
 import com.microsoft.alm.plugin.external.tools.TfTool;
@@ -98,9 +97,13 @@ public class TFSVcs extends AbstractVcs {
     private VcsVFSListener fileListener;
     private TFSFileSystemListener tfsFileSystemListener;
     private CommittedChangesProvider<TFSChangeList, ChangeBrowserSettings> committedChangesProvider;
+    private TFSPendingChangeIndex pendingChangeIndex;
+    private TFSChangesetCache changesetCache;
+    private final TFSServerContextResolver serverContextResolver;
 
     public TFSVcs(@NotNull Project project) {
         super(project, TFVC_NAME);
+        serverContextResolver = new TFSServerContextResolver(project);
         final ProjectLevelVcsManager vcsManager = ProjectLevelVcsManager.getInstance(project);
         myAddConfirmation = vcsManager.getStandardConfirmation(VcsConfiguration.StandardConfirmation.ADD, this);
         myDeleteConfirmation = vcsManager.getStandardConfirmation(VcsConfiguration.StandardConfirmation.REMOVE, this);
@@ -137,6 +140,14 @@ public class TFSVcs extends AbstractVcs {
         Disposer.dispose(fileListener);
         tfsFileSystemListener.dispose();
         tfsFileSystemListener = null;
+        synchronized (this) {
+            if (pendingChangeIndex != null) {
+                pendingChangeIndex.save();
+            }
+            if (changesetCache != null) {
+                changesetCache.save();
+            }
+        }
     }
 
     public VcsShowConfirmationOption getAddConfirmation() {
@@ -155,6 +166,40 @@ public class TFSVcs extends AbstractVcs {
         return new TFSChangeProvider(myProject);
     }
 
+    /**
+     * Gets the index of the pending changes in the workspaces of the project, loading what was saved by the last
+     * session the first time it is asked for
+     */
+    public synchronized TFSPendingChangeIndex getPendingChangeIndex() {
+        if (pendingChangeIndex == null) {
+            pendingChangeIndex = new TFSPendingChangeIndex(myProject);
+            pendingChangeIndex.load();
+        }
+        return pendingChangeIndex;
+    }
+
+    /**
+     * Gets the cache of the changesets read by history commands, loading what was saved by the last session the first
+     * time it is asked for
+     */
+    public synchronized TFSChangesetCache getChangesetCache() {
+        if (changesetCache == null) {
+            changesetCache = new TFSChangesetCache(myProject);
+            changesetCache.load();
+        }
+        return changesetCache;
+    }
+
+    /**
+     * Makes the next history requests read the changesets checked in since the last refresh. The cache isn't loaded
+     * just for this, the loaded histories are refreshed the first time they are used anyway.
+     */
+    public synchronized void expireChangesetCache() {
+        if (changesetCache != null) {
+            changesetCache.expire();
+        }
+    }
+
     @NotNull
     public TFSCheckinEnvironment createCheckinEnvironment() {
         if (myCheckinEnvironment == null) {
@@ -259,26 +304,26 @@ public class TFSVcs extends AbstractVcs {
 
     /**
      * This method is used by the environment classes to get the ServerContext.
-     * We do not cache it here because it should already be cached in the ServerContextManager.
+     * It is kept by the resolver of the project until the workspace or the credentials change.
      */
     public ServerContext getServerContext(boolean throwIfNotFound) {
-        final RepositoryContext repositoryContext = VcsHelper.getRepositoryContext(getProject());
-        logger.info("TFSVcs.getServerContext repositoryContext is null: " + (repositoryContext == null));
-
-        final ServerContext serverContext = repositoryContext != null
-                && StringUtils.isNotEmpty(repositoryContext.getTeamProjectName())
-                && StringUtils.isNotEmpty(repositoryContext.getUrl()) ?
-                ServerContextManager.getInstance().createContextFromTfvcServerUrl(
-                        repositoryContext.getUrl(), repositoryContext.getTeamProjectName(), true)
-                : null;
+        final ServerContext serverContext = serverContextResolver.getServerContext();
 
         if (serverContext == null && throwIfNotFound) {
+            final RepositoryContext repositoryContext = serverContextResolver.getRepositoryContext();
             // TODO: throw a better error b/c this is what the user sees and it's confusing
             throw new NotAuthorizedException(repositoryContext != null ? repositoryContext.getUrl() : "");
         }
         return serverContext;
     }
 
+    /**
+     * Gets the resolver that keeps the server context of the project
+     */
+    public TFSServerContextResolver getServerContextResolver() {
+        return serverContextResolver;
+    }
+
     private void checkCommandLineVersion() {
         if (hasVersionBeenVerified) {
             // No need to check the version again if we have already checked it once this session
@@ -0,0 +1,117 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core.revision;
+
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsFileUtil;
+import com.microsoft.alm.plugin.idea.tfvc.exceptions.TfsException;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Content store backed by the persistent revision cache.
+ * A new store starts out with an empty temp file that the content is downloaded or saved into. Once the content is
+ * complete, publish moves it into the cache so that it can be found again by later sessions. A temporary store has no
+ * key and is never added to the cache, its temp file is deleted when the IDE exits.
+ */
+public class TFSCachedFileStore implements TFSContentStore {
+    private final TFSRevisionCache cache;
+    private final String key;
+    private File file;
+    private boolean published;
+
+    @Nullable
+    public static TFSContentStore find(final TFSRevisionCache cache, final String key) {
+        final File contentFile = cache.find(key);
+        if (contentFile != null) {
+            return new TFSCachedFileStore(cache, key, contentFile, true);
+        }
+        return null;
+    }
+
+    public static TFSCachedFileStore create(final TFSRevisionCache cache, final String key) throws IOException {
+        ArgumentHelper.checkNotEmptyString(key, "key");
+        return new TFSCachedFileStore(cache, key, cache.createTempFile(), false);
+    }
+
+    /**
+     * Creates a store for content that can't be identified across sessions, so it is kept out of the cache
+     */
+    public static TFSCachedFileStore createTemporary(final TFSRevisionCache cache) throws IOException {
+        final File file = cache.createTempFile();
+        file.deleteOnExit();
+        return new TFSCachedFileStore(cache, null, file, false);
+    }
+
+    private TFSCachedFileStore(final TFSRevisionCache cache, @Nullable final String key, final File file, final boolean published) {
+        ArgumentHelper.checkNotNull(cache, "cache");
+        this.cache = cache;
+        this.key = key;
+        this.file = file;
+        this.published = published;
+    }
+
+    /**
+     * Adds the content of the temp file to the cache. Call this only once the content has been completely written.
+     */
+    public synchronized void publish() throws IOException {
+        if (!published && key != null) {
+            file = cache.put(key, file);
+            published = true;
+        }
+    }
+
+    public synchronized void saveContent(final TfsFileUtil.ContentWriter contentWriter) throws TfsException, IOException {
+        if (published) {
+            // Content in the cache is shared and must never be modified, so start over with a new temp file
+            file = cache.createTempFile();
+            published = false;
+        }
+        TfsFileUtil.setFileContent(file, contentWriter);
+        publish();
+    }
+
+    public byte[] loadContent() throws IOException {
+        // Reads into an array of the exact file size instead of growing a buffer while reading
+        return FileUtils.readFileToByteArray(getTmpFile());
+    }
+
+    public long getContentLength() {
+        return getTmpFile().length();
+    }
+
+    public InputStream openContentStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(getTmpFile()));
+    }
+
+    /**
+     * Content in the cache is never modified once published, so the mapping stays valid after the channel is closed.
+     * A content file that is mapped may fail to be deleted on Windows; eviction skips such files until the next pass.
+     */
+    public ByteBuffer mapContent() throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(getTmpFile(), "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Content is too large to be mapped: " + getTmpFile().getPath());
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+    }
+
+    public synchronized File getTmpFile() {
+        return file;
+    }
+}
@@ -0,0 +1,157 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core.revision;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.microsoft.alm.common.utils.SystemHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the content of revisions into the content store ahead of use, so that opening the diffs for a changelist
+ * reads the content from the store instead of running a TF command per file while the user waits.
+ * <p/>
+ * The TF print command only takes a single item, so each revision is still downloaded by its own command. The
+ * downloads are run in parallel on a small pool of threads to bound the number of TF processes running at once,
+ * and revisions that are already in the store, already queued or already being downloaded are skipped.
+ * <p/>
+ * At most MAX_QUEUED_DOWNLOADS revisions wait for a thread. When more are asked for, the oldest waiting ones are
+ * dropped, since the revisions asked for last are the ones most likely to be looked at next. A dropped revision is
+ * simply downloaded when it is used.
+ */
+public class TFSContentPrefetcher {
+    private static final Logger logger = LoggerFactory.getLogger(TFSContentPrefetcher.class);
+
+    public static final String PROP_MAX_CONCURRENT_DOWNLOADS = "com.microsoft.alm.plugin.tfvc.prefetchConcurrency";
+    public static final String PROP_MAX_QUEUED_DOWNLOADS = "com.microsoft.alm.plugin.tfvc.prefetchQueueSize";
+    private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+    private static final int DEFAULT_MAX_QUEUED_DOWNLOADS = 100;
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60L;
+
+    private final ThreadPoolExecutor executor;
+    // The keys of the revisions that are queued or being downloaded
+    private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static class Holder {
+        private static final TFSContentPrefetcher INSTANCE = new TFSContentPrefetcher(
+                getProperty(PROP_MAX_CONCURRENT_DOWNLOADS, DEFAULT_MAX_CONCURRENT_DOWNLOADS),
+                getProperty(PROP_MAX_QUEUED_DOWNLOADS, DEFAULT_MAX_QUEUED_DOWNLOADS));
+    }
+
+    public static TFSContentPrefetcher getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    @VisibleForTesting
+    TFSContentPrefetcher(final int maxConcurrentDownloads, final int maxQueuedDownloads) {
+        executor = new ThreadPoolExecutor(maxConcurrentDownloads, maxConcurrentDownloads,
+                IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxQueuedDownloads),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TFSContentPrefetcher-%d").build(),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+                        // Drop the oldest waiting download to make room for the new one
+                        final Runnable oldest = executor.getQueue().poll();
+                        if (oldest instanceof Future) {
+                            ((Future<?>) oldest).cancel(false);
+                        }
+                        if (executor.isShutdown()) {
+                            ((Future<?>) task).cancel(false);
+                        } else {
+                            executor.execute(task);
+                        }
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static int getProperty(final String name, final int defaultValue) {
+        return Math.max(SystemHelper.toInt(System.getProperty(name), defaultValue), 1);
+    }
+
+    /**
+     * Starts downloading the before and after revisions of the changes that come from the server.
+     * This method returns immediately.
+     */
+    public List<Future<?>> prefetchChanges(final Project project, final Collection<Change> changes) {
+        final List<ContentRevision> revisions = new ArrayList<ContentRevision>(changes.size() * 2);
+        for (final Change change : changes) {
+            if (change.getBeforeRevision() != null) {
+                revisions.add(change.getBeforeRevision());
+            }
+            if (change.getAfterRevision() != null) {
+                revisions.add(change.getAfterRevision());
+            }
+        }
+        return prefetch(project, revisions);
+    }
+
+    /**
+     * Starts downloading the content of the given revisions. Revisions that don't come from the server (like the
+     * current content of local files) and revisions that are already queued are ignored. This method returns
+     * immediately.
+     *
+     * @return the futures for the downloads that were queued by this call
+     */
+    public List<Future<?>> prefetch(final Project project, final Collection<? extends ContentRevision> revisions) {
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final ContentRevision revision : revisions) {
+            if (!(revision instanceof TFSContentRevision)) {
+                continue;
+            }
+
+            final TFSContentRevision tfsRevision = (TFSContentRevision) revision;
+            final String key = tfsRevision.getFilePath() + "@" + tfsRevision.getChangeset();
+            if (!inFlight.add(key)) {
+                continue;
+            }
+
+            final FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        if (!project.isDisposed()) {
+                            tfsRevision.prefetchContent();
+                        }
+                    } catch (final Throwable t) {
+                        // The content will be downloaded again when it is used
+                        logger.warn("Unable to prefetch " + tfsRevision, t);
+                    } finally {
+                        inFlight.remove(key);
+                    }
+                    return null;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    // Also called when the download is dropped from the queue before it ran
+                    inFlight.remove(key);
+                }
+            };
+            futures.add(task);
+            executor.execute(task);
+        }
+
+        logger.info("prefetch: queued " + futures.size() + " revisions");
+        return futures;
+    }
+}
@@ -24,7 +24,9 @@ import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.reference.SoftReference;
 import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsRevisionNumber;
 import com.microsoft.alm.plugin.idea.tfvc.exceptions.TfsException;
 import org.jetbrains.annotations.NonNls;
@@ -32,20 +34,35 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Creates a revision object for a file so that comparisons can be done between them
  * <p/>
  * TODO: Used to implement ContenRevision until recently when it was changed to ByteBackedContentRevision
  * TODO: That class does not exist in IntelliJ 14 or 15 so reverting that change back to ContentRevision for now
+ * <p/>
+ * Content up to the large content threshold is kept in memory once loaded. Larger content is decoded straight from the
+ * mapped content store by getContent, and the bytes that doGetContent copies out of it are only held softly, so they
+ * are copied once and reused until the memory is needed for something else.
  */
 public abstract class TFSContentRevision implements ContentRevision {
 
+    public static final String PROP_LARGE_CONTENT_THRESHOLD_KB = "com.microsoft.alm.plugin.tfvc.largeContentThresholdKB";
+    private static final long DEFAULT_LARGE_CONTENT_THRESHOLD_KB = 1024L;
+    private static final long LARGE_CONTENT_THRESHOLD = getLargeContentThreshold();
+
     private final Project project;
 
     @Nullable
     private byte[] myContent;
 
+    @Nullable
+    private SoftReference<byte[]> myLargeContent;
+
+    @Nullable
+    private volatile TFSContentStore myStore;
+
     protected TFSContentRevision(final Project project) {
         this.project = project;
     }
@@ -126,30 +143,96 @@ public abstract class TFSContentRevision implements ContentRevision {
         };
     }
 
-    @Nullable
-    public String getContent() throws VcsException {
-        return new String(doGetContent(), getFile().getCharset(project));
+    private static long getLargeContentThreshold() {
+        return SystemHelper.toLong(System.getProperty(PROP_LARGE_CONTENT_THRESHOLD_KB), DEFAULT_LARGE_CONTENT_THRESHOLD_KB)
+                * 1024L;
     }
 
     @Nullable
-    public byte[] doGetContent() throws VcsException {
-        if (myContent == null) {
+    public String getContent() throws VcsException {
+        if (myContent == null && isLargeContent()) {
+            // Decode straight from the mapped file so that the bytes are never copied onto the heap
             try {
-                myContent = loadContent();
-            } catch (TfsException e) {
-                throw new VcsException(e);
+                return getFile().getCharset(project).decode(getStore().mapContent()).toString();
             } catch (IOException e) {
                 throw new VcsException(e);
             }
         }
-        return myContent;
+        return new String(doGetContent(), getFile().getCharset(project));
     }
 
     @Nullable
-    private byte[] loadContent() throws TfsException, IOException {
-        ArgumentHelper.checkNotNull(getFile(), "localPath");
-        final TFSContentStore store = TFSContentStoreFactory.findOrCreate(getFile().getPath(), getChangeset(), getFilePath(), project);
-        return store.loadContent();
+    public byte[] doGetContent() throws VcsException {
+        if (myContent != null) {
+            return myContent;
+        }
+
+        final byte[] largeContent = SoftReference.dereference(myLargeContent);
+        if (largeContent != null) {
+            return largeContent;
+        }
+
+        try {
+            final TFSContentStore store = getStore();
+            if (store.getContentLength() > LARGE_CONTENT_THRESHOLD) {
+                // Large content is only held softly by the revision
+                final ByteBuffer buffer = store.mapContent();
+                final byte[] content = new byte[buffer.remaining()];
+                buffer.get(content);
+                myLargeContent = new SoftReference<byte[]>(content);
+                return content;
+            }
+            myContent = store.loadContent();
+            return myContent;
+        } catch (TfsException e) {
+            throw new VcsException(e);
+        } catch (IOException e) {
+            throw new VcsException(e);
+        }
+    }
+
+    /**
+     * Returns true if the content is larger than the threshold above which it is not kept in memory by the revision
+     */
+    public boolean isLargeContent() throws VcsException {
+        return getContentLength() > LARGE_CONTENT_THRESHOLD;
+    }
+
+    public long getContentLength() throws VcsException {
+        if (myContent != null) {
+            return myContent.length;
+        }
+        try {
+            return getStore().getContentLength();
+        } catch (IOException e) {
+            throw new VcsException(e);
+        }
+    }
+
+    /**
+     * Gets the content store for this revision, downloading the content if needed. The store is remembered so that
+     * large content can be read again without looking it up, unless its file has been evicted from the cache since.
+     */
+    private TFSContentStore getStore() throws IOException {
+        TFSContentStore store = myStore;
+        if (store == null || !store.getTmpFile().exists()) {
+            ArgumentHelper.checkNotNull(getFile(), "localPath");
+            store = TFSContentStoreFactory.findOrCreate(getFile().getPath(), getChangeset(), getFilePath(), project);
+            if (store == null) {
+                throw new IOException("Unable to get the content of " + getFilePath() + ";C" + getChangeset());
+            }
+            myStore = store;
+        }
+        return store;
+    }
+
+    /**
+     * Makes sure the content is in the content store, downloading it if needed, without loading it into memory
+     */
+    void prefetchContent() throws IOException {
+        if (myContent == null) {
+            getStore();
+        }
     }
 
     @NonNls
@@ -24,6 +24,8 @@ import com.microsoft.alm.plugin.idea.tfvc.exceptions.TfsException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public interface TFSContentStore {
 
@@ -31,5 +33,20 @@ public interface TFSContentStore {
 
     byte[] loadContent() throws TfsException, IOException;
 
+    /**
+     * Returns the size of the content in bytes
+     */
+    long getContentLength();
+
+    /**
+     * Opens a stream over the content. The caller must close the stream.
+     */
+    InputStream openContentStream() throws IOException;
+
+    /**
+     * Maps the content into memory as a read-only buffer that is backed by the file instead of the heap
+     */
+    ByteBuffer mapContent() throws IOException;
+
     File getTmpFile();
 }
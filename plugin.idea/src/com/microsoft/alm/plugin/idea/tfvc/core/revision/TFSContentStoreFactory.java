@@ -19,54 +19,145 @@
 
 package com.microsoft.alm.plugin.idea.tfvc.core.revision;
 
+import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.openapi.project.Project;
 import com.microsoft.alm.plugin.context.ServerContext;
 import com.microsoft.alm.plugin.external.commands.Command;
 import com.microsoft.alm.plugin.external.commands.DownloadCommand;
+import com.microsoft.alm.plugin.idea.tfvc.core.TFSDiffProvider;
 import com.microsoft.alm.plugin.idea.tfvc.core.TFSVcs;
+import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsFileUtil;
+import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Content stores are kept in the persistent TFSRevisionCache, keyed by the collection, the server path of the file and
+ * the revision, so that revisions downloaded in earlier sessions are not downloaded again. A revision whose server path
+ * can't be found is downloaded into a temporary store instead, since its local path may point at another item later.
+ * A revision that the server doesn't have is returned as empty content but isn't cached either.
+ */
 public class TFSContentStoreFactory {
     private static final Logger logger = LoggerFactory.getLogger(TFSContentStoreFactory.class);
 
-    public static TFSContentStore create(final String localPath, final int revision) throws IOException {
-        return new TFSTmpFileStore(localPath, revision);
+    // Downloads in progress by key
+    private static final ConcurrentMap<String, SettableFuture<TFSContentStore>> downloads =
+            new ConcurrentHashMap<String, SettableFuture<TFSContentStore>>();
+
+    public static TFSCachedFileStore create(final String key) throws IOException {
+        return TFSCachedFileStore.create(TFSRevisionCache.getInstance(), key);
     }
 
     @Nullable
-    public static TFSContentStore find(final String localPath, final int revision) throws IOException {
-        return TFSTmpFileStore.find(localPath, revision);
+    public static TFSContentStore find(final String key) {
+        return TFSCachedFileStore.find(TFSRevisionCache.getInstance(), key);
     }
 
     /**
      * Find the store for the given file path and if it doesn't already exist create it and download the file
      *
-     * @param localPath:  local path of the file which is used as the key in the store along with the revision number
+     * @param localPath:  local path of the file which is used to find the server path for the key in the store
      * @param revision:   revision number of the file
      * @param actualPath: file path acknowledged by the server (could differ local path in case of renames)
      * @return
      * @throws IOException
      */
     public static TFSContentStore findOrCreate(final String localPath, final int revision, final String actualPath, final Project project) throws IOException {
-        TFSContentStore store = TFSContentStoreFactory.find(localPath, revision);
+        final ServerContext serverContext = TFSVcs.getInstance(project).getServerContext(false);
+        final String key = createKey(project, serverContext, localPath, revision, actualPath);
+        if (key == null) {
+            return downloadTemporary(serverContext, revision, actualPath);
+        }
+        TFSContentStore store = TFSContentStoreFactory.find(key);
         if (store == null) {
+            store = download(key, serverContext, revision, actualPath);
+        }
+        return store;
+    }
+
+    /**
+     * Downloads the file into a store that isn't added to the cache
+     */
+    private static TFSContentStore downloadTemporary(final ServerContext serverContext, final int revision, final String actualPath) {
+        try {
+            final TFSCachedFileStore store = TFSCachedFileStore.createTemporary(TFSRevisionCache.getInstance());
+            final Command<String> command = new DownloadCommand(serverContext, actualPath, revision, store.getTmpFile().getPath(), true);
+            command.runSynchronously();
+            return store;
+        } catch (final Throwable t) {
+            // Can't let exceptions bubble out here to the caller. This method is called by the VCS provider code in various places.
+            logger.warn("Unable to download content for a TFVC file.", t);
+            return null;
+        }
+    }
+
+    /**
+     * Downloads the file into a new store. If the same file is already being downloaded by another thread (for example
+     * by the prefetcher) this waits on that download instead of starting another one.
+     */
+    private static TFSContentStore download(final String key, final ServerContext serverContext, final int revision, final String actualPath) {
+        final SettableFuture<TFSContentStore> download = SettableFuture.create();
+        final SettableFuture<TFSContentStore> existingDownload = downloads.putIfAbsent(key, download);
+        if (existingDownload != null) {
             try {
-                store = TFSContentStoreFactory.create(localPath, revision);
-                final ServerContext serverContext = TFSVcs.getInstance(project).getServerContext(false);
-                // By setting the IgnoreFileNotFound flag to true in DownloadCommand, we will get back an empty file if the file was deleted on the server or
-                // for some other reason doesn't exist.
-                final Command<String> command = new DownloadCommand(serverContext, actualPath, revision, store.getTmpFile().getPath(), true);
-                command.runSynchronously();
-            } catch (final Throwable t) {
-                // Can't let exceptions bubble out here to the caller. This method is called by the VCS provider code in various places.
-                logger.warn("Unable to download content for a TFVC file.", t);
+                return existingDownload.get();
+            } catch (final Exception e) {
+                logger.warn("Unable to wait on the download of a TFVC file.", e);
+                return null;
             }
         }
+
+        TFSCachedFileStore store = null;
+        try {
+            store = TFSContentStoreFactory.create(key);
+            // By setting the IgnoreFileNotFound flag to true in DownloadCommand, we will get back an empty file if the file was deleted on the server or
+            // for some other reason doesn't exist.
+            final Command<String> command = new DownloadCommand(serverContext, actualPath, revision, store.getTmpFile().getPath(), true);
+            if (command.runSynchronously() != null) {
+                // Only complete downloads are added to the cache
+                store.publish();
+            } else {
+                // The empty content is only used this once, so that the revision is looked up again the next time
+                logger.info("download: " + actualPath + " was not found at revision " + revision + ", it won't be cached");
+            }
+        } catch (final Throwable t) {
+            // Can't let exceptions bubble out here to the caller. This method is called by the VCS provider code in various places.
+            logger.warn("Unable to download content for a TFVC file.", t);
+        } finally {
+            downloads.remove(key, download);
+            download.set(store);
+        }
         return store;
     }
-}
 
+    /**
+     * Creates the key for the store from the server path so that the key doesn't depend on where the workspace is
+     * mapped. Returns null if the server path can't be found.
+     */
+    @Nullable
+    private static String createKey(final Project project, final ServerContext serverContext, final String localPath,
+                                    final int revision, final String actualPath) {
+        String itemPath = actualPath;
+        if (!TfsFileUtil.isServerItem(itemPath)) {
+            try {
+                itemPath = ((TFSDiffProvider) TFSVcs.getInstance(project).getDiffProvider()).getServerPath(localPath);
+            } catch (final Throwable t) {
+                logger.warn("Unable to find the server path for " + localPath, t);
+                return null;
+            }
+            if (StringUtils.isEmpty(itemPath)) {
+                logger.info("createKey: no server path for " + localPath + ", the revision won't be cached");
+                return null;
+            }
+        }
+
+        final String collection = serverContext != null && serverContext.getCollectionURI() != null ?
+                serverContext.getCollectionURI().toString() : StringUtils.EMPTY;
+        return TFSRevisionCache.createKey(collection, itemPath, revision);
+    }
+}
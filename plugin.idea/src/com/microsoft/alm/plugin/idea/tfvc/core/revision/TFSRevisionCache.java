@@ -0,0 +1,476 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core.revision;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.application.PathManager;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent cache of the file revisions downloaded from the server. The cache is shared by all projects and is kept
+ * across restarts so that the same revision is only downloaded once.
+ * <p/>
+ * Each entry is keyed by the collection, the server path of the item and the changeset. The SHA-1 of the key names a
+ * small index file that holds the SHA-1 of the content, and the content itself is stored once per hash. Every file is
+ * written to a temp file first and renamed into place, so readers never see a partially written file and several IDE
+ * instances can share the cache directory.
+ * <p/>
+ * The total size of the content is kept under a budget by removing the least recently used content first. The last
+ * modified time of the files is used as the last access time so that it is shared between IDE instances as well.
+ * The directories are scanned by the first eviction only. After that the size of each content file and the index
+ * files pointing at it are kept in memory and updated by put, so an eviction neither lists the content nor reads the
+ * index files again. Content put by another IDE instance is left to that instance to evict.
+ */
+public class TFSRevisionCache {
+    private static final Logger logger = LoggerFactory.getLogger(TFSRevisionCache.class);
+
+    public static final String PROP_MAX_SIZE_MB = "com.microsoft.alm.plugin.tfvc.revisionCacheSizeMB";
+    private static final long DEFAULT_MAX_SIZE_MB = 512L;
+
+    private static final String CACHE_DIR_NAME = "tfvc-revisions";
+    private static final String CONTENT_DIR_NAME = "content";
+    private static final String INDEX_DIR_NAME = "index";
+    private static final String TMP_DIR_NAME = "tmp";
+    private static final String LOCK_FILE_NAME = ".lock";
+    private static final String ENCODING = "UTF-8";
+
+    // Eviction trims the cache a bit further than the budget so that it doesn't run again on the very next download
+    private static final double EVICTION_TARGET_RATIO = 0.9;
+    // Temp files older than this were left behind by downloads that failed or by an instance that was killed
+    private static final long TMP_FILE_MAX_AGE_MILLISECONDS = 24L * 60L * 60L * 1000L;
+
+    private final File contentDir;
+    private final File indexDir;
+    private final File tmpDir;
+    private final File lockFile;
+    private final long maxSize;
+    private final Object evictionLock = new Object();
+
+    // The size of the content in the cache as far as this instance knows, or -1 until the directory has been scanned
+    private final AtomicLong currentSize = new AtomicLong(-1L);
+    // The size of each content file by hash and the index files pointing at each hash, null until the directories have
+    // been scanned. Guarded by evictionLock
+    private Map<String, Long> contentSizes;
+    private final Map<String, Set<File>> indexFilesByHash = new HashMap<String, Set<File>>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private static class Holder {
+        private static final TFSRevisionCache INSTANCE = new TFSRevisionCache(
+                new File(PathManager.getSystemPath(), CACHE_DIR_NAME), getMaxSizeFromProperties());
+    }
+
+    public static TFSRevisionCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    @VisibleForTesting
+    TFSRevisionCache(final File rootDir, final long maxSize) {
+        ArgumentHelper.checkNotNull(rootDir, "rootDir");
+        this.contentDir = new File(rootDir, CONTENT_DIR_NAME);
+        this.indexDir = new File(rootDir, INDEX_DIR_NAME);
+        this.tmpDir = new File(rootDir, TMP_DIR_NAME);
+        this.lockFile = new File(rootDir, LOCK_FILE_NAME);
+        this.maxSize = maxSize;
+    }
+
+    private static long getMaxSizeFromProperties() {
+        final long sizeMB = SystemHelper.toLong(System.getProperty(PROP_MAX_SIZE_MB), DEFAULT_MAX_SIZE_MB);
+        return Math.max(sizeMB, 1L) * 1024L * 1024L;
+    }
+
+    /**
+     * Creates the key for a revision of an item. The item path should be the server path whenever it is known.
+     */
+    public static String createKey(final String collection, final String itemPath, final int changeset) {
+        ArgumentHelper.checkNotEmptyString(itemPath, "itemPath");
+        return StringUtils.defaultString(collection) + "\n" + itemPath + "\n" + changeset;
+    }
+
+    /**
+     * Returns the file holding the content for the key or null if the content is not in the cache.
+     * The content file must not be modified.
+     */
+    @Nullable
+    public File find(final String key) {
+        final File indexFile = getIndexFile(key);
+        final String hash = readIndexFile(indexFile);
+        if (hash != null) {
+            final File contentFile = getContentFile(hash);
+            if (contentFile.isFile()) {
+                // Mark both files as recently used
+                final long now = System.currentTimeMillis();
+                contentFile.setLastModified(now);
+                indexFile.setLastModified(now);
+                hitCount.incrementAndGet();
+                return contentFile;
+            }
+
+            // The content was evicted, so the index entry is no longer useful
+            indexFile.delete();
+        }
+
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Creates a new temp file in the cache directory for content that will be added to the cache with put.
+     */
+    public File createTempFile() throws IOException {
+        ensureDirectory(tmpDir);
+        return File.createTempFile("revision", ".tmp", tmpDir);
+    }
+
+    /**
+     * Moves the content of the temp file into the cache and records it for the key.
+     *
+     * @return the file holding the content in the cache
+     */
+    public File put(final String key, final File tempFile) throws IOException {
+        ArgumentHelper.checkNotNull(tempFile, "tempFile");
+        final String hash = toHex(calculateHash(tempFile));
+        final File contentFile = getContentFile(hash);
+        final long length = tempFile.length();
+
+        ensureDirectory(contentFile.getParentFile());
+        if (contentFile.isFile()) {
+            // Identical content is already stored (possibly by another IDE instance)
+            tempFile.delete();
+            contentFile.setLastModified(System.currentTimeMillis());
+        } else if (!replaceFile(tempFile, contentFile)) {
+            tempFile.delete();
+            throw new IOException("Unable to move downloaded content into the cache: " + contentFile.getPath());
+        }
+
+        final File indexFile = getIndexFile(key);
+        writeIndexFile(indexFile, hash);
+        addEntry(hash, length, indexFile);
+
+        if (currentSize.get() < 0 || currentSize.get() > maxSize) {
+            evict();
+        }
+
+        return contentFile;
+    }
+
+    /**
+     * Removes the least recently used content until the cache is within its size budget. Stale temp files and the index
+     * entries that point at the removed content are deleted as well.
+     * Only one IDE instance evicts at a time; if another instance holds the lock this method returns right away.
+     */
+    public void evict() {
+        synchronized (evictionLock) {
+            RandomAccessFile lockAccess = null;
+            FileLock lock = null;
+            try {
+                ensureDirectory(lockFile.getParentFile());
+                lockAccess = new RandomAccessFile(lockFile, "rw");
+                lock = lockAccess.getChannel().tryLock();
+                if (lock == null) {
+                    logger.info("evict: another instance is evicting from the revision cache");
+                    return;
+                }
+                evictUnderLock();
+            } catch (final IOException e) {
+                logger.warn("evict: failed to evict from the revision cache", e);
+            } catch (final OverlappingFileLockException e) {
+                logger.info("evict: the revision cache is already locked");
+            } finally {
+                try {
+                    if (lock != null) {
+                        lock.release();
+                    }
+                    if (lockAccess != null) {
+                        lockAccess.close();
+                    }
+                } catch (final IOException e) {
+                    logger.warn("evict: failed to release the revision cache lock", e);
+                }
+            }
+        }
+    }
+
+    private void evictUnderLock() {
+        if (contentSizes == null) {
+            scan();
+        }
+
+        long totalSize = currentSize.get();
+        if (totalSize > maxSize) {
+            // Sort by last access, oldest first
+            final Map<String, Long> lastAccessTimes = new HashMap<String, Long>(contentSizes.size());
+            for (final String hash : contentSizes.keySet()) {
+                lastAccessTimes.put(hash, getContentFile(hash).lastModified());
+            }
+            final List<String> hashes = new ArrayList<String>(contentSizes.keySet());
+            Collections.sort(hashes, new Comparator<String>() {
+                @Override
+                public int compare(final String hash1, final String hash2) {
+                    final long modified1 = lastAccessTimes.get(hash1);
+                    final long modified2 = lastAccessTimes.get(hash2);
+                    return modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1);
+                }
+            });
+
+            final long targetSize = (long) (maxSize * EVICTION_TARGET_RATIO);
+            for (final String hash : hashes) {
+                if (totalSize <= targetSize) {
+                    break;
+                }
+                final File file = getContentFile(hash);
+                // A file that is already gone was removed by another instance
+                if (file.delete() || !file.exists()) {
+                    totalSize -= contentSizes.remove(hash);
+                    evictionCount.incrementAndGet();
+                    // The content file is named by its hash, so the index entries holding that hash point at removed content,
+                    // unless they have been written again for other content since
+                    final Set<File> indexFiles = indexFilesByHash.remove(hash);
+                    if (indexFiles != null) {
+                        for (final File indexFile : indexFiles) {
+                            if (hash.equals(readIndexFile(indexFile))) {
+                                indexFile.delete();
+                            }
+                        }
+                    }
+                }
+            }
+            currentSize.set(totalSize);
+            logger.info("evict: revision cache size is now " + totalSize + " bytes");
+        }
+
+        final long tmpCutoff = System.currentTimeMillis() - TMP_FILE_MAX_AGE_MILLISECONDS;
+        for (final File file : listFiles(tmpDir)) {
+            if (file.lastModified() < tmpCutoff) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the size of every content file and the hash in every index file. Index files that point at content that
+     * is no longer there are deleted.
+     */
+    private void scan() {
+        contentSizes = new HashMap<String, Long>();
+        indexFilesByHash.clear();
+        long totalSize = 0;
+        for (final File file : listFiles(contentDir)) {
+            final long length = file.length();
+            contentSizes.put(file.getName(), length);
+            totalSize += length;
+        }
+        for (final File file : listFiles(indexDir)) {
+            final String hash = readIndexFile(file);
+            if (hash != null && contentSizes.containsKey(hash)) {
+                addIndexFile(hash, file);
+            } else {
+                file.delete();
+            }
+        }
+        currentSize.set(totalSize);
+    }
+
+    /**
+     * Records the content and the index file pointing at it once the directories have been scanned
+     */
+    private void addEntry(final String hash, final long length, final File indexFile) {
+        synchronized (evictionLock) {
+            if (contentSizes == null) {
+                return;
+            }
+            if (!contentSizes.containsKey(hash)) {
+                contentSizes.put(hash, length);
+                currentSize.addAndGet(length);
+            }
+            addIndexFile(hash, indexFile);
+        }
+    }
+
+    private void addIndexFile(final String hash, final File indexFile) {
+        Set<File> indexFiles = indexFilesByHash.get(hash);
+        if (indexFiles == null) {
+            indexFiles = new HashSet<File>(1);
+            indexFilesByHash.put(hash, indexFiles);
+        }
+        indexFiles.add(indexFile);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns the size of the content in the cache in bytes, as of the last put or eviction by this instance.
+     */
+    public long getSize() {
+        return Math.max(currentSize.get(), 0L);
+    }
+
+    private File getIndexFile(final String key) {
+        final String hash;
+        try {
+            hash = toHex(getDigest().digest(key.getBytes(ENCODING)));
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new File(new File(indexDir, hash.substring(0, 2)), hash);
+    }
+
+    private File getContentFile(final String hash) {
+        return new File(new File(contentDir, hash.substring(0, 2)), hash);
+    }
+
+    @Nullable
+    private String readIndexFile(final File indexFile) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), ENCODING));
+            final String hash = StringUtils.trimToNull(reader.readLine());
+            // Ignore anything that doesn't look like a hash so a damaged entry can't point outside of the cache
+            return hash != null && hash.length() > 2 && StringUtils.containsOnly(hash, "0123456789abcdef") ? hash : null;
+        } catch (final FileNotFoundException e) {
+            return null;
+        } catch (final IOException e) {
+            logger.warn("Unable to read revision cache index file " + indexFile.getPath(), e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    private void writeIndexFile(final File indexFile, final String hash) throws IOException {
+        ensureDirectory(indexFile.getParentFile());
+        final File tempFile = createTempFile();
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING);
+            writer.write(hash);
+            writer.write("\n");
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+
+        if (!replaceFile(tempFile, indexFile)) {
+            tempFile.delete();
+            throw new IOException("Unable to write revision cache index file " + indexFile.getPath());
+        }
+    }
+
+    /**
+     * Renames the source file to the target. Renaming over an existing file fails on some platforms, in which case
+     * the target is deleted and the rename is tried once more.
+     */
+    private static boolean replaceFile(final File source, final File target) {
+        if (source.renameTo(target)) {
+            return true;
+        }
+        target.delete();
+        return source.renameTo(target);
+    }
+
+    private static void ensureDirectory(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create directory " + directory.getPath());
+        }
+    }
+
+    /**
+     * Lists the files in the two level directory structure used for the content and index files.
+     */
+    private static List<File> listFiles(final File directory) {
+        final List<File> result = new ArrayList<File>();
+        final File[] children = directory.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                if (child.isDirectory()) {
+                    final File[] files = child.listFiles();
+                    if (files != null) {
+                        for (final File file : files) {
+                            if (file.isFile()) {
+                                result.add(file);
+                            }
+                        }
+                    }
+                } else if (child.isFile()) {
+                    result.add(child);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static byte[] calculateHash(final File file) throws IOException {
+        final MessageDigest digest = getDigest();
+        InputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            return digest.digest();
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
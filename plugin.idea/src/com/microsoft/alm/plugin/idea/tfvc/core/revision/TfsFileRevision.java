@@ -47,6 +47,7 @@ public class TfsFileRevision implements VcsFileRevision {
     private final String commitMessage;
     private final String modificationDate;
     private byte[] content;
+    private TFSContentRevision contentRevision;
 
     public TfsFileRevision(final Project project,
                            final @NotNull FilePath localPath,
@@ -78,12 +79,20 @@ public class TfsFileRevision implements VcsFileRevision {
 
     @Override
     public byte[] loadContent() throws IOException, VcsException {
-        return content = createContentRevision().doGetContent();
+        final TFSContentRevision revision = createContentRevision();
+        final byte[] loadedContent = revision.doGetContent();
+        // Large content is only held softly by the content revision, which getContent reuses
+        content = revision.isLargeContent() ? null : loadedContent;
+        contentRevision = revision;
+        return loadedContent;
     }
 
     @Nullable
     @Override
     public byte[] getContent() throws IOException, VcsException {
+        if (content == null && contentRevision != null) {
+            return contentRevision.doGetContent();
+        }
         return content;
     }
 
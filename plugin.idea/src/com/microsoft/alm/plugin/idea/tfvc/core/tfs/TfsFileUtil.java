@@ -19,6 +19,7 @@
 
 package com.microsoft.alm.plugin.idea.tfvc.core.tfs;
 
+import com.google.common.collect.MapMaker;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Ref;
@@ -36,8 +37,7 @@ import com.intellij.util.io.ReadOnlyAttributeUtil;
 import com.microsoft.alm.common.utils.ArgumentHelper;
 import com.microsoft.alm.plugin.external.models.Workspace;
 import com.microsoft.alm.plugin.idea.tfvc.exceptions.TfsException;
-import com.microsoft.alm.plugin.versioncontrol.path.LocalPath;
-import com.microsoft.alm.plugin.versioncontrol.path.ServerPath;
+import com.microsoft.alm.plugin.versioncontrol.path.WorkspaceMappingIndex;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -58,12 +58,18 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 // TODO review usage of getFilePath(), getVirtualFile()
 
 public class TfsFileUtil {
     public static final Logger logger = LoggerFactory.getLogger(TfsFileUtil.class);
 
+    // The lists of mappings are compared by identity, and their indexes are dropped along with them
+    private static final Map<List<Workspace.Mapping>, WorkspaceMappingIndex> mappingIndexes = new MapMaker().weakKeys().makeMap();
+    private static final AtomicLong mappingsRevision = new AtomicLong();
+
     public interface ContentWriter {
         void write(OutputStream outputStream) throws TfsException;
     }
@@ -375,28 +381,19 @@ public class TfsFileUtil {
         ArgumentHelper.checkNotEmptyString(serverPath, "serverPath");
         ArgumentHelper.checkNotNull(mappings, "mappings");
 
-        int mappingLength = 0;
-        Workspace.Mapping foundMapping = null;
-
-        for (final Workspace.Mapping mapping : mappings) {
-            if (mapping == null) {
-                continue;
-            }
-
-            if (ServerPath.isChild(mapping.getServerPath(), serverPath) && mapping.getServerPath().length() > mappingLength) {
-                // This is the closest new mapping.
-                foundMapping = mapping;
-                mappingLength = mapping.getServerPath().length();
-            }
-        }
+        return getMappingIndex(mappings).translateServerItemToLocalItem(serverPath);
+    }
 
-        if (foundMapping != null) {
-            final String localPath = foundMapping.isCloaked() ? null :
-                    ServerPath.makeLocal(serverPath, foundMapping.getServerPath(), foundMapping.getLocalPath());
-            return localPath;
-        }
+    /**
+     * Translates many server paths to local paths using the supplied working folder mappings
+     *
+     * @return the local paths in the same order, with null for the items that aren't mapped or are cloaked
+     */
+    public static List<String> translateServerItemsToLocalItems(final List<Workspace.Mapping> mappings, final List<String> serverPaths) {
+        ArgumentHelper.checkNotNull(serverPaths, "serverPaths");
+        ArgumentHelper.checkNotNull(mappings, "mappings");
 
-        return null;
+        return getMappingIndex(mappings).translateServerItemsToLocalItems(serverPaths);
     }
 
     /**
@@ -422,51 +419,46 @@ public class TfsFileUtil {
         ArgumentHelper.checkNotEmptyString(localPath, "localPath");
         ArgumentHelper.checkNotNull(mappings, "mappings");
 
-        int mappingLength = 0;
-        Workspace.Mapping foundMapping = null;
+        return getMappingIndex(mappings).translateLocalItemToServerItem(localPath);
+    }
 
-        for (final Workspace.Mapping wf : mappings) {
-            if (wf == null || wf.isCloaked()) {
-                continue;
-            }
+    /**
+     * Translates many local paths to server paths using the supplied working folder mappings
+     *
+     * @return the server paths in the same order, with null for the items that aren't mapped or are cloaked
+     */
+    public static List<String> translateLocalItemsToServerItems(final List<String> localPaths, final List<Workspace.Mapping> mappings) {
+        ArgumentHelper.checkNotNull(localPaths, "localPaths");
+        ArgumentHelper.checkNotNull(mappings, "mappings");
 
-            final String wfLocalItem = wf.getLocalPath();
+        return getMappingIndex(mappings).translateLocalItemsToServerItems(localPaths);
+    }
 
-            if (LocalPath.isChild(wfLocalItem, localPath) && wfLocalItem.length() > mappingLength) {
-                // This is the closest new mapping.
-                foundMapping = wf;
-                mappingLength = wfLocalItem.length();
-            }
+    /**
+     * Gets the index of the mappings, which is only built the first time a list of mappings is used
+     */
+    public static WorkspaceMappingIndex getMappingIndex(final List<Workspace.Mapping> mappings) {
+        WorkspaceMappingIndex index = mappingIndexes.get(mappings);
+        if (index == null) {
+            index = new WorkspaceMappingIndex(mappings);
+            mappingIndexes.put(mappings, index);
         }
+        return index;
+    }
 
-        if (foundMapping != null) {
-            final String mappingLocalItem = foundMapping.getLocalPath();
-            final String mappingServerItem = foundMapping.getServerPath();
-
-            final String serverPath = LocalPath.makeServer(localPath, mappingLocalItem, mappingServerItem);
-            boolean isCloaked = false;
-
-            /*
-             * We have the server path for the local path, but the server path
-             * could be cloaked.
-             */
-            final int mappingServerPathLength = mappingServerItem.length();
-            for (final Workspace.Mapping wf : mappings) {
-                if (wf == null || wf.isCloaked() == false) {
-                    continue;
-                }
-
-                final String wfServerItem = wf.getServerPath();
-
-                if (wfServerItem.length() > mappingServerPathLength && ServerPath.isChild(wfServerItem, serverPath)) {
-                    isCloaked = true;
-                    break;
-                }
-            }
-
-            return isCloaked ? null : serverPath;
-        }
+    /**
+     * Call this when the mappings of a workspace have been changed, so that the mappings kept to translate paths are
+     * read again
+     */
+    public static void invalidateMappings() {
+        mappingsRevision.incrementAndGet();
+        mappingIndexes.clear();
+    }
 
-        return null;
+    /**
+     * Gets a number that changes every time the mappings are invalidated
+     */
+    public static long getMappingsRevision() {
+        return mappingsRevision.get();
     }
-}
\ No newline at end of file
+}
@@ -25,6 +25,7 @@ import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.CurrentContentRevision;
@@ -45,6 +46,7 @@ import com.microsoft.alm.plugin.external.models.PendingChange;
 import com.microsoft.alm.plugin.external.models.RenameConflict;
 import com.microsoft.alm.plugin.external.models.ServerStatusType;
 import com.microsoft.alm.plugin.external.models.VersionSpec;
+import com.microsoft.alm.plugin.external.utils.BatchHelper;
 import com.microsoft.alm.plugin.external.utils.CommandUtils;
 import com.microsoft.alm.plugin.idea.common.resources.TfPluginBundle;
 import com.microsoft.alm.plugin.idea.common.ui.common.ModelValidationInfo;
@@ -69,7 +71,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * Helper to resolve conflicts found when updating TFVC files
@@ -524,12 +529,16 @@ public class ResolveConflictHelper {
 
     /**
      * Resolve the conflicts based on auto resolve type and then refresh the table model to update the list of conflicts
+     * <p/>
+     * The conflicts are resolved in batches that fit on the command line and each batch is removed from the table as
+     * soon as it is resolved
      *
      * @param conflicts
      * @param type
      */
     public void acceptChangeAsync(final List<Conflict> conflicts, final ResolveConflictsCommand.AutoResolveType type, final ResolveConflictsModel model) {
-        logger.info(String.format("Accepting changes to %s for file %s", type.name(), Arrays.toString(conflicts.toArray())));
+        logger.info(String.format("Accepting changes to %s for %d files", type.name(), conflicts.size()));
+        logger.debug("Accepting changes for files {}", Arrays.toString(conflicts.toArray()));
         final Task.Backgroundable loadConflictsTask = new Task.Backgroundable(project, TfPluginBundle.message(TfPluginBundle.KEY_TFVC_CONFLICT_RESOLVING_PROGRESS_BAR),
                 true, PerformInBackgroundOption.DEAF) {
 
@@ -543,36 +552,113 @@ public class ResolveConflictHelper {
 
     @VisibleForTesting
     protected void acceptChange(final List<Conflict> conflicts, final ProgressIndicator progressIndicator, final Project project, final ResolveConflictsCommand.AutoResolveType type, final ResolveConflictsModel model) {
-        for (final Conflict conflict : conflicts) {
-            try {
-                progressIndicator.setText(TfPluginBundle.message(TfPluginBundle.KEY_TFVC_CONFLICT_RESOLVING_STATUS, conflict.getLocalPath()));
-                final List<Conflict> resolved = CommandUtils.resolveConflictsByConflict(TFSVcs.getInstance(project).getServerContext(false), Arrays.asList(conflict), type);
+        // resolve the conflicts in as few calls to the command line as possible instead of one call per conflict
+        final List<List<Conflict>> batches = splitIntoBatches(conflicts);
+        int resolvedCount = 0;
+        for (int i = 0; i < batches.size(); i++) {
+            final List<Conflict> batch = batches.get(i);
+            IdeaHelper.setProgress(progressIndicator, 0.5 * resolvedCount / conflicts.size(),
+                    batch.size() == 1 ?
+                            TfPluginBundle.message(TfPluginBundle.KEY_TFVC_CONFLICT_RESOLVING_STATUS, batch.get(0).getLocalPath()) :
+                            TfPluginBundle.message(TfPluginBundle.KEY_TFVC_CONFLICT_RESOLVING_BATCH_STATUS, resolvedCount + 1, resolvedCount + batch.size(), conflicts.size()));
+            acceptChangeBatch(batch, project, type, model);
+            resolvedCount += batch.size();
+        }
+
+        // update status bar
+        IdeaHelper.setProgress(progressIndicator, 0.5, TfPluginBundle.message(TfPluginBundle.KEY_TFVC_CONFLICT_RESOLVING_REFRESH));
+
+        try {
+            // refresh conflicts so resolved ones are removed
+            findConflicts(model);
+        } catch (VcsException e) {
+            model.addError(ModelValidationInfo.createWithMessage(e.getMessage()));
+        }
+    }
 
-                // check if error is a rename so the correct file name is displayed in the Update Info tab
-                if (resolved != null && resolved.size() > 0) {
+    /**
+     * Resolves a batch of conflicts with a single command and removes the ones that were resolved from the table
+     */
+    private void acceptChangeBatch(final List<Conflict> batch, final Project project, final ResolveConflictsCommand.AutoResolveType type, final ResolveConflictsModel model) {
+        final List<Conflict> resolvedConflicts = new ArrayList<Conflict>(batch.size());
+        try {
+            final List<Conflict> resolved = CommandUtils.resolveConflictsByConflict(TFSVcs.getInstance(project).getServerContext(false), batch, type);
+
+            // the command only lists the paths of the conflicts it resolved, so if it lists as many as it was given
+            // they were all resolved even if the paths are written differently
+            final boolean allResolved = resolved != null && resolved.size() == batch.size();
+            final Set<String> resolvedPaths = new HashSet<String>();
+            if (resolved != null && !allResolved) {
+                for (final Conflict conflict : resolved) {
+                    resolvedPaths.add(getPathKey(conflict.getLocalPath()));
+                }
+            }
+
+            for (final Conflict conflict : batch) {
+                if (allResolved || resolvedPaths.contains(getPathKey(conflict.getLocalPath()))) {
+                    // check if error is a rename so the correct file name is displayed in the Update Info tab
                     if (conflict instanceof RenameConflict && ResolveConflictsCommand.AutoResolveType.TakeTheirs.equals(type)) {
                         acceptChanges(((RenameConflict) conflict).getServerPath(), type);
                     } else {
                         acceptChanges(conflict.getLocalPath(), type);
                     }
+                    resolvedConflicts.add(conflict);
                 } else {
-                    skip(Arrays.asList(conflict));
+                    skip(conflict.getLocalPath());
                 }
-            } catch (Exception e) {
-                logger.error("Error while handling merge resolution: " + e.getMessage());
+            }
+        } catch (Exception e) {
+            logger.error("Error while handling merge resolution: " + e.getMessage());
+            for (final Conflict conflict : batch) {
                 model.addError(ModelValidationInfo.createWithMessage(TfPluginBundle.message(TfPluginBundle.KEY_TFVC_CONFLICT_MERGE_ERROR, conflict.getLocalPath(), e.getMessage())));
             }
         }
 
-        // update status bar
-        IdeaHelper.setProgress(progressIndicator, 0.5, TfPluginBundle.message(TfPluginBundle.KEY_TFVC_CONFLICT_RESOLVING_REFRESH));
+        if (!resolvedConflicts.isEmpty()) {
+            IdeaHelper.runOnUIThread(new Runnable() {
+                @Override
+                public void run() {
+                    model.getConflictsTableModel().removeConflicts(resolvedConflicts);
+                }
+            });
+        }
+    }
 
+    /**
+     * Normalizes a local path so that the paths listed by the command can be compared to the paths of the conflicts
+     */
+    @VisibleForTesting
+    protected static String getPathKey(final String localPath) {
+        if (StringUtils.isEmpty(localPath)) {
+            return StringUtils.EMPTY;
+        }
+        String path;
         try {
-            // refresh conflicts so resolved ones are removed
-            findConflicts(model);
-        } catch (VcsException e) {
-            model.addError(ModelValidationInfo.createWithMessage(e.getMessage()));
+            path = new File(localPath).getCanonicalPath();
+        } catch (final IOException e) {
+            path = new File(localPath).getAbsolutePath();
+        }
+        return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Splits the conflicts into batches whose paths fit on a single command line
+     */
+    @VisibleForTesting
+    protected static List<List<Conflict>> splitIntoBatches(final List<Conflict> conflicts) {
+        final List<String> paths = new ArrayList<String>(conflicts.size());
+        for (final Conflict conflict : conflicts) {
+            paths.add(conflict.getLocalPath());
+        }
+
+        // the batches keep the order of the paths so they line up with the conflicts
+        final List<List<Conflict>> batches = new ArrayList<List<Conflict>>();
+        int index = 0;
+        for (final List<String> batch : BatchHelper.splitIntoBatches(paths)) {
+            batches.add(conflicts.subList(index, index + batch.size()));
+            index += batch.size();
         }
+        return batches;
     }
 
     /**
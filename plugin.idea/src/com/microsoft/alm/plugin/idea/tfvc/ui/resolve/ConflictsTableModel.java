@@ -25,6 +25,7 @@ import org.apache.commons.lang.StringUtils;
 
 import javax.swing.table.AbstractTableModel;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -101,6 +102,15 @@ public class ConflictsTableModel extends AbstractTableModel {
         fireTableDataChanged();
     }
 
+    /**
+     * Removes the given conflicts from the table, such as the ones that were just resolved
+     */
+    public void removeConflicts(final Collection<Conflict> conflicts) {
+        if (myConflicts.removeAll(conflicts)) {
+            fireTableDataChanged();
+        }
+    }
+
     public List<Conflict> getMyConflicts() {
         return myConflicts;
     }
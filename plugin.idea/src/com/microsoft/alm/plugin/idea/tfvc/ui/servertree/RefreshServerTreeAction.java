@@ -0,0 +1,40 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.ui.servertree;
+
+import com.intellij.openapi.actionSystem.ActionPlaces;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.microsoft.alm.plugin.idea.common.actions.InstrumentedAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RefreshServerTreeAction extends InstrumentedAction {
+    public static Logger logger = LoggerFactory.getLogger(RefreshServerTreeAction.class);
+
+    public RefreshServerTreeAction() {
+        super(false);
+    }
+
+    @Override
+    public void doUpdate(final AnActionEvent e) {
+        boolean isEnabled = isEnabled(e);
+        if (ActionPlaces.isPopupPlace(e.getPlace())) {
+            e.getPresentation().setVisible(isEnabled);
+        } else {
+            e.getPresentation().setEnabled(isEnabled);
+        }
+    }
+
+    private static boolean isEnabled(final AnActionEvent e) {
+        final TfsTreeForm form = TfsTreeForm.KEY.getData(e.getDataContext());
+        return form != null && form.getSelectedItem() != null && form.getSelectedItem().isDirectory;
+    }
+
+    @Override
+    public void doActionPerformed(final AnActionEvent e) {
+        final TfsTreeForm form = TfsTreeForm.KEY.getData(e.getDataContext());
+        logger.info("Refreshing the selected server folder");
+        form.refreshSelectedFolder();
+    }
+}
@@ -0,0 +1,259 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.ui.servertree;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
+import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.exceptions.TeamServicesException;
+import com.microsoft.alm.sourcecontrol.webapi.model.TfvcItem;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the children of the server folders that were browsed, so that expanding, collapsing and repainting the
+ * server tree doesn't ask the server for the same folder again.
+ * <p/>
+ * There is one cache per server context. Folders are kept for {@link #PROP_TTL_SECONDS} or until they are refreshed.
+ * When the children of a folder are loaded, the children of its first subfolders are loaded in the background since
+ * they are likely to be expanded next. Threads asking for a folder that is already being loaded wait for that request
+ * instead of making their own.
+ */
+public class TfsTreeCache {
+    private static final Logger logger = LoggerFactory.getLogger(TfsTreeCache.class);
+
+    public static final String PROP_TTL_SECONDS = "com.microsoft.alm.plugin.tfvc.serverTree.ttlSeconds";
+    private static final long DEFAULT_TTL_SECONDS = 120L;
+    private static final int MAX_PREFETCH_FOLDERS = 10;
+    private static final int MAX_PREFETCH_THREADS = 2;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60L;
+
+    /**
+     * Asks the server for the children of a folder
+     */
+    public interface Loader {
+        List<TfvcItem> load(String path);
+    }
+
+    private static class Entry {
+        private final List<TfvcItem> children;
+        private final long loadedTime;
+
+        public Entry(final List<TfvcItem> children, final long loadedTime) {
+            this.children = children;
+            this.loadedTime = loadedTime;
+        }
+    }
+
+    // The caches don't keep their server context alive once it is no longer used
+    private static final Map<ServerContext, TfsTreeCache> caches = new WeakHashMap<ServerContext, TfsTreeCache>();
+    private static final Executor PREFETCH_EXECUTOR = createPrefetchExecutor();
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Map<String, FutureTask<List<TfvcItem>>> loading = new HashMap<String, FutureTask<List<TfvcItem>>>();
+    private final long ttlMilliseconds;
+    private final int maxPrefetchFolders;
+    private final Executor prefetchExecutor;
+    // Incremented every time folders are refreshed, so that requests started before don't put them back
+    private long generation = 0;
+
+    @VisibleForTesting
+    TfsTreeCache(final long ttlMilliseconds, final int maxPrefetchFolders, final Executor prefetchExecutor) {
+        this.ttlMilliseconds = ttlMilliseconds;
+        this.maxPrefetchFolders = maxPrefetchFolders;
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    public static TfsTreeCache getInstance(final ServerContext serverContext) {
+        ArgumentHelper.checkNotNull(serverContext, "serverContext");
+        synchronized (caches) {
+            TfsTreeCache cache = caches.get(serverContext);
+            if (cache == null) {
+                final long ttlSeconds = Math.max(
+                        SystemHelper.toLong(System.getProperty(PROP_TTL_SECONDS), DEFAULT_TTL_SECONDS), 0L);
+                cache = new TfsTreeCache(TimeUnit.SECONDS.toMillis(ttlSeconds), MAX_PREFETCH_FOLDERS, PREFETCH_EXECUTOR);
+                caches.put(serverContext, cache);
+            }
+            return cache;
+        }
+    }
+
+    private static Executor createPrefetchExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PREFETCH_THREADS, MAX_PREFETCH_THREADS,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TfsTreePrefetch-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the children of the folder, loading them if they aren't kept or are too old. The first subfolders of a
+     * folder that had to be loaded are loaded in the background.
+     */
+    public List<TfvcItem> getChildItems(final String path, final Loader loader) {
+        ArgumentHelper.checkNotEmptyString(path, "path");
+        ArgumentHelper.checkNotNull(loader, "loader");
+
+        final List<TfvcItem> children = getCachedChildItems(path);
+        if (children != null) {
+            return children;
+        }
+
+        final List<TfvcItem> loaded = load(path, loader);
+        prefetch(loaded, loader);
+        return new ArrayList<TfvcItem>(loaded);
+    }
+
+    /**
+     * Drops the folder and everything under it so that they are loaded again the next time they are needed
+     */
+    public void refresh(final String path) {
+        ArgumentHelper.checkNotEmptyString(path, "path");
+        final String key = getKey(path);
+        synchronized (this) {
+            generation++;
+            final Iterator<String> iterator = entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                final String entryKey = iterator.next();
+                if (StringUtils.equals(entryKey, key) || StringUtils.startsWith(entryKey, StringUtils.removeEnd(key, "/") + "/")) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    private List<TfvcItem> getCachedChildItems(final String path) {
+        synchronized (this) {
+            final Entry entry = entries.get(getKey(path));
+            if (entry != null && System.currentTimeMillis() - entry.loadedTime < ttlMilliseconds) {
+                return new ArrayList<TfvcItem>(entry.children);
+            }
+            return null;
+        }
+    }
+
+    private List<TfvcItem> load(final String path, final Loader loader) {
+        final String key = getKey(path);
+        final FutureTask<List<TfvcItem>> task;
+        boolean owner = false;
+        synchronized (this) {
+            final FutureTask<List<TfvcItem>> running = loading.get(key);
+            if (running != null) {
+                task = running;
+            } else {
+                final long startGeneration = generation;
+                task = new FutureTask<List<TfvcItem>>(new Callable<List<TfvcItem>>() {
+                    @Override
+                    public List<TfvcItem> call() throws Exception {
+                        final List<TfvcItem> children = Collections.unmodifiableList(new ArrayList<TfvcItem>(loader.load(path)));
+                        synchronized (TfsTreeCache.this) {
+                            if (startGeneration == generation) {
+                                entries.put(key, new Entry(children, System.currentTimeMillis()));
+                            }
+                        }
+                        return children;
+                    }
+                });
+                loading.put(key, task);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    loading.remove(key);
+                }
+            }
+        } else {
+            logger.debug("load: waiting for the request that is already loading {}", path);
+        }
+
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TeamServicesException(TeamServicesException.KEY_OPERATION_ERRORS, e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new TeamServicesException(TeamServicesException.KEY_OPERATION_ERRORS, cause);
+        }
+    }
+
+    /**
+     * Loads the children of the first subfolders that aren't kept yet in the background
+     */
+    private void prefetch(final List<TfvcItem> children, final Loader loader) {
+        int count = 0;
+        for (final TfvcItem child : children) {
+            if (count >= maxPrefetchFolders) {
+                break;
+            }
+            if (!child.isFolder() || StringUtils.isEmpty(child.getPath())) {
+                continue;
+            }
+
+            final String childPath = child.getPath();
+            synchronized (this) {
+                final String key = getKey(childPath);
+                if (entries.containsKey(key) || loading.containsKey(key)) {
+                    continue;
+                }
+            }
+            count++;
+
+            prefetchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (getCachedChildItems(childPath) == null) {
+                            load(childPath, loader);
+                        }
+                    } catch (final Throwable t) {
+                        // the folder is loaded again when it is expanded
+                        logger.debug("prefetch: unable to load " + childPath, t);
+                    }
+                }
+            });
+        }
+    }
+
+    private static String getKey(final String path) {
+        // server paths are case insensitive
+        return path.toLowerCase(Locale.ENGLISH);
+    }
+}
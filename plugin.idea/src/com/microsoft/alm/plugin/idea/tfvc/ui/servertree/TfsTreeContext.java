@@ -43,18 +43,12 @@ public class TfsTreeContext {
         }
 
         try {
-            final List<TfvcItem> items = serverContext.getTfvcHttpClient().getItems(serverContext.getTeamProjectReference().getId(),
-                    path, VersionControlRecursionTypeCaseSensitive.ONE_LEVEL, new TfvcVersionDescriptor());
-            // API returns the parent along with its children so remove the parent from the list
-            TfvcItem parentItem = null;
-            for (final TfvcItem item : items) {
-                if (StringUtils.equals(item.getPath(), path)) {
-                    logger.info("Parent item found and being removed from children list");
-                    parentItem = item;
-                    break;
+            final List<TfvcItem> items = TfsTreeCache.getInstance(serverContext).getChildItems(path, new TfsTreeCache.Loader() {
+                @Override
+                public List<TfvcItem> load(final String folderPath) {
+                    return loadChildItems(folderPath);
                 }
-            }
-            items.remove(parentItem);
+            });
 
             // if only folders needed then filter them out of the list else just return
             if (foldersOnly) {
@@ -78,4 +72,30 @@ public class TfsTreeContext {
             throw new TfsException(e);
         }
     }
+
+    /**
+     * Drops the children of the folder and its subfolders so they are loaded from the server again
+     */
+    public void refresh(final String path) {
+        if (serverContext != null) {
+            TfsTreeCache.getInstance(serverContext).refresh(path);
+        }
+    }
+
+    private List<TfvcItem> loadChildItems(final String path) {
+        // the folders and files are kept together so the same list can be used by trees that show only folders
+        final List<TfvcItem> items = new ArrayList<TfvcItem>(serverContext.getTfvcHttpClient().getItems(serverContext.getTeamProjectReference().getId(),
+                path, VersionControlRecursionTypeCaseSensitive.ONE_LEVEL, new TfvcVersionDescriptor(), false));
+        // API returns the parent along with its children so remove the parent from the list
+        TfvcItem parentItem = null;
+        for (final TfvcItem item : items) {
+            if (StringUtils.equals(item.getPath(), path)) {
+                logger.info("Parent item found and being removed from children list");
+                parentItem = item;
+                break;
+            }
+        }
+        items.remove(parentItem);
+        return items;
+    }
 }
\ No newline at end of file
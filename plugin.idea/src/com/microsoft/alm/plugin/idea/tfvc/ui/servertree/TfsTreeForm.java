@@ -209,6 +209,24 @@ public class TfsTreeForm implements Disposable, DataProvider {
         });
     }
 
+    /**
+     * Reloads the selected folder and the folders under it from the server
+     */
+    public void refreshSelectedFolder() {
+        final Set<Object> selection = treeBuider.getSelectedElements();
+        if (selection.isEmpty()) {
+            return;
+        }
+
+        final Object o = selection.iterator().next();
+        if (!(o instanceof TfsTreeNode)) {
+            return;
+        }
+        final TfsTreeNode treeNode = (TfsTreeNode) o;
+        treeNode.refresh();
+        treeBuider.queueUpdateFrom(treeNode, true);
+    }
+
     public boolean canCreateVirtualFolders() {
         return canCreateVirtualFolders;
     }
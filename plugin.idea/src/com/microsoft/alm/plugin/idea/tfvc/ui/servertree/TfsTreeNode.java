@@ -141,6 +141,13 @@ public class TfsTreeNode extends SimpleNode {
         return result;
     }
 
+    /**
+     * Loads the children of this node and the nodes under it from the server again the next time they are shown
+     */
+    public void refresh() {
+        treeContext.refresh(path);
+    }
+
     public TfsTreeNode createVirtualSubfolder(final String folderName) {
         final String childPath = VersionControlPath.getCombinedServerPath(path, folderName);
         final TfsTreeNode child = new TfsTreeNode(this, childPath, true, true);
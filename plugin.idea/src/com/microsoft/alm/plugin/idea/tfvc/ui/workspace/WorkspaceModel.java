@@ -41,6 +41,7 @@ import com.microsoft.alm.plugin.idea.common.ui.common.AbstractModel;
 import com.microsoft.alm.plugin.idea.common.ui.common.ModelValidationInfo;
 import com.microsoft.alm.plugin.idea.common.utils.IdeaHelper;
 import com.microsoft.alm.plugin.idea.common.utils.VcsHelper;
+import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsFileUtil;
 import com.microsoft.alm.plugin.operations.OperationExecutor;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
@@ -325,6 +326,8 @@ public class WorkspaceModel extends AbstractModel {
 
             // Update the workspace mappings and other properties
             CommandUtils.updateWorkspace(serverContext, oldWorkspace, newWorkspace);
+            // The mappings kept to translate paths are out of date now
+            TfsFileUtil.invalidateMappings();
 
             if (syncFiles) {
                 IdeaHelper.setProgress(indicator, 0.30,
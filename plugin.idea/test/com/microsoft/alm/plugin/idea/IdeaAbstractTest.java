@@ -38,6 +38,11 @@ public class IdeaAbstractTest extends AbstractTest {
                     public void executeOnPooledThread(Runnable runnable) {
                         runnable.run();
                     }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return false;
+                    }
                 },
                 false);
 
@@ -4,11 +4,13 @@
 package com.microsoft.alm.plugin.idea.tfvc.core;
 
 import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.LocalFilePath;
 import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.vcsUtil.VcsUtil;
 import com.microsoft.alm.plugin.idea.IdeaAbstractTest;
+import com.microsoft.alm.plugin.idea.tfvc.core.revision.TFSContentPrefetcher;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Before;
 import org.junit.Test;
@@ -34,10 +36,12 @@ import java.util.List;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({VcsUtil.class})
+@PrepareForTest({VcsUtil.class, TFSContentPrefetcher.class})
 public class TFSChangeListTest extends IdeaAbstractTest {
     private static final int CHANGESET_ID = 123;
     private static final String AUTHOR = "John Smith";
@@ -67,12 +71,20 @@ public class TFSChangeListTest extends IdeaAbstractTest {
     @Mock
     private TFSVcs mockVcs;
 
+    @Mock
+    private Project mockProject;
+
+    @Mock
+    private TFSContentPrefetcher mockPrefetcher;
+
     private TFSChangeList changeList;
 
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
-        PowerMockito.mockStatic(VcsUtil.class);
+        PowerMockito.mockStatic(VcsUtil.class, TFSContentPrefetcher.class);
+        when(TFSContentPrefetcher.getInstance()).thenReturn(mockPrefetcher);
+        when(mockVcs.getProject()).thenReturn(mockProject);
 
         when(VcsUtil.getFilePath(addedFilePath1.getPath(), addedFilePath1.isDirectory())).thenReturn(addedFilePath1);
         when(VcsUtil.getFilePath(addedFilePath2.getPath(), addedFilePath2.isDirectory())).thenReturn(addedFilePath2);
@@ -157,6 +169,10 @@ public class TFSChangeListTest extends IdeaAbstractTest {
         assertEquals(Change.Type.MODIFICATION, changesList.get(8).getType());
         assertEquals(editedFilePath3, changesList.get(8).getBeforeRevision().getFile());
         assertEquals(editedFilePath3, changesList.get(8).getAfterRevision().getFile());
+
+        // the revisions are prefetched for the diffs once, when the changes are initialized
+        assertEquals(changes, changeList.getChanges());
+        verify(mockPrefetcher, times(1)).prefetchChanges(mockProject, changes);
     }
 
     @Test
@@ -0,0 +1,51 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.microsoft.alm.plugin.idea.IdeaAbstractTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TFSChangeProviderTest extends IdeaAbstractTest {
+
+    @Test
+    public void testGroupByVcsRoot() {
+        final ProjectLevelVcsManager vcsManager = mock(ProjectLevelVcsManager.class);
+        final VirtualFile root1 = mock(VirtualFile.class);
+        final VirtualFile root2 = mock(VirtualFile.class);
+        final FilePath file1 = createFilePath("/root1/file1.txt", vcsManager, root1);
+        final FilePath file2 = createFilePath("/root2/file2.txt", vcsManager, root2);
+        final FilePath file3 = createFilePath("/root1/folder/file3.txt", vcsManager, root1);
+        final FilePath unmapped = createFilePath("/other/file.txt", vcsManager, null);
+        final FilePath tfFolder = createFilePath("/root1/$tf/file.gz", vcsManager, root1);
+
+        final Map<VirtualFile, List<FilePath>> groups = TFSChangeProvider.groupByVcsRoot(
+                Arrays.asList(file1, file2, tfFolder, file3, unmapped), vcsManager);
+
+        // the roots keep their order and the files in the $tf folder are left out
+        assertEquals(Arrays.asList(root1, root2, null), Arrays.asList(groups.keySet().toArray()));
+        assertEquals(Arrays.asList(file1, file3), groups.get(root1));
+        assertEquals(Collections.singletonList(file2), groups.get(root2));
+        assertEquals(Collections.singletonList(unmapped), groups.get(null));
+    }
+
+    private static FilePath createFilePath(final String path, final ProjectLevelVcsManager vcsManager,
+                                           final VirtualFile vcsRoot) {
+        final FilePath filePath = mock(FilePath.class);
+        when(filePath.getPath()).thenReturn(path);
+        when(vcsManager.getVcsRootFor(filePath)).thenReturn(vcsRoot);
+        return filePath;
+    }
+}
@@ -0,0 +1,242 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.google.common.io.Files;
+import com.microsoft.alm.plugin.external.models.ChangeSet;
+import com.microsoft.alm.plugin.external.models.CheckedInChange;
+import com.microsoft.alm.plugin.external.models.ServerStatusType;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TFSChangesetCacheTest {
+    private static final String SCOPE = "http://server:8080/tfs/defaultcollection|workspace";
+    private static final String PATH = "/workspace/project/file.txt";
+    private static final long INTERVAL = 60000L;
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+        file = new File(dir, "history.dat");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testGetHistory_Cached() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(9), createChangeSet(5), createChangeSet(2));
+        final MockChangesetCache cache = new MockChangesetCache(INTERVAL, 10, 10);
+
+        assertEquals(3, cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0).size());
+        assertEquals(Collections.singletonList("C1~T|0"), source.requests);
+
+        // Any part of the known history is answered without asking the server
+        final List<ChangeSet> changeSets = cache.getHistory(source, SCOPE, PATH, false, 3, 9, 0);
+        assertEquals(2, changeSets.size());
+        assertEquals(9, changeSets.get(0).getIdAsInt());
+        assertEquals(5, changeSets.get(1).getIdAsInt());
+        assertEquals(1, cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 1).size());
+        assertEquals(1, source.requests.size());
+        assertEquals(2, cache.getHitCount());
+
+        // A different path, or the same path with recursion, is not known
+        assertNull(cache.find(SCOPE, PATH, true, 1, TFSChangesetCache.LATEST, 0));
+        assertNull(cache.find(SCOPE, "/workspace/project/other.txt", false, 1, TFSChangesetCache.LATEST, 0));
+    }
+
+    @Test
+    public void testGetHistory_Truncated() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(9), createChangeSet(5), createChangeSet(2));
+        final MockChangesetCache cache = new MockChangesetCache(INTERVAL, 10, 10);
+
+        assertEquals(2, cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 2).size());
+        // The history is only known back to changeset 5, so only asking for older changesets goes to the server
+        assertEquals(2, cache.getHistory(source, SCOPE, PATH, false, 5, TFSChangesetCache.LATEST, 0).size());
+        assertEquals(1, source.requests.size());
+        assertEquals(3, cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0).size());
+        assertEquals(2, source.requests.size());
+    }
+
+    @Test
+    public void testRefresh_OnlyNewerChangesets() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(9), createChangeSet(5));
+        final MockChangesetCache cache = new MockChangesetCache(0, 10, 10);
+        cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0);
+
+        source.changeSets.add(0, createChangeSet(12));
+        final List<ChangeSet> changeSets = cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0);
+        assertEquals(3, changeSets.size());
+        assertEquals(12, changeSets.get(0).getIdAsInt());
+        // The refresh asks for no more than the changesets kept for a path
+        assertEquals("C10~T|10", source.requests.get(1));
+        assertEquals(2, source.requests.size());
+        assertEquals(12, cache.getNewestChangeset(SCOPE, PATH, false));
+    }
+
+    @Test
+    public void testExpire() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(9), createChangeSet(5));
+        final MockChangesetCache cache = new MockChangesetCache(INTERVAL, 10, 10);
+        cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0);
+
+        // A changeset checked in within the refresh interval is read once the cache is expired
+        source.changeSets.add(0, createChangeSet(12));
+        assertEquals(2, cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0).size());
+        cache.expire();
+        final List<ChangeSet> changeSets = cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0);
+        assertEquals(3, changeSets.size());
+        assertEquals(12, changeSets.get(0).getIdAsInt());
+        assertEquals(2, source.requests.size());
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(9), createChangeSet(5));
+        final MockChangesetCache cache = new MockChangesetCache(INTERVAL, 10, 10);
+        cache.getHistory(source, SCOPE, PATH, true, 1, 9, 0);
+        cache.save();
+
+        final MockChangesetCache loadedCache = new MockChangesetCache(INTERVAL, 10, 10);
+        loadedCache.load();
+        final List<ChangeSet> changeSets = loadedCache.find(SCOPE, PATH, true, 1, 9, 0);
+        assertEquals(2, changeSets.size());
+        final ChangeSet changeSet = changeSets.get(0);
+        assertEquals("9", changeSet.getId());
+        assertEquals("owner", changeSet.getOwner());
+        assertEquals(StringUtils.repeat("comment ", 10000), changeSet.getComment());
+        assertEquals(1, changeSet.getChanges().size());
+        assertEquals("$/project/file.txt", changeSet.getChanges().get(0).getServerItem());
+        assertEquals(ServerStatusType.EDIT, changeSet.getChanges().get(0).getChangeTypes().get(0));
+        assertEquals(9, changeSet.getChanges().get(0).getChangeSetIdAsInt());
+    }
+
+    @Test
+    public void testMaxPaths() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(9));
+        final MockChangesetCache cache = new MockChangesetCache(INTERVAL, 2, 10);
+        cache.getHistory(source, SCOPE, "/path1", false, 1, 9, 0);
+        cache.getHistory(source, SCOPE, "/path2", false, 1, 9, 0);
+        cache.getHistory(source, SCOPE, "/path3", false, 1, 9, 0);
+
+        // The least recently used path is dropped
+        assertNull(cache.find(SCOPE, "/path1", false, 1, 9, 0));
+        assertEquals(1, cache.find(SCOPE, "/path3", false, 1, 9, 0).size());
+    }
+
+    @Test
+    public void testScopes() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(9), createChangeSet(5));
+        final MockChangesetCache cache = new MockChangesetCache(INTERVAL, 10, 10);
+        cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0);
+
+        // The same local path in another workspace or collection is another item
+        assertNull(cache.find("http://server:8080/tfs/defaultcollection|other", PATH, false, 1, TFSChangesetCache.LATEST, 0));
+        assertNull(cache.find("http://server:8080/tfs/other|workspace", PATH, false, 1, TFSChangesetCache.LATEST, 0));
+        assertEquals(2, cache.find(SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0).size());
+    }
+
+    @Test
+    public void testMappingsChanged() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(9), createChangeSet(5));
+        final MockChangesetCache cache = new MockChangesetCache(INTERVAL, 10, 10);
+        cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0);
+
+        cache.mappingsRevision++;
+        assertNull(cache.find(SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0));
+        assertEquals(2, cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0).size());
+        assertEquals(2, source.requests.size());
+    }
+
+    @Test
+    public void testMaxChangeSets() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(9), createChangeSet(5), createChangeSet(2));
+        final MockChangesetCache cache = new MockChangesetCache(INTERVAL, 10, 2);
+        assertEquals(3, cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0).size());
+
+        // Only the newest changesets are kept, so the older ones are read again
+        assertEquals(2, cache.find(SCOPE, PATH, false, 5, TFSChangesetCache.LATEST, 0).size());
+        assertNull(cache.find(SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0));
+    }
+
+    @Test
+    public void testRefresh_Limited() {
+        final MockHistorySource source = new MockHistorySource(createChangeSet(5));
+        final MockChangesetCache cache = new MockChangesetCache(0, 10, 2);
+        cache.getHistory(source, SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0);
+
+        source.changeSets.add(0, createChangeSet(7));
+        source.changeSets.add(0, createChangeSet(8));
+        source.changeSets.add(0, createChangeSet(9));
+        cache.refresh(source, SCOPE, PATH, false);
+
+        // The refresh reads no more than the changesets kept for a path, and the gap below them isn't known
+        assertEquals("C6~T|2", source.requests.get(1));
+        assertEquals(9, cache.getNewestChangeset(SCOPE, PATH, false));
+        assertEquals(2, cache.find(SCOPE, PATH, false, 8, TFSChangesetCache.LATEST, 0).size());
+        assertNull(cache.find(SCOPE, PATH, false, 1, TFSChangesetCache.LATEST, 0));
+    }
+
+    private ChangeSet createChangeSet(final int id) {
+        final List<CheckedInChange> changes = new ArrayList<CheckedInChange>();
+        changes.add(new CheckedInChange("$/project/file.txt", "edit", String.valueOf(id), "2016-08-15T11:50:09.427-0400"));
+        return new ChangeSet(String.valueOf(id), "owner", "committer", "2016-08-15T11:50:09.427-0400",
+                StringUtils.repeat("comment ", 10000), changes);
+    }
+
+    private class MockChangesetCache extends TFSChangesetCache {
+        private long mappingsRevision;
+
+        public MockChangesetCache(final long refreshInterval, final int maxPaths, final int maxChangeSets) {
+            super(file, refreshInterval, maxPaths, maxChangeSets);
+        }
+
+        @Override
+        protected long getMappingsRevision() {
+            return mappingsRevision;
+        }
+    }
+
+    private static class MockHistorySource implements TFSChangesetCache.HistorySource {
+        private final List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
+        private final List<String> requests = new ArrayList<String>();
+
+        public MockHistorySource(final ChangeSet... changeSets) {
+            Collections.addAll(this.changeSets, changeSets);
+        }
+
+        @Override
+        public List<ChangeSet> getHistory(final String versionRange, final int stopAfter) {
+            requests.add(versionRange + "|" + stopAfter);
+            final String[] range = versionRange.split("~");
+            final int from = Integer.parseInt(range[0].substring(1));
+            final int to = range[1].equals("T") ? Integer.MAX_VALUE : Integer.parseInt(range[1].substring(1));
+            final List<ChangeSet> results = new ArrayList<ChangeSet>();
+            for (final ChangeSet changeSet : changeSets) {
+                if (changeSet.getIdAsInt() >= from && changeSet.getIdAsInt() <= to &&
+                        (stopAfter <= 0 || results.size() < stopAfter)) {
+                    results.add(changeSet);
+                }
+            }
+            return results;
+        }
+    }
+}
@@ -4,6 +4,7 @@
 package com.microsoft.alm.plugin.idea.tfvc.core;
 
 import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.RepositoryLocation;
@@ -11,9 +12,11 @@ import com.intellij.openapi.vcs.versionBrowser.ChangeBrowserSettings;
 import com.intellij.openapi.vcs.versionBrowser.CommittedChangeList;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.AsynchConsumer;
-import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.external.commands.Command;
+import com.microsoft.alm.plugin.external.commands.HistoryCommand;
 import com.microsoft.alm.plugin.external.models.ChangeSet;
 import com.microsoft.alm.plugin.external.models.Workspace;
+import com.microsoft.alm.plugin.external.parsers.OutputParser;
 import com.microsoft.alm.plugin.external.utils.CommandUtils;
 import com.microsoft.alm.plugin.idea.IdeaAbstractTest;
 import org.apache.commons.lang.StringUtils;
@@ -22,6 +25,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -32,6 +37,7 @@ import java.util.List;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -39,7 +45,7 @@ import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({TFSVcs.class, CommandUtils.class, TFSCommittedChangesProvider.class})
+@PrepareForTest({TFSVcs.class, CommandUtils.class, TFSCommittedChangesProvider.class, ProgressManager.class})
 public class TFSCommittedChangesProviderTest extends IdeaAbstractTest {
     private static final String SERVER_URL = "https://account.visualstudio.com";
     private static final String LOCAL_ROOT_PATH = "/Users/user/root";
@@ -67,13 +73,19 @@ public class TFSCommittedChangesProviderTest extends IdeaAbstractTest {
     private ChangeSet mockChangeSet3;
     @Mock
     private TFSChangeListBuilder mockTFSChangeListBuilder;
+    @Mock
+    private HistoryCommand mockHistoryCommand;
+    @Mock
+    private HistoryCommand mockHistoryCommand2;
+    @Mock
+    private ProgressManager mockProgressManager;
 
     private TFSCommittedChangesProvider committedChangesProvider;
 
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
-        PowerMockito.mockStatic(TFSVcs.class, CommandUtils.class);
+        PowerMockito.mockStatic(TFSVcs.class, CommandUtils.class, ProgressManager.class);
 
         when(TFSVcs.getInstance(mockProject)).thenReturn(mockVcs);
         when(mockVirtualFile.getPath()).thenReturn(LOCAL_ROOT_PATH);
@@ -82,6 +94,7 @@ public class TFSCommittedChangesProviderTest extends IdeaAbstractTest {
         when(mockChangeBrowserSettings.getUserFilter()).thenReturn(USER_ME);
         when(CommandUtils.getPartialWorkspace(mockProject)).thenReturn(mockWorkspace);
         whenNew(TFSChangeListBuilder.class).withAnyArguments().thenReturn(mockTFSChangeListBuilder);
+        when(ProgressManager.getInstance()).thenReturn(mockProgressManager);
         when(mockChangeBrowserSettings.getChangeAfterFilter()).thenReturn(30L);
         when(mockChangeBrowserSettings.getChangeBeforeFilter()).thenReturn(50L);
 
@@ -106,8 +119,7 @@ public class TFSCommittedChangesProviderTest extends IdeaAbstractTest {
     @Test
     public void testLoadCommittedChanges_FoundChanges() throws Exception {
         final List<ChangeSet> changeSetList = ImmutableList.of(mockChangeSet1, mockChangeSet2, mockChangeSet3);
-        when(CommandUtils.getHistoryCommand(any(ServerContext.class), eq(LOCAL_ROOT_PATH), eq("C30~C50"),
-                eq(20), eq(true), eq(USER_ME))).thenReturn(changeSetList);
+        mockHistory(changeSetList);
         final RepositoryLocation repositoryLocation = new TFSRepositoryLocation(mockWorkspace, mockVirtualFile);
         committedChangesProvider.loadCommittedChanges(mockChangeBrowserSettings, repositoryLocation, 20, mockAsynchConsumer);
         verify(mockAsynchConsumer, times(3)).consume(any(TFSChangeList.class));
@@ -121,11 +133,54 @@ public class TFSCommittedChangesProviderTest extends IdeaAbstractTest {
     @Test
     public void testLoadCommittedChanges_NoChanges() throws Exception {
         final List<ChangeSet> changeSetList = Collections.EMPTY_LIST;
-        when(CommandUtils.getHistoryCommand(any(ServerContext.class), eq(LOCAL_ROOT_PATH), eq("C30~C50"),
-                eq(20), eq(true), eq(USER_ME))).thenReturn(changeSetList);
+        mockHistory(changeSetList);
         final RepositoryLocation repositoryLocation = new TFSRepositoryLocation(mockWorkspace, mockVirtualFile);
         committedChangesProvider.loadCommittedChanges(mockChangeBrowserSettings, repositoryLocation, 20, mockAsynchConsumer);
         verify(mockAsynchConsumer).finished();
         verifyNoMoreInteractions(mockAsynchConsumer);
     }
+
+    @Test
+    public void testLoadCommittedChanges_Paged() throws Exception {
+        System.setProperty(TFSCommittedChangesProvider.PROP_HISTORY_PAGE_SIZE, "2");
+        try {
+            mockHistory(mockHistoryCommand, "C30~C50", 2, ImmutableList.of(mockChangeSet1, mockChangeSet2));
+            mockHistory(mockHistoryCommand2, "C30~C39", 2, ImmutableList.of(mockChangeSet3));
+            final RepositoryLocation repositoryLocation = new TFSRepositoryLocation(mockWorkspace, mockVirtualFile);
+            committedChangesProvider.loadCommittedChanges(mockChangeBrowserSettings, repositoryLocation,
+                    committedChangesProvider.getUnlimitedCountValue(), mockAsynchConsumer);
+
+            // The previous checkin of the last changeset on a page comes from the next page
+            verify(mockAsynchConsumer, times(3)).consume(any(TFSChangeList.class));
+            verify(mockTFSChangeListBuilder).createChangeList(eq(mockChangeSet1), eq(40), eq("2016-07-11T12:00:00.000-0400"));
+            verify(mockTFSChangeListBuilder).createChangeList(eq(mockChangeSet2), eq(31), eq("2016-06-23T04:30:00.00-0400"));
+            verify(mockTFSChangeListBuilder).createChangeList(eq(mockChangeSet3), eq(0), eq(StringUtils.EMPTY));
+            verify(mockAsynchConsumer).finished();
+            verifyNoMoreInteractions(mockAsynchConsumer);
+        } finally {
+            System.clearProperty(TFSCommittedChangesProvider.PROP_HISTORY_PAGE_SIZE);
+        }
+    }
+
+    private void mockHistory(final List<ChangeSet> changeSets) throws Exception {
+        mockHistory(mockHistoryCommand, "C30~C50", 20, changeSets);
+    }
+
+    private void mockHistory(final HistoryCommand mockHistoryCommand, final String range, final int stopAfter,
+                             final List<ChangeSet> changeSets) throws Exception {
+        whenNew(HistoryCommand.class).withArguments(any(), eq(LOCAL_ROOT_PATH), eq(range),
+                eq(stopAfter), eq(true), eq(USER_ME)).thenReturn(mockHistoryCommand);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                final Command.Listener<List<ChangeSet>> listener = (Command.Listener<List<ChangeSet>>) invocation.getArguments()[0];
+                final OutputParser.ItemHandler<ChangeSet> itemHandler = (OutputParser.ItemHandler<ChangeSet>) invocation.getArguments()[1];
+                for (final ChangeSet changeSet : changeSets) {
+                    itemHandler.onItem(changeSet);
+                }
+                listener.completed(changeSets, null);
+                return null;
+            }
+        }).when(mockHistoryCommand).run(any(Command.Listener.class), any(OutputParser.ItemHandler.class));
+    }
 }
@@ -6,6 +6,7 @@ package com.microsoft.alm.plugin.idea.tfvc.core;
 import com.google.common.collect.ImmutableList;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsShowConfirmationOption;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -16,6 +17,7 @@ import com.microsoft.alm.plugin.external.models.ServerStatusType;
 import com.microsoft.alm.plugin.external.utils.CommandUtils;
 import com.microsoft.alm.plugin.idea.IdeaAbstractTest;
 import com.microsoft.alm.plugin.idea.common.utils.VcsHelper;
+import com.microsoft.alm.plugin.idea.tfvc.core.tfs.TfsFileUtil;
 import com.microsoft.alm.plugin.idea.tfvc.core.tfs.VersionControlPath;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,7 +45,8 @@ import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({CommandUtils.class, TFSVcs.class, LocalFileSystem.class, VersionControlPath.class, VcsHelper.class})
+@PrepareForTest({CommandUtils.class, TFSVcs.class, LocalFileSystem.class, VersionControlPath.class, VcsHelper.class, TfsFileUtil.class,
+        ProjectLevelVcsManager.class})
 public class TFSFileSystemListenerTest extends IdeaAbstractTest {
     private String CURRENT_FILE_NAME = "file.txt";
     private String NEW_FILE_NAME = "newName.txt";
@@ -52,6 +55,8 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
     private String NEW_FILE_PATH = Path.combine(PARENT_PATH, NEW_FILE_NAME);
     private String NEW_DIRECTORY_PATH = "/path/to/new/directory";
     private String MOVED_FILE_PATH = Path.combine(NEW_DIRECTORY_PATH, CURRENT_FILE_NAME);
+    private String OTHER_FILE_PATH = Path.combine(PARENT_PATH, "other.txt");
+    private long BATCH_DELAY_MILLIS = 60000L;
 
     private TFSFileSystemListener tfsFileSystemListener;
 
@@ -64,6 +69,9 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
     @Mock
     private VirtualFile mockNewDirectory;
 
+    @Mock
+    private VirtualFile mockOtherVirtualFile;
+
     @Mock
     private TFSVcs mockTFSVcs;
 
@@ -85,7 +93,8 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
-        PowerMockito.mockStatic(CommandUtils.class, TFSVcs.class, LocalFileSystem.class, VersionControlPath.class, VcsHelper.class);
+        PowerMockito.mockStatic(CommandUtils.class, TFSVcs.class, LocalFileSystem.class, VersionControlPath.class, VcsHelper.class, TfsFileUtil.class,
+                ProjectLevelVcsManager.class);
 
         when(mockTFSVcs.getProject()).thenReturn(mockProject);
         when(mockVcsShowConfirmationOption.getValue()).thenReturn(VcsShowConfirmationOption.Value.DO_ACTION_SILENTLY);
@@ -105,7 +114,7 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
         when(mockPendingChange.getLocalItem()).thenReturn(CURRENT_FILE_PATH);
         when(mockPendingChange.getVersion()).thenReturn("5");
 
-        tfsFileSystemListener = new TFSFileSystemListener();
+        tfsFileSystemListener = new TFSFileSystemListener(BATCH_DELAY_MILLIS);
     }
 
     @Test
@@ -281,8 +290,9 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(Collections.EMPTY_LIST);
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
-        assertTrue(result);
+        assertFalse(result);
         verifyDeleteCmd(CURRENT_FILE_PATH);
     }
 
@@ -294,6 +304,7 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(ImmutableList.of(mockPendingChange));
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
         assertFalse(result);
         verifyStatic(never());
@@ -309,8 +320,9 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(ImmutableList.of(mockPendingChange));
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
-        assertTrue(result);
+        assertFalse(result);
         verifyUndoCmd(CURRENT_FILE_PATH);
         verifyDeleteCmd(CURRENT_FILE_PATH);
     }
@@ -323,6 +335,7 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(ImmutableList.of(mockPendingChange));
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
         assertFalse(result);
         verifyUndoCmd(CURRENT_FILE_PATH);
@@ -338,6 +351,7 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(ImmutableList.of(mockPendingChange));
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
         assertFalse(result);
         verifyStatic(never());
@@ -353,8 +367,9 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(ImmutableList.of(mockPendingChange));
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
-        assertTrue(result);
+        assertFalse(result);
         verifyUndoCmd(CURRENT_FILE_PATH);
         verifyDeleteCmd(CURRENT_FILE_PATH);
     }
@@ -368,8 +383,9 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(ImmutableList.of(mockPendingChange));
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
-        assertTrue(result);
+        assertFalse(result);
         verifyDeleteCmd("$/server/path/to/file.txt");
     }
 
@@ -381,6 +397,7 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(ImmutableList.of(mockPendingChange));
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
         assertFalse(result);
         verifyStatic(never());
@@ -397,8 +414,9 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(ImmutableList.of(mockPendingChange));
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
-        assertTrue(result);
+        assertFalse(result);
         verifyUndoCmd(CURRENT_FILE_PATH);
         verifyDeleteCmd("$/server/path/to/file.txt");
     }
@@ -411,6 +429,7 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
                 .thenReturn(ImmutableList.of(mockPendingChange));
 
         boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+        tfsFileSystemListener.flush();
 
         assertFalse(result);
         verifyUndoCmd(CURRENT_FILE_PATH);
@@ -418,6 +437,115 @@ public class TFSFileSystemListenerTest extends IdeaAbstractTest {
         CommandUtils.deleteFiles(any(ServerContext.class), any(List.class), any(String.class), any(Boolean.class));
     }
 
+    @Test
+    public void testDelete_Queued() throws Exception {
+        boolean result = tfsFileSystemListener.delete(mockVirtualFile);
+
+        // the IDE deletes the file from disk, but the TFVC delete isn't run until the queue is flushed
+        assertFalse(result);
+        verifyStatic(never());
+        CommandUtils.deleteFiles(any(ServerContext.class), any(List.class), any(String.class), any(Boolean.class));
+    }
+
+    @Test
+    public void testDelete_FlushedBeforeCreate() throws Exception {
+        when(CommandUtils.getStatusForFiles(mockServerContext, ImmutableList.of(CURRENT_FILE_PATH)))
+                .thenReturn(Collections.EMPTY_LIST);
+
+        assertFalse(tfsFileSystemListener.delete(mockVirtualFile));
+        // creating another file doesn't need the queued delete
+        assertFalse(tfsFileSystemListener.createFile(mockVirtualParent, "other.txt"));
+        verifyStatic(never());
+        CommandUtils.deleteFiles(any(ServerContext.class), any(List.class), any(String.class), any(Boolean.class));
+
+        // creating the deleted file again runs the delete first
+        assertFalse(tfsFileSystemListener.createFile(mockVirtualParent, CURRENT_FILE_NAME));
+        verifyDeleteCmd(CURRENT_FILE_PATH);
+    }
+
+    @Test
+    public void testDelete_Batched() throws Exception {
+        when(VcsHelper.getTFSVcsByPath(mockOtherVirtualFile)).thenReturn(mockTFSVcs);
+        when(mockOtherVirtualFile.getPath()).thenReturn(OTHER_FILE_PATH);
+        when(CommandUtils.getStatusForFiles(eq(mockServerContext), any(List.class)))
+                .thenReturn(Collections.EMPTY_LIST);
+
+        assertFalse(tfsFileSystemListener.delete(mockVirtualFile));
+        assertFalse(tfsFileSystemListener.delete(mockOtherVirtualFile));
+        assertFalse(tfsFileSystemListener.delete(mockVirtualFile));
+        tfsFileSystemListener.flush();
+
+        // a file that is already queued isn't read again
+        verifyStatic(times(2));
+        CommandUtils.getStatusForFiles(any(ServerContext.class), any(List.class));
+        ArgumentCaptor<List> listArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        verifyStatic(times(1));
+        CommandUtils.deleteFiles(eq(mockServerContext), listArgumentCaptor.capture(), eq((String) null), eq(true));
+        assertEquals(ImmutableList.of(CURRENT_FILE_PATH, OTHER_FILE_PATH), listArgumentCaptor.getValue());
+    }
+
+    @Test
+    public void testDelete_AnsweredFromIndex() throws Exception {
+        final TFSPendingChangeIndex mockIndex = mock(TFSPendingChangeIndex.class);
+        final ProjectLevelVcsManager mockVcsManager = mock(ProjectLevelVcsManager.class);
+        final VirtualFile mockVcsRoot = mock(VirtualFile.class);
+        when(mockVcsRoot.getPath()).thenReturn("/path");
+        when(ProjectLevelVcsManager.getInstance(mockProject)).thenReturn(mockVcsManager);
+        when(mockVcsManager.getVcsRootFor(mockVirtualFile)).thenReturn(mockVcsRoot);
+        when(mockTFSVcs.getPendingChangeIndex()).thenReturn(mockIndex);
+        when(mockIndex.getKnownChanges("/path", CURRENT_FILE_PATH)).thenReturn(ImmutableList.of(mockPendingChange));
+        when(mockPendingChange.isCandidate()).thenReturn(false);
+        when(mockPendingChange.getChangeTypes()).thenReturn(ImmutableList.of(ServerStatusType.EDIT));
+
+        assertFalse(tfsFileSystemListener.delete(mockVirtualFile));
+        // nothing is run until the queue is flushed
+        verifyStatic(never());
+        CommandUtils.undoLocalFiles(any(ServerContext.class), any(List.class));
+        tfsFileSystemListener.flush();
+
+        verifyStatic(never());
+        CommandUtils.getStatusForFiles(any(ServerContext.class), any(List.class));
+        verifyUndoCmd(CURRENT_FILE_PATH);
+        verifyDeleteCmd(CURRENT_FILE_PATH);
+    }
+
+    @Test
+    public void testRename_FolderStatusReused() throws Exception {
+        final String thirdFilePath = Path.combine(PARENT_PATH, "third.txt");
+        final VirtualFile mockThirdVirtualFile = mock(VirtualFile.class);
+        for (final VirtualFile file : ImmutableList.of(mockOtherVirtualFile, mockThirdVirtualFile)) {
+            when(VcsHelper.getTFSVcsByPath(file)).thenReturn(mockTFSVcs);
+            when(file.getParent()).thenReturn(mockVirtualParent);
+        }
+        when(mockOtherVirtualFile.getPath()).thenReturn(OTHER_FILE_PATH);
+        when(mockOtherVirtualFile.getName()).thenReturn("other.txt");
+        when(mockThirdVirtualFile.getPath()).thenReturn(thirdFilePath);
+        when(mockThirdVirtualFile.getName()).thenReturn("third.txt");
+        when(mockPendingChange.getLocalItem()).thenReturn(thirdFilePath);
+        when(mockPendingChange.isCandidate()).thenReturn(true);
+        when(mockPendingChange.getChangeTypes()).thenReturn(ImmutableList.of(ServerStatusType.ADD));
+        when(CommandUtils.getStatusForFiles(mockServerContext, ImmutableList.of(CURRENT_FILE_PATH)))
+                .thenReturn(Collections.EMPTY_LIST);
+        when(CommandUtils.getStatusForFiles(mockServerContext, ImmutableList.of(PARENT_PATH)))
+                .thenReturn(ImmutableList.of(mockPendingChange));
+
+        // the second file moved out of the folder reads the status of the folder, the third one uses it
+        assertTrue(tfsFileSystemListener.move(mockVirtualFile, mockNewDirectory));
+        assertTrue(tfsFileSystemListener.move(mockOtherVirtualFile, mockNewDirectory));
+        assertFalse(tfsFileSystemListener.move(mockThirdVirtualFile, mockNewDirectory));
+        // a file that was renamed since the folder status was read gets its own status
+        assertTrue(tfsFileSystemListener.rename(mockOtherVirtualFile, NEW_FILE_NAME));
+
+        verifyStatic(times(1));
+        CommandUtils.getStatusForFiles(eq(mockServerContext), eq(ImmutableList.of(CURRENT_FILE_PATH)));
+        verifyStatic(times(1));
+        CommandUtils.getStatusForFiles(eq(mockServerContext), eq(ImmutableList.of(PARENT_PATH)));
+        verifyStatic(times(1));
+        CommandUtils.getStatusForFiles(eq(mockServerContext), eq(ImmutableList.of(OTHER_FILE_PATH)));
+        verifyStatic(times(3));
+        CommandUtils.renameFile(eq(mockServerContext), any(String.class), any(String.class));
+    }
+
     private void verifyDeleteCmd(final String path) {
         ArgumentCaptor<List> listArgumentCaptor = ArgumentCaptor.forClass(List.class);
         verifyStatic(times(1));
@@ -0,0 +1,180 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.google.common.collect.ImmutableList;
+import com.microsoft.alm.plugin.context.rest.VersionControlRecursionTypeCaseSensitive;
+import com.microsoft.alm.sourcecontrol.webapi.model.TfvcItem;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TFSItemVersionResolverTest {
+    private static final long CACHE_MILLISECONDS = 60000L;
+
+    @Test
+    public void testResolve_OneRequestPerFolder() {
+        final MockItemSource source = new MockItemSource(ImmutableList.of(
+                createItem("$/project/folder", true, 5),
+                createItem("$/project/folder/file1.txt", false, 3),
+                createItem("$/project/folder/file2.txt", false, 5)));
+        final TFSItemVersionResolver resolver = new TFSItemVersionResolver(CACHE_MILLISECONDS);
+
+        final Map<String, TFSItemVersionResolver.ItemVersion> versions = resolver.resolve(source,
+                Arrays.asList("$/project/folder/file1.txt", "$/project/folder/file2.txt", "$/project/folder/new.txt"));
+        assertEquals(2, versions.size());
+        assertEquals(3, versions.get("$/project/folder/file1.txt").getChangeset());
+        assertEquals(5, versions.get("$/project/folder/file2.txt").getChangeset());
+        assertFalse(versions.containsKey("$/project/folder/new.txt"));
+        assertEquals(Collections.singletonList("$/project/folder|OneLevel"), source.requests);
+
+        // The other files in the folder are answered from the cache, regardless of the case of the path
+        final Map<String, TFSItemVersionResolver.ItemVersion> cachedVersions = resolver.resolve(source,
+                Collections.singletonList("$/Project/Folder/FILE1.txt"));
+        assertEquals(3, cachedVersions.get("$/Project/Folder/FILE1.txt").getChangeset());
+        assertEquals(1, source.requests.size());
+        assertEquals(1, resolver.getHitCount());
+    }
+
+    @Test
+    public void testResolve_SingleItem() {
+        final MockItemSource source = new MockItemSource(ImmutableList.of(
+                createItem("$/project/folder/file1.txt", false, 3),
+                createItem("$/project/folder/file2.txt", false, 5)));
+        final TFSItemVersionResolver resolver = new TFSItemVersionResolver(CACHE_MILLISECONDS);
+
+        // The folder is listed for the first file, so the next file in it is answered from the cache
+        assertEquals(3, resolver.resolve(source, Collections.singletonList("$/project/folder/file1.txt"))
+                .get("$/project/folder/file1.txt").getChangeset());
+        assertEquals(5, resolver.resolve(source, Collections.singletonList("$/project/folder/file2.txt"))
+                .get("$/project/folder/file2.txt").getChangeset());
+        assertEquals(Collections.singletonList("$/project/folder|OneLevel"), source.requests);
+        assertEquals(1, resolver.getHitCount());
+    }
+
+    @Test
+    public void testResolve_Expired() {
+        final MockItemSource source = new MockItemSource(ImmutableList.of(
+                createItem("$/project/folder/file1.txt", false, 3)));
+        final TFSItemVersionResolver resolver = new TFSItemVersionResolver(0);
+        final List<String> paths = Arrays.asList("$/project/folder/file1.txt", "$/project/folder/file2.txt");
+
+        resolver.resolve(source, paths);
+        resolver.resolve(source, paths);
+        assertEquals(2, source.requests.size());
+    }
+
+    @Test
+    public void testResolve_Invalidate() {
+        final MockItemSource source = new MockItemSource(ImmutableList.of(
+                createItem("$/project/folder/file1.txt", false, 3)));
+        final TFSItemVersionResolver resolver = new TFSItemVersionResolver(CACHE_MILLISECONDS);
+        final List<String> paths = Arrays.asList("$/project/folder/file1.txt", "$/project/folder/file2.txt");
+
+        resolver.resolve(source, paths);
+        resolver.invalidate();
+        resolver.resolve(source, paths);
+        assertEquals(2, source.requests.size());
+    }
+
+    @Test
+    public void testResolve_ManyFoldersUseFullRecursion() {
+        final List<TfvcItem> items = new ArrayList<TfvcItem>();
+        final List<String> paths = new ArrayList<String>();
+        items.add(createItem("$/project/root", true, 20));
+        for (int i = 0; i <= TFSItemVersionResolver.MAX_FOLDER_REQUESTS; i++) {
+            items.add(createItem("$/project/root/folder" + i, true, i));
+            items.add(createItem("$/project/root/folder" + i + "/file.txt", false, i));
+            paths.add("$/project/root/folder" + i + "/file.txt");
+        }
+        items.add(createItem("$/project/root/empty", true, 1));
+        final MockItemSource source = new MockItemSource(items);
+        final TFSItemVersionResolver resolver = new TFSItemVersionResolver(CACHE_MILLISECONDS);
+
+        final Map<String, TFSItemVersionResolver.ItemVersion> versions = resolver.resolve(source, paths);
+        assertEquals(paths.size(), versions.size());
+        assertEquals(Collections.singletonList("$/project/root|Full"), source.requests);
+
+        // Folders without items are known to be empty as well
+        assertTrue(resolver.resolve(source, Collections.singletonList("$/project/root/empty/file.txt")).isEmpty());
+        assertEquals(1, source.requests.size());
+    }
+
+    @Test
+    public void testResolve_DeepFoldersDontUseFullRecursion() {
+        final List<String> paths = new ArrayList<String>();
+        for (int i = 0; i <= TFSItemVersionResolver.MAX_FOLDER_REQUESTS; i++) {
+            paths.add("$/project/root/folder" + i + "/file.txt");
+        }
+        paths.add("$/project/root/a/b/c/d/file.txt");
+        final MockItemSource source = new MockItemSource(new ArrayList<TfvcItem>());
+        final TFSItemVersionResolver resolver = new TFSItemVersionResolver(CACHE_MILLISECONDS);
+
+        // A full recursion on $/project/root would list every folder down to the deep one, so each folder is listed
+        resolver.resolve(source, paths);
+        assertEquals(paths.size(), source.requests.size());
+        assertTrue(source.requests.contains("$/project/root/a/b/c/d|OneLevel"));
+    }
+
+    @Test
+    public void testResolve_FolderNotFound() {
+        final TFSItemVersionResolver resolver = new TFSItemVersionResolver(CACHE_MILLISECONDS);
+        final Map<String, TFSItemVersionResolver.ItemVersion> versions = resolver.resolve(new TFSItemVersionResolver.ItemSource() {
+            @Override
+            public List<TfvcItem> getItems(final String scopePath, final VersionControlRecursionTypeCaseSensitive recursionLevel) {
+                throw new AssertionError("not found");
+            }
+        }, Arrays.asList("$/project/new/file1.txt", "$/project/new/file2.txt"));
+        assertTrue(versions.isEmpty());
+    }
+
+    @Test
+    public void testGetCommonFolder() {
+        assertEquals("$/project/a", TFSItemVersionResolver.getCommonFolder(Arrays.asList("$/project/a/b", "$/project/a/c/d")));
+        assertEquals("$/project", TFSItemVersionResolver.getCommonFolder(Arrays.asList("$/project/a", "$/project/ab")));
+        assertEquals("$", TFSItemVersionResolver.getCommonFolder(Arrays.asList("$/project1/a", "$/project2/a")));
+        assertEquals("$/project/a", TFSItemVersionResolver.getParent("$/project/a/file.txt"));
+    }
+
+    private TfvcItem createItem(final String path, final boolean isFolder, final int changeset) {
+        final TfvcItem item = new TfvcItem();
+        item.setPath(path);
+        item.setFolder(isFolder);
+        item.setChangesetVersion(changeset);
+        item.setChangeDate(new Date());
+        return item;
+    }
+
+    private static class MockItemSource implements TFSItemVersionResolver.ItemSource {
+        private final List<TfvcItem> items;
+        private final List<String> requests = new ArrayList<String>();
+
+        public MockItemSource(final List<TfvcItem> items) {
+            this.items = items;
+        }
+
+        @Override
+        public List<TfvcItem> getItems(final String scopePath, final VersionControlRecursionTypeCaseSensitive recursionLevel) {
+            requests.add(scopePath + "|" + recursionLevel);
+            final List<TfvcItem> result = new ArrayList<TfvcItem>();
+            for (final TfvcItem item : items) {
+                final String relativePath = item.getPath().toLowerCase().replace(scopePath.toLowerCase(), "");
+                if (item.getPath().toLowerCase().startsWith(scopePath.toLowerCase()) &&
+                        (recursionLevel == VersionControlRecursionTypeCaseSensitive.FULL || relativePath.lastIndexOf('/') <= 0)) {
+                    result.add(item);
+                }
+            }
+            return result;
+        }
+    }
+}
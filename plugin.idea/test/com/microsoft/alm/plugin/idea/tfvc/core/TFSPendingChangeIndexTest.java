@@ -0,0 +1,159 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.microsoft.alm.plugin.external.models.PendingChange;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TFSPendingChangeIndexTest {
+    private static final String ROOT = "/workspace/project";
+    private static final long INTERVAL = 60000L;
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+        file = new File(dir, "index.dat");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testReconcile() {
+        final TFSPendingChangeIndex index = new TFSPendingChangeIndex(file, INTERVAL);
+        assertFalse(index.isCurrent(ROOT));
+        assertTrue(index.isReconcileDue(ROOT));
+
+        final Set<String> differences = index.reconcile(ROOT, ImmutableList.of(
+                createChange("a/file1.txt", "edit"), createChange("b/file2.txt", "add")));
+        assertEquals(2, differences.size());
+        assertTrue(index.isCurrent(ROOT));
+        assertFalse(index.isReconcileDue(ROOT));
+        assertEquals(2, index.getChanges(ROOT).size());
+        assertEquals(1, index.getChanges(ROOT + "/a").size());
+        // a sibling with the same prefix is not under the folder
+        assertEquals(0, index.getChanges(ROOT + "/a.txt").size());
+
+        // only the changes that are different are reported
+        final Set<String> newDifferences = index.reconcile(ROOT, ImmutableList.of(
+                createChange("a/file1.txt", "edit"), createChange("b/file2.txt", "edit")));
+        assertEquals(Collections.singleton(ROOT + "/b/file2.txt"), newDifferences);
+    }
+
+    @Test
+    public void testIsContentChangeTracked() {
+        final TFSPendingChangeIndex index = new TFSPendingChangeIndex(file, INTERVAL);
+        index.reconcile(ROOT, ImmutableList.of(
+                createChange("edit.txt", "edit"), createChange("add.txt", "add"),
+                createChange("rename.txt", "rename"), createChange("delete.txt", "delete")));
+
+        assertTrue(index.isContentChangeTracked(ROOT + "/edit.txt"));
+        assertTrue(index.isContentChangeTracked(ROOT + "/add.txt"));
+        assertFalse(index.isContentChangeTracked(ROOT + "/rename.txt"));
+        assertFalse(index.isContentChangeTracked(ROOT + "/delete.txt"));
+        assertFalse(index.isContentChangeTracked(ROOT + "/unknown.txt"));
+    }
+
+    @Test
+    public void testInvalidate_Update() {
+        final TFSPendingChangeIndex index = new TFSPendingChangeIndex(file, INTERVAL);
+        index.reconcile(ROOT, ImmutableList.of(createChange("a/file1.txt", "edit"), createChange("a/file2.txt", "edit")));
+
+        index.invalidate(Collections.singletonList(ROOT + "/a/file1.txt"));
+        assertFalse(index.isContentChangeTracked(ROOT + "/a/file1.txt"));
+        assertEquals(1, index.getChanges(ROOT).size());
+        assertEquals(Collections.singletonList(ROOT + "/a/file1.txt"), index.getStalePaths(ROOT + "/a"));
+
+        index.update(Collections.singletonList(ROOT + "/a/file1.txt"), ImmutableList.of(createChange("a/file1.txt", "edit")));
+        assertTrue(index.isContentChangeTracked(ROOT + "/a/file1.txt"));
+        assertTrue(index.getStalePaths(ROOT).isEmpty());
+
+        // a status of the folder replaces everything under it
+        index.update(Collections.singletonList(ROOT + "/a"), Collections.<PendingChange>emptyList());
+        assertTrue(index.getChanges(ROOT).isEmpty());
+    }
+
+    @Test
+    public void testMarkStale() {
+        final TFSPendingChangeIndex index = new TFSPendingChangeIndex(file, INTERVAL);
+        index.reconcile(ROOT, ImmutableList.of(createChange("a/file1.txt", "edit")));
+
+        // the changes are kept but read again the next time
+        index.markStale(Collections.singletonList(ROOT + "/a/file1.txt"));
+        assertEquals(1, index.getChanges(ROOT).size());
+        assertFalse(index.isContentChangeTracked(ROOT + "/a/file1.txt"));
+        assertEquals(Collections.singletonList(ROOT + "/a/file1.txt"), index.getStalePaths(ROOT));
+    }
+
+    @Test
+    public void testGetKnownChanges() {
+        final TFSPendingChangeIndex index = new TFSPendingChangeIndex(file, INTERVAL);
+        assertNull(index.getKnownChanges(ROOT, ROOT + "/a/file1.txt"));
+
+        index.reconcile(ROOT, ImmutableList.of(createChange("a/file1.txt", "edit")));
+        assertEquals(1, index.getKnownChanges(ROOT, ROOT + "/a/file1.txt").size());
+        assertTrue(index.getKnownChanges(ROOT, ROOT + "/a/file2.txt").isEmpty());
+        // a path outside of the root isn't known
+        assertNull(index.getKnownChanges(ROOT, "/workspace/other/file1.txt"));
+
+        // nothing at, above or under an invalidated path is known until it is read again
+        index.invalidate(Collections.singletonList(ROOT + "/a/file2.txt"));
+        assertNull(index.getKnownChanges(ROOT, ROOT + "/a/file2.txt"));
+        assertNull(index.getKnownChanges(ROOT, ROOT + "/a"));
+        assertEquals(1, index.getKnownChanges(ROOT, ROOT + "/a/file1.txt").size());
+        index.invalidate(Collections.singletonList(ROOT + "/b"));
+        assertNull(index.getKnownChanges(ROOT, ROOT + "/b/file3.txt"));
+    }
+
+    @Test
+    public void testSave_Load() {
+        final TFSPendingChangeIndex index = new TFSPendingChangeIndex(file, INTERVAL);
+        index.reconcile(ROOT, ImmutableList.of(createChange("a/file1.txt", "edit"), createChange("file2.txt", "add, lock")));
+        index.save();
+
+        final TFSPendingChangeIndex restoredIndex = new TFSPendingChangeIndex(file, INTERVAL);
+        restoredIndex.load();
+        assertTrue(restoredIndex.isRestored(ROOT));
+        assertTrue(restoredIndex.isCurrent(ROOT));
+        // a root that wasn't reconciled by the last session isn't known
+        assertFalse(restoredIndex.isRestored("/workspace/other"));
+        assertFalse(restoredIndex.isCurrent("/workspace/other"));
+        // the restored changes still have to be reconciled
+        assertTrue(restoredIndex.isReconcileDue(ROOT));
+
+        final List<PendingChange> changes = restoredIndex.getChanges(ROOT);
+        assertEquals(2, changes.size());
+        assertEquals("$/project/a/file1.txt", changes.get(0).getServerItem());
+        assertEquals(ROOT + "/a/file1.txt", changes.get(0).getLocalItem());
+        assertEquals(index.getChanges(ROOT).get(1).getChangeTypes(), changes.get(1).getChangeTypes());
+        assertTrue(restoredIndex.reconcile(ROOT, index.getChanges(ROOT)).isEmpty());
+        assertFalse(restoredIndex.isRestored(ROOT));
+    }
+
+    private PendingChange createChange(final String relativePath, final String changeType) {
+        return new PendingChange("$/project/" + relativePath, ROOT + "/" + relativePath, "1", "owner", "2016-01-01T00:00:00.000-0400",
+                "none", changeType, "workspace", "computer", false, null);
+    }
+}
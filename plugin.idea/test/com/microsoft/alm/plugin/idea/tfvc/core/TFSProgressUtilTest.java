@@ -0,0 +1,97 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.google.common.collect.ImmutableList;
+import com.microsoft.alm.plugin.external.commands.Command;
+import com.microsoft.alm.plugin.external.commands.StreamingCommand;
+import com.microsoft.alm.plugin.external.parsers.OutputParser;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class TFSProgressUtilTest {
+
+    @Test
+    public void testRunSynchronously_ItemsHandledOnCallingThread() {
+        final List<String> items = ImmutableList.of("one", "two", "three");
+        final StreamingCommand<String> mockCommand = mockCommand(items, true);
+        final List<String> handledItems = new ArrayList<String>();
+        final List<Thread> handlerThreads = new ArrayList<Thread>();
+
+        final List<String> result = TFSProgressUtil.runSynchronously(mockCommand, null, new OutputParser.ItemHandler<String>() {
+            @Override
+            public void onItem(final String item) {
+                handledItems.add(item);
+                handlerThreads.add(Thread.currentThread());
+            }
+        });
+
+        assertEquals(items, result);
+        assertEquals(items, handledItems);
+        for (final Thread thread : handlerThreads) {
+            assertSame(Thread.currentThread(), thread);
+        }
+        verify(mockCommand, never()).cancel();
+    }
+
+    @Test
+    public void testRunSynchronously_HandlerThrows() {
+        final StreamingCommand<String> mockCommand = mockCommand(ImmutableList.of("one"), false);
+
+        try {
+            TFSProgressUtil.runSynchronously(mockCommand, null, new OutputParser.ItemHandler<String>() {
+                @Override
+                public void onItem(final String item) {
+                    throw new IllegalStateException(item);
+                }
+            });
+            fail("the handler's exception should have been thrown");
+        } catch (final IllegalStateException e) {
+            assertEquals("one", e.getMessage());
+        }
+
+        // the command that is still running is killed
+        verify(mockCommand).cancel();
+    }
+
+    /**
+     * Creates a command that hands the items to the item handler from another thread, like the output parser does
+     */
+    private StreamingCommand<String> mockCommand(final List<String> items, final boolean complete) {
+        final StreamingCommand<String> mockCommand = mock(StreamingCommand.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                final Command.Listener<List<String>> listener = (Command.Listener<List<String>>) invocation.getArguments()[0];
+                final OutputParser.ItemHandler<String> itemHandler = (OutputParser.ItemHandler<String>) invocation.getArguments()[1];
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (final String item : items) {
+                            itemHandler.onItem(item);
+                        }
+                        if (complete) {
+                            listener.completed(items, null);
+                        }
+                    }
+                }).start();
+                return null;
+            }
+        }).when(mockCommand).run(any(Command.Listener.class), any(OutputParser.ItemHandler.class));
+        return mockCommand;
+    }
+}
@@ -0,0 +1,147 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core;
+
+import com.intellij.openapi.project.Project;
+import com.microsoft.alm.plugin.context.RepositoryContext;
+import com.microsoft.alm.plugin.context.ServerContext;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class TFSServerContextResolverTest {
+    private final List<Runnable> refreshes = new ArrayList<Runnable>();
+    private final Executor refreshExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            refreshes.add(command);
+        }
+    };
+
+    @Test
+    public void testGetServerContext_Cached() {
+        final MockResolver resolver = new MockResolver();
+
+        final ServerContext context = resolver.getServerContext();
+        assertSame(context, resolver.getServerContext());
+        assertSame(context, resolver.getServerContext());
+
+        assertEquals(1, resolver.findCount);
+        assertEquals(1, resolver.createCount);
+        assertEquals(2, resolver.getHitCount());
+        assertEquals(1, resolver.getMissCount());
+    }
+
+    @Test
+    public void testGetServerContext_CredentialsChanged() {
+        final MockResolver resolver = new MockResolver();
+        final ServerContext context = resolver.getServerContext();
+
+        resolver.removedRevision++;
+        final ServerContext updated = resolver.getServerContext();
+
+        // the server context is created again right away, but the workspace isn't found again
+        assertNotSame(context, updated);
+        assertSame(updated, resolver.getServerContext());
+        assertEquals(1, resolver.findCount);
+        assertEquals(2, resolver.createCount);
+        assertEquals(0, resolver.forgetCount);
+    }
+
+    @Test
+    public void testGetServerContext_WorkspaceChanged() {
+        final MockResolver resolver = new MockResolver();
+        final ServerContext context = resolver.getServerContext();
+
+        resolver.mappingsRevision++;
+        // the old context is used until the workspace is found again in the background
+        assertSame(context, resolver.getServerContext());
+        assertSame(context, resolver.getServerContext());
+        assertEquals(1, refreshes.size());
+        assertEquals(1, resolver.getRefreshCount());
+
+        refreshes.get(0).run();
+        assertEquals(2, resolver.findCount);
+        assertEquals(1, resolver.forgetCount);
+        final ServerContext refreshed = resolver.getServerContext();
+        assertNotSame(context, refreshed);
+        assertSame(refreshed, resolver.getServerContext());
+        assertEquals(1, refreshes.size());
+    }
+
+    @Test
+    public void testGetServerContext_NotFound() {
+        final MockResolver resolver = new MockResolver();
+        resolver.repositoryContext = null;
+
+        assertNull(resolver.getServerContext());
+        assertNull(resolver.getServerContext());
+        // nothing is kept so that the workspace is found once it exists
+        assertEquals(2, resolver.findCount);
+        assertEquals(2, resolver.getMissCount());
+    }
+
+    @Test
+    public void testInvalidate() {
+        final MockResolver resolver = new MockResolver();
+        resolver.getServerContext();
+
+        resolver.invalidate();
+        resolver.getServerContext();
+        assertEquals(2, resolver.findCount);
+        assertEquals(1, resolver.forgetCount);
+    }
+
+    private class MockResolver extends TFSServerContextResolver {
+        private RepositoryContext repositoryContext = RepositoryContext.createTfvcContext(
+                "/path/project", "workspace", "project", "http://server:8080/tfs");
+        private long removedRevision = 0;
+        private long mappingsRevision = 0;
+        private int findCount = 0;
+        private int createCount = 0;
+        private int forgetCount = 0;
+
+        public MockResolver() {
+            super(mock(Project.class), refreshExecutor);
+        }
+
+        @Override
+        protected RepositoryContext findRepositoryContext() {
+            findCount++;
+            return repositoryContext;
+        }
+
+        @Override
+        protected void forgetRepositoryContext() {
+            forgetCount++;
+        }
+
+        @Override
+        protected ServerContext createServerContext(final RepositoryContext repositoryContext) {
+            if (repositoryContext == null) {
+                return null;
+            }
+            createCount++;
+            return mock(ServerContext.class);
+        }
+
+        @Override
+        protected long getRemovedRevision() {
+            return removedRevision;
+        }
+
+        @Override
+        protected long getMappingsRevision() {
+            return mappingsRevision;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core.revision;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TFSCachedFileStoreTest {
+    private static final String KEY = TFSRevisionCache.createKey("http://server:8080/tfs/defaultcollection", "$/project/file.bin", 1);
+
+    private File rootDir;
+    private TFSRevisionCache cache;
+
+    @Before
+    public void setUp() {
+        rootDir = Files.createTempDir();
+        cache = new TFSRevisionCache(rootDir, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(rootDir);
+    }
+
+    @Test
+    public void testPublish_Find() throws Exception {
+        final TFSCachedFileStore store = TFSCachedFileStore.create(cache, KEY);
+        FileUtils.writeStringToFile(store.getTmpFile(), "content");
+        store.publish();
+
+        final TFSContentStore found = TFSCachedFileStore.find(cache, KEY);
+        assertNotNull(found);
+        assertEquals(7, found.getContentLength());
+        assertArrayEquals("content".getBytes(), found.loadContent());
+    }
+
+    @Test
+    public void testCreateTemporary() throws Exception {
+        final TFSCachedFileStore store = TFSCachedFileStore.createTemporary(cache);
+        FileUtils.writeStringToFile(store.getTmpFile(), "content");
+        store.publish();
+
+        // The content is readable but isn't added to the cache, the temp file is the only file in it
+        assertArrayEquals("content".getBytes(), store.loadContent());
+        assertEquals(Collections.singletonList(store.getTmpFile()),
+                new ArrayList<File>(FileUtils.listFiles(rootDir, null, true)));
+    }
+
+    @Test
+    public void testMapContent() throws IOException {
+        final byte[] content = createContent(64 * 1024);
+        final TFSCachedFileStore store = TFSCachedFileStore.create(cache, KEY);
+        FileUtils.writeByteArrayToFile(store.getTmpFile(), content);
+        store.publish();
+
+        final ByteBuffer buffer = store.mapContent();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(content.length, buffer.remaining());
+        final byte[] mapped = new byte[buffer.remaining()];
+        buffer.get(mapped);
+        assertArrayEquals(content, mapped);
+    }
+
+    @Test
+    public void testOpenContentStream() throws IOException {
+        final byte[] content = createContent(10000);
+        final TFSCachedFileStore store = TFSCachedFileStore.create(cache, KEY);
+        FileUtils.writeByteArrayToFile(store.getTmpFile(), content);
+
+        final InputStream stream = store.openContentStream();
+        try {
+            assertArrayEquals(content, IOUtils.toByteArray(stream));
+        } finally {
+            stream.close();
+        }
+    }
+
+    private byte[] createContent(final int length) {
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core.revision;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.project.Project;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TFSContentPrefetcherTest {
+    private static final long TIMEOUT_SECONDS = 10L;
+
+    private Project mockProject;
+    private CountDownLatch started;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        mockProject = mock(Project.class);
+        when(mockProject.isDisposed()).thenReturn(false);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void testPrefetch_SkipsRevisionsInFlight() throws Exception {
+        final TFSContentPrefetcher prefetcher = new TFSContentPrefetcher(1, 10);
+        final TFSContentRevision revision = mockBlockingRevision("/path/file.txt", 5);
+
+        final List<Future<?>> futures = prefetcher.prefetch(mockProject,
+                ImmutableList.of(revision, mockRevision("/path/file.txt", 5)));
+        assertEquals(1, futures.size());
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // the revision is being downloaded, so asking for it again doesn't queue another download
+        assertTrue(prefetcher.prefetch(mockProject, ImmutableList.of(mockRevision("/path/file.txt", 5))).isEmpty());
+        // the same file in another changeset is a different revision
+        assertEquals(1, prefetcher.prefetch(mockProject, ImmutableList.of(mockRevision("/path/file.txt", 4))).size());
+
+        release.countDown();
+        futures.get(0).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        verify(revision, times(1)).prefetchContent();
+
+        // once the download is done the revision can be asked for again (it is found in the store then)
+        assertEquals(1, prefetcher.prefetch(mockProject, ImmutableList.of(revision)).size());
+    }
+
+    @Test
+    public void testPrefetch_DropsOldestQueuedRevision() throws Exception {
+        final TFSContentPrefetcher prefetcher = new TFSContentPrefetcher(1, 1);
+        prefetcher.prefetch(mockProject, ImmutableList.of(mockBlockingRevision("/path/running.txt", 1)));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        final TFSContentRevision oldRevision = mockRevision("/path/old.txt", 1);
+        final TFSContentRevision newRevision = mockRevision("/path/new.txt", 1);
+        final Future<?> oldFuture = prefetcher.prefetch(mockProject, ImmutableList.of(oldRevision)).get(0);
+        final Future<?> newFuture = prefetcher.prefetch(mockProject, ImmutableList.of(newRevision)).get(0);
+
+        // the queue only holds one revision, so the old one is dropped for the new one
+        assertTrue(oldFuture.isCancelled());
+        assertFalse(newFuture.isCancelled());
+
+        release.countDown();
+        newFuture.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        verify(oldRevision, never()).prefetchContent();
+        verify(newRevision).prefetchContent();
+
+        // the dropped revision isn't in flight anymore
+        assertEquals(1, prefetcher.prefetch(mockProject, ImmutableList.of(oldRevision)).size());
+    }
+
+    private TFSContentRevision mockRevision(final String filePath, final int changeset) {
+        final TFSContentRevision revision = mock(TFSContentRevision.class);
+        when(revision.getFilePath()).thenReturn(filePath);
+        when(revision.getChangeset()).thenReturn(changeset);
+        return revision;
+    }
+
+    /**
+     * Creates a revision whose download blocks until the test releases it
+     */
+    private TFSContentRevision mockBlockingRevision(final String filePath, final int changeset) throws Exception {
+        final TFSContentRevision revision = mockRevision(filePath, changeset);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(revision).prefetchContent();
+        return revision;
+    }
+}
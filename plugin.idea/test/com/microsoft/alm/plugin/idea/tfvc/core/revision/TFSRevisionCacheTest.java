@@ -0,0 +1,164 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.core.revision;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TFSRevisionCacheTest {
+    private static final String COLLECTION = "http://server:8080/tfs/defaultcollection";
+
+    private File rootDir;
+
+    @Before
+    public void setUp() {
+        rootDir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(rootDir);
+    }
+
+    @Test
+    public void testFind_Miss() {
+        final TFSRevisionCache cache = new TFSRevisionCache(rootDir, 1024);
+        assertNull(cache.find(TFSRevisionCache.createKey(COLLECTION, "$/project/file.txt", 1)));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testPut_Find() throws IOException {
+        final TFSRevisionCache cache = new TFSRevisionCache(rootDir, 1024);
+        final String key = TFSRevisionCache.createKey(COLLECTION, "$/project/file.txt", 1);
+        final File contentFile = cache.put(key, createTempFile(cache, "content 1"));
+
+        final File found = cache.find(key);
+        assertEquals(contentFile, found);
+        assertEquals("content 1", FileUtils.readFileToString(found));
+        assertEquals(1, cache.getHitCount());
+
+        // A new instance on the same directory (like a restart or another IDE) finds the content as well
+        final TFSRevisionCache otherCache = new TFSRevisionCache(rootDir, 1024);
+        assertEquals("content 1", FileUtils.readFileToString(otherCache.find(key)));
+        assertNull(otherCache.find(TFSRevisionCache.createKey(COLLECTION, "$/project/file.txt", 2)));
+    }
+
+    @Test
+    public void testPut_SameContentStoredOnce() throws IOException {
+        final TFSRevisionCache cache = new TFSRevisionCache(rootDir, 1024);
+        final String key1 = TFSRevisionCache.createKey(COLLECTION, "$/project/file.txt", 1);
+        final String key2 = TFSRevisionCache.createKey(COLLECTION, "$/project/file.txt", 2);
+        final File tempFile = createTempFile(cache, "same");
+        final File contentFile1 = cache.put(key1, tempFile);
+        final File contentFile2 = cache.put(key2, createTempFile(cache, "same"));
+
+        assertEquals(contentFile1, contentFile2);
+        assertFalse(tempFile.exists());
+        assertEquals(contentFile1, cache.find(key1));
+        assertEquals(contentFile1, cache.find(key2));
+    }
+
+    @Test
+    public void testEvict_LeastRecentlyUsed() throws IOException {
+        final TFSRevisionCache cache = new TFSRevisionCache(rootDir, 25);
+        final String key1 = TFSRevisionCache.createKey(COLLECTION, "$/project/file1.txt", 1);
+        final String key2 = TFSRevisionCache.createKey(COLLECTION, "$/project/file2.txt", 1);
+        final String key3 = TFSRevisionCache.createKey(COLLECTION, "$/project/file3.txt", 1);
+
+        final File contentFile1 = cache.put(key1, createTempFile(cache, "1111111111"));
+        final File contentFile2 = cache.put(key2, createTempFile(cache, "2222222222"));
+        // Make sure the first file looks older than the second, then use it so that it becomes the newest
+        contentFile1.setLastModified(System.currentTimeMillis() - 20000);
+        contentFile2.setLastModified(System.currentTimeMillis() - 10000);
+        assertNotNull(cache.find(key1));
+
+        // Going over the budget removes the least recently used content
+        cache.put(key3, createTempFile(cache, "3333333333"));
+        assertTrue(cache.getSize() <= 25);
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.find(key1));
+        assertNull(cache.find(key2));
+        assertNotNull(cache.find(key3));
+    }
+
+    @Test
+    public void testEvict_KeepsIndexOfRemainingContent() throws IOException {
+        final TFSRevisionCache cache = new TFSRevisionCache(rootDir, 25);
+        final String key1 = TFSRevisionCache.createKey(COLLECTION, "$/project/file1.txt", 1);
+        final String key2 = TFSRevisionCache.createKey(COLLECTION, "$/project/file2.txt", 1);
+        final String key3 = TFSRevisionCache.createKey(COLLECTION, "$/project/file3.txt", 1);
+
+        final File contentFile1 = cache.put(key1, createTempFile(cache, "1111111111"));
+        final File contentFile2 = cache.put(key2, createTempFile(cache, "2222222222"));
+        contentFile1.setLastModified(System.currentTimeMillis() - 10000);
+        contentFile2.setLastModified(System.currentTimeMillis() - 20000);
+        // The index entries look older than the evicted content, but only the one pointing at it is removed
+        for (final File indexFile : FileUtils.listFiles(new File(rootDir, "index"), null, true)) {
+            indexFile.setLastModified(System.currentTimeMillis() - 30000);
+        }
+
+        cache.put(key3, createTempFile(cache, "3333333333"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, FileUtils.listFiles(new File(rootDir, "index"), null, true).size());
+        assertNotNull(cache.find(key1));
+        assertNull(cache.find(key2));
+    }
+
+    @Test
+    public void testEvict_KnownContentOnly() throws IOException {
+        final TFSRevisionCache cache = new TFSRevisionCache(rootDir, 25);
+        final String key1 = TFSRevisionCache.createKey(COLLECTION, "$/project/file1.txt", 1);
+        final String key2 = TFSRevisionCache.createKey(COLLECTION, "$/project/file2.txt", 1);
+        final String key3 = TFSRevisionCache.createKey(COLLECTION, "$/project/file3.txt", 1);
+        final String otherKey = TFSRevisionCache.createKey(COLLECTION, "$/project/other.txt", 1);
+
+        // The first put scans the cache, content put by another instance after that isn't counted
+        final File contentFile1 = cache.put(key1, createTempFile(cache, "1111111111"));
+        final TFSRevisionCache otherCache = new TFSRevisionCache(rootDir, 1024);
+        otherCache.put(otherKey, createTempFile(otherCache, "oooooooooooooooooooo"));
+        cache.put(key2, createTempFile(cache, "2222222222"));
+        assertEquals(20, cache.getSize());
+        assertEquals(0, cache.getEvictionCount());
+
+        contentFile1.setLastModified(System.currentTimeMillis() - 20000);
+        cache.put(key3, createTempFile(cache, "3333333333"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(20, cache.getSize());
+        // The index entry of the removed content is removed without reading the others
+        assertEquals(3, FileUtils.listFiles(new File(rootDir, "index"), null, true).size());
+        assertNull(cache.find(key1));
+        assertNotNull(cache.find(otherKey));
+    }
+
+    @Test
+    public void testFind_ContentRemoved() throws IOException {
+        final TFSRevisionCache cache = new TFSRevisionCache(rootDir, 1024);
+        final String key = TFSRevisionCache.createKey(COLLECTION, "$/project/file.txt", 1);
+        final File contentFile = cache.put(key, createTempFile(cache, "content"));
+        assertTrue(contentFile.delete());
+
+        assertNull(cache.find(key));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    private File createTempFile(final TFSRevisionCache cache, final String content) throws IOException {
+        final File file = cache.createTempFile();
+        FileUtils.writeStringToFile(file, content);
+        return file;
+    }
+}
@@ -22,6 +22,7 @@ import com.microsoft.alm.plugin.external.models.Conflict;
 import com.microsoft.alm.plugin.external.models.MergeResults;
 import com.microsoft.alm.plugin.external.models.PendingChange;
 import com.microsoft.alm.plugin.external.models.RenameConflict;
+import com.microsoft.alm.plugin.external.utils.BatchHelper;
 import com.microsoft.alm.plugin.external.utils.CommandUtils;
 import com.microsoft.alm.plugin.idea.IdeaAbstractTest;
 import com.microsoft.alm.plugin.idea.common.resources.TfPluginBundle;
@@ -47,6 +48,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -387,14 +389,77 @@ public class ResolveConflictHelperTest extends IdeaAbstractTest {
     @Test
     public void testAcceptChange_Happy() {
         when(CommandUtils.getConflicts(any(ServerContext.class), anyString(), any(MergeResults.class))).thenReturn(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT));
-        when(CommandUtils.resolveConflictsByConflict(any(ServerContext.class), eq(Arrays.asList(CONFLICT_CONTEXT)), eq(ResolveConflictsCommand.AutoResolveType.TakeTheirs))).thenReturn(Arrays.asList(CONFLICT_CONTEXT));
-        when(CommandUtils.resolveConflictsByConflict(any(ServerContext.class), eq(Arrays.asList(CONFLICT_RENAME)), eq(ResolveConflictsCommand.AutoResolveType.TakeTheirs))).thenReturn(Arrays.asList(CONFLICT_RENAME));
+        // both conflicts are resolved with a single command
+        when(CommandUtils.resolveConflictsByConflict(any(ServerContext.class), eq(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT)), eq(ResolveConflictsCommand.AutoResolveType.TakeTheirs)))
+                .thenReturn(Arrays.asList(new Conflict(CONFLICT_RENAME.getLocalPath(), Conflict.ConflictType.RESOLVED), new Conflict(CONFLICT_CONTEXT.getLocalPath(), Conflict.ConflictType.RESOLVED)));
         helper.acceptChange(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT), mock(ProgressIndicator.class), mockProject, ResolveConflictsCommand.AutoResolveType.TakeTheirs, mockResolveConflictsModel);
 
         verify(mockResolveConflictsModel, never()).addError(any(ModelValidationInfo.class));
         verify(mockUpdatedFiles, times(2)).getGroupById(FileGroup.UPDATED_ID);
         verify(mockFileGroup).add(((RenameConflict) CONFLICT_RENAME).getServerPath(), TFSVcs.getKey(), null);
         verify(mockFileGroup).add(CONFLICT_CONTEXT.getLocalPath(), TFSVcs.getKey(), null);
+        verify(mockConflictsTableModel).removeConflicts(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT));
+        PowerMockito.verifyStatic(times(1));
+        CommandUtils.resolveConflictsByConflict(any(ServerContext.class), any(List.class), any(ResolveConflictsCommand.AutoResolveType.class));
+    }
+
+    @Test
+    public void testAcceptChange_PartiallyResolved() {
+        when(CommandUtils.getConflicts(any(ServerContext.class), anyString(), any(MergeResults.class))).thenReturn(Arrays.asList(CONFLICT_RENAME));
+        when(CommandUtils.resolveConflictsByConflict(any(ServerContext.class), eq(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT)), eq(ResolveConflictsCommand.AutoResolveType.KeepYours)))
+                .thenReturn(Arrays.asList(new Conflict(CONFLICT_CONTEXT.getLocalPath(), Conflict.ConflictType.RESOLVED)));
+        helper.acceptChange(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT), mock(ProgressIndicator.class), mockProject, ResolveConflictsCommand.AutoResolveType.KeepYours, mockResolveConflictsModel);
+
+        verify(mockResolveConflictsModel, never()).addError(any(ModelValidationInfo.class));
+        verify(mockUpdatedFiles, times(2)).getGroupById(FileGroup.SKIPPED_ID);
+        verify(mockFileGroup).add(CONFLICT_RENAME.getLocalPath(), TFSVcs.getKey(), null);
+        verify(mockFileGroup).add(CONFLICT_CONTEXT.getLocalPath(), TFSVcs.getKey(), null);
+        // only the resolved conflict is taken out of the table before the refresh
+        verify(mockConflictsTableModel).removeConflicts(Arrays.asList(CONFLICT_CONTEXT));
+    }
+
+    @Test
+    public void testAcceptChange_ResolvedPathWrittenDifferently() {
+        when(CommandUtils.getConflicts(any(ServerContext.class), anyString(), any(MergeResults.class))).thenReturn(Arrays.asList(CONFLICT_RENAME));
+        // the command lists the path in another form than the conflict has it
+        when(CommandUtils.resolveConflictsByConflict(any(ServerContext.class), eq(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT)), eq(ResolveConflictsCommand.AutoResolveType.KeepYours)))
+                .thenReturn(Arrays.asList(new Conflict("/path/to/../to/./fileContent.txt", Conflict.ConflictType.RESOLVED)));
+        helper.acceptChange(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT), mock(ProgressIndicator.class), mockProject, ResolveConflictsCommand.AutoResolveType.KeepYours, mockResolveConflictsModel);
+
+        verify(mockResolveConflictsModel, never()).addError(any(ModelValidationInfo.class));
+        verify(mockConflictsTableModel).removeConflicts(Arrays.asList(CONFLICT_CONTEXT));
+    }
+
+    @Test
+    public void testAcceptChange_AllResolvedByCount() {
+        when(CommandUtils.getConflicts(any(ServerContext.class), anyString(), any(MergeResults.class))).thenReturn(Collections.<Conflict>emptyList());
+        // the paths don't match the conflicts, but as many conflicts were resolved as were given
+        when(CommandUtils.resolveConflictsByConflict(any(ServerContext.class), eq(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT)), eq(ResolveConflictsCommand.AutoResolveType.KeepYours)))
+                .thenReturn(Arrays.asList(new Conflict("/other/fileRename.txt", Conflict.ConflictType.RESOLVED), new Conflict("/other/fileContent.txt", Conflict.ConflictType.RESOLVED)));
+        helper.acceptChange(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT), mock(ProgressIndicator.class), mockProject, ResolveConflictsCommand.AutoResolveType.KeepYours, mockResolveConflictsModel);
+
+        verify(mockResolveConflictsModel, never()).addError(any(ModelValidationInfo.class));
+        verify(mockConflictsTableModel).removeConflicts(Arrays.asList(CONFLICT_RENAME, CONFLICT_CONTEXT));
+    }
+
+    @Test
+    public void testGetPathKey() {
+        assertEquals(ResolveConflictHelper.getPathKey("/path/to/file.txt"), ResolveConflictHelper.getPathKey("/path/other/../to/./file.txt"));
+        assertEquals(StringUtils.EMPTY, ResolveConflictHelper.getPathKey(null));
+    }
+
+    @Test
+    public void testSplitIntoBatches() {
+        final List<Conflict> conflicts = new ArrayList<Conflict>();
+        for (int i = 0; i < BatchHelper.MAX_BATCH_SIZE + 10; i++) {
+            conflicts.add(new Conflict("/path/to/file" + i, Conflict.ConflictType.CONTENT));
+        }
+
+        final List<List<Conflict>> batches = ResolveConflictHelper.splitIntoBatches(conflicts);
+        assertEquals(2, batches.size());
+        assertEquals(conflicts.subList(0, BatchHelper.MAX_BATCH_SIZE), batches.get(0));
+        assertEquals(conflicts.subList(BatchHelper.MAX_BATCH_SIZE, conflicts.size()), batches.get(1));
+        assertTrue(ResolveConflictHelper.splitIntoBatches(Collections.<Conflict>emptyList()).isEmpty());
     }
 
     @Test
@@ -10,6 +10,7 @@ import com.microsoft.alm.plugin.idea.common.resources.TfPluginBundle;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -39,6 +40,14 @@ public class ConflictTableModelTest extends IdeaAbstractTest {
         assertEquals(Collections.EMPTY_LIST, model.getMyConflicts());
     }
 
+    @Test
+    public void testRemoveConflicts() {
+        model.setConflicts(CONFLICTS);
+        model.removeConflicts(Arrays.asList(CONFLICTS.get(0), CONFLICTS.get(2)));
+
+        assertEquals(Collections.singletonList(CONFLICTS.get(1)), model.getMyConflicts());
+    }
+
     @Test
     public void testGetValueAt() {
         model.setConflicts(CONFLICTS);
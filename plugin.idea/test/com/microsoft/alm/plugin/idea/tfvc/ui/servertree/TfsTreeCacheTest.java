@@ -0,0 +1,170 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.idea.tfvc.ui.servertree;
+
+import com.microsoft.alm.sourcecontrol.webapi.model.TfvcItem;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TfsTreeCacheTest {
+    private final List<Runnable> prefetches = new ArrayList<Runnable>();
+    private final Executor prefetchExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            prefetches.add(command);
+        }
+    };
+
+    @Test
+    public void testGetChildItems_Cached() {
+        final TfsTreeCache cache = new TfsTreeCache(60000, 0, prefetchExecutor);
+        final MockLoader loader = new MockLoader();
+
+        assertEquals(2, cache.getChildItems("$/root", loader).size());
+        // paths on the server are case insensitive
+        assertEquals(2, cache.getChildItems("$/ROOT", loader).size());
+        assertEquals(Collections.singletonList("$/root"), loader.loadedPaths);
+    }
+
+    @Test
+    public void testGetChildItems_Expired() {
+        final TfsTreeCache cache = new TfsTreeCache(0, 0, prefetchExecutor);
+        final MockLoader loader = new MockLoader();
+
+        cache.getChildItems("$/root", loader);
+        cache.getChildItems("$/root", loader);
+        assertEquals(Arrays.asList("$/root", "$/root"), loader.loadedPaths);
+    }
+
+    @Test
+    public void testRefresh() {
+        final TfsTreeCache cache = new TfsTreeCache(60000, 0, prefetchExecutor);
+        final MockLoader loader = new MockLoader();
+        cache.getChildItems("$/root", loader);
+        cache.getChildItems("$/root/folder", loader);
+        cache.getChildItems("$/rootOther", loader);
+
+        cache.refresh("$/root");
+        cache.getChildItems("$/root", loader);
+        cache.getChildItems("$/root/folder", loader);
+        cache.getChildItems("$/rootOther", loader);
+
+        // the folders under the refreshed one are loaded again, but not its siblings
+        assertEquals(Arrays.asList("$/root", "$/root/folder", "$/rootOther", "$/root", "$/root/folder"), loader.loadedPaths);
+    }
+
+    @Test
+    public void testPrefetch() {
+        final TfsTreeCache cache = new TfsTreeCache(60000, 1, prefetchExecutor);
+        final MockLoader loader = new MockLoader();
+        loader.children.add(createItem("$/root/folder2", true));
+
+        cache.getChildItems("$/root", loader);
+        // only the first folder is loaded in the background and files are never loaded
+        assertEquals(1, prefetches.size());
+        prefetches.get(0).run();
+        assertEquals(Arrays.asList("$/root", "$/root/folder1"), loader.loadedPaths);
+
+        cache.getChildItems("$/root/folder1", loader);
+        assertEquals(2, loader.loadedPaths.size());
+    }
+
+    @Test
+    public void testGetChildItems_SharedRequest() throws Exception {
+        final TfsTreeCache cache = new TfsTreeCache(60000, 0, prefetchExecutor);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MockLoader loader = new MockLoader() {
+            @Override
+            public List<TfvcItem> load(final String path) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.load(path);
+            }
+        };
+
+        final Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.getChildItems("$/root", loader);
+            }
+        });
+        first.start();
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        final AtomicReference<List<TfvcItem>> secondResult = new AtomicReference<List<TfvcItem>>();
+        final Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                secondResult.set(cache.getChildItems("$/root", loader));
+            }
+        });
+        second.start();
+        Thread.sleep(50);
+        release.countDown();
+        first.join(1000);
+        second.join(1000);
+
+        assertEquals(1, loader.loadedPaths.size());
+        assertEquals(2, secondResult.get().size());
+    }
+
+    @Test
+    public void testGetChildItems_Failed() {
+        final TfsTreeCache cache = new TfsTreeCache(60000, 0, prefetchExecutor);
+        final IllegalStateException failure = new IllegalStateException("failed");
+        final MockLoader loader = new MockLoader() {
+            @Override
+            public List<TfvcItem> load(final String path) {
+                super.load(path);
+                throw failure;
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getChildItems("$/root", loader);
+            } catch (final IllegalStateException e) {
+                assertSame(failure, e);
+            }
+        }
+        // failures are not kept
+        assertEquals(2, loader.loadedPaths.size());
+    }
+
+    private static TfvcItem createItem(final String path, final boolean isFolder) {
+        final TfvcItem item = new TfvcItem();
+        item.setPath(path);
+        item.setFolder(isFolder);
+        return item;
+    }
+
+    private static class MockLoader implements TfsTreeCache.Loader {
+        protected final List<String> loadedPaths = Collections.synchronizedList(new ArrayList<String>());
+        protected final List<TfvcItem> children = new ArrayList<TfvcItem>(Arrays.asList(
+                createItem("$/root/file.txt", false), createItem("$/root/folder1", true)));
+
+        @Override
+        public List<TfvcItem> load(final String path) {
+            loadedPaths.add(path);
+            return children;
+        }
+    }
+}
@@ -27,6 +27,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TfsTreeContextTest {
@@ -113,11 +115,28 @@ public class TfsTreeContextTest {
         assertEquals(item4.getPath(), returnedItems.get(1).getPath());
     }
 
+    @Test
+    public void testGetChildItems_Cached() throws Exception {
+        setChildItemsTest();
+        tfsTreeContext = new TfsTreeContext(mockServerContext, false, null);
+        assertEquals(4, tfsTreeContext.getChildItems("$/root").size());
+
+        // a tree showing only folders uses the same list
+        assertEquals(2, new TfsTreeContext(mockServerContext, true, null).getChildItems("$/root").size());
+        verify(mockTfvcHttpClientEx, times(1)).getItems(any(UUID.class), eq("$/root"), eq(VersionControlRecursionTypeCaseSensitive.ONE_LEVEL),
+                any(TfvcVersionDescriptor.class), eq(false));
+
+        tfsTreeContext.refresh("$/root");
+        assertEquals(4, tfsTreeContext.getChildItems("$/root").size());
+        verify(mockTfvcHttpClientEx, times(2)).getItems(any(UUID.class), eq("$/root"), eq(VersionControlRecursionTypeCaseSensitive.ONE_LEVEL),
+                any(TfvcVersionDescriptor.class), eq(false));
+    }
+
     @Test(expected = TfsException.class)
     public void testGetChildItems_BadRoot() throws Exception {
         setChildItemsTest();
         when(mockTfvcHttpClientEx.getItems(any(UUID.class), eq("$/badRoot"), eq(VersionControlRecursionTypeCaseSensitive.ONE_LEVEL),
-                any(TfvcVersionDescriptor.class))).thenThrow(AssertionError.class);
+                any(TfvcVersionDescriptor.class), eq(false))).thenThrow(AssertionError.class);
 
 
         tfsTreeContext = new TfsTreeContext(mockServerContext, true, null);
@@ -128,7 +147,7 @@ public class TfsTreeContextTest {
     public void testGetChildItems_RuntimeException() throws Exception {
         setChildItemsTest();
         when(mockTfvcHttpClientEx.getItems(any(UUID.class), eq("$/root"), eq(VersionControlRecursionTypeCaseSensitive.ONE_LEVEL),
-                any(TfvcVersionDescriptor.class))).thenThrow(RuntimeException.class);
+                any(TfvcVersionDescriptor.class), eq(false))).thenThrow(RuntimeException.class);
 
         tfsTreeContext = new TfsTreeContext(mockServerContext, true, null);
         tfsTreeContext.getChildItems("$/root");
@@ -149,7 +168,7 @@ public class TfsTreeContextTest {
         List<TfvcItem> items = new ArrayList<TfvcItem>(Arrays.asList(item1, item2, item3, item4, item5));
         UUID id = UUID.fromString("00000000-0000-0000-0000-000000000000");
         when(mockTfvcHttpClientEx.getItems(eq(id), eq("$/root"), eq(VersionControlRecursionTypeCaseSensitive.ONE_LEVEL),
-                any(TfvcVersionDescriptor.class))).thenReturn(items);
+                any(TfvcVersionDescriptor.class), eq(false))).thenReturn(items);
         when(mockTeamProjectReference.getId()).thenReturn(id);
         when(mockServerContext.getTeamProjectReference()).thenReturn(mockTeamProjectReference);
         when(mockServerContext.getTfvcHttpClient()).thenReturn(mockTfvcHttpClientEx);
@@ -0,0 +1,340 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.context;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.auth.Credentials;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one pool of HTTP connections per server and set of credentials for the whole process, so that every client
+ * talking to the same server reuses the same connections instead of paying for a new TCP, TLS and NTLM handshake per
+ * client. The pools are kept separate per set of credentials because NTLM authenticates the connection itself.
+ * <p/>
+ * Clients get a view of the pool whose shutdown doesn't close the pool, so that closing a client (like when a
+ * ServerContext is disposed) leaves the connections to the other clients. Connections that have been idle for longer
+ * than {@link #PROP_IDLE_SECONDS} are closed in the background. A pool is only dropped (and shut down) once none of
+ * its views is in use anymore, that is each of them was shut down or garbage collected, so the connections of a pool
+ * that a client still holds keep being closed when idle.
+ */
+public class ConnectionPoolRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPoolRegistry.class);
+
+    public static final String PROP_MAX_CONNECTIONS = "com.microsoft.alm.plugin.http.maxConnections";
+    public static final String PROP_MAX_CONNECTIONS_PER_ROUTE = "com.microsoft.alm.plugin.http.maxConnectionsPerRoute";
+    public static final String PROP_IDLE_SECONDS = "com.microsoft.alm.plugin.http.idleConnectionSeconds";
+    private static final int DEFAULT_MAX_CONNECTIONS = 40;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    private static final int DEFAULT_IDLE_SECONDS = 60;
+    // Connections that haven't been used for this long are checked before being reused
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLISECONDS = 2000;
+    private static final long EVICTION_INTERVAL_SECONDS = 30L;
+
+    private static class Pool {
+        private final PoolingHttpClientConnectionManager manager;
+        private volatile long lastUsedTime;
+        // The views handed out to clients, clients that are garbage collected without being shut down drop out too
+        private final List<WeakReference<SharedConnectionManager>> clients = new ArrayList<WeakReference<SharedConnectionManager>>();
+        private boolean closed = false;
+
+        public Pool(final PoolingHttpClientConnectionManager manager) {
+            this.manager = manager;
+            this.lastUsedTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns a new view of the pool for a client, or null if the pool was closed meanwhile
+         */
+        public synchronized SharedConnectionManager addClient() {
+            if (closed) {
+                return null;
+            }
+            lastUsedTime = System.currentTimeMillis();
+            final SharedConnectionManager client = new SharedConnectionManager(this);
+            clients.add(new WeakReference<SharedConnectionManager>(client));
+            return client;
+        }
+
+        /**
+         * Marks the pool closed if no client uses it, no connection is leased and it hasn't been used for the given time
+         */
+        public synchronized boolean closeIfUnused(final long now, final long idleMilliseconds) {
+            final Iterator<WeakReference<SharedConnectionManager>> iterator = clients.iterator();
+            while (iterator.hasNext()) {
+                final SharedConnectionManager client = iterator.next().get();
+                if (client == null || client.isShutdown()) {
+                    iterator.remove();
+                }
+            }
+
+            final PoolStats stats = manager.getTotalStats();
+            if (clients.isEmpty() && stats.getLeased() == 0 && stats.getPending() == 0 &&
+                    now - lastUsedTime >= idleMilliseconds) {
+                closed = true;
+            }
+            return closed;
+        }
+    }
+
+    private static class Holder {
+        private static final ConnectionPoolRegistry INSTANCE = new ConnectionPoolRegistry(
+                Math.max(SystemHelper.toInt(System.getProperty(PROP_MAX_CONNECTIONS), DEFAULT_MAX_CONNECTIONS), 1),
+                Math.max(SystemHelper.toInt(System.getProperty(PROP_MAX_CONNECTIONS_PER_ROUTE),
+                        DEFAULT_MAX_CONNECTIONS_PER_ROUTE), 1),
+                Math.max(SystemHelper.toInt(System.getProperty(PROP_IDLE_SECONDS), DEFAULT_IDLE_SECONDS), 1));
+
+        static {
+            INSTANCE.startEviction();
+        }
+    }
+
+    public static ConnectionPoolRegistry getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private final int maxConnections;
+    private final int maxConnectionsPerRoute;
+    private final long idleMilliseconds;
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+
+    @VisibleForTesting
+    ConnectionPoolRegistry(final int maxConnections, final int maxConnectionsPerRoute, final int idleSeconds) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.idleMilliseconds = TimeUnit.SECONDS.toMillis(idleSeconds);
+    }
+
+    private void startEviction() {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("HttpConnectionEviction-%d").build());
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdleConnections();
+                } catch (final Throwable t) {
+                    logger.warn("Error while closing idle connections", t);
+                }
+            }
+        }, EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets a connection manager for the server that shares its connections with every other client of the server
+     * using the same credentials.
+     *
+     * @param sslContext the SSL context to use for https connections, or null to use the default one
+     */
+    public HttpClientConnectionManager getConnectionManager(final String serverUri, final Credentials credentials,
+                                                           final SSLContext sslContext) {
+        ArgumentHelper.checkNotNull(serverUri, "serverUri");
+        final String key = getKey(serverUri, credentials, sslContext != null);
+        while (true) {
+            Pool pool = pools.get(key);
+            if (pool == null) {
+                final Pool newPool = new Pool(createConnectionManager(sslContext));
+                pool = pools.putIfAbsent(key, newPool);
+                if (pool == null) {
+                    logger.info("getConnectionManager: created a connection pool for " + getServerKey(serverUri));
+                    pool = newPool;
+                } else {
+                    newPool.manager.shutdown();
+                }
+            }
+
+            final SharedConnectionManager client = pool.addClient();
+            if (client != null) {
+                return client;
+            }
+            // the pool was closed by the eviction after it was looked up, so make sure it is gone and start over
+            pools.remove(key, pool);
+        }
+    }
+
+    private PoolingHttpClientConnectionManager createConnectionManager(final SSLContext sslContext) {
+        final Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", sslContext != null ?
+                        new SSLConnectionSocketFactory(sslContext) : SSLConnectionSocketFactory.getSocketFactory())
+                .build();
+        final PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        manager.setMaxTotal(maxConnections);
+        manager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        manager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLISECONDS);
+        return manager;
+    }
+
+    /**
+     * Closes the connections that have expired or have been idle for too long, and shuts down the pools that no
+     * client uses anymore and that haven't been asked for in that time
+     */
+    @VisibleForTesting
+    void evictIdleConnections() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<String, Pool>> iterator = pools.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Pool pool = iterator.next().getValue();
+            pool.manager.closeExpiredConnections();
+            pool.manager.closeIdleConnections(idleMilliseconds, TimeUnit.MILLISECONDS);
+            if (pool.closeIfUnused(now, idleMilliseconds)) {
+                iterator.remove();
+                pool.manager.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of all of the pools added together
+     */
+    public PoolStats getTotalStats() {
+        int leased = 0;
+        int pending = 0;
+        int available = 0;
+        int max = 0;
+        for (final Pool pool : pools.values()) {
+            final PoolStats stats = pool.manager.getTotalStats();
+            leased += stats.getLeased();
+            pending += stats.getPending();
+            available += stats.getAvailable();
+            max += stats.getMax();
+        }
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    public int getPoolCount() {
+        return pools.size();
+    }
+
+    /**
+     * Closes every pool and all of their connections
+     */
+    public void shutdown() {
+        final Iterator<Pool> iterator = pools.values().iterator();
+        while (iterator.hasNext()) {
+            final Pool pool = iterator.next();
+            iterator.remove();
+            pool.manager.shutdown();
+        }
+    }
+
+    @VisibleForTesting
+    static String getKey(final String serverUri, final Credentials credentials, final boolean customSsl) {
+        final StringBuilder key = new StringBuilder(getServerKey(serverUri));
+        key.append('|').append(customSsl);
+        if (credentials != null) {
+            // The password only tells the credentials apart, it isn't kept
+            key.append('|').append(credentials.getUserPrincipal() != null ? credentials.getUserPrincipal().getName() : StringUtils.EMPTY);
+            key.append('|').append(Integer.toHexString(StringUtils.defaultString(credentials.getPassword()).hashCode()));
+        }
+        return key.toString();
+    }
+
+    private static String getServerKey(final String serverUri) {
+        try {
+            final URI uri = URI.create(serverUri);
+            if (uri.getHost() != null) {
+                final String scheme = StringUtils.defaultIfEmpty(uri.getScheme(), "http").toLowerCase();
+                final int port = uri.getPort() != -1 ? uri.getPort() : ("https".equals(scheme) ? 443 : 80);
+                return scheme + "://" + uri.getHost().toLowerCase() + ":" + port;
+            }
+        } catch (final IllegalArgumentException e) {
+            logger.warn("getServerKey: unexpected server uri " + serverUri);
+        }
+        return serverUri.toLowerCase();
+    }
+
+    /**
+     * The view of a pool that is handed to a client. Everything is done by the pool except shutting it down, which
+     * clients do when they are closed. That only lets the registry know that this client is done with the pool.
+     */
+    private static class SharedConnectionManager implements HttpClientConnectionManager {
+        private final Pool pool;
+        private volatile boolean shutdown = false;
+
+        public SharedConnectionManager(final Pool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+            pool.lastUsedTime = System.currentTimeMillis();
+            return pool.manager.requestConnection(route, state);
+        }
+
+        @Override
+        public void releaseConnection(final HttpClientConnection conn, final Object newState, final long validDuration,
+                                      final TimeUnit timeUnit) {
+            pool.manager.releaseConnection(conn, newState, validDuration, timeUnit);
+        }
+
+        @Override
+        public void connect(final HttpClientConnection conn, final HttpRoute route, final int connectTimeout,
+                            final HttpContext context) throws IOException {
+            pool.manager.connect(conn, route, connectTimeout, context);
+        }
+
+        @Override
+        public void upgrade(final HttpClientConnection conn, final HttpRoute route, final HttpContext context)
+                throws IOException {
+            pool.manager.upgrade(conn, route, context);
+        }
+
+        @Override
+        public void routeComplete(final HttpClientConnection conn, final HttpRoute route, final HttpContext context)
+                throws IOException {
+            pool.manager.routeComplete(conn, route, context);
+        }
+
+        @Override
+        public void closeIdleConnections(final long idletime, final TimeUnit tunit) {
+            pool.manager.closeIdleConnections(idletime, tunit);
+        }
+
+        @Override
+        public void closeExpiredConnections() {
+            pool.manager.closeExpiredConnections();
+        }
+
+        @Override
+        public void shutdown() {
+            // the pool is shared with the other clients of the server, it is shut down by the registry once unused
+            shutdown = true;
+        }
+
+        public boolean isShutdown() {
+            return shutdown;
+        }
+    }
+}
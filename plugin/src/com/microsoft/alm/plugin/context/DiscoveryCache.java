@@ -0,0 +1,383 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.context;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.DataStreamHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
+import com.microsoft.alm.plugin.authentication.AuthenticationInfo;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the accounts, collections, projects and repositories found on the servers, so that the dialogs that list them
+ * can be filled in right away instead of asking the servers again every time they are opened.
+ * <p/>
+ * Entries are fresh for {@link #PROP_TTL_SECONDS}. After that they are still returned right away, but they are looked
+ * up again in the background so that the next caller gets the new list (stale-while-revalidate). Entries older than
+ * {@link #PROP_MAX_STALE_HOURS} are looked up again before returning. The entries of a server are dropped by
+ * {@link ServerContextManager} when its contexts are removed, which is also what happens when their credentials change.
+ * <p/>
+ * Entries are only kept in memory until {@link #load(File)} is called with the file to save them to.
+ */
+public class DiscoveryCache {
+    private static final Logger logger = LoggerFactory.getLogger(DiscoveryCache.class);
+
+    public static final String PROP_TTL_SECONDS = "com.microsoft.alm.plugin.discovery.ttlSeconds";
+    public static final String PROP_MAX_STALE_HOURS = "com.microsoft.alm.plugin.discovery.maxStaleHours";
+    private static final long DEFAULT_TTL_SECONDS = 300L;
+    private static final long DEFAULT_MAX_STALE_HOURS = 7 * 24L;
+    private static final int MAX_REFRESH_THREADS = 4;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60L;
+
+    public static final String KIND_ACCOUNTS = "accounts";
+    public static final String KIND_COLLECTIONS = "collections";
+    public static final String KIND_PROJECTS = "projects";
+    public static final String KIND_REPOSITORIES = "repositories";
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Asks the server for the current list of an entry
+     */
+    public interface Loader<T> {
+        List<T> load();
+    }
+
+    private static class Entry {
+        private final String server;
+        private final String json;
+        private final long loadedTime;
+
+        public Entry(final String server, final String json, final long loadedTime) {
+            this.server = server;
+            this.json = json;
+            this.loadedTime = loadedTime;
+        }
+    }
+
+    private static class Holder {
+        private static final DiscoveryCache INSTANCE = new DiscoveryCache(
+                TimeUnit.SECONDS.toMillis(Math.max(SystemHelper.toLong(System.getProperty(PROP_TTL_SECONDS),
+                        DEFAULT_TTL_SECONDS), 0L)),
+                TimeUnit.HOURS.toMillis(Math.max(SystemHelper.toLong(System.getProperty(PROP_MAX_STALE_HOURS),
+                        DEFAULT_MAX_STALE_HOURS), 0L)),
+                createRefreshExecutor());
+    }
+
+    public static DiscoveryCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Set<String> refreshing = new HashSet<String>();
+    private final long ttlMilliseconds;
+    private final long maxStaleMilliseconds;
+    private final Executor refreshExecutor;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    // Incremented every time entries are invalidated, so that lookups started before don't put them back
+    private long generation = 0;
+    private File file;
+    private boolean modified = false;
+    private boolean savePending = false;
+
+    @VisibleForTesting
+    DiscoveryCache(final long ttlMilliseconds, final long maxStaleMilliseconds, final Executor refreshExecutor) {
+        this.ttlMilliseconds = ttlMilliseconds;
+        this.maxStaleMilliseconds = maxStaleMilliseconds;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    private static Executor createRefreshExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_REFRESH_THREADS, MAX_REFRESH_THREADS,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("DiscoveryCacheRefresh-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Gets the key of the list of the given kind found at the uri by the user of the authentication info
+     */
+    public static String getKey(final String kind, final URI uri, final AuthenticationInfo authenticationInfo) {
+        ArgumentHelper.checkNotEmptyString(kind, "kind");
+        ArgumentHelper.checkNotNull(uri, "uri");
+        final String user = authenticationInfo != null ? StringUtils.defaultString(authenticationInfo.getUserName()) : StringUtils.EMPTY;
+        return kind + "|" + StringUtils.removeEnd(uri.toString(), "/").toLowerCase(Locale.ENGLISH) + "|" + user.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the list kept for the key, or loads it if there is none. Lists that are no longer fresh are returned
+     * and loaded again in the background.
+     */
+    public <T> List<T> get(final String key, final URI uri, final Class<T> type, final Loader<T> loader) {
+        ArgumentHelper.checkNotEmptyString(key, "key");
+        ArgumentHelper.checkNotNull(uri, "uri");
+        ArgumentHelper.checkNotNull(loader, "loader");
+
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+
+        if (entry != null) {
+            final long age = System.currentTimeMillis() - entry.loadedTime;
+            if (age < maxStaleMilliseconds) {
+                final List<T> values = read(entry.json, type);
+                if (values != null) {
+                    if (age < ttlMilliseconds) {
+                        hitCount.incrementAndGet();
+                    } else {
+                        staleHitCount.incrementAndGet();
+                        refreshAsync(key, uri, loader);
+                    }
+                    return values;
+                }
+            }
+        }
+
+        missCount.incrementAndGet();
+        return reload(key, uri, loader);
+    }
+
+    /**
+     * Loads the list for the key from the server and keeps it
+     */
+    public <T> List<T> reload(final String key, final URI uri, final Loader<T> loader) {
+        final long startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+        }
+        final List<T> values = loader.load();
+        put(key, uri, values, startGeneration);
+        return values;
+    }
+
+    private <T> void refreshAsync(final String key, final URI uri, final Loader<T> loader) {
+        synchronized (this) {
+            if (!refreshing.add(key)) {
+                return;
+            }
+        }
+
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reload(key, uri, loader);
+                } catch (final Throwable t) {
+                    // the stale list is kept until the server can be reached
+                    logger.warn("refreshAsync: unable to refresh " + key, t);
+                } finally {
+                    synchronized (DiscoveryCache.this) {
+                        refreshing.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private void put(final String key, final URI uri, final List<?> values, final long startGeneration) {
+        final String json;
+        try {
+            json = mapper.writeValueAsString(values);
+        } catch (final IOException e) {
+            logger.warn("put: unable to convert the list for " + key, e);
+            return;
+        }
+
+        synchronized (this) {
+            if (startGeneration != generation) {
+                logger.info("put: ignoring the list for " + key + " since the cache was invalidated while it was loaded");
+                return;
+            }
+            entries.put(key, new Entry(getServer(uri), json, System.currentTimeMillis()));
+            modified = true;
+        }
+        saveAsync();
+    }
+
+    private <T> List<T> read(final String json, final Class<T> type) {
+        try {
+            final JavaType listType = mapper.getTypeFactory().constructCollectionType(List.class, type);
+            return mapper.readValue(json, listType);
+        } catch (final IOException e) {
+            logger.warn("read: unable to read a list of " + type.getSimpleName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Drops the lists of the server of the uri
+     */
+    public void invalidate(final String serverUri) {
+        if (StringUtils.isEmpty(serverUri)) {
+            return;
+        }
+
+        final String server = getServer(URI.create(serverUri));
+        boolean removed = false;
+        synchronized (this) {
+            generation++;
+            final Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (StringUtils.equals(iterator.next().server, server)) {
+                    iterator.remove();
+                    removed = true;
+                }
+            }
+            modified |= removed;
+        }
+        if (removed) {
+            logger.info("invalidate: dropped the lists of " + server);
+            saveAsync();
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            generation++;
+            modified |= !entries.isEmpty();
+            entries.clear();
+        }
+        saveAsync();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private static String getServer(final URI uri) {
+        return StringUtils.defaultString(uri.getAuthority()).toLowerCase(Locale.ENGLISH);
+    }
+
+    private void saveAsync() {
+        synchronized (this) {
+            if (file == null || savePending || !modified) {
+                return;
+            }
+            savePending = true;
+        }
+
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiscoveryCache.this) {
+                    savePending = false;
+                }
+                save();
+            }
+        });
+    }
+
+    /**
+     * Starts saving the lists to the file, after adding the ones that were saved to it before
+     */
+    public synchronized void load(final File file) {
+        ArgumentHelper.checkNotNull(file, "file");
+        this.file = file;
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream stream = null;
+        try {
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (stream.readInt() != FORMAT_VERSION) {
+                logger.info("load: ignoring discovery cache in an older format");
+                return;
+            }
+            final int count = stream.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = DataStreamHelper.readString(stream);
+                final Entry entry = new Entry(DataStreamHelper.readString(stream), DataStreamHelper.readString(stream),
+                        stream.readLong());
+                // lists found during this session are newer
+                if (!entries.containsKey(key)) {
+                    entries.put(key, entry);
+                }
+            }
+        } catch (final IOException e) {
+            logger.warn("Unable to load discovery cache " + file.getPath(), e);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    public synchronized void save() {
+        if (file == null || !modified) {
+            return;
+        }
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream stream = null;
+        try {
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Unable to create directory " + file.getParent());
+            }
+            stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            stream.writeInt(FORMAT_VERSION);
+            stream.writeInt(entries.size());
+            for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+                DataStreamHelper.writeString(stream, entry.getKey());
+                DataStreamHelper.writeString(stream, entry.getValue().server);
+                DataStreamHelper.writeString(stream, entry.getValue().json);
+                stream.writeLong(entry.getValue().loadedTime);
+            }
+            stream.close();
+            stream = null;
+
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile.getPath());
+            }
+            modified = false;
+        } catch (final IOException e) {
+            logger.warn("Unable to save discovery cache " + file.getPath(), e);
+            tempFile.delete();
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+}
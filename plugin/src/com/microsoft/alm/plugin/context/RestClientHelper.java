@@ -26,6 +26,7 @@ import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.client.RequestEntityProcessing;
 import org.glassfish.jersey.client.spi.ConnectorProvider;
 
+import javax.net.ssl.SSLContext;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.ClientRequestContext;
@@ -92,10 +93,17 @@ public class RestClientHelper {
         }
 
         // if this is a onPrem server and the uri starts with https, we need to setup ssl
+        SSLContext sslContext = null;
         if (isSSLEnabledOnPrem(type, serverUri)) {
-            clientConfig.property(ApacheClientProperties.SSL_CONFIG, getSslConfigurator());
+            final SslConfigurator sslConfigurator = getSslConfigurator();
+            clientConfig.property(ApacheClientProperties.SSL_CONFIG, sslConfigurator);
+            sslContext = sslConfigurator.createSSLContext();
         }
 
+        // the connections to the server are shared with every other client of the server using the same credentials
+        clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER,
+                ConnectionPoolRegistry.getInstance().getConnectionManager(serverUri, credentials, sslContext));
+
         // register a filter to set the User Agent header
         clientConfig.register(new ClientRequestFilter() {
             @Override
@@ -154,13 +154,18 @@ public class ServerContext {
             credentialsProvider.setCredentials(AuthScope.ANY, credentials);
             final HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
 
+            SSLContext sslContext = null;
             if (RestClientHelper.isSSLEnabledOnPrem(Type.TFS, authenticationInfo.getServerUri())) {
                 final SslConfigurator sslConfigurator = RestClientHelper.getSslConfigurator();
-                final SSLContext sslContext = sslConfigurator.createSSLContext();
-
-                httpClientBuilder.setSslcontext(sslContext);
+                sslContext = sslConfigurator.createSSLContext();
             }
 
+            // the connections come from the pool shared by every client of the server, so closing this client
+            // leaves them open for the others
+            httpClientBuilder.setConnectionManager(ConnectionPoolRegistry.getInstance().getConnectionManager(
+                    authenticationInfo.getServerUri(), credentials, sslContext));
+            httpClientBuilder.setConnectionManagerShared(true);
+
             httpClient = httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider).build();
         }
         return httpClient;
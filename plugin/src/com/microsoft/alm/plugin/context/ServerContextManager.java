@@ -38,6 +38,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Singleton class used to manage ServerContext objects.
@@ -54,6 +55,8 @@ public class ServerContextManager {
     private final String TELEMETRY_TFS2015_OR_LATER = "TFS2015_or_later";
 
     private Map<String, ServerContext> contextMap = new HashMap<String, ServerContext>();
+    // Incremented every time a context is removed, such as when its credentials are updated
+    private final AtomicLong removedRevision = new AtomicLong();
 
     private static class Holder {
         private static final ServerContextManager INSTANCE = new ServerContextManager(true);
@@ -160,12 +163,23 @@ public class ServerContextManager {
         if (context != null) {
             getStore().forgetServerContext(key);
             contextMap.remove(key);
+            removedRevision.incrementAndGet();
+            // the lists found with the old credentials may not be right anymore
+            DiscoveryCache.getInstance().invalidate(key);
             if (StringUtils.equalsIgnoreCase(key, getLastUsedContextKey())) {
                 clearLastUsedContext();
             }
         }
     }
 
+    /**
+     * Gets a number that changes every time a context is removed. Callers that keep contexts can compare it with the
+     * number they saw when they got them to know whether they may have been replaced, e.g. with new credentials.
+     */
+    public long getRemovedRevision() {
+        return removedRevision.get();
+    }
+
     public synchronized Collection<ServerContext> getAllServerContexts() {
         //copy values from HashMap to a new List make sure the list is immutable
         return Collections.unmodifiableCollection(new ArrayList<ServerContext>(contextMap.values()));
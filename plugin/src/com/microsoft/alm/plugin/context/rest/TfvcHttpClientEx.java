@@ -41,6 +41,20 @@ public class TfvcHttpClientEx extends TfvcHttpClient {
             final String scopePath,
             final VersionControlRecursionTypeCaseSensitive recursionLevel,
             final TfvcVersionDescriptor versionDescriptor) {
+        return getItems(project, scopePath, recursionLevel, versionDescriptor, true);
+    }
+
+    /**
+     * Same as {@link #getItems(UUID, String, VersionControlRecursionTypeCaseSensitive, TfvcVersionDescriptor)} but
+     * the links of the items can be left out, which makes the response of large folders a lot smaller when only the
+     * paths of the items are needed.
+     */
+    public List<TfvcItem> getItems(
+            final UUID project,
+            final String scopePath,
+            final VersionControlRecursionTypeCaseSensitive recursionLevel,
+            final TfvcVersionDescriptor versionDescriptor,
+            final boolean includeLinks) {
         final UUID locationId = UUID.fromString("ba9fc436-9a38-4578-89d6-e4f3241f5040"); //$NON-NLS-1$
         final ApiResourceVersion apiVersion = new ApiResourceVersion("2.1"); //$NON-NLS-1$
 
@@ -50,7 +64,7 @@ public class TfvcHttpClientEx extends TfvcHttpClient {
         final NameValueCollection queryParameters = new NameValueCollection();
         queryParameters.addIfNotEmpty("scopePath", scopePath); //$NON-NLS-1$
         queryParameters.addIfNotNull("recursionLevel", recursionLevel); //$NON-NLS-1$
-        queryParameters.addIfNotNull("includeLinks", true); //$NON-NLS-1$
+        queryParameters.addIfNotNull("includeLinks", includeLinks); //$NON-NLS-1$
         addModelAsQueryParams(queryParameters, versionDescriptor);
 
         final Object httpRequest = super.createRequest(HttpMethod.GET,
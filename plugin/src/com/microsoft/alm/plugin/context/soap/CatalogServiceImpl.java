@@ -7,6 +7,7 @@ import com.microsoft.alm.client.model.VssServiceException;
 import com.microsoft.alm.common.utils.ArgumentHelper;
 import com.microsoft.alm.common.utils.UrlHelper;
 import com.microsoft.alm.core.webapi.model.TeamProjectCollectionReference;
+import com.microsoft.alm.plugin.context.DiscoveryCache;
 import com.microsoft.alm.plugin.context.ServerContext;
 import com.microsoft.alm.plugin.exceptions.TeamServicesException;
 import org.apache.commons.lang.StringUtils;
@@ -42,6 +43,13 @@ public class CatalogServiceImpl implements CatalogService {
     private final ServerContext context;
     private final URI endpointUri;
 
+    private final DiscoveryCache.Loader<TeamProjectCollectionReference> collectionLoader = new DiscoveryCache.Loader<TeamProjectCollectionReference>() {
+        @Override
+        public List<TeamProjectCollectionReference> load() {
+            return getProjectCollectionsFromServer();
+        }
+    };
+
     private final static String SOAP = "http://www.w3.org/2003/05/soap-envelope"; //$NON-NLS-1$
 
     private static final String ENDPOINT_PATH = "/TeamFoundation/Administration/v3.0/CatalogService.asmx"; //$NON-NLS-1$
@@ -73,7 +81,15 @@ public class CatalogServiceImpl implements CatalogService {
     }
 
     public List<TeamProjectCollectionReference> getProjectCollections() {
+        return DiscoveryCache.getInstance().get(getCollectionsKey(), context.getServerUri(),
+                TeamProjectCollectionReference.class, collectionLoader);
+    }
+
+    private String getCollectionsKey() {
+        return DiscoveryCache.getKey(DiscoveryCache.KIND_COLLECTIONS, context.getServerUri(), context.getAuthenticationInfo());
+    }
 
+    private List<TeamProjectCollectionReference> getProjectCollectionsFromServer() {
         final QueryData queryForOrganizationRoot = new QueryData(SINGLE_RECURSE_STAR, QUERY_OPTIONS_NONE, ORGANIZATIONAL_ROOT);
         final CatalogData catalogDataOrganizationRoot = getCatalogDataFromServer(queryForOrganizationRoot);
 
@@ -110,14 +126,27 @@ public class CatalogServiceImpl implements CatalogService {
     }
 
     public TeamProjectCollectionReference getProjectCollection(final String collectionName) {
-        final List<TeamProjectCollectionReference> collections = getProjectCollections();
+        TeamProjectCollectionReference collection = findProjectCollection(getProjectCollections(), collectionName);
+        if (collection == null) {
+            // the collection may have been created since the collections were last listed
+            collection = findProjectCollection(DiscoveryCache.getInstance().reload(getCollectionsKey(),
+                    context.getServerUri(), collectionLoader), collectionName);
+        }
+        if (collection == null) {
+            throw new VssServiceException(TeamServicesException.KEY_OPERATION_ERRORS);
+        }
+        return collection;
+    }
+
+    private TeamProjectCollectionReference findProjectCollection(final List<TeamProjectCollectionReference> collections,
+                                                                 final String collectionName) {
         for (final TeamProjectCollectionReference collection : collections) {
             // the collection name is a display name so there are spaces while the collection name is encoded
             if (StringUtils.equalsIgnoreCase(collection.getName().replace(" ", "%20"), collectionName)) {
                 return collection;
             }
         }
-        throw new VssServiceException(TeamServicesException.KEY_OPERATION_ERRORS);
+        return null;
     }
 
     protected HttpResponse executeRequest(final HttpPost httpPost) throws IOException {
@@ -3,23 +3,83 @@
 
 package com.microsoft.alm.plugin.events;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.plugin.context.ServerContext;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.swing.Timer;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Polls the servers for changes and triggers the events whose data actually changed.
+ * <p/>
+ * Each poll asks the {@link WatermarkProvider} for a watermark of the data behind each event (like the id of the latest
+ * build) for every context, and only the events whose watermark changed since the last poll are triggered. Polls run
+ * on a background thread at the polling interval plus or minus some jitter, so that many clients don't hit the server
+ * at the same time. The interval doubles every time nothing changed or the server couldn't be reached, up to
+ * {@link #MAX_BACKOFF_FACTOR} times the polling interval, and goes back to the polling interval as soon as something
+ * changes. Polling is paused while the IDE isn't active and the missed poll happens once it is active again.
+ * <p/>
+ * The watermarks are read as soon as polling starts, so that whatever changes before the first poll is noticed by it.
+ * If they couldn't be read then because the IDE wasn't active, the first poll triggers the events of every watermark
+ * it reads, since the listeners loaded their data before polling started.
+ */
 public class ServerPollingManager {
     private static final Logger logger = LoggerFactory.getLogger(ServerPollingManager.class);
     private static final int DEFAULT_POLLING_INTERVAL = 5 * 60 * 1000; // TODO eventually get from settings
+    @VisibleForTesting
+    static final int MAX_BACKOFF_FACTOR = 8;
+    // The delays are spread by this much on either side of the interval
+    private static final double JITTER = 0.2;
+    // How long to wait after the IDE becomes active again before running the missed poll
+    private static final int RESUME_DELAY = 5 * 1000;
+
+    /**
+     * Gets the watermarks of the data behind the events for the contexts being polled
+     */
+    public interface WatermarkProvider {
+        Collection<ServerContext> getContexts();
+
+        /**
+         * Returns the key of the data behind the event for the context, so that contexts sharing the same data are only
+         * checked once, or null if the event doesn't apply to the context
+         */
+        String getKey(ServerContext context, ServerEvent event);
+
+        /**
+         * Returns a value that changes whenever the data behind the event changes
+         */
+        String getWatermark(ServerContext context, ServerEvent event);
+    }
 
     private final ServerEventManager eventManager;
-    private final Timer timer;
+    private final WatermarkProvider watermarkProvider;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ServerPolling-%d").build());
+    private final Random random = new Random();
+    // Only used on the polling thread
+    private final Map<String, String> watermarks = new HashMap<String, String>();
+    // Whether the watermarks were read since polling started, only used on the polling thread
+    private boolean baselineRead = false;
+    private int interval = DEFAULT_POLLING_INTERVAL;
+    private int quietPolls = 0;
     private boolean polling = false;
+    private boolean active = true;
+    private boolean pollMissed = false;
+    private ScheduledFuture<?> nextPoll;
 
     private static class Holder {
         private static final ServerPollingManager INSTANCE = new ServerPollingManager(ServerEventManager.getInstance());
@@ -30,50 +90,189 @@ public class ServerPollingManager {
     }
 
     protected ServerPollingManager(final ServerEventManager eventManager) {
+        this(eventManager, new ServerWatermarkProvider());
+    }
+
+    @VisibleForTesting
+    ServerPollingManager(final ServerEventManager eventManager, final WatermarkProvider watermarkProvider) {
         logger.info("ServerPollingManager created");
         ArgumentHelper.checkNotNull(eventManager, "eventManager");
+        ArgumentHelper.checkNotNull(watermarkProvider, "watermarkProvider");
         this.eventManager = eventManager;
-        timer = new Timer(Integer.MAX_VALUE, new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                timerFired();
-            }
-        });
+        this.watermarkProvider = watermarkProvider;
     }
 
     public void startPolling() {
         startPolling(DEFAULT_POLLING_INTERVAL);
     }
 
-    public void startPolling(final int intervalInMilliSeconds) {
+    public synchronized void startPolling(final int intervalInMilliSeconds) {
         logger.info("Polling started");
+        interval = intervalInMilliSeconds;
+        quietPolls = 0;
         polling = true;
-        if (!timer.isRunning()) {
-            timer.setInitialDelay(intervalInMilliSeconds);
-            timer.start();
+        if (nextPoll == null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readBaseline();
+                }
+            });
+            schedule(getJitteredDelay(interval));
         }
     }
 
-    public void stopPolling() {
+    public synchronized void stopPolling() {
         logger.info("Polling stopped");
         polling = false;
-        if (timer.isRunning()) {
-            timer.stop();
+        pollMissed = false;
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+            nextPoll = null;
         }
     }
 
-    private void timerFired() {
-        logger.info("Timer fired");
-        timer.stop();
-        if (!polling) {
-            return;
+    /**
+     * Pauses polling while the IDE isn't active. A poll that was due while it wasn't active runs shortly after it
+     * becomes active again.
+     */
+    public synchronized void setActive(final boolean active) {
+        this.active = active;
+        if (active && polling && pollMissed) {
+            logger.info("Polling resumed");
+            pollMissed = false;
+            schedule(getJitteredDelay(Math.min(RESUME_DELAY, interval)));
         }
+    }
 
-        // TODO: Ideally we would contact the server and see what actually changed, but there isn't any call for that, yet
-        // Fire all changed events
-        final Map<String,Object> eventContext = new HashMap<String,Object>();
+    private synchronized void schedule(final long delay) {
+        nextPoll = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the watermarks when polling starts. Any change found for the watermarks kept from an earlier time polling
+     * was started is triggered right away.
+     */
+    private void readBaseline() {
+        baselineRead = false;
+        synchronized (this) {
+            if (!polling || !active) {
+                return;
+            }
+        }
+
+        try {
+            final Set<ServerEvent> changedEvents = checkForChanges(false);
+            if (changedEvents != null) {
+                baselineRead = true;
+                if (!changedEvents.isEmpty()) {
+                    triggerEvents(changedEvents);
+                }
+            }
+        } catch (final Throwable t) {
+            logger.warn("readBaseline: unable to check the servers for changes", t);
+        }
+    }
+
+    private void poll() {
+        synchronized (this) {
+            nextPoll = null;
+            if (!polling) {
+                return;
+            }
+            if (!active) {
+                logger.info("poll: skipped while the IDE isn't active");
+                pollMissed = true;
+                return;
+            }
+        }
+
+        boolean changed = false;
+        boolean failed = false;
+        try {
+            final Set<ServerEvent> changedEvents = checkForChanges(!baselineRead);
+            if (changedEvents == null) {
+                failed = true;
+            } else {
+                baselineRead = true;
+                if (!changedEvents.isEmpty()) {
+                    changed = true;
+                    triggerEvents(changedEvents);
+                }
+            }
+        } catch (final Throwable t) {
+            logger.warn("poll: unable to check the servers for changes", t);
+            failed = true;
+        }
+
+        synchronized (this) {
+            if (!polling || nextPoll != null) {
+                return;
+            }
+            // Back off while nothing changes or the server can't be reached
+            quietPolls = changed ? 0 : quietPolls + 1;
+            final long delay = (long) interval * Math.min(1L << Math.min(quietPolls, 30), MAX_BACKOFF_FACTOR);
+            logger.info("poll: changed=" + changed + " failed=" + failed + " next poll in " + delay + "ms");
+            schedule(getJitteredDelay(delay));
+        }
+    }
+
+    /**
+     * Returns the events whose watermark changed for any of the contexts, or null if the watermarks couldn't be read
+     * for any of them
+     *
+     * @param newKeysChanged whether an event whose watermark wasn't read before counts as changed
+     */
+    @VisibleForTesting
+    Set<ServerEvent> checkForChanges(final boolean newKeysChanged) {
+        final Set<ServerEvent> changedEvents = EnumSet.noneOf(ServerEvent.class);
+        final Set<String> checkedKeys = new HashSet<String>();
+        int failures = 0;
+        for (final ServerContext context : watermarkProvider.getContexts()) {
+            for (final ServerEvent event : ServerEvent.values()) {
+                final String key = watermarkProvider.getKey(context, event);
+                if (key == null || !checkedKeys.add(event.name() + "|" + key)) {
+                    continue;
+                }
+
+                final String watermark;
+                try {
+                    watermark = StringUtils.defaultString(watermarkProvider.getWatermark(context, event));
+                } catch (final Throwable t) {
+                    logger.warn("checkForChanges: unable to check " + event.name() + " for " + key, t);
+                    failures++;
+                    continue;
+                }
+
+                // Unless the listeners loaded their data before the watermark could be read, the first watermark of a
+                // key is what they loaded already
+                final String previous = watermarks.put(event.name() + "|" + key, watermark);
+                if (previous == null ? newKeysChanged : !previous.equals(watermark)) {
+                    logger.info("checkForChanges: " + event.name() + " changed for " + key);
+                    changedEvents.add(event);
+                }
+            }
+        }
+
+        // Keys that are no longer polled are forgotten
+        watermarks.keySet().retainAll(checkedKeys);
+        return failures > 0 && failures == checkedKeys.size() ? null : changedEvents;
+    }
+
+    private void triggerEvents(final Set<ServerEvent> events) {
+        final Map<String, Object> eventContext = new HashMap<String, Object>();
         eventContext.put("sender", "pollingManager");
-        eventManager.triggerAllEvents(eventContext);
-        timer.restart();
+        for (final ServerEvent event : events) {
+            eventManager.triggerEvent(event, eventContext);
+        }
+    }
+
+    private long getJitteredDelay(final long delay) {
+        return Math.max(0L, Math.round(delay * (1.0 + JITTER * (2.0 * random.nextDouble() - 1.0))));
     }
 }
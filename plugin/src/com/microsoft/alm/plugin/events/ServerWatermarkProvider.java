@@ -0,0 +1,122 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.events;
+
+import com.microsoft.alm.build.webapi.model.Build;
+import com.microsoft.alm.build.webapi.model.BuildQueryOrder;
+import com.microsoft.alm.build.webapi.model.BuildStatus;
+import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.context.ServerContextManager;
+import com.microsoft.alm.plugin.operations.WorkItemLookupOperation;
+import com.microsoft.alm.sourcecontrol.webapi.model.GitPullRequest;
+import com.microsoft.alm.sourcecontrol.webapi.model.GitPullRequestSearchCriteria;
+import com.microsoft.alm.sourcecontrol.webapi.model.IdentityRefWithVote;
+import com.microsoft.alm.sourcecontrol.webapi.model.PullRequestStatus;
+import com.microsoft.alm.workitemtracking.webapi.WorkItemTrackingHttpClient;
+import com.microsoft.alm.workitemtracking.webapi.models.Wiql;
+import com.microsoft.alm.workitemtracking.webapi.models.WorkItem;
+import com.microsoft.alm.workitemtracking.webapi.models.WorkItemReference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Gets the watermarks of the data behind the server events with the smallest requests the REST clients allow:
+ * <ul>
+ * <li>builds: the id of the latest completed build of the team project</li>
+ * <li>pull requests: the ids, merge status and votes of the active pull requests of the repository</li>
+ * <li>work items: the number of work items of the team project changed since yesterday, along with the id and
+ * revision of the latest one</li>
+ * </ul>
+ */
+public class ServerWatermarkProvider implements ServerPollingManager.WatermarkProvider {
+    private static final String REVISION_FIELD = "System.Rev";
+    private static final String CHANGED_WORK_ITEMS_QUERY = "SELECT [System.Id] FROM WorkItems " +
+            "WHERE [System.TeamProject] = @project AND [System.ChangedDate] >= @today - 1 ORDER BY [System.ChangedDate] DESC";
+    // The same number of pull requests the pull request lookup asks for
+    private static final int MAX_PULL_REQUESTS = 101;
+
+    @Override
+    public Collection<ServerContext> getContexts() {
+        final List<ServerContext> contexts = new ArrayList<ServerContext>();
+        for (final ServerContext context : ServerContextManager.getInstance().getAllServerContexts()) {
+            if (context.getTeamProjectReference() != null && context.getTeamProjectReference().getId() != null) {
+                contexts.add(context);
+            }
+        }
+        return contexts;
+    }
+
+    @Override
+    public String getKey(final ServerContext context, final ServerEvent event) {
+        final String projectKey = context.getCollectionURI() + "|" + context.getTeamProjectReference().getId();
+        if (event == ServerEvent.PULL_REQUESTS_CHANGED) {
+            return context.getGitRepository() != null && context.getGitRepository().getId() != null ?
+                    projectKey + "|" + context.getGitRepository().getId() : null;
+        }
+        return projectKey;
+    }
+
+    @Override
+    public String getWatermark(final ServerContext context, final ServerEvent event) {
+        switch (event) {
+            case BUILDS_CHANGED:
+                return getBuildWatermark(context);
+            case PULL_REQUESTS_CHANGED:
+                return getPullRequestWatermark(context);
+            case WORK_ITEMS_CHANGED:
+                return getWorkItemWatermark(context);
+            default:
+                return null;
+        }
+    }
+
+    private String getBuildWatermark(final ServerContext context) {
+        final List<Build> builds = context.getBuildHttpClient().getBuilds(context.getTeamProjectReference().getId(), null,
+                null, null, null, null, null, null, BuildStatus.COMPLETED,
+                null, null, null, null, 1, null, null, null, BuildQueryOrder.FINISH_TIME_DESCENDING);
+        return builds.isEmpty() ? "" : String.valueOf(builds.get(0).getId());
+    }
+
+    private String getPullRequestWatermark(final ServerContext context) {
+        final GitPullRequestSearchCriteria criteria = new GitPullRequestSearchCriteria();
+        criteria.setRepositoryId(context.getGitRepository().getId());
+        criteria.setStatus(PullRequestStatus.ACTIVE);
+        criteria.setIncludeLinks(false);
+        final List<GitPullRequest> pullRequests = context.getGitHttpClient().getPullRequests(
+                context.getGitRepository().getId(), criteria, 0, 0, MAX_PULL_REQUESTS);
+
+        final StringBuilder watermark = new StringBuilder();
+        for (final GitPullRequest pullRequest : pullRequests) {
+            watermark.append(pullRequest.getPullRequestId()).append(':').append(pullRequest.getMergeStatus());
+            if (pullRequest.getReviewers() != null) {
+                for (final IdentityRefWithVote reviewer : pullRequest.getReviewers()) {
+                    watermark.append(':').append(reviewer.getId()).append('=').append(reviewer.getVote());
+                }
+            }
+            watermark.append(';');
+        }
+        return watermark.toString();
+    }
+
+    private String getWorkItemWatermark(final ServerContext context) {
+        final WorkItemTrackingHttpClient witHttpClient = context.getWitHttpClient();
+        final Wiql wiql = new Wiql();
+        wiql.setQuery(CHANGED_WORK_ITEMS_QUERY);
+        final List<WorkItemReference> itemRefs = witHttpClient.queryByWiql(wiql, context.getTeamProjectReference().getId()).getWorkItems();
+        if (itemRefs.isEmpty()) {
+            return "0";
+        }
+
+        // The latest work item may have changed again, so its revision is part of the watermark
+        final List<Integer> ids = new WorkItemLookupOperation.IDList(1);
+        ids.add(itemRefs.get(0).getId());
+        final List<String> fields = new WorkItemLookupOperation.FieldList();
+        fields.add(REVISION_FIELD);
+        final List<WorkItem> items = witHttpClient.getWorkItems(ids, fields, null, null);
+        final Object revision = items.isEmpty() ? null : items.get(0).getFields().get(REVISION_FIELD);
+        return itemRefs.size() + ":" + itemRefs.get(0).getId() + ":" + revision;
+    }
+}
@@ -4,9 +4,14 @@
 package com.microsoft.alm.plugin.external;
 
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
 import com.microsoft.alm.plugin.authentication.AuthenticationInfo;
 import com.microsoft.alm.plugin.external.utils.ProcessHelper;
+import com.microsoft.alm.plugin.services.PluginServiceProvider;
+import com.microsoft.alm.plugin.telemetry.TfsTelemetryConstants;
+import com.microsoft.alm.plugin.telemetry.TfsTelemetryHelper;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,17 +28,47 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is used to run an external command line tool and listen to the output.
  * Use the nested class ArgumentBuilder to build up the list of arguments and the nested interface Listener to
  * get callbacks for processing output, exceptions and completion events.
+ * <p/>
+ * Reading the output of a process and waiting for it to exit both block, so each running process needs three
+ * threads. Those threads come from a pool shared by all runners so that they are reused from one command to the
+ * next. The pool keeps at most {@link #PROP_MAX_IO_THREADS} threads. If a burst of processes needs more than that,
+ * the extra tasks get a thread of their own for their lifetime instead of waiting, because a queued reader could
+ * keep a process blocked on a full pipe forever.
  */
 public class ToolRunner {
     private static final Logger logger = LoggerFactory.getLogger(ToolRunner.class);
 
-    private Process toolProcess;
+    public static final String PROP_MAX_IO_THREADS = "com.microsoft.alm.plugin.external.maxIoThreads";
+    private static final int DEFAULT_MAX_IO_THREADS = 48;
+    private static final long IDLE_IO_THREAD_TIMEOUT_SECONDS = 60L;
+
+    // Count of processes killed before they completed
+    private static final AtomicLong killCount = new AtomicLong();
+
+    // Gauges for the processes being listened to and the threads doing the listening
+    private static final AtomicInteger activeProcessCount = new AtomicInteger();
+    private static final AtomicInteger overflowThreadCount = new AtomicInteger();
+    private static final AtomicLong overflowTaskCount = new AtomicLong();
+
+    private static class IoExecutorHolder {
+        private static final ThreadPoolExecutor INSTANCE = createIoExecutor();
+    }
+
+    private volatile Process toolProcess;
     private final String toolLocation;
     private final String workingDirectory;
     private StreamProcessor standardErrorProcessor;
@@ -187,6 +222,7 @@ public class ToolRunner {
             standardOutProcessor = new StreamProcessor(stdout, false, listenerProxy, standardOutputFlushed);
             standardOutProcessor.start();
             processWaiter = new ProcessWaiter(toolProcess, listenerProxy, standardErrorFlushed, standardOutputFlushed);
+            activeProcessCount.incrementAndGet();
             processWaiter.start();
             return toolProcess;
         } catch (final IOException e) {
@@ -236,6 +272,112 @@ public class ToolRunner {
         return escaped;
     }
 
+    /**
+     * Returns true if the process has been started and has not exited yet.
+     */
+    public boolean isRunning() {
+        if (toolProcess == null) {
+            return false;
+        }
+
+        try {
+            // exitValue throws if the process is still running
+            toolProcess.exitValue();
+            return false;
+        } catch (final IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Kills the process, and any processes it started, if it is still running. This method does not wait on the
+     * threads listening to the process, so it can be called from any thread (including a listener callback).
+     * The listener is still notified when the process exits. Call dispose afterwards to clean up the threads.
+     */
+    public void cancel() {
+        if (toolProcess != null && isRunning()) {
+            logger.info("ToolRunner.cancel: killing process");
+            killCount.incrementAndGet();
+            if (PluginServiceProvider.getInstance().isInitialized()) {
+                TfsTelemetryHelper.sendMetricAsync(TfsTelemetryConstants.METRIC_TF_PROCESS_KILLED, 1);
+            }
+            destroyProcessTree(toolProcess);
+        }
+    }
+
+    /**
+     * Returns the number of processes that have been killed before they completed.
+     */
+    public static long getKillCount() {
+        return killCount.get();
+    }
+
+    /**
+     * Returns the number of processes whose exit is still being waited on.
+     */
+    public static int getActiveProcessCount() {
+        return activeProcessCount.get();
+    }
+
+    /**
+     * Returns the number of threads listening to processes, including idle pooled threads.
+     */
+    public static int getIoThreadCount() {
+        return IoExecutorHolder.INSTANCE.getPoolSize() + overflowThreadCount.get();
+    }
+
+    /**
+     * Returns the number of threads that are busy listening to processes.
+     */
+    public static int getActiveIoThreadCount() {
+        return IoExecutorHolder.INSTANCE.getActiveCount() + overflowThreadCount.get();
+    }
+
+    /**
+     * Returns the number of tasks that had to run outside of the pool because all of its threads were busy.
+     */
+    public static long getOverflowTaskCount() {
+        return overflowTaskCount.get();
+    }
+
+    private static ThreadPoolExecutor createIoExecutor() {
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ToolRunner-io-%d").build();
+        final ThreadFactory overflowThreadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ToolRunner-io-overflow-%d").build();
+        // The synchronous queue hands each task straight to an idle thread or a new one, tasks never wait in a queue
+        return new ThreadPoolExecutor(0, getMaxIoThreads(), IDLE_IO_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), threadFactory, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+                logger.warn("All " + executor.getMaximumPoolSize() + " tool runner threads are busy, starting an extra thread");
+                overflowTaskCount.incrementAndGet();
+                overflowThreadCount.incrementAndGet();
+                overflowThreadFactory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            overflowThreadCount.decrementAndGet();
+                        }
+                    }
+                }).start();
+            }
+        });
+    }
+
+    private static int getMaxIoThreads() {
+        return Math.max(SystemHelper.toInt(System.getProperty(PROP_MAX_IO_THREADS), DEFAULT_MAX_IO_THREADS), 3);
+    }
+
+    private static void destroyProcessTree(final Process process) {
+        ProcessHelper.killDescendants(process);
+        try {
+            process.destroy();
+        } catch (final Throwable t) {
+            logger.warn("Failed to destroy process.", t);
+        }
+    }
+
     /**
      * Call the dispose method to make sure all threads are cleaned up and disposed of properly.
      */
@@ -298,15 +440,68 @@ public class ToolRunner {
     }
 
     /**
-     * This internal class is used to manage the thread that waits on the process to finish.
+     * A task that runs on the shared pool of tool runner threads. Since the thread is not owned by the task, it is
+     * only interrupted while it is running this task, and cleaning up waits for the task to finish instead of
+     * joining the thread.
+     */
+    private abstract static class PooledTask implements Runnable {
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final Object threadLock = new Object();
+        private Thread thread;
+        private volatile boolean cleanedUp;
+
+        public void start() {
+            IoExecutorHolder.INSTANCE.execute(this);
+        }
+
+        @Override
+        public final void run() {
+            synchronized (threadLock) {
+                thread = Thread.currentThread();
+            }
+            try {
+                if (!cleanedUp) {
+                    runTask();
+                }
+            } finally {
+                synchronized (threadLock) {
+                    thread = null;
+                    // Don't leave an interrupt meant for this task behind for the next task on the pooled thread
+                    Thread.interrupted();
+                }
+                finished.countDown();
+            }
+        }
+
+        protected abstract void runTask();
+
+        /**
+         * This method forces the task to end by interrupting it and waiting for it to finish.
+         *
+         * @throws InterruptedException
+         */
+        public void cleanUp() throws InterruptedException {
+            cleanedUp = true;
+            synchronized (threadLock) {
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+            finished.await();
+        }
+    }
+
+    /**
+     * This internal class is used to manage the task that waits on the process to finish.
      * It takes in the process to wait on and the listener to issue callbacks to.
      */
-    private static class ProcessWaiter extends Thread {
-        private boolean processRunning;
+    private static class ProcessWaiter extends PooledTask {
+        private volatile boolean processRunning;
         private final Process process;
         private final Listener listener;
         private final SettableFuture<Boolean> errorsFlushed;
         private final SettableFuture<Boolean> outputFlushed;
+        private final AtomicBoolean counted = new AtomicBoolean(true);
 
         public ProcessWaiter(final Process process, final Listener listener, final SettableFuture<Boolean> errorsFlushed, final SettableFuture<Boolean> outputFlushed) {
             ArgumentHelper.checkNotNull(process, "process");
@@ -315,13 +510,14 @@ public class ToolRunner {
             this.listener = listener;
             this.errorsFlushed = errorsFlushed;
             this.outputFlushed = outputFlushed;
+            // Set before the task starts so that a clean up that comes first still destroys the process
+            this.processRunning = true;
         }
 
         @Override
-        public void run() {
+        protected void runTask() {
             // Don't let exceptions escape from this top level method
             try {
-                processRunning = true;
                 // Wait for the process to finish
                 process.waitFor();
                 // Wait for the output streams to be flushed
@@ -329,39 +525,39 @@ public class ToolRunner {
                 outputFlushed.get(30, TimeUnit.SECONDS);
                 // Clear the member variable so we don't try to destroy the process later
                 processRunning = false;
+                processFinished();
                 // Call the completed event on the listener with the exit code
                 listener.completed(process.exitValue());
             } catch (Throwable e) {
                 logger.warn("Failed to wait for process exit.", e);
+                processFinished();
                 listener.processException(e);
             }
         }
 
-        /**
-         * This method forces the thread to end by interrupting it and joining with the calling thread.
-         *
-         * @throws InterruptedException
-         */
+        private void processFinished() {
+            if (counted.compareAndSet(true, false)) {
+                activeProcessCount.decrementAndGet();
+            }
+        }
+
+        @Override
         public void cleanUp() throws InterruptedException {
             if (processRunning) {
-                try {
-                    process.destroy();
-                } catch (final Throwable t) {
-                    logger.warn("Failed to destroy process.", t);
-                }
+                destroyProcessTree(process);
             }
-            this.interrupt();
-            this.join();
+            super.cleanUp();
+            processFinished();
         }
     }
 
     /**
-     * This internal class is used to manage the threads that receive the output from the process.
-     * One thread is created to listen for standard output and one is created to listen to standard error.
+     * This internal class is used to manage the tasks that receive the output from the process.
+     * One task is created to listen for standard output and one is created to listen to standard error.
      * The constructor takes in the stream to listen to, what kind of stream it is, and the listener to
      * issue callbacks to.
      */
-    private static class StreamProcessor extends Thread {
+    private static class StreamProcessor extends PooledTask {
 
         private final InputStream stream;
         private final boolean isStandardError;
@@ -379,7 +575,7 @@ public class ToolRunner {
         }
 
         @Override
-        public void run() {
+        protected void runTask() {
             BufferedReader bufferedReader = null;
 
             // Don't let exceptions escape from this top level method
@@ -412,15 +608,5 @@ public class ToolRunner {
                 }
             }
         }
-
-        /**
-         * This method forces the thread to end by interrupting it and joining with the calling thread.
-         *
-         * @throws InterruptedException
-         */
-        public void cleanUp() throws InterruptedException {
-            this.interrupt();
-            this.join();
-        }
     }
 }
@@ -3,19 +3,95 @@
 
 package com.microsoft.alm.plugin.external;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
 import com.microsoft.alm.plugin.external.models.ToolVersion;
 import com.microsoft.alm.plugin.external.tools.TfTool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * This class keeps a pool of CLC processes that have been started with the "@" argument and are waiting for their
+ * real arguments to be passed in via standard input. Starting the JVM behind the CLC is the most expensive part of
+ * running a command, so having a process already warmed up hides most of that cost.
+ * <p/>
+ * Runners are pooled per tool location and working directory. Each pool keeps at least the minimum number of warm
+ * runners and grows toward the maximum when callers find it empty. Runners that sit idle for too long are disposed,
+ * the least recently used pools are trimmed when the global process cap is reached, and runners whose process has
+ * died are discarded instead of being handed out.
+ * <p/>
+ * The limits can be tuned with the following system properties:
+ * <ul>
+ * <li>{@link #PROP_MIN_WARM_RUNNERS} - warm runners kept per working directory (default 1)</li>
+ * <li>{@link #PROP_MAX_WARM_RUNNERS} - warm runners allowed per working directory (default 2)</li>
+ * <li>{@link #PROP_MAX_PROCESSES} - warm runners allowed in total (default 6)</li>
+ * <li>{@link #PROP_IDLE_TIMEOUT_SECONDS} - idle time before a warm runner is disposed (default 300)</li>
+ * </ul>
+ */
 public class ToolRunnerCache {
     private static final Logger logger = LoggerFactory.getLogger(ToolRunnerCache.class);
 
-    private static ConcurrentMap<String, ToolRunner> cache = new ConcurrentHashMap<String, ToolRunner>(3);
+    public static final String PROP_MIN_WARM_RUNNERS = "com.microsoft.alm.plugin.external.minWarmRunners";
+    public static final String PROP_MAX_WARM_RUNNERS = "com.microsoft.alm.plugin.external.maxWarmRunners";
+    public static final String PROP_MAX_PROCESSES = "com.microsoft.alm.plugin.external.maxWarmProcesses";
+    public static final String PROP_IDLE_TIMEOUT_SECONDS = "com.microsoft.alm.plugin.external.warmRunnerIdleTimeout";
+
+    private static final int DEFAULT_MIN_WARM_RUNNERS = 1;
+    private static final int DEFAULT_MAX_WARM_RUNNERS = 2;
+    private static final int DEFAULT_MAX_PROCESSES = 6;
+    private static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 300L;
+    private static final long MIN_SWEEP_INTERVAL_SECONDS = 10L;
+
+    private static final Object lock = new Object();
+
+    // Access ordered so that iteration starts with the least recently used pool
+    private static final Map<String, RunnerPool> pools = new LinkedHashMap<String, RunnerPool>(8, 0.75f, true);
+
+    // Count of warm runners in all pools including the ones that are being started right now
+    private static int warmRunnerCount = 0;
+    private static ScheduledExecutorService sweeper;
+
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+    private static final AtomicLong spawnCount = new AtomicLong();
+    private static final AtomicLong evictionCount = new AtomicLong();
+    private static final AtomicLong discardCount = new AtomicLong();
+
+    /**
+     * A warm runner along with the time it was put into the pool.
+     */
+    private static class CachedRunner {
+        private final ToolRunner runner;
+        private final long cachedTime;
+
+        public CachedRunner(final ToolRunner runner, final long cachedTime) {
+            this.runner = runner;
+            this.cachedTime = cachedTime;
+        }
+    }
+
+    /**
+     * The warm runners for a single key. The target size starts at the minimum and grows toward the maximum each
+     * time a caller finds the pool empty. It shrinks back down when runners go unused.
+     */
+    private static class RunnerPool {
+        private final LinkedList<CachedRunner> runners = new LinkedList<CachedRunner>();
+        private int targetSize = getMinWarmRunners();
+        private int pendingCount = 0;
+    }
 
     public static ToolRunner getRunningToolRunner(final String toolLocation, final ToolRunner.ArgumentBuilder argumentBuilder, final ToolRunner.Listener listener) {
         logger.info("getRunningToolRunner: toolLocation={0}", toolLocation);
@@ -34,27 +110,93 @@ public class ToolRunnerCache {
             logger.info("getRunningToolRunner: key=" + key);
 
             // If there is already one cached, then remove it and use it
-            toolRunner = cache.remove(key);
+            toolRunner = checkOut(key);
             if (toolRunner == null) {
                 // Cache miss, so create a new one
                 logger.info("getRunningToolRunner: cache miss.");
+                missCount.incrementAndGet();
+                spawnCount.incrementAndGet();
                 toolRunner = startToolRunner(toolLocation, getStartAndWaitArguments(argumentBuilder), listener);
             } else {
                 // Cache hit, but we need to add the listener
+                hitCount.incrementAndGet();
                 toolRunner.addListener(listener);
             }
 
             // The toolRunner should already be started, we just need to send the args in
             toolRunner.sendArgsViaStandardInput(argumentBuilder);
 
-            // Add another instance to the cache for later
-            //TODO: clear all or part of the cache to make sure we aren't leaking memory by never cleaning up
-            updateCachedInstance(key, toolLocation, argumentBuilder);
+            // Top the pool back up for later
+            replenish(key, toolLocation, argumentBuilder.getWorkingDirectory());
         }
 
         return toolRunner;
     }
 
+    /**
+     * Disposes of every warm runner in the cache.
+     */
+    public static void clear() {
+        final List<ToolRunner> toDispose = new ArrayList<ToolRunner>();
+        synchronized (lock) {
+            for (final RunnerPool pool : pools.values()) {
+                for (final CachedRunner cachedRunner : pool.runners) {
+                    toDispose.add(cachedRunner.runner);
+                }
+                warmRunnerCount -= pool.runners.size();
+                pool.runners.clear();
+            }
+            pools.clear();
+        }
+        dispose(toDispose);
+    }
+
+    /**
+     * Disposes of the warm runners that have been idle longer than the idle timeout.
+     */
+    public static void evictIdleRunners() {
+        final List<ToolRunner> toDispose = new ArrayList<ToolRunner>();
+        synchronized (lock) {
+            evictIdleRunners(System.currentTimeMillis(), toDispose);
+        }
+        dispose(toDispose);
+    }
+
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    public static long getSpawnCount() {
+        return spawnCount.get();
+    }
+
+    public static long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public static long getDiscardCount() {
+        return discardCount.get();
+    }
+
+    public static int getWarmRunnerCount() {
+        synchronized (lock) {
+            return warmRunnerCount;
+        }
+    }
+
+    @VisibleForTesting
+    static void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        spawnCount.set(0);
+        evictionCount.set(0);
+        discardCount.set(0);
+    }
+
     private static ToolRunner startToolRunner(String toolLocation, ToolRunner.ArgumentBuilder argumentBuilder, ToolRunner.Listener listener) {
         final ToolRunner toolRunner = new ToolRunner(toolLocation, argumentBuilder.getWorkingDirectory());
         toolRunner.addListener(listener);
@@ -70,24 +212,203 @@ public class ToolRunnerCache {
      * @return
      */
     private static ToolRunner.ArgumentBuilder getStartAndWaitArguments(final ToolRunner.ArgumentBuilder originalArgumentBuilder) {
+        return getStartAndWaitArguments(originalArgumentBuilder.getWorkingDirectory());
+    }
+
+    private static ToolRunner.ArgumentBuilder getStartAndWaitArguments(final String workingDirectory) {
         return new ToolRunner.ArgumentBuilder()
-                .setWorkingDirectory(originalArgumentBuilder.getWorkingDirectory())
+                .setWorkingDirectory(workingDirectory)
                 .add("@");
     }
 
-    private static void updateCachedInstance(final String key, final String toolLocation, final ToolRunner.ArgumentBuilder argumentBuilder) {
-        // Start up a new instance and cache it for later use
-        logger.info("updateCachedInstance: caching a new runner: key=" + key);
-        final ToolRunner toolRunnerToCache = new ToolRunner(toolLocation, argumentBuilder.getWorkingDirectory());
-        // The args for the cached instance are just working dir and "@" which tells the CLC to wait
-        toolRunnerToCache.start(getStartAndWaitArguments(argumentBuilder));
-        final ToolRunner cachedToolRunner = cache.put(key, toolRunnerToCache);
+    /**
+     * Removes the oldest healthy runner from the pool for the given key. Runners whose process has already exited
+     * are discarded along the way. Returns null if no healthy runner is available.
+     */
+    private static ToolRunner checkOut(final String key) {
+        final List<ToolRunner> toDispose = new ArrayList<ToolRunner>();
+        ToolRunner toolRunner = null;
+        synchronized (lock) {
+            evictIdleRunners(System.currentTimeMillis(), toDispose);
+            final RunnerPool pool = pools.get(key);
+            if (pool != null) {
+                while (toolRunner == null && !pool.runners.isEmpty()) {
+                    final CachedRunner cachedRunner = pool.runners.removeFirst();
+                    warmRunnerCount--;
+                    if (cachedRunner.runner.isRunning()) {
+                        toolRunner = cachedRunner.runner;
+                    } else {
+                        logger.info("checkOut: discarding a cached runner that is no longer running: key=" + key);
+                        discardCount.incrementAndGet();
+                        toDispose.add(cachedRunner.runner);
+                    }
+                }
 
-        // If there was already one waiting (some other thread started it up) then dispose of it
-        if (cachedToolRunner != null) {
-            logger.info("updateCachedInstance: disposing of cached tool runner.");
-            cachedToolRunner.dispose();
+                if (toolRunner == null) {
+                    // The pool was drained, so keep more runners warm for this key next time
+                    pool.targetSize = Math.min(pool.targetSize + 1, getMaxWarmRunners());
+                }
+            }
         }
+        dispose(toDispose);
+        return toolRunner;
+    }
+
+    /**
+     * Starts as many runners as needed to bring the pool for the key back up to its target size without going
+     * over the global process cap. Runners in the least recently used pools are evicted to make room.
+     */
+    private static void replenish(final String key, final String toolLocation, final String workingDirectory) {
+        final List<ToolRunner> toDispose = new ArrayList<ToolRunner>();
+        final RunnerPool pool;
+        int toStart;
+        synchronized (lock) {
+            RunnerPool existing = pools.get(key);
+            if (existing == null) {
+                existing = new RunnerPool();
+                pools.put(key, existing);
+            }
+            pool = existing;
+
+            toStart = pool.targetSize - pool.runners.size() - pool.pendingCount;
+            final int maxProcesses = getMaxProcesses();
+            while (toStart > 0 && warmRunnerCount + toStart > maxProcesses) {
+                if (!evictLeastRecentlyUsed(key, toDispose)) {
+                    // Nothing left to evict from the other pools so start fewer runners
+                    toStart = maxProcesses - warmRunnerCount;
+                }
+            }
+
+            if (toStart > 0) {
+                pool.pendingCount += toStart;
+                warmRunnerCount += toStart;
+            }
+        }
+        dispose(toDispose);
+
+        for (int i = 0; i < toStart; i++) {
+            // Start up a new instance and cache it for later use
+            logger.info("replenish: caching a new runner: key=" + key);
+            spawnCount.incrementAndGet();
+            final ToolRunner toolRunnerToCache = new ToolRunner(toolLocation, workingDirectory);
+            // The args for the cached instance are just working dir and "@" which tells the CLC to wait
+            final boolean started = toolRunnerToCache.start(getStartAndWaitArguments(workingDirectory)) != null;
+            synchronized (lock) {
+                pool.pendingCount--;
+                if (started && pools.get(key) == pool) {
+                    pool.runners.addLast(new CachedRunner(toolRunnerToCache, System.currentTimeMillis()));
+                    ensureSweeperStarted();
+                } else {
+                    // Either the process failed to start or the pool was cleared while we were starting it
+                    warmRunnerCount--;
+                    toDispose.add(toolRunnerToCache);
+                }
+            }
+        }
+        dispose(toDispose);
+    }
+
+    /**
+     * Evicts the oldest runner of the least recently used pool other than the one for the given key.
+     * Must be called while holding the lock. Returns false if there was nothing to evict.
+     */
+    private static boolean evictLeastRecentlyUsed(final String keyToKeep, final List<ToolRunner> toDispose) {
+        final Iterator<Map.Entry<String, RunnerPool>> iterator = pools.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, RunnerPool> entry = iterator.next();
+            if (entry.getKey().equals(keyToKeep) || entry.getValue().runners.isEmpty()) {
+                continue;
+            }
+
+            logger.info("evictLeastRecentlyUsed: evicting a cached runner: key=" + entry.getKey());
+            final RunnerPool pool = entry.getValue();
+            toDispose.add(pool.runners.removeFirst().runner);
+            warmRunnerCount--;
+            evictionCount.incrementAndGet();
+            pool.targetSize = getMinWarmRunners();
+            if (pool.runners.isEmpty() && pool.pendingCount == 0) {
+                iterator.remove();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private static void evictIdleRunners(final long now, final List<ToolRunner> toDispose) {
+        final long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(getIdleTimeoutSeconds());
+        final Iterator<RunnerPool> poolIterator = pools.values().iterator();
+        while (poolIterator.hasNext()) {
+            final RunnerPool pool = poolIterator.next();
+            final Iterator<CachedRunner> runnerIterator = pool.runners.iterator();
+            while (runnerIterator.hasNext()) {
+                final CachedRunner cachedRunner = runnerIterator.next();
+                if (now - cachedRunner.cachedTime >= idleTimeoutMillis) {
+                    runnerIterator.remove();
+                    warmRunnerCount--;
+                    evictionCount.incrementAndGet();
+                    toDispose.add(cachedRunner.runner);
+                    // The runner went unused so this key does not need the extra warm runners
+                    pool.targetSize = getMinWarmRunners();
+                } else if (!cachedRunner.runner.isRunning()) {
+                    runnerIterator.remove();
+                    warmRunnerCount--;
+                    discardCount.incrementAndGet();
+                    toDispose.add(cachedRunner.runner);
+                }
+            }
+
+            if (pool.runners.isEmpty() && pool.pendingCount == 0) {
+                poolIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private static void ensureSweeperStarted() {
+        if (sweeper == null) {
+            final long interval = Math.max(getIdleTimeoutSeconds() / 2, MIN_SWEEP_INTERVAL_SECONDS);
+            sweeper = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ToolRunnerCache-sweeper-%d").build());
+            sweeper.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evictIdleRunners();
+                    } catch (final Throwable t) {
+                        logger.warn("Failed to evict idle tool runners.", t);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void dispose(final List<ToolRunner> toolRunners) {
+        for (final ToolRunner toolRunner : toolRunners) {
+            logger.info("dispose: disposing of cached tool runner.");
+            toolRunner.dispose();
+        }
+    }
+
+    private static int getMinWarmRunners() {
+        return Math.max(0, SystemHelper.toInt(System.getProperty(PROP_MIN_WARM_RUNNERS), DEFAULT_MIN_WARM_RUNNERS));
+    }
+
+    private static int getMaxWarmRunners() {
+        return Math.max(getMinWarmRunners(),
+                SystemHelper.toInt(System.getProperty(PROP_MAX_WARM_RUNNERS), DEFAULT_MAX_WARM_RUNNERS));
+    }
+
+    private static int getMaxProcesses() {
+        return Math.max(0, SystemHelper.toInt(System.getProperty(PROP_MAX_PROCESSES), DEFAULT_MAX_PROCESSES));
+    }
+
+    private static long getIdleTimeoutSeconds() {
+        return Math.max(1L, SystemHelper.toLong(System.getProperty(PROP_IDLE_TIMEOUT_SECONDS), DEFAULT_IDLE_TIMEOUT_SECONDS));
     }
 
     private static String getKey(final String toolLocation, final ToolRunner.ArgumentBuilder argumentBuilder) {
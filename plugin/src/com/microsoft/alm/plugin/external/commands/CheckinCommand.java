@@ -117,4 +117,14 @@ public class CheckinCommand extends Command<String> {
 
         return getChangesetNumber(stdout);
     }
+
+    /**
+     * The time this command takes grows with the number of files involved, so it gets the long deadline
+     *
+     * @return
+     */
+    @Override
+    protected long getDefaultTimeoutMilliseconds() {
+        return getLongTimeoutMilliseconds();
+    }
 }
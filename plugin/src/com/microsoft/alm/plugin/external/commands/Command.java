@@ -4,14 +4,21 @@
 package com.microsoft.alm.plugin.external.commands;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
 import com.microsoft.alm.helpers.Path;
 import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.services.PluginServiceProvider;
+import com.microsoft.alm.plugin.telemetry.TfsTelemetryConstants;
+import com.microsoft.alm.plugin.telemetry.TfsTelemetryHelper;
 import com.microsoft.alm.plugin.external.ToolRunner;
 import com.microsoft.alm.plugin.external.ToolRunnerCache;
+import com.microsoft.alm.plugin.external.exceptions.ToolCancelledException;
 import com.microsoft.alm.plugin.external.exceptions.ToolException;
 import com.microsoft.alm.plugin.external.exceptions.ToolMemoryException;
 import com.microsoft.alm.plugin.external.exceptions.ToolParseFailureException;
+import com.microsoft.alm.plugin.external.exceptions.ToolTimeoutException;
 import com.microsoft.alm.plugin.external.models.Workspace;
 import com.microsoft.alm.plugin.external.tools.TfTool;
 import com.microsoft.alm.plugin.external.utils.WorkspaceHelper;
@@ -31,11 +38,19 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -60,6 +75,32 @@ public abstract class Command<T> {
 
     private static final String WARNING_PREFIX = "WARN ";
     private static final String XML_PREFIX = "<?xml ";
+    // The tail of stdout is trimmed back to this length once it grows to twice as long
+    private static final int MAX_STDOUT_TAIL_LENGTH = 64 * 1024;
+
+    public static final String PROP_TIMEOUT_SECONDS = "com.microsoft.alm.plugin.external.commandTimeoutSeconds";
+    public static final String PROP_LONG_TIMEOUT_SECONDS = "com.microsoft.alm.plugin.external.longCommandTimeoutSeconds";
+    // Commands have no deadline unless one is set for them, since most of them take longer on larger workspaces
+    private static final long DEFAULT_TIMEOUT_SECONDS = 0L;
+    private static final long DEFAULT_LONG_TIMEOUT_SECONDS = 3600L;
+    // How often a synchronous command checks if the operation waiting on it has been cancelled
+    private static final long CANCEL_CHECK_INTERVAL_MILLISECONDS = 100L;
+
+    private static final AtomicLong timeoutCount = new AtomicLong();
+
+    // A single thread is enough to kill the processes of the commands that run past their deadline
+    private static class TimeoutExecutorHolder {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TfCommandTimeout-%d").build());
+    }
+
+    // XPathFactory is not thread safe, so each thread gets its own instead of creating one for every query
+    private static final ThreadLocal<XPathFactory> xpathFactory = new ThreadLocal<XPathFactory>() {
+        @Override
+        protected XPathFactory initialValue() {
+            return XPathFactory.newInstance();
+        }
+    };
 
     private final String name;
     private final boolean useProxyIfAvailable;
@@ -68,6 +109,16 @@ public abstract class Command<T> {
     // Note that this may be null in some cases
     private final ServerContext context;
 
+    // These are set while the command is running so that it can be cancelled from another thread
+    private volatile ToolRunner runner;
+    private volatile OutputConsumer<T> outputConsumer;
+    private volatile boolean cancelled = false;
+    private volatile boolean timedOut = false;
+    private volatile ScheduledFuture<?> timeoutFuture;
+
+    // The deadline of the command in milliseconds, zero or less means there is no deadline
+    private volatile long timeoutMilliseconds = -1;
+
     public interface Listener<T> {
         /**
          * This method is called to notify the owner of progress made by the command process.
@@ -126,6 +177,45 @@ public abstract class Command<T> {
         return builder;
     }
 
+    /**
+     * Receives the standard output of the command one line at a time while the process is running and turns it
+     * into the result of the command once the process has exited.
+     */
+    protected interface OutputConsumer<T> {
+        void processStandardOutput(final String line);
+
+        T getResult(final String stderr);
+
+        void cancel();
+    }
+
+    /**
+     * By default the output is buffered and handed to parseOutput when the process exits. Commands that can parse
+     * their output incrementally override this method to avoid holding all of the output in memory.
+     *
+     * @return
+     */
+    protected OutputConsumer<T> createOutputConsumer() {
+        return new OutputConsumer<T>() {
+            private final StringBuilder stdout = new StringBuilder();
+
+            @Override
+            public void processStandardOutput(final String line) {
+                stdout.append(line + "\n");
+            }
+
+            @Override
+            public T getResult(final String stderr) {
+                return parseOutput(stdout.toString(), stderr);
+            }
+
+            @Override
+            public void cancel() {
+                stdout.setLength(0);
+            }
+        };
+    }
+
     /**
      * This method starts the command after hooking up the listener. It returns immediately and calls the listener
      * when the command process finishes.
@@ -133,15 +223,34 @@ public abstract class Command<T> {
      * @param listener
      */
     public void run(final Listener<T> listener) {
-        final StringBuilder stdout = new StringBuilder();
+        // Only the tail of stdout is kept to check for errors, the consumer decides what to do with the rest
+        final StringBuilder stdoutTail = new StringBuilder();
         final StringBuilder stderr = new StringBuilder();
         ArgumentHelper.checkNotNull(listener, "listener");
-        final ToolRunner runner = ToolRunnerCache.getRunningToolRunner(TfTool.getValidLocation(),
+        if (cancelled) {
+            listener.completed(null, createCancelledException());
+            return;
+        }
+
+        // The listener is only told about the first of completion or failure (killing the process can cause both)
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final OutputConsumer<T> outputConsumer = createOutputConsumer();
+        this.outputConsumer = outputConsumer;
+        // The deadline is started before the process so that it also covers a process that never starts properly
+        startTimeout();
+        runner = ToolRunnerCache.getRunningToolRunner(TfTool.getValidLocation(),
                 getArgumentBuilder(), new ToolRunner.Listener() {
                     @Override
                     public void processStandardOutput(final String line) {
+                        if (cancelled) {
+                            return;
+                        }
                         logger.info("CMD: " + line);
-                        stdout.append(line + "\n");
+                        stdoutTail.append(line + "\n");
+                        if (stdoutTail.length() > MAX_STDOUT_TAIL_LENGTH * 2) {
+                            stdoutTail.delete(0, stdoutTail.length() - MAX_STDOUT_TAIL_LENGTH);
+                        }
+                        outputConsumer.processStandardOutput(line);
                         listener.progress(line, OUTPUT_TYPE_INFO, 50);
                     }
 
@@ -154,13 +263,30 @@ public abstract class Command<T> {
 
                     @Override
                     public void processException(final Throwable throwable) {
+                        if (!done.compareAndSet(false, true)) {
+                            return;
+                        }
+                        stopTimeout();
                         logger.info("ERROR: " + throwable.toString());
+                        outputConsumer.cancel();
                         listener.progress("", OUTPUT_TYPE_INFO, 100);
-                        listener.completed(null, throwable);
+                        listener.completed(null, cancelled ? createCancelledException() : throwable);
                     }
 
                     @Override
                     public void completed(final int returnCode) {
+                        if (!done.compareAndSet(false, true)) {
+                            return;
+                        }
+                        stopTimeout();
+                        if (cancelled) {
+                            logger.info("CMD: cancelled");
+                            outputConsumer.cancel();
+                            listener.progress("", OUTPUT_TYPE_INFO, 100);
+                            listener.completed(null, createCancelledException());
+                            return;
+                        }
+
                         listener.progress("Parsing command output", OUTPUT_TYPE_INFO, 99);
 
                         Throwable error = null;
@@ -168,13 +294,13 @@ public abstract class Command<T> {
                         try {
                             //TODO there are some commands that write errors to stdout and simply return a non-zero exit code (i.e. when a workspace is not found by name)
                             //TODO we may want to pass in the return code to the parse method or something like that to allow the command to inspect this info as well.
-                            result = parseOutput(stdout.toString(), stderr.toString());
+                            result = outputConsumer.getResult(stderr.toString());
                             if (shouldThrowBadExitCode()) {
                                 TfTool.throwBadExitCode(interpretReturnCode(returnCode));
                             }
                         } catch (Throwable throwable) {
                             logger.warn("CMD: parsing output failed", throwable);
-                            if (isMemoryException(stdout.toString())) {
+                            if (isMemoryException(stdoutTail.toString()) || isMemoryException(stderr.toString())) {
                                 error = new ToolMemoryException(TfTool.getLocation());
                             } else {
                                 error = throwable;
@@ -184,6 +310,133 @@ public abstract class Command<T> {
                         listener.completed(result, error);
                     }
                 });
+
+        // The command may have been cancelled while the process was starting
+        if (cancelled && runner != null) {
+            runner.cancel();
+        }
+    }
+
+    /**
+     * Cancels the command by killing the process that runs it. This method returns immediately and can be called
+     * from any thread. The listener passed to run is still called, with a ToolCancelledException as the error,
+     * once the process has exited. Cancelling a command that has already completed has no effect.
+     */
+    public void cancel() {
+        cancelled = true;
+        final OutputConsumer<T> consumer = outputConsumer;
+        if (consumer != null) {
+            consumer.cancel();
+        }
+        final ToolRunner toolRunner = runner;
+        if (toolRunner != null) {
+            toolRunner.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns true if the command was cancelled because it ran past its deadline
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Sets the deadline for this command, which replaces the default deadline of the command. The process of a
+     * command that is still running when the deadline passes is killed and the command fails with a
+     * ToolTimeoutException. A timeout of zero or less means the command can run for as long as it needs.
+     * This must be called before the command is run.
+     */
+    public void setTimeout(final long timeout, final TimeUnit unit) {
+        ArgumentHelper.checkNotNull(unit, "unit");
+        timeoutMilliseconds = timeout > 0 ? unit.toMillis(timeout) : 0;
+    }
+
+    /**
+     * Returns the deadline of the command in milliseconds, zero means the command has no deadline
+     */
+    public long getTimeoutMilliseconds() {
+        final long timeout = timeoutMilliseconds;
+        return timeout >= 0 ? timeout : getDefaultTimeoutMilliseconds();
+    }
+
+    /**
+     * The deadline used when none is set on the command. There is none unless {@link #PROP_TIMEOUT_SECONDS} is set.
+     * Commands that opt in to a deadline (like get and checkin) override this method to use the long deadline.
+     *
+     * @return
+     */
+    protected long getDefaultTimeoutMilliseconds() {
+        return TimeUnit.SECONDS.toMillis(Math.max(
+                SystemHelper.toLong(System.getProperty(PROP_TIMEOUT_SECONDS), DEFAULT_TIMEOUT_SECONDS), 0L));
+    }
+
+    protected static long getLongTimeoutMilliseconds() {
+        return TimeUnit.SECONDS.toMillis(Math.max(
+                SystemHelper.toLong(System.getProperty(PROP_LONG_TIMEOUT_SECONDS), DEFAULT_LONG_TIMEOUT_SECONDS), 0L));
+    }
+
+    /**
+     * Returns the number of commands that have been killed for running past their deadline
+     */
+    public static long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    private ToolException createCancelledException() {
+        return timedOut ? new ToolTimeoutException() : new ToolCancelledException();
+    }
+
+    private void startTimeout() {
+        final long timeout = getTimeoutMilliseconds();
+        if (timeout > 0) {
+            timeoutFuture = TimeoutExecutorHolder.INSTANCE.schedule(new TimeoutTask(this), timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void stopTimeout() {
+        final ScheduledFuture<?> future = timeoutFuture;
+        if (future != null) {
+            future.cancel(false);
+            timeoutFuture = null;
+        }
+    }
+
+    private void timeOut() {
+        if (cancelled) {
+            return;
+        }
+        logger.warn("CMD: timed out after " + getTimeoutMilliseconds() + "ms: " + name);
+        timedOut = true;
+        timeoutCount.incrementAndGet();
+        if (PluginServiceProvider.getInstance().isInitialized()) {
+            TfsTelemetryHelper.sendMetricAsync(TfsTelemetryConstants.METRIC_TF_COMMAND_TIMEOUT, 1);
+        }
+        cancel();
+    }
+
+    /**
+     * Only holds on to the command weakly, so that a finished command isn't kept in memory by the executor until its
+     * cancelled deadline would have passed.
+     */
+    private static class TimeoutTask implements Runnable {
+        private final WeakReference<Command<?>> command;
+
+        public TimeoutTask(final Command<?> command) {
+            this.command = new WeakReference<Command<?>>(command);
+        }
+
+        @Override
+        public void run() {
+            final Command<?> timedOutCommand = command.get();
+            if (timedOutCommand != null) {
+                timedOutCommand.timeOut();
+            }
+        }
     }
 
     /**
@@ -205,6 +458,7 @@ public abstract class Command<T> {
      * This method is provided to allow callers to run the command and wait on the result.
      * You should probably not call this method on the main thread.
      * You should also limit this to fast local commands.
+     * If the operation on the calling thread is cancelled by the user while waiting, the command is cancelled too.
      *
      * @return
      */
@@ -227,7 +481,18 @@ public abstract class Command<T> {
         });
 
         try {
-            Throwable error = syncError.get();
+            Throwable error;
+            while (true) {
+                try {
+                    error = syncError.get(CANCEL_CHECK_INTERVAL_MILLISECONDS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (final TimeoutException e) {
+                    if (!cancelled && isCallerCancelled()) {
+                        logger.info("CMD: cancelled by the caller");
+                        cancel();
+                    }
+                }
+            }
             if (error != null) {
                 if (error instanceof RuntimeException) {
                     throw (RuntimeException) error;
@@ -251,6 +516,11 @@ public abstract class Command<T> {
         }
     }
 
+    private boolean isCallerCancelled() {
+        return PluginServiceProvider.getInstance().isInitialized() &&
+                PluginServiceProvider.getInstance().getAsyncService().isCancelled();
+    }
+
     public abstract T parseOutput(final String stdout, final String stderr);
 
     /**
@@ -280,7 +550,7 @@ public abstract class Command<T> {
             xmlInput = new InputSource(new StringReader(stdout));
         }
 
-        final XPath xpath = XPathFactory.newInstance().newXPath();
+        final XPath xpath = xpathFactory.get().newXPath();
         try {
             final Object result = xpath.evaluate(xpathQuery, xmlInput, XPathConstants.NODESET);
             if (result != null && result instanceof NodeList) {
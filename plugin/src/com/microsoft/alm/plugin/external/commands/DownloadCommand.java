@@ -49,14 +49,17 @@ public class DownloadCommand extends Command<String> {
     }
 
     /**
-     * Returns the destination of the file or throws an error if one occurred
+     * Returns the destination of the file or throws an error if one occurred.
+     * If the file doesn't exist at the version and file not found is ignored, an empty file is written to the
+     * destination and null is returned so that the caller can tell it apart from a file that is really empty.
      */
     @Override
     public String parseOutput(final String stdout, final String stderr) {
         final StringBuilder fileContents = new StringBuilder();
 
         // Check for "The specified file does not exist at the specified version" and write out empty string
-        if (ignoreFileNotFound && StringUtils.containsIgnoreCase(stderr, FILE_NOT_FOUND_ERROR)) {
+        final boolean fileNotFound = ignoreFileNotFound && StringUtils.containsIgnoreCase(stderr, FILE_NOT_FOUND_ERROR);
+        if (fileNotFound) {
             fileContents.append(StringUtils.EMPTY);
         } else {
             super.throwIfError(stderr);
@@ -79,6 +82,6 @@ public class DownloadCommand extends Command<String> {
         }
 
         // Return the path to the file
-        return destination;
+        return fileNotFound ? null : destination;
     }
 }
@@ -7,14 +7,10 @@ import com.microsoft.alm.common.utils.ArgumentHelper;
 import com.microsoft.alm.plugin.context.ServerContext;
 import com.microsoft.alm.plugin.external.ToolRunner;
 import com.microsoft.alm.plugin.external.models.ChangeSet;
-import com.microsoft.alm.plugin.external.models.CheckedInChange;
+import com.microsoft.alm.plugin.external.parsers.HistoryOutputParser;
+import com.microsoft.alm.plugin.external.parsers.OutputParser;
 import org.apache.commons.lang.StringUtils;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -22,7 +18,7 @@ import java.util.List;
  * <p>
  * history [/version:<value>] [/stopafter:<value>] [/recursive] [/user:<value>] [/format:brief|detailed|xml] [/slotmode] [/itemmode] <itemSpec>
  */
-public class HistoryCommand extends Command<List<ChangeSet>> {
+public class HistoryCommand extends StreamingCommand<ChangeSet> {
     private final String itemPath;
     private final String version;
     private final String user;
@@ -71,7 +67,7 @@ public class HistoryCommand extends Command<List<ChangeSet>> {
     }
 
     /**
-     * Parses the output of the status command when formatted as xml.
+     * Parses the output of the history command when formatted as xml.
      * SAMPLE
      * <?xml version="1.0" encoding="utf-8"?>
      * <history>
@@ -87,51 +83,7 @@ public class HistoryCommand extends Command<List<ChangeSet>> {
      * </history>
      */
     @Override
-    public List<ChangeSet> parseOutput(final String stdout, final String stderr) {
-        super.throwIfError(stderr);
-        final List<ChangeSet> changeSets = new ArrayList<ChangeSet>(100);
-        final NodeList nodes = super.evaluateXPath(stdout, "/history/changeset");
-
-        // Convert all the xpath nodes to changeset models
-        if (nodes != null) {
-            for (int i = 0; i < nodes.getLength(); i++) {
-                final Element changeset = (Element) nodes.item(i);
-
-                // Read comment element
-                final NodeList commentNodes = changeset.getElementsByTagName("comment");
-                final String comment;
-                if (commentNodes.getLength() == 1) {
-                    comment = commentNodes.item(0).getTextContent();
-                } else {
-                    comment = "";
-                }
-
-                // Gather pending changes
-                final List<CheckedInChange> changes = new ArrayList<CheckedInChange>(100);
-                final NodeList childNodes = changeset.getElementsByTagName("item");
-                final NamedNodeMap changesetAttributes = changeset.getAttributes();
-                final String id = changesetAttributes.getNamedItem("id").getNodeValue();
-                final String date = changesetAttributes.getNamedItem("date").getNodeValue();
-                for (int j = 0; j < childNodes.getLength(); j++) {
-                    final Node child = childNodes.item(j);
-                    // Assume this is a change
-                    final NamedNodeMap attributes = child.getAttributes();
-                    final CheckedInChange newchange = new CheckedInChange(
-                            attributes.getNamedItem("server-item").getNodeValue(),
-                            attributes.getNamedItem("change-type").getNodeValue(),
-                            id, date);
-                    changes.add(newchange);
-                }
-
-                changeSets.add(new ChangeSet(id,
-                        changesetAttributes.getNamedItem("owner").getNodeValue(),
-                        changesetAttributes.getNamedItem("committer").getNodeValue(),
-                        date,
-                        comment,
-                        changes));
-            }
-        }
-        return changeSets;
+    protected OutputParser<ChangeSet> createOutputParser(final OutputParser.ItemHandler<ChangeSet> itemHandler) {
+        return new HistoryOutputParser(itemHandler);
     }
 }
-
@@ -6,13 +6,10 @@ package com.microsoft.alm.plugin.external.commands;
 import com.microsoft.alm.plugin.context.ServerContext;
 import com.microsoft.alm.plugin.external.ToolRunner;
 import com.microsoft.alm.plugin.external.models.PendingChange;
+import com.microsoft.alm.plugin.external.parsers.OutputParser;
+import com.microsoft.alm.plugin.external.parsers.StatusOutputParser;
 import jersey.repackaged.com.google.common.collect.ImmutableList;
-import org.apache.commons.lang.StringUtils;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -21,9 +18,7 @@ import java.util.List;
  * <p/>
  * status [/workspace:<value>] [/shelveset:<value>] [/format:brief|detailed|xml] [/recursive] [/user:<value>] [/nodetect] [<itemSpec>...]
  */
-public class StatusCommand extends Command<List<PendingChange>> {
-    private static final String CANDIDATE_TAG = "candidate-pending-changes";
-
+public class StatusCommand extends StreamingCommand<PendingChange> {
     private final List<String> localPaths;
 
     public StatusCommand(final ServerContext context, final String localPath) {
@@ -62,31 +57,7 @@ public class StatusCommand extends Command<List<PendingChange>> {
      * </status>
      */
     @Override
-    public List<PendingChange> parseOutput(final String stdout, final String stderr) {
-        super.throwIfError(stderr);
-        final List<PendingChange> changes = new ArrayList<PendingChange>(100);
-        final NodeList nodes = super.evaluateXPath(stdout, "/status/*/pending-change");
-
-        // Convert all the xpath nodes to pending change models
-        if (nodes != null) {
-            for (int i = 0; i < nodes.getLength(); i++) {
-                final NamedNodeMap attributes = nodes.item(i).getAttributes();
-                final boolean isCandidate = StringUtils.equalsIgnoreCase(nodes.item(i).getParentNode().getNodeName(), CANDIDATE_TAG);
-                final Node sourceItem = attributes.getNamedItem("source-item"); // not always present
-                changes.add(new PendingChange(
-                        attributes.getNamedItem("server-item").getNodeValue(),
-                        attributes.getNamedItem("local-item").getNodeValue(),
-                        attributes.getNamedItem("version").getNodeValue(),
-                        attributes.getNamedItem("owner").getNodeValue(),
-                        attributes.getNamedItem("date").getNodeValue(),
-                        attributes.getNamedItem("lock").getNodeValue(),
-                        attributes.getNamedItem("change-type").getNodeValue(),
-                        attributes.getNamedItem("workspace").getNodeValue(),
-                        attributes.getNamedItem("computer").getNodeValue(),
-                        isCandidate,
-                        sourceItem != null ? sourceItem.getNodeValue() : StringUtils.EMPTY));
-            }
-        }
-        return changes;
+    protected OutputParser<PendingChange> createOutputParser(final OutputParser.ItemHandler<PendingChange> itemHandler) {
+        return new StatusOutputParser(itemHandler);
     }
 }
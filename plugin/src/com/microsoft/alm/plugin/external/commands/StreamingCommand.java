@@ -0,0 +1,122 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.commands;
+
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.external.parsers.OutputParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for commands that return a list of items and can parse their output incrementally.
+ * The output is handed to the OutputParser one line at a time while the command is running instead of being
+ * buffered and parsed after the process exits.
+ * <p/>
+ * Callers that want to show results while the command is still running pass an ItemHandler to run or
+ * runSynchronously. The handler is called on a background thread for each item as soon as it has been parsed, and
+ * may call cancel on the command to stop it early (for example when the user aborts the query).
+ *
+ * @param <E> the type of the items returned by the command
+ */
+public abstract class StreamingCommand<E> extends Command<List<E>> {
+    private volatile OutputParser.ItemHandler<E> itemHandler;
+
+    public StreamingCommand(final String name, final ServerContext context) {
+        super(name, context);
+    }
+
+    public StreamingCommand(final String name, final ServerContext context, final boolean useProxyIfAvailable) {
+        super(name, context, useProxyIfAvailable);
+    }
+
+    /**
+     * Starts the command and returns immediately. Each item is handed to the item handler as soon as it is parsed,
+     * and the listener is called with the full list of items when the command process finishes.
+     */
+    public void run(final Listener<List<E>> listener, final OutputParser.ItemHandler<E> itemHandler) {
+        ArgumentHelper.checkNotNull(itemHandler, "itemHandler");
+        this.itemHandler = itemHandler;
+        run(listener);
+    }
+
+    /**
+     * Runs the command and waits on the result, handing each item to the item handler as soon as it is parsed.
+     * A ToolCancelledException is thrown if the command is cancelled before it completes.
+     */
+    public List<E> runSynchronously(final OutputParser.ItemHandler<E> itemHandler) {
+        ArgumentHelper.checkNotNull(itemHandler, "itemHandler");
+        this.itemHandler = itemHandler;
+        return runSynchronously();
+    }
+
+    /**
+     * Creates a new parser for the output of this command that hands each item to the item handler.
+     */
+    protected abstract OutputParser<E> createOutputParser(final OutputParser.ItemHandler<E> itemHandler);
+
+    @Override
+    protected OutputConsumer<List<E>> createOutputConsumer() {
+        final List<E> items = new ArrayList<E>();
+        final OutputParser.ItemHandler<E> callerHandler = itemHandler;
+        final OutputParser<E> parser = createOutputParser(new OutputParser.ItemHandler<E>() {
+            @Override
+            public void onItem(final E item) {
+                items.add(item);
+                if (callerHandler != null && !isCancelled()) {
+                    callerHandler.onItem(item);
+                }
+            }
+        });
+
+        return new OutputConsumer<List<E>>() {
+            @Override
+            public void processStandardOutput(final String line) {
+                parser.processLine(line);
+            }
+
+            @Override
+            public List<E> getResult(final String stderr) {
+                try {
+                    parser.finish();
+                } catch (final RuntimeException e) {
+                    // Errors written by the tool are more useful than the parse failure they caused
+                    throwIfError(stderr);
+                    throw e;
+                }
+                throwIfError(stderr);
+                return items;
+            }
+
+            @Override
+            public void cancel() {
+                parser.cancel();
+            }
+        };
+    }
+
+    /**
+     * Parses output that has already been buffered by running it through the same parser used for streaming.
+     */
+    @Override
+    public List<E> parseOutput(final String stdout, final String stderr) {
+        throwIfError(stderr);
+        final List<E> items = new ArrayList<E>();
+        final OutputParser<E> parser = createOutputParser(new OutputParser.ItemHandler<E>() {
+            @Override
+            public void onItem(final E item) {
+                items.add(item);
+            }
+        });
+
+        if (stdout != null && stdout.length() > 0) {
+            for (final String line : getLines(stdout, false)) {
+                parser.processLine(line);
+            }
+        }
+        parser.finish();
+        return items;
+    }
+}
@@ -191,4 +191,14 @@ public class SyncCommand extends Command<SyncResults> {
     protected boolean shouldThrowBadExitCode() {
         return shouldThrowBadExitCode;
     }
+
+    /**
+     * The time this command takes grows with the number of files involved, so it gets the long deadline
+     *
+     * @return
+     */
+    @Override
+    protected long getDefaultTimeoutMilliseconds() {
+        return getLongTimeoutMilliseconds();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.exceptions;
+
+/**
+ * Exception for when a command was cancelled before it completed and its process was killed
+ */
+public class ToolCancelledException extends ToolException {
+    public ToolCancelledException() {
+        super(ToolException.KEY_TF_CANCELLED);
+    }
+}
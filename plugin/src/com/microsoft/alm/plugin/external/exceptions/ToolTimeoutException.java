@@ -0,0 +1,13 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.exceptions;
+
+/**
+ * Exception for when a command did not complete within its time limit and its process was killed
+ */
+public class ToolTimeoutException extends ToolException {
+    public ToolTimeoutException() {
+        super(ToolException.KEY_TF_TIMEOUT);
+    }
+}
@@ -34,7 +34,8 @@ public class Workspace {
         this.computer = computer;
         this.owner = owner;
         this.comment = comment;
-        this.mappings = new ArrayList<Mapping>(mappings);
+        // the same list is always returned so that the index of the mappings can be reused
+        this.mappings = Collections.unmodifiableList(new ArrayList<Mapping>(mappings));
         this.location = location;
     }
 
@@ -59,7 +60,7 @@ public class Workspace {
     }
 
     public List<Mapping> getMappings() {
-        return Collections.unmodifiableList(mappings);
+        return mappings;
     }
 
     public Location getLocation() {
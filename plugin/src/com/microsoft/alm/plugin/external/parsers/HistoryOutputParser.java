@@ -0,0 +1,101 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.parsers;
+
+import com.microsoft.alm.plugin.external.models.ChangeSet;
+import com.microsoft.alm.plugin.external.models.CheckedInChange;
+import org.apache.commons.lang.StringUtils;
+import org.xml.sax.Attributes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the output of the history command when formatted as xml.
+ * A ChangeSet is emitted as soon as the end of each changeset element under the history element is read.
+ * SAMPLE
+ * <?xml version="1.0" encoding="utf-8"?>
+ * <history>
+ * <changeset id="4" owner="john" committer="john" date="2016-06-07T11:18:18.790-0400">
+ * <comment>add readme</comment>
+ * <item change-type="add" server-item="$/tfs01/readme.txt"/>
+ * </changeset>
+ * </history>
+ */
+public class HistoryOutputParser extends XmlOutputParser<ChangeSet> {
+    private static final String HISTORY_TAG = "history";
+    private static final String CHANGESET_TAG = "changeset";
+    private static final String COMMENT_TAG = "comment";
+    private static final String ITEM_TAG = "item";
+
+    private int depth = 0;
+    private String rootName;
+
+    // State of the changeset currently being parsed
+    private boolean inChangeset = false;
+    private String id;
+    private String owner;
+    private String committer;
+    private String date;
+    private List<CheckedInChange> changes;
+    private final StringBuilder comment = new StringBuilder();
+    private int commentCount;
+    private int commentDepth;
+
+    public HistoryOutputParser(final ItemHandler<ChangeSet> itemHandler) {
+        super(itemHandler);
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+        depth++;
+        if (depth == 1) {
+            rootName = qName;
+        } else if (depth == 2 && HISTORY_TAG.equals(rootName) && CHANGESET_TAG.equals(qName)) {
+            inChangeset = true;
+            id = attributes.getValue("id");
+            owner = attributes.getValue("owner");
+            committer = attributes.getValue("committer");
+            date = attributes.getValue("date");
+            changes = new ArrayList<CheckedInChange>();
+            comment.setLength(0);
+            commentCount = 0;
+            commentDepth = 0;
+        } else if (inChangeset && COMMENT_TAG.equals(qName)) {
+            commentCount++;
+            if (commentDepth == 0) {
+                commentDepth = depth;
+            }
+        } else if (inChangeset && ITEM_TAG.equals(qName)) {
+            // Assume this is a change
+            changes.add(new CheckedInChange(
+                    attributes.getValue("server-item"),
+                    attributes.getValue("change-type"),
+                    id, date));
+        }
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+        if (inChangeset && commentDepth > 0) {
+            comment.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+        if (inChangeset) {
+            if (depth == commentDepth) {
+                commentDepth = -1;
+            } else if (depth == 2) {
+                // The comment is only used if there was exactly one
+                emit(new ChangeSet(id, owner, committer, date,
+                        commentCount == 1 ? comment.toString() : StringUtils.EMPTY, changes));
+                inChangeset = false;
+                changes = null;
+            }
+        }
+        depth--;
+    }
+}
@@ -0,0 +1,105 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.parsers;
+
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.plugin.external.models.ItemInfo;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses the output of the info command. The output is a list of properties for each item, first the local
+ * information and then the server information. An ItemInfo is emitted as soon as the next item starts.
+ * SAMPLE
+ * Local information:
+ * Local path:  /path/to/build.xml
+ * Server path: $/TFVC_1/build.xml
+ * Changeset:   18
+ * Change:      none
+ * Type:        file
+ * Server information:
+ * Server path:   $/TFVC_1/build.xml
+ * Changeset:     19
+ * ...
+ */
+public class InfoOutputParser implements OutputParser<ItemInfo> {
+    private static final String WARNING_PREFIX = "WARN ";
+
+    private final ItemHandler<ItemInfo> itemHandler;
+    private final Map<String, String> propertyMap = new HashMap<String, String>(15);
+    private String prefix = StringUtils.EMPTY;
+    private boolean skippingWarnings = true;
+    private boolean cancelled = false;
+
+    public InfoOutputParser(final ItemHandler<ItemInfo> itemHandler) {
+        ArgumentHelper.checkNotNull(itemHandler, "itemHandler");
+        this.itemHandler = itemHandler;
+    }
+
+    @Override
+    public void processLine(final String line) {
+        if (cancelled || line == null) {
+            return;
+        }
+
+        // Skip any warnings at the start of the output
+        if (skippingWarnings) {
+            if (StringUtils.startsWithIgnoreCase(line, WARNING_PREFIX)) {
+                return;
+            }
+            skippingWarnings = false;
+        }
+
+        if (StringUtils.startsWithIgnoreCase(line, "local information:")) {
+            // switch to local mode
+            prefix = StringUtils.EMPTY;
+            emitItem();
+        } else if (StringUtils.startsWithIgnoreCase(line, "server information:")) {
+            // switch to server mode
+            prefix = "server ";
+        } else if (StringUtils.isNotBlank(line)) {
+            // add property
+            final int colonPos = line.indexOf(":");
+            if (colonPos > 0) {
+                final String key = prefix + line.substring(0, colonPos).trim().toLowerCase();
+                final String value = colonPos + 1 < line.length() ? line.substring(colonPos + 1).trim() : StringUtils.EMPTY;
+                propertyMap.put(key, value);
+            }
+        }
+    }
+
+    @Override
+    public void finish() {
+        if (!cancelled) {
+            emitItem();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        propertyMap.clear();
+    }
+
+    private void emitItem() {
+        if (!propertyMap.isEmpty()) {
+            itemHandler.onItem(new ItemInfo(
+                    propertyMap.get("server path"),
+                    propertyMap.get("local path"),
+                    propertyMap.get("server changeset"),
+                    propertyMap.get("changeset"),
+                    propertyMap.get("change"),
+                    propertyMap.get("type"),
+                    propertyMap.get("server lock"),
+                    propertyMap.get("server lock owner"),
+                    propertyMap.get("server deletion id"),
+                    propertyMap.get("server last modified"),
+                    propertyMap.get("server file type"),
+                    propertyMap.get("server size")));
+            propertyMap.clear();
+        }
+    }
+}
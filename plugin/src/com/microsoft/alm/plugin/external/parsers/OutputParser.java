@@ -0,0 +1,37 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.parsers;
+
+/**
+ * An output parser consumes the standard output of a command one line at a time, while the command is still
+ * running, and hands each model object to the ItemHandler as soon as it has been parsed.
+ * This avoids buffering the entire output of long running commands before the parsing can start.
+ *
+ * @param <E> the type of the model objects produced by the parser
+ */
+public interface OutputParser<E> {
+    /**
+     * Implement this interface to receive the model objects as they are parsed.
+     */
+    interface ItemHandler<E> {
+        void onItem(final E item);
+    }
+
+    /**
+     * Called for each line of standard output in the order the lines were produced.
+     */
+    void processLine(final String line);
+
+    /**
+     * Called once all of the output has been passed in. When this method returns every item has been handed to the
+     * ItemHandler. A ToolParseFailureException is thrown if the output could not be parsed.
+     */
+    void finish();
+
+    /**
+     * Called instead of finish if the command failed or was abandoned. Any resources held by the parser are released
+     * and no more items are handed to the ItemHandler.
+     */
+    void cancel();
+}
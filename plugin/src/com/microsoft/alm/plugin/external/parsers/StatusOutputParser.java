@@ -0,0 +1,64 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.parsers;
+
+import com.microsoft.alm.plugin.external.models.PendingChange;
+import org.apache.commons.lang.StringUtils;
+import org.xml.sax.Attributes;
+
+/**
+ * Parses the output of the status command when formatted as xml.
+ * A PendingChange is emitted for each pending-change element under the status element.
+ * SAMPLE
+ * <?xml version="1.0" encoding="utf-8"?>
+ * <status>
+ * <pending-changes/>
+ * <candidate-pending-changes>
+ * <pending-change server-item="$/tfsTest_01/test.txt" version="0" owner="jason" date="2016-07-13T12:36:51.060-0400" lock="none" change-type="add" workspace="MyNewWorkspace2" computer="JPRICKET-DEV2" local-item="D:\tmp\test\test.txt"/>
+ * </candidate-pending-changes>
+ * </status>
+ */
+public class StatusOutputParser extends XmlOutputParser<PendingChange> {
+    private static final String STATUS_TAG = "status";
+    private static final String PENDING_CHANGE_TAG = "pending-change";
+    private static final String CANDIDATE_TAG = "candidate-pending-changes";
+
+    private int depth = 0;
+    private String rootName;
+    private String parentName;
+
+    public StatusOutputParser(final ItemHandler<PendingChange> itemHandler) {
+        super(itemHandler);
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+        depth++;
+        if (depth == 1) {
+            rootName = qName;
+        } else if (depth == 2) {
+            parentName = qName;
+        } else if (depth == 3 && STATUS_TAG.equals(rootName) && PENDING_CHANGE_TAG.equals(qName)) {
+            final boolean isCandidate = StringUtils.equalsIgnoreCase(parentName, CANDIDATE_TAG);
+            final String sourceItem = attributes.getValue("source-item"); // not always present
+            emit(new PendingChange(
+                    attributes.getValue("server-item"),
+                    attributes.getValue("local-item"),
+                    attributes.getValue("version"),
+                    attributes.getValue("owner"),
+                    attributes.getValue("date"),
+                    attributes.getValue("lock"),
+                    attributes.getValue("change-type"),
+                    attributes.getValue("workspace"),
+                    attributes.getValue("computer"),
+                    isCandidate,
+                    sourceItem != null ? sourceItem : StringUtils.EMPTY));
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+        depth--;
+    }
+}
@@ -0,0 +1,264 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.parsers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.plugin.external.exceptions.ToolParseFailureException;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class for parsers of commands that produce xml output (-format:xml).
+ * The lines passed in are handed to a SAX parser running on a background thread through a bounded queue, so only a
+ * small window of the output is held in memory at any time. Subclasses override the SAX callbacks and call emit for
+ * each model object as soon as the xml for it has been read.
+ * <p/>
+ * At most MAX_PARSER_THREADS outputs are parsed in the background at once. When all of those threads are busy, the
+ * first xml line waits for one of them to be free, which holds back the output of the command instead of buffering it.
+ * <p/>
+ * Any lines (like WARNing lines) that come before the xml are skipped.
+ */
+public abstract class XmlOutputParser<E> extends DefaultHandler implements OutputParser<E> {
+    private static final Logger logger = LoggerFactory.getLogger(XmlOutputParser.class);
+
+    private static final String XML_PREFIX = "<?xml ";
+    private static final int MAX_QUEUED_LINES = 1000;
+    private static final long OFFER_TIMEOUT_MILLISECONDS = 100L;
+    private static final int MAX_PARSER_THREADS = 4;
+    private static final long IDLE_PARSER_THREAD_TIMEOUT_SECONDS = 60L;
+
+    // Marks the end of the output in the queue (compared by reference)
+    private static final String END_OF_OUTPUT = new String("<end of output>");
+
+    // A parse only gets submitted once it holds a permit, so there is never more than one parse per thread
+    private static final Semaphore parserPermits = new Semaphore(MAX_PARSER_THREADS);
+    private static final ThreadPoolExecutor executor = createExecutor();
+    private static final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+
+    private final ItemHandler<E> itemHandler;
+    private final BlockingQueue<String> lines = new ArrayBlockingQueue<String>(MAX_QUEUED_LINES);
+    private boolean started = false;
+    // Null when the parser was cancelled while waiting for a thread
+    private Future<?> parseTask;
+    private boolean foundOutputBeforeXml = false;
+    private volatile boolean stopped = false;
+    private volatile boolean cancelled = false;
+    private volatile Throwable parseError;
+
+    protected XmlOutputParser(final ItemHandler<E> itemHandler) {
+        ArgumentHelper.checkNotNull(itemHandler, "itemHandler");
+        this.itemHandler = itemHandler;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARSER_THREADS, MAX_PARSER_THREADS,
+                IDLE_PARSER_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("XmlOutputParser-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void processLine(final String line) {
+        if (stopped || line == null) {
+            return;
+        }
+
+        String xmlLine = line;
+        if (!started) {
+            // Skip over any lines (like WARNing lines) that come before the xml tag
+            // Example:
+            // WARN -- Unable to construct Telemetry Client
+            // <?xml ...
+            final int xmlStart = line.indexOf(XML_PREFIX);
+            if (xmlStart >= 0) {
+                xmlLine = line.substring(xmlStart);
+            } else if (!StringUtils.startsWith(line.trim(), "<")) {
+                foundOutputBeforeXml = foundOutputBeforeXml || StringUtils.isNotBlank(line);
+                return;
+            }
+            startParsing();
+        }
+
+        enqueue(xmlLine);
+    }
+
+    @Override
+    public void finish() {
+        if (!started) {
+            // No xml was found, which is only okay if there was no output at all
+            if (foundOutputBeforeXml) {
+                throw new ToolParseFailureException();
+            }
+            return;
+        }
+
+        if (parseTask == null) {
+            // Cancelled before the parse got a thread
+            return;
+        }
+
+        enqueue(END_OF_OUTPUT);
+        try {
+            parseTask.get();
+        } catch (final InterruptedException e) {
+            cancel();
+            throw new ToolParseFailureException(e);
+        } catch (final ExecutionException e) {
+            throw new ToolParseFailureException(e.getCause());
+        }
+
+        if (parseError != null) {
+            throw new ToolParseFailureException(parseError);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        stopped = true;
+        // Make room for the end marker so the parser thread wakes up and quits
+        lines.clear();
+        lines.offer(END_OF_OUTPUT);
+    }
+
+    /**
+     * Subclasses call this method to hand a parsed model object to the item handler.
+     */
+    protected void emit(final E item) {
+        if (!cancelled) {
+            itemHandler.onItem(item);
+        }
+    }
+
+    private void startParsing() {
+        started = true;
+        try {
+            // Wait for a free parser thread, but give up if the parser is cancelled meanwhile
+            if (!parserPermits.tryAcquire()) {
+                logger.info("All " + MAX_PARSER_THREADS + " xml parser threads are busy, waiting for one");
+                while (!parserPermits.tryAcquire(OFFER_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            return;
+        }
+
+        parseTask = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    parse();
+                } finally {
+                    parserPermits.release();
+                }
+            }
+        });
+    }
+
+    private void parse() {
+        try {
+            final SAXParser parser;
+            synchronized (parserFactory) {
+                parser = parserFactory.newSAXParser();
+            }
+            parser.parse(new InputSource(new LineQueueReader()), this);
+        } catch (final Throwable t) {
+            if (!cancelled) {
+                logger.warn("Failed to parse xml output", t);
+                parseError = t;
+            }
+        } finally {
+            // Stop accepting lines and drop any that will never be read
+            stopped = true;
+            lines.clear();
+        }
+    }
+
+    private void enqueue(final String line) {
+        try {
+            // Block while the queue is full, but give up if the parser has stopped reading
+            while (!stopped || line == END_OF_OUTPUT) {
+                if (lines.offer(line, OFFER_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                if (stopped) {
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+        }
+    }
+
+    /**
+     * This reader feeds the lines from the queue to the SAX parser, blocking until more lines are available.
+     */
+    private class LineQueueReader extends Reader {
+        private String current;
+        private int position;
+        private boolean ended = false;
+
+        @Override
+        public int read(final char[] buffer, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            while (current == null || position >= current.length()) {
+                if (ended) {
+                    return -1;
+                }
+
+                final String next;
+                try {
+                    next = lines.take();
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+
+                if (next == END_OF_OUTPUT || cancelled) {
+                    ended = true;
+                    return -1;
+                }
+                current = next + "\n";
+                position = 0;
+            }
+
+            final int count = Math.min(length, current.length() - position);
+            current.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Nothing to close
+        }
+    }
+}
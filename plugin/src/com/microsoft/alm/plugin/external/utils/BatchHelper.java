@@ -0,0 +1,69 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.utils;
+
+import com.microsoft.alm.common.utils.ArgumentHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Helper for splitting long lists of command arguments into batches that are safe to pass to a single
+ * invocation of the command line tool.
+ */
+public class BatchHelper {
+    /**
+     * The maximum number of characters used by the arguments of one batch. Windows limits a command line to
+     * 32K characters, so this leaves plenty of room for the tool location and the other switches.
+     */
+    public static final int MAX_BATCH_CHARACTERS = 16000;
+
+    /**
+     * The maximum number of arguments in one batch. This keeps the output of a single command to a reasonable size.
+     */
+    public static final int MAX_BATCH_SIZE = 250;
+
+    /**
+     * Splits the list of arguments into batches using the default limits.
+     */
+    public static List<List<String>> splitIntoBatches(final List<String> arguments) {
+        return splitIntoBatches(arguments, MAX_BATCH_CHARACTERS, MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Splits the list of arguments into batches so that the combined length of the arguments in a batch
+     * (including a separating space and surrounding quotes for each one) stays under maxCharacters and there are no
+     * more than maxSize arguments in a batch. An argument that is longer than maxCharacters on its own is put
+     * in a batch by itself. The order of the arguments is preserved.
+     */
+    public static List<List<String>> splitIntoBatches(final List<String> arguments, final int maxCharacters, final int maxSize) {
+        ArgumentHelper.checkNotNull(arguments, "arguments");
+        if (arguments.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<List<String>> batches = new ArrayList<List<String>>();
+        List<String> batch = new ArrayList<String>();
+        int batchCharacters = 0;
+        for (final String argument : arguments) {
+            final int argumentCharacters = getArgumentLength(argument);
+            if (!batch.isEmpty() && (batch.size() >= maxSize || batchCharacters + argumentCharacters > maxCharacters)) {
+                batches.add(batch);
+                batch = new ArrayList<String>();
+                batchCharacters = 0;
+            }
+            batch.add(argument);
+            batchCharacters += argumentCharacters;
+        }
+        batches.add(batch);
+
+        return batches;
+    }
+
+    private static int getArgumentLength(final String argument) {
+        // Leave room for the quotes and the space that separates arguments
+        return (argument != null ? argument.length() : 0) + 3;
+    }
+}
@@ -5,8 +5,6 @@ package com.microsoft.alm.plugin.external.utils;
 
 import com.intellij.openapi.project.Project;
 import com.microsoft.alm.common.utils.ArgumentHelper;
-import com.microsoft.alm.common.utils.SystemHelper;
-import com.microsoft.alm.helpers.Path;
 import com.microsoft.alm.plugin.authentication.AuthenticationInfo;
 import com.microsoft.alm.plugin.context.ServerContext;
 import com.microsoft.alm.plugin.external.commands.AddCommand;
@@ -16,7 +14,6 @@ import com.microsoft.alm.plugin.external.commands.CreateBranchCommand;
 import com.microsoft.alm.plugin.external.commands.CreateLabelCommand;
 import com.microsoft.alm.plugin.external.commands.DeleteCommand;
 import com.microsoft.alm.plugin.external.commands.DeleteWorkspaceCommand;
-import com.microsoft.alm.plugin.external.commands.FindConflictsCommand;
 import com.microsoft.alm.plugin.external.commands.FindWorkspaceCommand;
 import com.microsoft.alm.plugin.external.commands.GetAllWorkspacesCommand;
 import com.microsoft.alm.plugin.external.commands.GetBaseVersionCommand;
@@ -38,15 +35,10 @@ import com.microsoft.alm.plugin.external.commands.UpdateWorkspaceCommand;
 import com.microsoft.alm.plugin.external.commands.UpdateWorkspaceMappingCommand;
 import com.microsoft.alm.plugin.external.models.ChangeSet;
 import com.microsoft.alm.plugin.external.models.Conflict;
-import com.microsoft.alm.plugin.external.models.ConflictResults;
 import com.microsoft.alm.plugin.external.models.ItemInfo;
-import com.microsoft.alm.plugin.external.models.MergeConflict;
-import com.microsoft.alm.plugin.external.models.MergeMapping;
 import com.microsoft.alm.plugin.external.models.MergeResults;
 import com.microsoft.alm.plugin.external.models.PendingChange;
-import com.microsoft.alm.plugin.external.models.RenameConflict;
 import com.microsoft.alm.plugin.external.models.Server;
-import com.microsoft.alm.plugin.external.models.ServerStatusType;
 import com.microsoft.alm.plugin.external.models.SyncResults;
 import com.microsoft.alm.plugin.external.models.TfvcLabel;
 import com.microsoft.alm.plugin.external.models.VersionSpec;
@@ -57,7 +49,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Helper for running commands
@@ -328,6 +322,71 @@ public class CommandUtils {
         return command.runSynchronously();
     }
 
+    /**
+     * Get the status for a list of files using as few status commands as possible.
+     * The files are split into batches that fit on a single command line and the results of all the batches are
+     * merged into one list. A change that is reported by more than one batch is only returned once.
+     *
+     * @param context
+     * @param files
+     * @return
+     */
+    public static List<PendingChange> getStatusForFilesInBatches(final ServerContext context, final List<String> files) {
+        return getStatusForFilesInBatches(context, files, null);
+    }
+
+    /**
+     * Get the status for a list of files using as few status commands as possible, like
+     * {@link #getStatusForFilesInBatches(ServerContext, List)}.
+     * If the status of a batch can't be read (for instance because one of the files is not mapped), the batch is split
+     * in two and each half is read again, down to single files, so that only the failed batch is read again and the
+     * other files still get their status. The files whose status couldn't be read are added to failedFiles. If
+     * failedFiles is null, the error of the first failed batch is thrown instead.
+     *
+     * @param context
+     * @param files
+     * @param failedFiles
+     * @return
+     */
+    public static List<PendingChange> getStatusForFilesInBatches(final ServerContext context, final List<String> files,
+                                                                 final List<String> failedFiles) {
+        final Map<String, PendingChange> changes = new LinkedHashMap<String, PendingChange>();
+        for (final List<String> batch : BatchHelper.splitIntoBatches(files)) {
+            addStatusForBatch(context, batch, changes, failedFiles);
+        }
+        return new ArrayList<PendingChange>(changes.values());
+    }
+
+    private static void addStatusForBatch(final ServerContext context, final List<String> batch,
+                                          final Map<String, PendingChange> changes, final List<String> failedFiles) {
+        final List<PendingChange> batchChanges;
+        try {
+            batchChanges = getStatusForFiles(context, batch);
+        } catch (final RuntimeException e) {
+            if (failedFiles == null) {
+                throw e;
+            }
+            if (batch.size() == 1) {
+                logger.warn("Failed to get the status of " + batch.get(0), e);
+                failedFiles.add(batch.get(0));
+                return;
+            }
+            logger.warn("Failed to get the status of a batch of " + batch.size() + " files. Retrying each half.", e);
+            final int middle = batch.size() / 2;
+            addStatusForBatch(context, batch.subList(0, middle), changes, failedFiles);
+            addStatusForBatch(context, batch.subList(middle, batch.size()), changes, failedFiles);
+            return;
+        }
+
+        for (final PendingChange change : batchChanges) {
+            // a file can have both a versioned change and an unversioned (candidate) one
+            final String key = StringUtils.defaultString(change.getLocalItem(), change.getServerItem()) + "|" + change.isCandidate();
+            if (!changes.containsKey(key)) {
+                changes.put(key, change);
+            }
+        }
+    }
+
     /**
      * Renames a file
      *
@@ -370,161 +429,7 @@ public class CommandUtils {
      * @return
      */
     public static List<Conflict> getConflicts(final ServerContext context, final String root, final MergeResults mergeResults) {
-        final Command<ConflictResults> conflictsCommand = new FindConflictsCommand(context, root);
-        final ConflictResults conflictResults = conflictsCommand.runSynchronously();
-        final List<Conflict> conflicts = new ArrayList<Conflict>(conflictResults.getConflicts().size());
-
-        for (final Conflict conflict : conflictResults.getConflicts()) {
-            Conflict newConflict = null;
-            if (conflict.getType() == Conflict.ConflictType.CONTENT ||
-                    conflict.getType() == Conflict.ConflictType.DELETE ||
-                    conflict.getType() == Conflict.ConflictType.DELETE_TARGET) {
-                newConflict = conflict;
-            } else if (conflict.getType() == Conflict.ConflictType.RENAME ||
-                    conflict.getType() == Conflict.ConflictType.NAME_AND_CONTENT) {
-                // For renames we have to find the old name and the new name which creates a different type of conflict instance
-                newConflict = findLocalRename(context, conflict.getLocalPath(), root, Conflict.ConflictType.RENAME);
-                if (newConflict == null) {
-                    // For the rare case where there is a rename done on both sides of a merge we can end up here
-                    // So, try to find the merge conflict
-                    newConflict = findMergeConflict(context, conflict, mergeResults, root);
-                }
-            } else if (conflict.getType() == Conflict.ConflictType.MERGE) {
-                // For merge conflicts we have to find get the "from" path and the to "path" similar to renames using the MergeResult
-                newConflict = findMergeConflict(context, conflict, mergeResults, root);
-            } else {
-                logger.warn("Unable to determine conflict type from: " + conflict.getType());
-            }
-
-            if (newConflict != null) {
-                conflicts.add(newConflict);
-            } else {
-                logger.warn("Unable to convert Merge conflict in getConflicts");
-            }
-
-        }
-
-        return conflicts;
-    }
-
-    private static MergeConflict findMergeConflict(final ServerContext context, final Conflict originalConflict, final MergeResults mergeResults, final String workingFolder) {
-        final ItemInfo conflictInfo = getItemInfo(context, workingFolder, originalConflict.getLocalPath());
-        if (mergeResults == null || conflictInfo == null) {
-            return null;
-        }
-
-        // Find the matching merge mapping (and local path) from the merge results
-        MergeMapping conflictMapping = null;
-        String localPath = originalConflict.getLocalPath();
-
-        // Check for the rename case (signified by the fact that the local path didn't provide legitimate info)
-        if (StringUtils.isEmpty(conflictInfo.getServerItem())) {
-            // To handle the rename in both branches case we have to find the matching mapping in a very complex way
-            // We have a local path in the original conflict that doesn't actually exist and no way to construct the correct
-            // server path to match. The only way to find the mapping is use the Resolve command to get the local path from
-            // the server paths we already have.
-
-            // We will loop thru our mappings looking for a RENAME and then try to use resolve to get the "new" local path
-            for (final MergeMapping mapping : mergeResults.getMappings()) {
-                if (mapping.getChangeTypes().contains(ServerStatusType.RENAME)) {
-                    final Command<ConflictResults> conflictsCommand = new FindConflictsCommand(context, workingFolder, mapping.getToServerItem());
-                    final ConflictResults conflictResults = conflictsCommand.runSynchronously();
-                    if (conflictResults.getConflicts().size() == 1) {
-                        final Conflict mappingConflict = conflictResults.getConflicts().get(0);
-                        final String mappingLocalPath = Path.combine(workingFolder, mappingConflict.getLocalPath());
-                        // If the local paths match, then we have the right mapping
-                        if (StringUtils.equalsIgnoreCase(mappingLocalPath, originalConflict.getLocalPath())) {
-                            // Now that we have the right mapping, let's figure out the right local path
-                            final ItemInfo info = getItemInfo(context, workingFolder, mapping.getToServerItem());
-                            localPath = info.getLocalItem();
-                            conflictMapping = mapping;
-                            break;
-                        }
-                    }
-                }
-            }
-        } else {
-            // Use the server path to find the matching mapping
-            final String serverPath = conflictInfo.getServerItem();
-            for (final MergeMapping mapping : mergeResults.getMappings()) {
-                if (StringUtils.equalsIgnoreCase(mapping.getToServerItem(), serverPath)) {
-                    conflictMapping = mapping;
-                    break;
-                }
-            }
-        }
-
-        if (conflictMapping != null) {
-            return new MergeConflict(localPath, conflictMapping);
-        }
-
-        return null;
-    }
-
-    /**
-     * For rename conflicts, find the old name and local name of the file by looking for the last rename entry in the
-     * history. Look at the last 50 history entries first and if not found there look at all the history
-     *
-     * @param context
-     * @param serverName
-     * @param root
-     * @param type
-     * @return
-     */
-    private static RenameConflict findLocalRename(final ServerContext context, final String serverName,
-                                                  final String root, final Conflict.ConflictType type) {
-        final RenameConflict conflict = searchChangeSetForRename(context, serverName, root, type, 50);
-
-        // return conflict if found, else do a search on all of the history (-1 will not add a stopAfter parameter to cmd)
-        return conflict != null ? conflict : searchChangeSetForRename(context, serverName, root, type, -1);
-    }
-
-    private static RenameConflict searchChangeSetForRename(final ServerContext context, final String serverName,
-                                                           final String root, final Conflict.ConflictType type,
-                                                           final int stopAfter) {
-        final List<ChangeSet> changeSets = CommandUtils.getHistoryCommand(context, serverName, StringUtils.EMPTY,
-                stopAfter, false, StringUtils.EMPTY, true);
-
-        // step through most current changesets to find the one that did the rename
-        for (int index = 0; index < changeSets.size(); index++) {
-            final ChangeSet changeSet = changeSets.get(index);
-            if (doesChangeSetHaveChanges(changeSets, index) &&
-                    changeSet.getChanges().get(0).getChangeTypes().contains(ServerStatusType.RENAME)) {
-                // the entry after the rename contains the old name of the file
-                if (doesChangeSetHaveChanges(changeSets, index + 1)) {
-                    final String oldName = changeSets.get(index + 1).getChanges().get(0).getServerItem();
-
-                    // parse local changes for the old file name to get the new local name
-                    final Command<List<PendingChange>> command = new StatusCommand(context, root);
-                    final List<PendingChange> results = command.runSynchronously();
-
-                    for (final PendingChange change : results) {
-                        if (SystemHelper.areFilePathsSame(change.getSourceItem(), oldName)) {
-                            return new RenameConflict(change.getLocalItem(), serverName, oldName, type);
-                        }
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Checks that a changeset in the list contains a change
-     *
-     * @param changeSets
-     * @param index
-     * @return
-     */
-    private static boolean doesChangeSetHaveChanges(final List<ChangeSet> changeSets, final int index) {
-        if (changeSets == null
-                || index >= changeSets.size()
-                || changeSets.get(index).getChanges() == null
-                || changeSets.get(index).getChanges().isEmpty()) {
-            return false;
-        }
-
-        return true;
+        return new ConflictAnalyzer(context, root, mergeResults).analyze();
     }
 
     /**
@@ -0,0 +1,326 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.utils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.helpers.Path;
+import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.external.commands.Command;
+import com.microsoft.alm.plugin.external.commands.FindConflictsCommand;
+import com.microsoft.alm.plugin.external.commands.InfoCommand;
+import com.microsoft.alm.plugin.external.commands.StatusCommand;
+import com.microsoft.alm.plugin.external.models.ChangeSet;
+import com.microsoft.alm.plugin.external.models.Conflict;
+import com.microsoft.alm.plugin.external.models.ConflictResults;
+import com.microsoft.alm.plugin.external.models.ItemInfo;
+import com.microsoft.alm.plugin.external.models.MergeConflict;
+import com.microsoft.alm.plugin.external.models.MergeMapping;
+import com.microsoft.alm.plugin.external.models.MergeResults;
+import com.microsoft.alm.plugin.external.models.PendingChange;
+import com.microsoft.alm.plugin.external.models.RenameConflict;
+import com.microsoft.alm.plugin.external.models.ServerStatusType;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the conflicts found under a root folder into rename and merge conflicts that know where the item came from.
+ * <p/>
+ * The information needed is gathered once for all of the conflicts and kept in maps instead of running commands for
+ * each conflict: a single status of the root indexed by the source item of each pending change, the item info of all
+ * of the merge conflicts in batches indexed by local path, the merge mappings indexed by target server item and the
+ * history of each renamed item. The rename mappings are only matched to their conflicts if a rename was done on both
+ * sides of a merge, and then only once for all of the conflicts.
+ */
+public class ConflictAnalyzer {
+    private static final Logger logger = LoggerFactory.getLogger(ConflictAnalyzer.class);
+
+    // The number of history entries to look at for a rename before looking at all of the history
+    private static final int RENAME_HISTORY_SEARCH_DEPTH = 50;
+
+    private final ServerContext context;
+    private final String root;
+    private final MergeResults mergeResults;
+
+    // The indexes are built the first time they are needed
+    private Map<String, PendingChange> changesBySourceItem;
+    private Map<String, MergeMapping> mappingsByServerItem;
+    private Map<String, MergeMapping> renameMappingsByLocalPath;
+    private Map<String, String> renameMappingLocalItems;
+    private final Map<String, ItemInfo> itemInfosByLocalPath = new HashMap<String, ItemInfo>();
+    private final Map<String, String> oldNamesByServerItem = new HashMap<String, String>();
+
+    public ConflictAnalyzer(final ServerContext context, final String root, final MergeResults mergeResults) {
+        ArgumentHelper.checkNotNull(root, "root");
+        this.context = context;
+        this.root = root;
+        this.mergeResults = mergeResults;
+    }
+
+    /**
+     * Finds the conflicts under the root
+     */
+    public List<Conflict> analyze() {
+        return analyze(findConflicts(null, root).getConflicts());
+    }
+
+    @VisibleForTesting
+    List<Conflict> analyze(final List<Conflict> foundConflicts) {
+        // The converted conflicts are kept in the order they were found
+        final Conflict[] conflicts = new Conflict[foundConflicts.size()];
+        final List<Integer> mergeConflicts = new ArrayList<Integer>();
+
+        // Renames are resolved from the history first, the rest need the merge mappings
+        for (int index = 0; index < foundConflicts.size(); index++) {
+            final Conflict conflict = foundConflicts.get(index);
+            if (conflict.getType() == Conflict.ConflictType.CONTENT ||
+                    conflict.getType() == Conflict.ConflictType.DELETE ||
+                    conflict.getType() == Conflict.ConflictType.DELETE_TARGET) {
+                conflicts[index] = conflict;
+            } else if (conflict.getType() == Conflict.ConflictType.RENAME ||
+                    conflict.getType() == Conflict.ConflictType.NAME_AND_CONTENT) {
+                // For renames we have to find the old name and the new name which creates a different type of conflict instance
+                conflicts[index] = findLocalRename(conflict.getLocalPath(), Conflict.ConflictType.RENAME);
+                if (conflicts[index] == null) {
+                    // For the rare case where there is a rename done on both sides of a merge we can end up here
+                    // So, try to find the merge conflict
+                    mergeConflicts.add(index);
+                }
+            } else if (conflict.getType() == Conflict.ConflictType.MERGE) {
+                // For merge conflicts we have to find get the "from" path and the to "path" similar to renames using the MergeResult
+                mergeConflicts.add(index);
+            } else {
+                logger.warn("Unable to determine conflict type from: " + conflict.getType());
+            }
+        }
+
+        if (!mergeConflicts.isEmpty() && mergeResults != null) {
+            final List<String> localPaths = new ArrayList<String>(mergeConflicts.size());
+            for (final int index : mergeConflicts) {
+                localPaths.add(foundConflicts.get(index).getLocalPath());
+            }
+            loadItemInfos(localPaths);
+
+            for (final int index : mergeConflicts) {
+                conflicts[index] = findMergeConflict(foundConflicts.get(index));
+            }
+        }
+
+        final List<Conflict> results = new ArrayList<Conflict>(conflicts.length);
+        for (final Conflict conflict : conflicts) {
+            if (conflict != null) {
+                results.add(conflict);
+            } else {
+                logger.warn("Unable to convert Merge conflict in getConflicts");
+            }
+        }
+        return results;
+    }
+
+    private MergeConflict findMergeConflict(final Conflict originalConflict) {
+        final ItemInfo conflictInfo = itemInfosByLocalPath.get(getKey(originalConflict.getLocalPath()));
+        if (conflictInfo == null) {
+            return null;
+        }
+
+        // Check for the rename case (signified by the fact that the local path didn't provide legitimate info)
+        if (StringUtils.isEmpty(conflictInfo.getServerItem())) {
+            // To handle the rename in both branches case we have to find the mapping whose conflict has the same
+            // local path, the local path of the mapping's target is the one to use
+            final MergeMapping mapping = getRenameMappingsByLocalPath().get(getKey(originalConflict.getLocalPath()));
+            if (mapping != null) {
+                return new MergeConflict(renameMappingLocalItems.get(getKey(mapping.getToServerItem())), mapping);
+            }
+            return null;
+        }
+
+        // Use the server path to find the matching mapping
+        final MergeMapping mapping = getMappingsByServerItem().get(getKey(conflictInfo.getServerItem()));
+        return mapping != null ? new MergeConflict(originalConflict.getLocalPath(), mapping) : null;
+    }
+
+    /**
+     * For rename conflicts, find the old name and local name of the file by looking for the last rename entry in the
+     * history. Look at the last 50 history entries first and if not found there look at all the history
+     */
+    private RenameConflict findLocalRename(final String serverName, final Conflict.ConflictType type) {
+        final String key = getKey(serverName);
+        final String oldName;
+        if (oldNamesByServerItem.containsKey(key)) {
+            oldName = oldNamesByServerItem.get(key);
+        } else {
+            final String recentOldName = searchChangeSetsForRename(serverName, RENAME_HISTORY_SEARCH_DEPTH);
+            // -1 will not add a stopAfter parameter to cmd
+            oldName = recentOldName != null ? recentOldName : searchChangeSetsForRename(serverName, -1);
+            oldNamesByServerItem.put(key, oldName);
+        }
+        if (oldName == null) {
+            return null;
+        }
+
+        // use the local changes to get the new local name from the old name
+        final PendingChange change = getChangesBySourceItem().get(getKey(oldName));
+        return change != null ? new RenameConflict(change.getLocalItem(), serverName, oldName, type) : null;
+    }
+
+    private String searchChangeSetsForRename(final String serverName, final int stopAfter) {
+        final List<ChangeSet> changeSets = getHistory(serverName, stopAfter);
+
+        // step through most current changesets to find the one that did the rename
+        for (int index = 0; index < changeSets.size(); index++) {
+            if (doesChangeSetHaveChanges(changeSets, index) &&
+                    changeSets.get(index).getChanges().get(0).getChangeTypes().contains(ServerStatusType.RENAME)) {
+                // the entry after the rename contains the old name of the file
+                if (doesChangeSetHaveChanges(changeSets, index + 1)) {
+                    return changeSets.get(index + 1).getChanges().get(0).getServerItem();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks that a changeset in the list contains a change
+     */
+    private static boolean doesChangeSetHaveChanges(final List<ChangeSet> changeSets, final int index) {
+        if (changeSets == null
+                || index >= changeSets.size()
+                || changeSets.get(index).getChanges() == null
+                || changeSets.get(index).getChanges().isEmpty()) {
+            return false;
+        }
+
+        return true;
+    }
+
+    private Map<String, PendingChange> getChangesBySourceItem() {
+        if (changesBySourceItem == null) {
+            changesBySourceItem = new HashMap<String, PendingChange>();
+            for (final PendingChange change : getStatus(root)) {
+                final String key = getKey(change.getSourceItem());
+                if (key != null && !changesBySourceItem.containsKey(key)) {
+                    changesBySourceItem.put(key, change);
+                }
+            }
+        }
+        return changesBySourceItem;
+    }
+
+    private Map<String, MergeMapping> getMappingsByServerItem() {
+        if (mappingsByServerItem == null) {
+            mappingsByServerItem = new HashMap<String, MergeMapping>();
+            for (final MergeMapping mapping : mergeResults.getMappings()) {
+                final String key = getKey(mapping.getToServerItem());
+                if (key != null && !mappingsByServerItem.containsKey(key)) {
+                    mappingsByServerItem.put(key, mapping);
+                }
+            }
+        }
+        return mappingsByServerItem;
+    }
+
+    /**
+     * We have a local path in the original conflict that doesn't actually exist and no way to construct the correct
+     * server path to match. The only way to find the mapping is use the Resolve command to get the local path from
+     * the server paths we already have, which is done once for each rename mapping.
+     */
+    private Map<String, MergeMapping> getRenameMappingsByLocalPath() {
+        if (renameMappingsByLocalPath == null) {
+            renameMappingsByLocalPath = new HashMap<String, MergeMapping>();
+            renameMappingLocalItems = new HashMap<String, String>();
+            final List<String> serverItems = new ArrayList<String>();
+            for (final MergeMapping mapping : mergeResults.getMappings()) {
+                if (mapping.getChangeTypes().contains(ServerStatusType.RENAME)) {
+                    final ConflictResults conflictResults = findConflicts(root, mapping.getToServerItem());
+                    if (conflictResults.getConflicts().size() == 1) {
+                        final String mappingLocalPath = Path.combine(root, conflictResults.getConflicts().get(0).getLocalPath());
+                        final String key = getKey(mappingLocalPath);
+                        if (!renameMappingsByLocalPath.containsKey(key)) {
+                            renameMappingsByLocalPath.put(key, mapping);
+                            serverItems.add(mapping.getToServerItem());
+                        }
+                    }
+                }
+            }
+
+            // Now that we have the right mappings, let's figure out the right local paths
+            for (final ItemInfo info : getItemInfosInBatches(serverItems)) {
+                renameMappingLocalItems.put(getKey(info.getServerItem()), info.getLocalItem());
+            }
+        }
+        return renameMappingsByLocalPath;
+    }
+
+    /**
+     * Gets the item info of the local paths in as few commands as possible. Any path that doesn't come back from the
+     * batch (it may be reported differently by the tool) is looked up on its own.
+     */
+    private void loadItemInfos(final List<String> localPaths) {
+        for (final ItemInfo info : getItemInfosInBatches(localPaths)) {
+            final String key = getKey(info.getLocalItem());
+            if (key != null) {
+                itemInfosByLocalPath.put(key, info);
+            }
+        }
+
+        for (final String localPath : localPaths) {
+            final String key = getKey(localPath);
+            if (!itemInfosByLocalPath.containsKey(key)) {
+                final List<ItemInfo> infos = getItemInfosSafely(Collections.singletonList(localPath));
+                itemInfosByLocalPath.put(key, infos.isEmpty() ? null : infos.get(0));
+            }
+        }
+    }
+
+    private List<ItemInfo> getItemInfosInBatches(final List<String> itemPaths) {
+        final List<ItemInfo> infos = new ArrayList<ItemInfo>(itemPaths.size());
+        for (final List<String> batch : BatchHelper.splitIntoBatches(itemPaths)) {
+            infos.addAll(getItemInfosSafely(batch));
+        }
+        return infos;
+    }
+
+    private List<ItemInfo> getItemInfosSafely(final List<String> itemPaths) {
+        try {
+            final List<ItemInfo> infos = getItemInfos(itemPaths);
+            return infos != null ? infos : Collections.<ItemInfo>emptyList();
+        } catch (final Throwable t) {
+            logger.warn("Unable to get the item info of " + itemPaths.size() + " items", t);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Server paths are not case sensitive and the local paths are compared the same way the conflicts were before
+     */
+    private static String getKey(final String path) {
+        return path != null ? path.toLowerCase() : null;
+    }
+
+    protected ConflictResults findConflicts(final String workingFolder, final String basePath) {
+        final Command<ConflictResults> conflictsCommand = new FindConflictsCommand(context, workingFolder, basePath);
+        return conflictsCommand.runSynchronously();
+    }
+
+    protected List<PendingChange> getStatus(final String path) {
+        final Command<List<PendingChange>> command = new StatusCommand(context, path);
+        return command.runSynchronously();
+    }
+
+    protected List<ChangeSet> getHistory(final String itemPath, final int stopAfter) {
+        return CommandUtils.getHistoryCommand(context, itemPath, StringUtils.EMPTY, stopAfter, false, StringUtils.EMPTY, true);
+    }
+
+    protected List<ItemInfo> getItemInfos(final List<String> itemPaths) {
+        final Command<List<ItemInfo>> infoCommand = new InfoCommand(context, root, itemPaths);
+        return infoCommand.runSynchronously();
+    }
+}
@@ -3,13 +3,41 @@
 
 package com.microsoft.alm.plugin.external.utils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class ProcessHelper {
+    private static final Logger logger = LoggerFactory.getLogger(ProcessHelper.class);
+
+    // How long the helper processes used to kill a process tree (pgrep, kill, taskkill) may run
+    private static final long HELPER_TIMEOUT_SECONDS = 10L;
+
+    // Destroys the helper processes that run too long. These are run on the thread that enforces the command
+    // deadlines, so one that hangs would keep every later command from being stopped.
+    private static class WatchdogHolder {
+        private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ProcessHelperWatchdog-%d").build());
+    }
+
     public static Process startProcess(final String workingDirectory, final List<String> arguments) throws IOException {
         final ProcessBuilder pb = new ProcessBuilder(arguments);
 
@@ -22,4 +50,114 @@ public class ProcessHelper {
         }
         return pb.start();
     }
+
+    /**
+     * Kills the processes started by the process, and the processes started by those. The TF command line is a
+     * script that starts a JVM, so destroying only the process that was started leaves the JVM running.
+     * The process itself is left for the caller to destroy.
+     */
+    public static void killDescendants(final Process process) {
+        final long pid = getProcessId(process);
+        if (pid <= 0) {
+            logger.info("killDescendants: process id not available");
+            return;
+        }
+
+        try {
+            if (Platform.isWindows()) {
+                // taskkill kills the whole tree, including the process itself
+                runAndWait(new String[]{"taskkill", "/PID", Long.toString(pid), "/T", "/F"});
+            } else {
+                final List<String> descendants = getDescendants(pid);
+                if (!descendants.isEmpty()) {
+                    final List<String> arguments = new ArrayList<String>(descendants.size() + 2);
+                    arguments.add("kill");
+                    arguments.add("-9");
+                    arguments.addAll(descendants);
+                    runAndWait(arguments.toArray(new String[arguments.size()]));
+                }
+            }
+        } catch (final Throwable t) {
+            logger.warn("Failed to kill the child processes of " + pid, t);
+        }
+    }
+
+    /**
+     * Returns the id of the process, or -1 if it can't be found on this platform and JVM
+     */
+    public static long getProcessId(final Process process) {
+        try {
+            // Java 9 and later
+            final Method pidMethod = Process.class.getMethod("pid");
+            return ((Number) pidMethod.invoke(process)).longValue();
+        } catch (final NoSuchMethodException e) {
+            // older JVM, look at the fields of the implementation below
+        } catch (final Throwable t) {
+            logger.warn("Failed to get the process id.", t);
+            return -1;
+        }
+
+        try {
+            if (Platform.isWindows()) {
+                final Field handleField = process.getClass().getDeclaredField("handle");
+                handleField.setAccessible(true);
+                return Kernel32.INSTANCE.GetProcessId(Pointer.createConstant(handleField.getLong(process)));
+            } else {
+                final Field pidField = process.getClass().getDeclaredField("pid");
+                pidField.setAccessible(true);
+                return pidField.getInt(process);
+            }
+        } catch (final Throwable t) {
+            logger.warn("Failed to get the process id.", t);
+            return -1;
+        }
+    }
+
+    /**
+     * Finds all of the processes below the process, children first
+     */
+    private static List<String> getDescendants(final long pid) throws IOException, InterruptedException {
+        final List<String> descendants = new ArrayList<String>();
+        final LinkedList<String> parents = new LinkedList<String>();
+        parents.add(Long.toString(pid));
+        while (!parents.isEmpty()) {
+            for (final String line : runAndWait(new String[]{"pgrep", "-P", parents.removeFirst()})) {
+                if (StringUtils.isNumeric(line.trim()) && StringUtils.isNotEmpty(line.trim())) {
+                    descendants.add(line.trim());
+                    parents.add(line.trim());
+                }
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * Runs the helper process and returns its output. The process is destroyed if it doesn't finish within
+     * HELPER_TIMEOUT_SECONDS, in which case the output read until then is returned.
+     */
+    private static List<String> runAndWait(final String[] arguments) throws IOException, InterruptedException {
+        final Process process = new ProcessBuilder(arguments).redirectErrorStream(true).start();
+        final ScheduledFuture<?> watchdog = WatchdogHolder.WATCHDOG.schedule(new Runnable() {
+            @Override
+            public void run() {
+                logger.warn("runAndWait: " + arguments[0] + " did not finish in time and is being destroyed");
+                process.destroy();
+            }
+        }, HELPER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        try {
+            // drain the output so that the process can't block on it, this ends when the process exits or is destroyed
+            final List<String> lines = IOUtils.readLines(process.getInputStream());
+            process.waitFor();
+            return lines;
+        } finally {
+            watchdog.cancel(false);
+            IOUtils.closeQuietly(process.getInputStream());
+        }
+    }
+
+    private interface Kernel32 extends Library {
+        Kernel32 INSTANCE = (Kernel32) Native.loadLibrary("kernel32", Kernel32.class);
+
+        int GetProcessId(Pointer process);
+    }
 }
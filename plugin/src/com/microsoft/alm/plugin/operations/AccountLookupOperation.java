@@ -6,6 +6,7 @@ package com.microsoft.alm.plugin.operations;
 import com.microsoft.alm.common.utils.UrlHelper;
 import com.microsoft.alm.plugin.authentication.AuthHelper;
 import com.microsoft.alm.plugin.authentication.VsoAuthenticationProvider;
+import com.microsoft.alm.plugin.context.DiscoveryCache;
 import com.microsoft.alm.plugin.context.ServerContext;
 import com.microsoft.alm.plugin.context.ServerContextBuilder;
 import com.microsoft.alm.plugin.context.ServerContextManager;
@@ -15,6 +16,7 @@ import com.microsoft.visualstudio.services.account.AccountHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -56,9 +58,17 @@ public class AccountLookupOperation extends Operation {
                 throw new TeamServicesException(TeamServicesException.KEY_VSO_AUTH_FAILED);
             }
 
-            final AccountHttpClient accountHttpClient = new AccountHttpClient(vsoDeploymentContext.getClient(),
-                    UrlHelper.createUri(VsoAuthenticationProvider.VSO_AUTH_URL));
-            List<Account> accounts = accountHttpClient.getAccounts(vsoDeploymentContext.getUserId());
+            final URI vsoAuthUri = UrlHelper.createUri(VsoAuthenticationProvider.VSO_AUTH_URL);
+            final AccountHttpClient accountHttpClient = new AccountHttpClient(vsoDeploymentContext.getClient(), vsoAuthUri);
+            final String cacheKey = DiscoveryCache.getKey(DiscoveryCache.KIND_ACCOUNTS, vsoAuthUri, vsoDeploymentContext.getAuthenticationInfo())
+                    + "|" + vsoDeploymentContext.getUserId();
+            final List<Account> accounts = DiscoveryCache.getInstance().get(cacheKey, vsoAuthUri, Account.class,
+                    new DiscoveryCache.Loader<Account>() {
+                        @Override
+                        public List<Account> load() {
+                            return accountHttpClient.getAccounts(vsoDeploymentContext.getUserId());
+                        }
+                    });
             final AccountLookupResults results = new AccountLookupResults();
             for (final Account a : accounts) {
                 final ServerContext accountContext =
@@ -139,6 +139,12 @@ public class BuildStatusLookupOperation extends Operation {
         this.forcePrompt = forcePrompt;
     }
 
+    @Override
+    protected String getCoalescingKey(final Inputs inputs) {
+        return "BuildStatusLookup|" + repositoryContext.getType() + "|" + repositoryContext.getUrl() + "|" +
+                repositoryContext.getTeamProjectName() + "|" + repositoryContext.getBranch() + "|" + forcePrompt;
+    }
+
     @Override
     public void doWork(final Inputs inputs) {
         try {
@@ -23,6 +23,11 @@ public abstract class Operation {
 
     public enum State {NOT_STARTED, STARTED, CANCELLED, COMPLETED}
 
+    /**
+     * Operations started by the user run before the ones refreshing data in the background
+     */
+    public enum Priority {USER, BACKGROUND}
+
     public interface Listener {
         void notifyLookupStarted();
 
@@ -76,7 +81,8 @@ public abstract class Operation {
 
     private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
     private final UUID id;
-    private State state;
+    private volatile State state;
+    private Priority priority;
 
     // This constructor is protected to make sure users don't create one directly
     protected Operation() {
@@ -108,6 +114,32 @@ public abstract class Operation {
         listeners.remove(listener);
     }
 
+    public void setPriority(final Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the priority set on the operation. If none was set, operations that aren't allowed to prompt for
+     * credentials are assumed to be background refreshes since nobody is waiting to answer a prompt.
+     */
+    public Priority getPriority(final Inputs inputs) {
+        if (priority != null) {
+            return priority;
+        }
+        if (inputs instanceof CredInputsImpl && !((CredInputsImpl) inputs).getPromptForCreds()) {
+            return Priority.BACKGROUND;
+        }
+        return Priority.USER;
+    }
+
+    /**
+     * Returns a key identifying the work done for the inputs, or null if the operation can't share its work.
+     * Operations with the same key that run at the same time share one lookup and its results.
+     */
+    protected String getCoalescingKey(final Inputs inputs) {
+        return null;
+    }
+
     public void doWorkAsync(final Inputs inputs) {
         OperationExecutor.getInstance().executeAsync(this, inputs);
     }
@@ -3,42 +3,107 @@
 
 package com.microsoft.alm.plugin.operations;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.alm.common.utils.SystemHelper;
 import com.microsoft.alm.plugin.exceptions.TeamServicesException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Runs operations and their tasks on a pool of background threads.
+ * <p/>
+ * Tasks are queued by priority: the tasks submitted by running operations come first since those operations are
+ * holding threads while they wait, then the operations started by the user and finally the background refreshes.
+ * The pool starts with {@link #MIN_THREADS} threads and grows by one thread at a time up to the maximum while tasks
+ * are waiting, shrinking back once the queue is empty. Background operations are rejected while the queue is full.
+ * <p/>
+ * Operations that return a coalescing key share their work with the operation already running for the same key:
+ * the later ones don't run but get the notifications and results of the running one.
+ */
 public class OperationExecutor {
     private static final Logger logger = LoggerFactory.getLogger(OperationExecutor.class);
-    final int THREAD_RECOVERY_TIMEOUT_SECONDS = 5;
-    // For now we are limiting ourselves to 5 threads (single threaded is way too slow)
-    final int MAX_THREADS = 5;
-    // No need for Core threads and Max threads to be different
-    final int CORE_THREADS = MAX_THREADS;
+
+    public static final String PROP_MAX_THREADS = "com.microsoft.alm.plugin.operations.maxThreads";
+    public static final String PROP_MAX_QUEUED_BACKGROUND_OPERATIONS = "com.microsoft.alm.plugin.operations.maxQueuedBackgroundOperations";
+
+    @VisibleForTesting
+    static final int MIN_THREADS = 5;
+    private static final int DEFAULT_MAX_THREADS = Math.max(MIN_THREADS, Runtime.getRuntime().availableProcessors() * 2);
+    // The size of the bounded queue that was used before (10x the number of threads)
+    private static final int DEFAULT_MAX_QUEUED_BACKGROUND_OPERATIONS = MIN_THREADS * 10;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 5L;
     //timeout for each task
     final long TASK_TIMEOUT_SECONDS = 120L;
 
-    // The number of items that can be in the Queue needs to be bigger than the number of threads (10x is somewhat arbitrary)
-    final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(MAX_THREADS * 10);
-    final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(CORE_THREADS, MAX_THREADS, THREAD_RECOVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS, queue);
+    // Lower ranks run first
+    private static final int RANK_TASK = 0;
+    private static final int RANK_USER = 1;
+    private static final int RANK_BACKGROUND = 2;
+
+    private final int maxThreads;
+    private final int maxQueuedBackgroundOperations;
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+    private final ThreadPoolExecutor threadPoolExecutor;
+    private final AtomicLong sequence = new AtomicLong();
+    // The operations running for each coalescing key
+    private final Map<String, SharedOperation> sharedOperations = new HashMap<String, SharedOperation>();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
 
     private static class Holder {
-        public final static OperationExecutor INSTANCE = new OperationExecutor();
+        public final static OperationExecutor INSTANCE = new OperationExecutor(
+                Math.max(SystemHelper.toInt(System.getProperty(PROP_MAX_THREADS), DEFAULT_MAX_THREADS), 1),
+                Math.max(SystemHelper.toInt(System.getProperty(PROP_MAX_QUEUED_BACKGROUND_OPERATIONS),
+                        DEFAULT_MAX_QUEUED_BACKGROUND_OPERATIONS), 1));
     }
 
     public static OperationExecutor getInstance() {
         return Holder.INSTANCE;
     }
 
+    @VisibleForTesting
+    OperationExecutor(final int maxThreads, final int maxQueuedBackgroundOperations) {
+        this.maxThreads = Math.max(maxThreads, MIN_THREADS);
+        this.maxQueuedBackgroundOperations = maxQueuedBackgroundOperations;
+        threadPoolExecutor = new ThreadPoolExecutor(MIN_THREADS, this.maxThreads, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                queue, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Operation-%d").build()) {
+            @Override
+            protected void beforeExecute(final Thread thread, final Runnable runnable) {
+                super.beforeExecute(thread, runnable);
+                ((PriorityTask<?>) runnable).started();
+            }
+
+            @Override
+            protected void afterExecute(final Runnable runnable, final Throwable throwable) {
+                super.afterExecute(runnable, throwable);
+                recordLatency((PriorityTask<?>) runnable);
+                shrinkIfIdle();
+            }
+        };
+    }
+
     public UUID executeAsync(final Operation operation, final Operation.Inputs inputs) {
         execute(operation, inputs);
         return operation.getId();
@@ -48,8 +113,90 @@ public class OperationExecutor {
         return queue.size();
     }
 
-    private synchronized void execute(final Operation operation, final Operation.Inputs inputs) {
-        threadPoolExecutor.execute(new Runnable() {
+    public int getActiveCount() {
+        return threadPoolExecutor.getActiveCount();
+    }
+
+    public int getPoolSize() {
+        return threadPoolExecutor.getPoolSize();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Returns the average time the completed tasks waited in the queue before running
+     */
+    public long getAverageWaitMilliseconds() {
+        final long completed = completedCount.get();
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / completed);
+    }
+
+    public long getMaxWaitMilliseconds() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /**
+     * Returns the average time the completed tasks took to run
+     */
+    public long getAverageRunMilliseconds() {
+        final long completed = completedCount.get();
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get() / completed);
+    }
+
+    private void execute(final Operation operation, final Operation.Inputs inputs) {
+        final String key = operation.getCoalescingKey(inputs);
+        final SharedOperation sharedOperation = key != null ? new SharedOperation(operation) : null;
+        while (true) {
+            final SharedOperation runningOperation;
+            synchronized (this) {
+                runningOperation = key != null ? sharedOperations.get(key) : null;
+                if (runningOperation == null) {
+                    if (!isQueueFull(operation, inputs)) {
+                        if (sharedOperation != null) {
+                            operation.addListener(sharedOperation);
+                            sharedOperations.put(key, sharedOperation);
+                        }
+                        enqueue(createOperationTask(operation, inputs, key, sharedOperation));
+                        return;
+                    }
+                }
+            }
+
+            if (runningOperation == null) {
+                logger.warn("execute: too many operations queued, rejecting background operation " + operation.getClass().getSimpleName());
+                rejectedCount.incrementAndGet();
+                operation.terminate(new RejectedExecutionException("Too many operations are queued"));
+                return;
+            }
+
+            // Joining is done outside of the lock since the notifications sent so far are replayed to the operation
+            if (runningOperation.addFollower(operation, inputs)) {
+                logger.info("execute: sharing the running operation for " + key);
+                coalescedCount.incrementAndGet();
+                return;
+            }
+            removeSharedOperation(key, runningOperation);
+        }
+    }
+
+    private boolean isQueueFull(final Operation operation, final Operation.Inputs inputs) {
+        return operation.getPriority(inputs) == Operation.Priority.BACKGROUND && queue.size() >= maxQueuedBackgroundOperations;
+    }
+
+    private PriorityTask<Void> createOperationTask(final Operation operation, final Operation.Inputs inputs,
+                                                   final String key, final SharedOperation sharedOperation) {
+        final int rank = operation.getPriority(inputs) == Operation.Priority.BACKGROUND ? RANK_BACKGROUND : RANK_USER;
+        return new PriorityTask<Void>(rank, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -59,24 +206,78 @@ public class OperationExecutor {
                     if (!operation.isFinished()) {
                         operation.terminate(t);
                     }
+                } finally {
+                    if (sharedOperation != null) {
+                        removeSharedOperation(key, sharedOperation);
+                        sharedOperation.finish();
+                    }
                 }
             }
         });
     }
 
+    private synchronized void removeSharedOperation(final String key, final SharedOperation sharedOperation) {
+        if (sharedOperations.get(key) == sharedOperation) {
+            sharedOperations.remove(key);
+        }
+    }
+
     public Future submitOperationTask(Runnable task) {
-        return threadPoolExecutor.submit(task);
+        final PriorityTask<Void> priorityTask = new PriorityTask<Void>(RANK_TASK, task);
+        enqueue(priorityTask);
+        return priorityTask;
+    }
+
+    private void enqueue(final PriorityTask<?> task) {
+        threadPoolExecutor.execute(task);
+        growIfBusy();
+    }
+
+    /**
+     * Adds a thread while tasks are waiting, the threads may be blocked waiting on the tasks they submitted
+     */
+    private synchronized void growIfBusy() {
+        final int corePoolSize = threadPoolExecutor.getCorePoolSize();
+        if (!queue.isEmpty() && corePoolSize < maxThreads) {
+            threadPoolExecutor.setCorePoolSize(corePoolSize + 1);
+        }
     }
 
+    private synchronized void shrinkIfIdle() {
+        final int corePoolSize = threadPoolExecutor.getCorePoolSize();
+        if (queue.isEmpty() && corePoolSize > MIN_THREADS) {
+            threadPoolExecutor.setCorePoolSize(corePoolSize - 1);
+        }
+    }
+
+    private void recordLatency(final PriorityTask<?> task) {
+        final long waitNanos = task.startTime - task.queueTime;
+        totalWaitNanos.addAndGet(waitNanos);
+        totalRunNanos.addAndGet(System.nanoTime() - task.startTime);
+        completedCount.incrementAndGet();
+
+        long max = maxWaitNanos.get();
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * Waits for the tasks with a single deadline for all of them. The first failure cancels the tasks that are still
+     * running and is thrown once the wait is over. Use a {@link TaskGroup} to also get the results that were found.
+     */
     public void wait(List<Future> futures) {
-        //TODO: can we call get on the futures in parallel. If there are multiple ones that timeout, overall timeout might be long
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TASK_TIMEOUT_SECONDS);
         Throwable t = null;
         for (Future f : futures) {
             try {
-                f.get(TASK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                f.get(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+            } catch (CancellationException ce) {
+                // cancelled by the caller or after an earlier failure
             } catch (InterruptedException e) {
                 t = e;
                 logger.warn("wait: InterruptedException", e);
+                Thread.currentThread().interrupt();
             } catch (TimeoutException te) {
                 t = te;
                 logger.warn("wait: TimeoutException", te);
@@ -84,10 +285,148 @@ public class OperationExecutor {
                 logger.warn("wait: ExecutionException", ee);
                 t = ee;
             }
+
+            if (t != null) {
+                for (Future other : futures) {
+                    other.cancel(true);
+                }
+                break;
+            }
         }
 
         if (t != null) {
             throw new TeamServicesException(TeamServicesException.KEY_OPERATION_ERRORS, t);
         }
     }
+
+    /**
+     * A task run in order of rank and then in the order it was submitted
+     */
+    private class PriorityTask<T> extends FutureTask<T> implements Comparable<PriorityTask<?>> {
+        private final int rank;
+        private final long order = sequence.getAndIncrement();
+        private final long queueTime = System.nanoTime();
+        private volatile long startTime;
+
+        public PriorityTask(final int rank, final Runnable runnable) {
+            super(runnable, null);
+            this.rank = rank;
+        }
+
+        private void started() {
+            startTime = System.nanoTime();
+        }
+
+        @Override
+        public int compareTo(final PriorityTask<?> other) {
+            if (rank != other.rank) {
+                return rank < other.rank ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    /**
+     * Forwards the notifications of a running operation to the operations sharing its work. The notifications sent
+     * before an operation joins are replayed to it. If the running operation is cancelled, the operations sharing its
+     * work are run on their own instead.
+     */
+    private class SharedOperation implements Operation.Listener {
+        private final Operation operation;
+        private final List<Operation> followers = new ArrayList<Operation>();
+        private final Map<Operation, Operation.Inputs> followerInputs = new HashMap<Operation, Operation.Inputs>();
+        private final List<Operation.Results> results = new ArrayList<Operation.Results>();
+        private boolean started = false;
+        private boolean finished = false;
+
+        public SharedOperation(final Operation operation) {
+            this.operation = operation;
+        }
+
+        public synchronized boolean addFollower(final Operation follower, final Operation.Inputs inputs) {
+            if (finished || operation.isCancelled()) {
+                return false;
+            }
+            if (started) {
+                follower.onLookupStarted();
+            }
+            for (final Operation.Results result : results) {
+                follower.onLookupResults(result);
+            }
+            followers.add(follower);
+            followerInputs.put(follower, inputs);
+            return true;
+        }
+
+        @Override
+        public void notifyLookupStarted() {
+            synchronized (this) {
+                if (!finished && !operation.isCancelled()) {
+                    started = true;
+                    for (final Operation follower : followers) {
+                        if (!follower.isCancelled()) {
+                            follower.onLookupStarted();
+                        }
+                    }
+                    return;
+                }
+            }
+            finish();
+        }
+
+        @Override
+        public void notifyLookupResults(final Operation.Results result) {
+            synchronized (this) {
+                if (!finished && !operation.isCancelled()) {
+                    results.add(result);
+                    for (final Operation follower : followers) {
+                        if (!follower.isCancelled()) {
+                            follower.onLookupResults(result);
+                        }
+                    }
+                    return;
+                }
+            }
+            finish();
+        }
+
+        @Override
+        public void notifyLookupCompleted() {
+            synchronized (this) {
+                if (!finished && !operation.isCancelled()) {
+                    finished = true;
+                    for (final Operation follower : followers) {
+                        if (!follower.isCancelled()) {
+                            follower.onLookupCompleted();
+                        }
+                    }
+                    followers.clear();
+                    followerInputs.clear();
+                    return;
+                }
+            }
+            finish();
+        }
+
+        /**
+         * Stops sharing. The operations that didn't get all the notifications yet are run on their own.
+         */
+        public void finish() {
+            final List<Operation> orphans;
+            final Map<Operation, Operation.Inputs> orphanInputs;
+            synchronized (this) {
+                finished = true;
+                orphans = new ArrayList<Operation>(followers);
+                orphanInputs = new HashMap<Operation, Operation.Inputs>(followerInputs);
+                followers.clear();
+                followerInputs.clear();
+            }
+            for (final Operation orphan : orphans) {
+                if (!orphan.isFinished()) {
+                    logger.info("finish: the shared operation stopped early, running " + orphan.getClass().getSimpleName() + " on its own");
+                    execute(orphan, orphanInputs.get(orphan));
+                }
+            }
+        }
+    }
 }
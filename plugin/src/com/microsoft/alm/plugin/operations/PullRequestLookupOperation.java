@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class PullRequestLookupOperation extends Operation {
     private static final Logger logger = LoggerFactory.getLogger(PullRequestLookupOperation.class);
@@ -54,6 +55,12 @@ public class PullRequestLookupOperation extends Operation {
         this.gitRemoteUrl = gitRemoteUrl;
     }
 
+    @Override
+    protected String getCoalescingKey(final Inputs inputs) {
+        return inputs instanceof CredInputsImpl ?
+                "PullRequestLookup|" + gitRemoteUrl + "|" + ((CredInputsImpl) inputs).getPromptForCreds() : null;
+    }
+
     public void doWork(final Inputs inputs) {
         logger.info("PullRequestLookupOperation.doWork()");
         onLookupStarted();
@@ -97,21 +104,23 @@ public class PullRequestLookupOperation extends Operation {
             }
         }
 
-        final List<Future> lookupTasks = new ArrayList<Future>();
+        // Both lookups share one deadline and the first failure stops the other one
+        final TaskGroup<Void> lookupTasks = new TaskGroup<Void>("PullRequestLookup", TaskGroup.DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         try {
-            lookupTasks.add(OperationExecutor.getInstance().submitOperationTask(new Runnable() {
-                @Override
-                public void run() {
-                    doLookup(context, PullRequestScope.REQUESTED_BY_ME);
-                }
-            }));
-            lookupTasks.add(OperationExecutor.getInstance().submitOperationTask(new Runnable() {
-                @Override
-                public void run() {
-                    doLookup(context, PullRequestScope.ASSIGNED_TO_ME);
-                }
-            }));
-            OperationExecutor.getInstance().wait(lookupTasks);
+            for (final PullRequestScope scope : new PullRequestScope[]{PullRequestScope.REQUESTED_BY_ME, PullRequestScope.ASSIGNED_TO_ME}) {
+                lookupTasks.add(scope.toString(), new Runnable() {
+                    @Override
+                    public void run() {
+                        doLookup(context, scope);
+                    }
+                });
+            }
+            final TaskGroup.Results<Void> results = lookupTasks.join();
+            logger.info("doWork: pull request lookups took {} ms", results.getLatencies());
+            if (results.hasError()) {
+                terminate(results.getError());
+                return;
+            }
             onLookupCompleted();
         } catch (Throwable t) {
             logger.warn("doWork: failed with an exception", t);
@@ -121,31 +130,25 @@ public class PullRequestLookupOperation extends Operation {
     }
 
     protected void doLookup(final ServerContext context, final PullRequestScope scope) {
-        try {
-            final GitHttpClient gitHttpClient = context.getGitHttpClient();
-            final PullRequestLookupResults results = scope == PullRequestScope.REQUESTED_BY_ME ? requestedByMeResults : assignedToMeResults;
-
-            //setup criteria for the query
-            final GitPullRequestSearchCriteria criteria = new GitPullRequestSearchCriteria();
-            criteria.setRepositoryId(context.getGitRepository().getId());
-            criteria.setStatus(PullRequestStatus.ACTIVE);
-            criteria.setIncludeLinks(false);
-            if (scope == PullRequestScope.REQUESTED_BY_ME) {
-                criteria.setCreatorId(context.getUserId());
-            } else {
-                criteria.setReviewerId(context.getUserId());
-            }
-
-            //query server and add results
-            final List<GitPullRequest> pullRequests = gitHttpClient.getPullRequests(context.getGitRepository().getId(), criteria, 256, 0, 101);
-            logger.debug("doLookup: Found {} pull requests {} on repo {}", pullRequests.size(), scope.toString(), context.getGitRepository().getRemoteUrl());
-            results.pullRequests.addAll(pullRequests);
-            super.onLookupResults(results);
-
-        } catch (Throwable t) {
-            logger.warn("doLookup: failed with an exception", t);
-            terminate(t);
+        final GitHttpClient gitHttpClient = context.getGitHttpClient();
+        final PullRequestLookupResults results = scope == PullRequestScope.REQUESTED_BY_ME ? requestedByMeResults : assignedToMeResults;
+
+        //setup criteria for the query
+        final GitPullRequestSearchCriteria criteria = new GitPullRequestSearchCriteria();
+        criteria.setRepositoryId(context.getGitRepository().getId());
+        criteria.setStatus(PullRequestStatus.ACTIVE);
+        criteria.setIncludeLinks(false);
+        if (scope == PullRequestScope.REQUESTED_BY_ME) {
+            criteria.setCreatorId(context.getUserId());
+        } else {
+            criteria.setReviewerId(context.getUserId());
         }
+
+        //query server and add results
+        final List<GitPullRequest> pullRequests = gitHttpClient.getPullRequests(context.getGitRepository().getId(), criteria, 256, 0, 101);
+        logger.debug("doLookup: Found {} pull requests {} on repo {}", pullRequests.size(), scope.toString(), context.getGitRepository().getRemoteUrl());
+        results.pullRequests.addAll(pullRequests);
+        super.onLookupResults(results);
     }
 
     @Override
@@ -3,13 +3,16 @@
 
 package com.microsoft.alm.plugin.operations;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.microsoft.alm.client.model.VssResourceNotFoundException;
 import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.SystemHelper;
 import com.microsoft.alm.common.utils.UrlHelper;
 import com.microsoft.alm.core.webapi.CoreHttpClient;
 import com.microsoft.alm.core.webapi.model.TeamProjectCollectionReference;
 import com.microsoft.alm.core.webapi.model.TeamProjectReference;
 import com.microsoft.alm.plugin.authentication.AuthHelper;
+import com.microsoft.alm.plugin.context.DiscoveryCache;
 import com.microsoft.alm.plugin.context.ServerContext;
 import com.microsoft.alm.plugin.context.ServerContextBuilder;
 import com.microsoft.alm.plugin.context.ServerContextManager;
@@ -25,16 +28,38 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class ServerContextLookupOperation extends Operation {
     private static final Logger logger = LoggerFactory.getLogger(ServerContextLookupOperation.class);
 
     public enum ContextScope {REPOSITORY, PROJECT}
 
+    public static final String PROP_MAX_PARALLEL_LOOKUPS = "com.microsoft.alm.plugin.operations.maxParallelCollectionLookups";
+    private static final int DEFAULT_MAX_PARALLEL_LOOKUPS = 8;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60L;
+
     private static final String HTTP_503_EXCEPTION = "HTTP 503 Service Unavailable";
     private final List<ServerContext> contextList;
     private final ContextScope resultScope;
+    private final List<TaskGroup<Void>> runningLookups = new CopyOnWriteArrayList<TaskGroup<Void>>();
+
+    // The collection lookups get their own threads since they are started from the threads of the OperationExecutor
+    private static class ExecutorHolder {
+        private static final ExecutorService INSTANCE = createCollectionExecutor(
+                Math.max(SystemHelper.toInt(System.getProperty(PROP_MAX_PARALLEL_LOOKUPS), DEFAULT_MAX_PARALLEL_LOOKUPS), 1));
+    }
+
+    private static ExecutorService createCollectionExecutor(final int maxThreads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("CollectionLookup-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     public class ServerContextLookupResults extends ResultsImpl {
         private final List<ServerContext> serverContexts = new ArrayList<ServerContext>();
@@ -61,10 +86,11 @@ public class ServerContextLookupOperation extends Operation {
             final boolean throwOnError = contextList.size() == 1;
             final List<Throwable> operationExceptions = new CopyOnWriteArrayList<Throwable>();
 
-            final List<Future> tasks = new ArrayList<Future>();
+            final TaskGroup<Void> tasks = new TaskGroup<Void>("ServerContextLookup", TaskGroup.DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            runningLookups.add(tasks);
             for (final ServerContext context : contextList) {
                 // submit each account as a separate piece of work to the executor
-                tasks.add(OperationExecutor.getInstance().submitOperationTask(new Runnable() {
+                tasks.add(context.getUri().toString(), new Runnable() {
                     @Override
                     public void run() {
                         if (isCancelled()) {
@@ -116,11 +142,15 @@ public class ServerContextLookupOperation extends Operation {
                             }
                         }
                     }
-                }));
+                });
             }
 
             // wait for all tasks to complete
-            OperationExecutor.getInstance().wait(tasks);
+            try {
+                tasks.joinOrThrow();
+            } finally {
+                runningLookups.remove(tasks);
+            }
 
             if (operationExceptions.size() > 0) {
                 terminate(new TeamServicesException(TeamServicesException.KEY_OPERATION_ERRORS));
@@ -137,6 +167,11 @@ public class ServerContextLookupOperation extends Operation {
     public void cancel() {
         super.cancel();
 
+        // stop the lookups that are still running
+        for (final TaskGroup<Void> lookup : runningLookups) {
+            lookup.cancel();
+        }
+
         final ServerContextLookupResults results = new ServerContextLookupResults();
         results.isCancelled = true;
         onLookupResults(results);
@@ -156,7 +191,15 @@ public class ServerContextLookupOperation extends Operation {
 
     protected void doRestCollectionLookup(final ServerContext context) {
         final CoreHttpClient rootClient = new CoreHttpClient(context.getClient(), context.getUri());
-        final List<TeamProjectCollectionReference> collections = rootClient.getProjectCollections(null, null);
+        final List<TeamProjectCollectionReference> collections = DiscoveryCache.getInstance().get(
+                DiscoveryCache.getKey(DiscoveryCache.KIND_COLLECTIONS, context.getUri(), context.getAuthenticationInfo()),
+                context.getUri(), TeamProjectCollectionReference.class,
+                new DiscoveryCache.Loader<TeamProjectCollectionReference>() {
+                    @Override
+                    public List<TeamProjectCollectionReference> load() {
+                        return rootClient.getProjectCollections(null, null);
+                    }
+                });
         logger.debug("doRestCollectionLookup: Found {} collections on account: {}.", collections.size(), context.getUri().toString());
         doLookup(context, collections);
     }
@@ -168,36 +211,91 @@ public class ServerContextLookupOperation extends Operation {
         doLookup(context, collections);
     }
 
+    /**
+     * Looks up the projects or repositories of all of the collections at the same time, up to the limit set by
+     * {@link #PROP_MAX_PARALLEL_LOOKUPS}. The results of each collection are reported as soon as they are found. The
+     * first failure cancels the lookups that are still running and is thrown once they have stopped.
+     */
     protected void doLookup(final ServerContext context, final List<TeamProjectCollectionReference> collections) {
-        for (final TeamProjectCollectionReference teamProjectCollectionReference : collections) {
+        final TaskGroup<Void> tasks = new TaskGroup<Void>("CollectionLookup", getCollectionExecutor(),
+                TaskGroup.DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        runningLookups.add(tasks);
+        try {
+            for (final TeamProjectCollectionReference teamProjectCollectionReference : collections) {
+                if (isCancelled()) {
+                    logger.debug("doLookup: Lookup on collection {} on server {} was cancelled.", teamProjectCollectionReference.getName(), context.getUri().toString());
+                    break;
+                }
+
+                tasks.add(teamProjectCollectionReference.getName(), new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isCancelled()) {
+                            logger.debug("doLookup: Lookup on collection {} on server {} was cancelled.", teamProjectCollectionReference.getName(), context.getUri().toString());
+                            return;
+                        }
+                        lookupCollection(context, teamProjectCollectionReference);
+                    }
+                });
+            }
+
+            // cancel() may have been called before the lookup was added to the list
             if (isCancelled()) {
-                logger.debug("doLookup: Lookup on collection {} on server {} was cancelled.", teamProjectCollectionReference.getName(), context.getUri().toString());
-                return;
+                tasks.cancel();
             }
+            tasks.joinOrThrow();
+        } finally {
+            runningLookups.remove(tasks);
+        }
+    }
 
-            final URI collectionURI = UrlHelper.getCollectionURI(context.getUri(), teamProjectCollectionReference.getName());
+    protected void lookupCollection(final ServerContext context, final TeamProjectCollectionReference teamProjectCollectionReference) {
+        final URI collectionURI = UrlHelper.getCollectionURI(context.getUri(), teamProjectCollectionReference.getName());
 
-            try {
-                if (resultScope == ContextScope.PROJECT) {
-                    final CoreHttpClient client = new CoreHttpClient(context.getClient(), collectionURI);
-                    final List<TeamProjectReference> projects = client.getProjects();
-                    logger.debug("doLookup: found {} projects in collection: {} on server: {}.", projects.size(), teamProjectCollectionReference.getName(), context.getUri().toString());
+        try {
+            if (resultScope == ContextScope.PROJECT) {
+                final CoreHttpClient client = new CoreHttpClient(context.getClient(), collectionURI);
+                final List<TeamProjectReference> projects = DiscoveryCache.getInstance().get(
+                        DiscoveryCache.getKey(DiscoveryCache.KIND_PROJECTS, collectionURI, context.getAuthenticationInfo()),
+                        collectionURI, TeamProjectReference.class,
+                        new DiscoveryCache.Loader<TeamProjectReference>() {
+                            @Override
+                            public List<TeamProjectReference> load() {
+                                return client.getProjects();
+                            }
+                        });
+                logger.debug("lookupCollection: found {} projects in collection: {} on server: {}.", projects.size(), teamProjectCollectionReference.getName(), context.getUri().toString());
+                // requests that can't be interrupted may finish after the lookup has been cancelled
+                if (!isCancelled()) {
                     addTeamProjectResults(projects, context, teamProjectCollectionReference);
-                } else {
-                    final GitHttpClient gitClient = new GitHttpClient(context.getClient(), collectionURI);
-                    final List<GitRepository> gitRepositories = gitClient.getRepositories();
-                    logger.debug("doLookup: found {} Git repositories in collection: {} on server: {}.", gitRepositories.size(), teamProjectCollectionReference.getName(), context.getUri().toString());
-                    addRepositoryResults(gitRepositories, context, teamProjectCollectionReference);
                 }
-            } catch (VssResourceNotFoundException e) {
-                if (e.getMessage().contains(HTTP_503_EXCEPTION)) {
-                    logger.warn("Collection " + teamProjectCollectionReference.getName() + " is unavailable.", e);
-                } else {
-                    logger.warn("Failure while trying to find collection repos", e);
+            } else {
+                final GitHttpClient gitClient = new GitHttpClient(context.getClient(), collectionURI);
+                final List<GitRepository> gitRepositories = DiscoveryCache.getInstance().get(
+                        DiscoveryCache.getKey(DiscoveryCache.KIND_REPOSITORIES, collectionURI, context.getAuthenticationInfo()),
+                        collectionURI, GitRepository.class,
+                        new DiscoveryCache.Loader<GitRepository>() {
+                            @Override
+                            public List<GitRepository> load() {
+                                return gitClient.getRepositories();
+                            }
+                        });
+                logger.debug("lookupCollection: found {} Git repositories in collection: {} on server: {}.", gitRepositories.size(), teamProjectCollectionReference.getName(), context.getUri().toString());
+                if (!isCancelled()) {
+                    addRepositoryResults(gitRepositories, context, teamProjectCollectionReference);
                 }
             }
+        } catch (VssResourceNotFoundException e) {
+            if (e.getMessage().contains(HTTP_503_EXCEPTION)) {
+                logger.warn("Collection " + teamProjectCollectionReference.getName() + " is unavailable.", e);
+            } else {
+                logger.warn("Failure while trying to find collection repos", e);
+            }
         }
+    }
 
+    protected ExecutorService getCollectionExecutor() {
+        return ExecutorHolder.INSTANCE;
     }
 
     protected void addTeamProjectResults(final List<TeamProjectReference> projects, final ServerContext context, final TeamProjectCollectionReference teamProjectCollectionReference) {
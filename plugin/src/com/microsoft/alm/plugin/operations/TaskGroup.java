@@ -0,0 +1,249 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.operations;
+
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.plugin.exceptions.TeamServicesException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs a group of tasks at the same time and waits for all of them to finish.
+ * <p/>
+ * The group has a single deadline that starts when it is created, so slow tasks don't add up. The first task that
+ * fails, the deadline passing or the waiting thread being interrupted cancels the tasks that are still running. The
+ * results of the tasks that finished are always returned along with how long each task ran.
+ */
+public class TaskGroup<T> {
+    private static final Logger logger = LoggerFactory.getLogger(TaskGroup.class);
+
+    public static final long DEFAULT_TIMEOUT_SECONDS = 120L;
+
+    // Runs the tasks on the threads of the OperationExecutor
+    private static final Executor OPERATION_EXECUTOR = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            OperationExecutor.getInstance().submitOperationTask(command);
+        }
+    };
+
+    private final String name;
+    private final Executor executor;
+    private final long deadline;
+    private final List<GroupTask> tasks = new ArrayList<GroupTask>();
+    private final BlockingQueue<GroupTask> finishedTasks = new LinkedBlockingQueue<GroupTask>();
+    private final Map<String, Long> latencies = Collections.synchronizedMap(new HashMap<String, Long>());
+    private volatile boolean cancelled = false;
+
+    public static class Results<T> {
+        private final List<T> results;
+        private final Map<String, Long> latencies;
+        private final Throwable error;
+        private final boolean timedOut;
+        private final boolean cancelled;
+
+        private Results(final List<T> results, final Map<String, Long> latencies, final Throwable error,
+                        final boolean timedOut, final boolean cancelled) {
+            this.results = Collections.unmodifiableList(results);
+            this.latencies = Collections.unmodifiableMap(latencies);
+            this.error = error;
+            this.timedOut = timedOut;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * Returns the results of the tasks that finished, in the order they finished
+         */
+        public List<T> getResults() {
+            return results;
+        }
+
+        /**
+         * Returns how long each task that started ran in milliseconds, by task name
+         */
+        public Map<String, Long> getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * Returns the failure of the first task that failed, a TimeoutException if the deadline passed or an
+         * InterruptedException if the wait was interrupted
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean hasError() {
+            return error != null;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Creates a group that runs its tasks on the OperationExecutor
+     */
+    public TaskGroup(final String name, final long timeout, final TimeUnit unit) {
+        this(name, OPERATION_EXECUTOR, timeout, unit);
+    }
+
+    public TaskGroup(final String name, final Executor executor, final long timeout, final TimeUnit unit) {
+        ArgumentHelper.checkNotEmptyString(name, "name");
+        ArgumentHelper.checkNotNull(executor, "executor");
+        ArgumentHelper.checkNotNull(unit, "unit");
+        this.name = name;
+        this.executor = executor;
+        this.deadline = System.nanoTime() + unit.toNanos(timeout);
+    }
+
+    public Future<T> add(final String taskName, final Callable<T> callable) {
+        ArgumentHelper.checkNotNull(callable, "callable");
+        final GroupTask task = new GroupTask(taskName, callable);
+        synchronized (tasks) {
+            tasks.add(task);
+        }
+        // cancel() may have been called before the task was added
+        if (cancelled) {
+            task.cancel(false);
+        } else {
+            executor.execute(task);
+        }
+        return task;
+    }
+
+    public Future<T> add(final String taskName, final Runnable runnable) {
+        return add(taskName, Executors.<T>callable(runnable, null));
+    }
+
+    /**
+     * Cancels the tasks that haven't finished, interrupting the ones that are running
+     */
+    public void cancel() {
+        cancelled = true;
+        for (final GroupTask task : getTasks()) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Waits for all of the tasks added so far. The remaining tasks are cancelled as soon as one of them fails or the
+     * deadline passes.
+     */
+    public Results<T> join() {
+        final List<GroupTask> waitingTasks = getTasks();
+        final List<T> results = new ArrayList<T>(waitingTasks.size());
+        Throwable error = null;
+        boolean timedOut = false;
+        try {
+            int remaining = waitingTasks.size();
+            while (remaining > 0) {
+                final long timeLeft = deadline - System.nanoTime();
+                if (timeLeft <= 0) {
+                    timedOut = true;
+                    error = new TimeoutException(String.format("%s: %d of %d tasks didn't finish in time", name, remaining, waitingTasks.size()));
+                    break;
+                }
+
+                final GroupTask task = finishedTasks.poll(timeLeft, TimeUnit.NANOSECONDS);
+                if (task == null) {
+                    continue;
+                }
+                remaining--;
+                if (task.isCancelled()) {
+                    continue;
+                }
+                try {
+                    results.add(task.get());
+                } catch (final ExecutionException e) {
+                    error = e.getCause();
+                    break;
+                }
+            }
+        } catch (final InterruptedException e) {
+            error = e;
+            Thread.currentThread().interrupt();
+        }
+
+        final boolean wasCancelled = cancelled;
+        if (error != null) {
+            logger.warn(name + ": cancelling the remaining tasks", error);
+            cancel();
+        }
+
+        synchronized (latencies) {
+            return new Results<T>(results, new HashMap<String, Long>(latencies), error, timedOut, wasCancelled);
+        }
+    }
+
+    /**
+     * Waits for all of the tasks added so far and throws the first failure. A failure that isn't a RuntimeException
+     * is thrown as a TeamServicesException.
+     */
+    public List<T> joinOrThrow() {
+        final Results<T> results = join();
+        final Throwable error = results.getError();
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new TeamServicesException(TeamServicesException.KEY_OPERATION_ERRORS, error);
+        }
+        return results.getResults();
+    }
+
+    private List<GroupTask> getTasks() {
+        synchronized (tasks) {
+            return new ArrayList<GroupTask>(tasks);
+        }
+    }
+
+    private class GroupTask extends FutureTask<T> {
+        private final String taskName;
+        private volatile long startTime;
+
+        public GroupTask(final String taskName, final Callable<T> callable) {
+            super(callable);
+            this.taskName = taskName;
+        }
+
+        @Override
+        public void run() {
+            startTime = System.nanoTime();
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            if (startTime != 0) {
+                final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                logger.debug("{}: task {} finished in {} ms", name, taskName, latency);
+                latencies.put(taskName, latency);
+            }
+            finishedTasks.add(this);
+        }
+    }
+}
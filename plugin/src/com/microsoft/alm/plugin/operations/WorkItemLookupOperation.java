@@ -97,6 +97,16 @@ public class WorkItemLookupOperation extends Operation {
         this.repositoryContext = repositoryContext;
     }
 
+    @Override
+    protected String getCoalescingKey(final Inputs inputs) {
+        if (!(inputs instanceof WitInputs)) {
+            return null;
+        }
+        final WitInputs witInputs = (WitInputs) inputs;
+        return "WorkItemLookup|" + repositoryContext.getUrl() + "|" + witInputs.getPromptForCreds() +
+                "|" + witInputs.expand + "|" + witInputs.fields + "|" + witInputs.query;
+    }
+
     public void doWork(final Inputs inputs) {
         try {
             logger.info("WorkItemLookupOperation.doWork()");
@@ -183,7 +193,7 @@ public class WorkItemLookupOperation extends Operation {
         onLookupCompleted();
     }
 
-    protected static class IDList extends ArrayList<Integer> {
+    public static class IDList extends ArrayList<Integer> {
         public IDList(int initialCapacity) {
             super(initialCapacity);
         }
@@ -200,7 +210,7 @@ public class WorkItemLookupOperation extends Operation {
         }
     }
 
-    protected static class FieldList extends ArrayList<String> {
+    public static class FieldList extends ArrayList<String> {
         public String toString() {
             StringBuilder sb = new StringBuilder();
             for (int i = 0; i < size(); i++) {
@@ -9,4 +9,9 @@ package com.microsoft.alm.plugin.services;
 public interface AsyncService {
 
     void executeOnPooledThread(final Runnable runnable);
+
+    /**
+     * Returns true if the user has cancelled the operation that is running on the current thread
+     */
+    boolean isCancelled();
 }
@@ -39,6 +39,9 @@ public class TfsTelemetryConstants {
     public static final String PLUGIN_EVENT_PROPERTY_MESSAGE = "VSO.Plugin.Property.Message"; //$NON-NLS-1$
     public static final String PLUGIN_EVENT_PROPERTY_DIALOG = "VSO.Plugin.Property.Dialog"; //$NON-NLS-1$
 
+    public static final String METRIC_TF_PROCESS_KILLED = "VSO/Plugin/Metric/TfProcessKilled"; //$NON-NLS-1$
+    public static final String METRIC_TF_COMMAND_TIMEOUT = "VSO/Plugin/Metric/TfCommandTimeout"; //$NON-NLS-1$
+
     public static final String PLUGIN_ACTION_EVENT_NAME_FORMAT = "VSO/Plugin/Action/%s"; //$NON-NLS-1$
     public static final String DIALOG_PAGE_VIEW_NAME_FORMAT = "VSO/Plugin/Dialog/%s"; //$NON-NLS-1$
 }
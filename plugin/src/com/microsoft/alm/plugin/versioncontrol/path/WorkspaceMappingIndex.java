@@ -0,0 +1,235 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.versioncontrol.path;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.microsoft.alm.common.utils.ArgumentHelper;
+import com.microsoft.alm.common.utils.FileHelper;
+import com.microsoft.alm.plugin.external.models.Workspace;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Translates paths between the server and the local disk using the mappings of a workspace.
+ * <p/>
+ * The mappings are put in two trees, one by the components of their server paths and one by the components of their
+ * local paths, so finding the closest mapping of a path only walks down the components of that path instead of
+ * comparing the path with every mapping. Build the index once for a list of mappings and use it for all of the paths
+ * that need to be translated with them. The results are the same as the ones of the translate methods of TfsFileUtil:
+ * the closest mapping wins and cloaked items have no translation.
+ */
+public class WorkspaceMappingIndex {
+    private final Node serverRoot = new Node();
+    private final Node localRoot = new Node();
+    private final boolean localIgnoresCase;
+
+    private static class Node {
+        private Map<String, Node> children;
+        // The first mapping of the path, which is what the linear search would have found
+        private Workspace.Mapping mapping;
+        // Local nodes only: the number of components of the server path of the mapping
+        private int serverDepth;
+        // Server nodes only: a cloaked mapping has this path
+        private boolean cloaked;
+
+        private Node getChild(final String component) {
+            return children != null ? children.get(component) : null;
+        }
+
+        private Node getOrCreateChild(final String component) {
+            if (children == null) {
+                children = new HashMap<String, Node>();
+            }
+            Node child = children.get(component);
+            if (child == null) {
+                child = new Node();
+                children.put(component, child);
+            }
+            return child;
+        }
+    }
+
+    public WorkspaceMappingIndex(final List<Workspace.Mapping> mappings) {
+        this(mappings, FileHelper.doesFileSystemIgnoreCase());
+    }
+
+    @VisibleForTesting
+    WorkspaceMappingIndex(final List<Workspace.Mapping> mappings, final boolean localIgnoresCase) {
+        ArgumentHelper.checkNotNull(mappings, "mappings");
+        this.localIgnoresCase = localIgnoresCase;
+
+        for (final Workspace.Mapping mapping : mappings) {
+            if (mapping == null || StringUtils.isEmpty(mapping.getServerPath())) {
+                continue;
+            }
+
+            final List<String> serverComponents = getServerComponents(mapping.getServerPath());
+            final Node serverNode = add(serverRoot, serverComponents);
+            if (serverNode.mapping == null) {
+                serverNode.mapping = mapping;
+            }
+            if (mapping.isCloaked()) {
+                serverNode.cloaked = true;
+            } else if (StringUtils.isNotEmpty(mapping.getLocalPath())) {
+                final Node localNode = add(localRoot, getLocalComponents(mapping.getLocalPath()));
+                if (localNode.mapping == null) {
+                    localNode.mapping = mapping;
+                    localNode.serverDepth = serverComponents.size();
+                }
+            }
+        }
+    }
+
+    /**
+     * Translates a server path to a local path
+     *
+     * @return the local path, or null if the item isn't mapped or is cloaked
+     */
+    public String translateServerItemToLocalItem(final String serverPath) {
+        ArgumentHelper.checkNotEmptyString(serverPath, "serverPath");
+
+        Node node = serverRoot;
+        Workspace.Mapping foundMapping = serverRoot.mapping;
+        for (final String component : getServerComponents(serverPath)) {
+            node = node.getChild(component);
+            if (node == null) {
+                break;
+            }
+            if (node.mapping != null) {
+                // This is the closest new mapping.
+                foundMapping = node.mapping;
+            }
+        }
+
+        if (foundMapping == null || foundMapping.isCloaked()) {
+            return null;
+        }
+        return ServerPath.makeLocal(serverPath, foundMapping.getServerPath(), foundMapping.getLocalPath());
+    }
+
+    /**
+     * Translates a local path to a server path
+     *
+     * @return the server path, or null if the item isn't mapped or is cloaked
+     */
+    public String translateLocalItemToServerItem(final String localPath) {
+        ArgumentHelper.checkNotEmptyString(localPath, "localPath");
+
+        Node node = localRoot;
+        Node foundNode = localRoot.mapping != null ? localRoot : null;
+        for (final String component : getLocalComponents(localPath)) {
+            node = node.getChild(component);
+            if (node == null) {
+                break;
+            }
+            if (node.mapping != null) {
+                // This is the closest new mapping.
+                foundNode = node;
+            }
+        }
+
+        if (foundNode == null) {
+            return null;
+        }
+
+        final Workspace.Mapping foundMapping = foundNode.mapping;
+        final String serverPath = LocalPath.makeServer(localPath, foundMapping.getLocalPath(), foundMapping.getServerPath());
+
+        /*
+         * We have the server path for the local path, but the server path
+         * could be cloaked by a mapping under the one we found.
+         */
+        node = serverRoot;
+        int depth = 0;
+        for (final String component : getServerComponents(serverPath)) {
+            node = node.getChild(component);
+            if (node == null) {
+                break;
+            }
+            depth++;
+            if (node.cloaked && depth > foundNode.serverDepth) {
+                return null;
+            }
+        }
+        return serverPath;
+    }
+
+    /**
+     * Translates many server paths at once
+     *
+     * @return the local paths in the same order, with null for the items that aren't mapped or are cloaked
+     */
+    public List<String> translateServerItemsToLocalItems(final Collection<String> serverPaths) {
+        ArgumentHelper.checkNotNull(serverPaths, "serverPaths");
+        final List<String> localPaths = new ArrayList<String>(serverPaths.size());
+        for (final String serverPath : serverPaths) {
+            localPaths.add(translateServerItemToLocalItem(serverPath));
+        }
+        return localPaths;
+    }
+
+    /**
+     * Translates many local paths at once
+     *
+     * @return the server paths in the same order, with null for the items that aren't mapped or are cloaked
+     */
+    public List<String> translateLocalItemsToServerItems(final Collection<String> localPaths) {
+        ArgumentHelper.checkNotNull(localPaths, "localPaths");
+        final List<String> serverPaths = new ArrayList<String>(localPaths.size());
+        for (final String localPath : localPaths) {
+            serverPaths.add(translateLocalItemToServerItem(localPath));
+        }
+        return serverPaths;
+    }
+
+    private static Node add(final Node root, final List<String> components) {
+        Node node = root;
+        for (final String component : components) {
+            node = node.getOrCreateChild(component);
+        }
+        return node;
+    }
+
+    /**
+     * Splits the server path into its components after the root, ignoring case like the server does
+     */
+    private static List<String> getServerComponents(final String serverPath) {
+        final String path = ServerPath.canonicalize(serverPath).toLowerCase(Locale.ENGLISH);
+        return split(path.substring(Math.min(ServerPath.ROOT.length(), path.length())), false);
+    }
+
+    private List<String> getLocalComponents(final String localPath) {
+        final String path = localIgnoresCase ? localPath.toLowerCase(Locale.ENGLISH) : localPath;
+        return split(path, true);
+    }
+
+    private static List<String> split(final String path, final boolean local) {
+        final List<String> components = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if (i == path.length() || isSeparator(path.charAt(i), local)) {
+                // Repeated separators are ignored, just like File does
+                if (i > start) {
+                    components.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return components;
+    }
+
+    private static boolean isSeparator(final char c, final boolean local) {
+        if (local) {
+            return c == File.separatorChar || c == '/';
+        }
+        return ServerPath.isSeparator(c);
+    }
+}
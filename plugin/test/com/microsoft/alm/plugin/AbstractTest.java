@@ -46,6 +46,11 @@ public class AbstractTest {
             public void executeOnPooledThread(Runnable runnable) {
                 runnable.run();
             }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
         }, false);
     }
 
@@ -38,6 +38,10 @@ public class CatalogServiceImplTest extends AbstractTest {
         catalogService.addResponse(getCatalogResourceXml("root", CatalogServiceImpl.ORGANIZATIONAL_ROOT));
         catalogService.addResponse(getCatalogResourceXml("server", CatalogServiceImpl.TEAM_FOUNDATION_SERVER_INSTANCE));
         catalogService.addResponse(getCatalogResourceXml("collection1", CatalogServiceImpl.PROJECT_COLLECTION));
+        // the collections are listed from the server again before giving up
+        catalogService.addResponse(getCatalogResourceXml("root", CatalogServiceImpl.ORGANIZATIONAL_ROOT));
+        catalogService.addResponse(getCatalogResourceXml("server", CatalogServiceImpl.TEAM_FOUNDATION_SERVER_INSTANCE));
+        catalogService.addResponse(getCatalogResourceXml("collection1", CatalogServiceImpl.PROJECT_COLLECTION));
         try {
             final TeamProjectCollectionReference projectCollection = catalogService.getProjectCollection("notFound");
             Assert.fail("should not get here");
@@ -0,0 +1,122 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.context;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionPoolRegistryTest {
+    private final ConnectionPoolRegistry registry = new ConnectionPoolRegistry(10, 5, 60);
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    public void testGetConnectionManager_SharedPerServerAndCredentials() {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials("user1", "pass");
+        registry.getConnectionManager("https://server1:8080/tfs/collection1", credentials, null);
+        registry.getConnectionManager("https://SERVER1:8080/tfs/collection2", new UsernamePasswordCredentials("user1", "pass"), null);
+        Assert.assertEquals(1, registry.getPoolCount());
+        Assert.assertEquals(10, registry.getTotalStats().getMax());
+
+        registry.getConnectionManager("https://server1:8080/tfs", new UsernamePasswordCredentials("user2", "pass"), null);
+        registry.getConnectionManager("https://server1:8080/tfs", new UsernamePasswordCredentials("user1", "pass2"), null);
+        registry.getConnectionManager("https://server2:8080/tfs", credentials, null);
+        Assert.assertEquals(4, registry.getPoolCount());
+        Assert.assertEquals(40, registry.getTotalStats().getMax());
+    }
+
+    @Test
+    public void testShutdown_DoesNotClosePool() throws Exception {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials("user1", "pass");
+        final HttpClientConnectionManager manager1 = registry.getConnectionManager("http://server1", credentials, null);
+        final HttpClientConnectionManager manager2 = registry.getConnectionManager("http://server1", credentials, null);
+        manager1.shutdown();
+
+        // the pool still hands out connections to the other client
+        Assert.assertNotNull(manager2.requestConnection(new HttpRoute(new HttpHost("server1", 80)), null).get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, registry.getPoolCount());
+        Assert.assertEquals(1, registry.getTotalStats().getLeased());
+    }
+
+    @Test
+    public void testEvictIdleConnections() {
+        final ConnectionPoolRegistry noIdleRegistry = new ConnectionPoolRegistry(10, 5, 0);
+        try {
+            noIdleRegistry.getConnectionManager("http://server1", null, null).shutdown();
+            Assert.assertEquals(1, noIdleRegistry.getPoolCount());
+            noIdleRegistry.evictIdleConnections();
+            Assert.assertEquals(0, noIdleRegistry.getPoolCount());
+        } finally {
+            noIdleRegistry.shutdown();
+        }
+
+        // pools that were used recently are kept
+        registry.getConnectionManager("http://server1", null, null);
+        registry.evictIdleConnections();
+        Assert.assertEquals(1, registry.getPoolCount());
+    }
+
+    @Test
+    public void testEvictIdleConnections_PoolInUse() throws Exception {
+        final ConnectionPoolRegistry noIdleRegistry = new ConnectionPoolRegistry(10, 5, 0);
+        final ServerSocket serverSocket = new ServerSocket(0);
+        try {
+            final HttpRoute route = new HttpRoute(new HttpHost("localhost", serverSocket.getLocalPort()));
+            final HttpClientConnectionManager manager = noIdleRegistry.getConnectionManager("http://server1", null, null);
+            final HttpClientConnection connection = manager.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+            manager.connect(connection, route, 1000, new BasicHttpContext());
+            manager.routeComplete(connection, route, new BasicHttpContext());
+            manager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(1, noIdleRegistry.getTotalStats().getAvailable());
+
+            // the pool is still used by the client, so it is kept but its idle connections are closed
+            noIdleRegistry.evictIdleConnections();
+            Assert.assertEquals(1, noIdleRegistry.getPoolCount());
+            Assert.assertEquals(0, noIdleRegistry.getTotalStats().getAvailable());
+            final HttpClientConnection leased = manager.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+
+            // a pool with a leased connection is kept even when the client is done with it
+            manager.shutdown();
+            noIdleRegistry.evictIdleConnections();
+            Assert.assertEquals(1, noIdleRegistry.getPoolCount());
+
+            // once the connection is back the pool is dropped and shut down
+            manager.releaseConnection(leased, null, 0, TimeUnit.MILLISECONDS);
+            noIdleRegistry.evictIdleConnections();
+            Assert.assertEquals(0, noIdleRegistry.getPoolCount());
+            try {
+                manager.requestConnection(route, null);
+                Assert.fail("the pool should have been shut down");
+            } catch (final IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            serverSocket.close();
+            noIdleRegistry.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetKey() {
+        Assert.assertEquals("https://server:443|false", ConnectionPoolRegistry.getKey("https://Server/tfs", null, false));
+        Assert.assertEquals("http://server:8080|true", ConnectionPoolRegistry.getKey("http://server:8080", null, true));
+        Assert.assertEquals(ConnectionPoolRegistry.getKey("http://server:80/a", new UsernamePasswordCredentials("user", "pass"), false),
+                ConnectionPoolRegistry.getKey("http://server/b", new UsernamePasswordCredentials("user", "pass"), false));
+        Assert.assertNotEquals(ConnectionPoolRegistry.getKey("http://server", new UsernamePasswordCredentials("user", "pass"), false),
+                ConnectionPoolRegistry.getKey("http://server", new UsernamePasswordCredentials("user", "pass2"), false));
+    }
+}
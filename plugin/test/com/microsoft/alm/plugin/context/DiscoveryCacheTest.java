@@ -0,0 +1,170 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.context;
+
+import com.google.common.io.Files;
+import com.microsoft.alm.plugin.authentication.AuthenticationInfo;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class DiscoveryCacheTest {
+    private static final URI SERVER_URI = URI.create("http://server:8080/tfs/collection");
+    private static final long TTL = 60000L;
+    private static final long MAX_STALE = 3600000L;
+
+    private final AuthenticationInfo authenticationInfo = new AuthenticationInfo("user", "pass", SERVER_URI.toString(), "user");
+    private final String key = DiscoveryCache.getKey(DiscoveryCache.KIND_REPOSITORIES, SERVER_URI, authenticationInfo);
+    private final List<Runnable> backgroundTasks = new ArrayList<Runnable>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            backgroundTasks.add(command);
+        }
+    };
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testGet_Fresh() {
+        final DiscoveryCache cache = new DiscoveryCache(TTL, MAX_STALE, executor);
+        final MockLoader loader = new MockLoader("repo1", "repo2");
+
+        Assert.assertEquals(Arrays.asList("repo1", "repo2"), cache.get(key, SERVER_URI, String.class, loader));
+        loader.values = Collections.singletonList("repo3");
+        Assert.assertEquals(Arrays.asList("repo1", "repo2"), cache.get(key, SERVER_URI, String.class, loader));
+        Assert.assertEquals(1, loader.loadCount);
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertTrue(backgroundTasks.isEmpty());
+    }
+
+    @Test
+    public void testGet_StaleWhileRevalidate() {
+        final DiscoveryCache cache = new DiscoveryCache(0, MAX_STALE, executor);
+        final MockLoader loader = new MockLoader("repo1");
+        cache.get(key, SERVER_URI, String.class, loader);
+
+        // the stale list is returned right away and loaded again once in the background
+        loader.values = Collections.singletonList("repo2");
+        Assert.assertEquals(Collections.singletonList("repo1"), cache.get(key, SERVER_URI, String.class, loader));
+        Assert.assertEquals(Collections.singletonList("repo1"), cache.get(key, SERVER_URI, String.class, loader));
+        Assert.assertEquals(1, backgroundTasks.size());
+        Assert.assertEquals(1, loader.loadCount);
+        Assert.assertEquals(2, cache.getStaleHitCount());
+
+        runBackgroundTasks();
+        Assert.assertEquals(2, loader.loadCount);
+        Assert.assertEquals(Collections.singletonList("repo2"), cache.get(key, SERVER_URI, String.class, loader));
+    }
+
+    @Test
+    public void testGet_TooOld() {
+        final DiscoveryCache cache = new DiscoveryCache(0, 0, executor);
+        final MockLoader loader = new MockLoader("repo1");
+        cache.get(key, SERVER_URI, String.class, loader);
+
+        loader.values = Collections.singletonList("repo2");
+        Assert.assertEquals(Collections.singletonList("repo2"), cache.get(key, SERVER_URI, String.class, loader));
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testInvalidate() {
+        final DiscoveryCache cache = new DiscoveryCache(TTL, MAX_STALE, executor);
+        final MockLoader loader = new MockLoader("repo1");
+        final URI otherUri = URI.create("http://other/tfs");
+        final String otherKey = DiscoveryCache.getKey(DiscoveryCache.KIND_REPOSITORIES, otherUri, authenticationInfo);
+        cache.get(key, SERVER_URI, String.class, loader);
+        cache.get(otherKey, otherUri, String.class, loader);
+
+        cache.invalidate("HTTP://SERVER:8080/tfs");
+        cache.get(key, SERVER_URI, String.class, loader);
+        cache.get(otherKey, otherUri, String.class, loader);
+        Assert.assertEquals(3, loader.loadCount);
+    }
+
+    @Test
+    public void testInvalidate_DuringLoad() {
+        final DiscoveryCache cache = new DiscoveryCache(TTL, MAX_STALE, executor);
+        final DiscoveryCache.Loader<String> invalidatingLoader = new DiscoveryCache.Loader<String>() {
+            @Override
+            public List<String> load() {
+                cache.invalidate(SERVER_URI.toString());
+                return Collections.singletonList("repo1");
+            }
+        };
+        cache.reload(key, SERVER_URI, invalidatingLoader);
+
+        // the list loaded with the old credentials isn't kept
+        final MockLoader loader = new MockLoader("repo2");
+        Assert.assertEquals(Collections.singletonList("repo2"), cache.get(key, SERVER_URI, String.class, loader));
+        Assert.assertEquals(1, loader.loadCount);
+    }
+
+    @Test
+    public void testGetKey() {
+        Assert.assertEquals("repositories|http://server:8080/tfs/collection|user", key);
+        Assert.assertEquals(key, DiscoveryCache.getKey(DiscoveryCache.KIND_REPOSITORIES, URI.create("http://SERVER:8080/tfs/Collection/"),
+                new AuthenticationInfo("User", "pass", SERVER_URI.toString(), "user")));
+        Assert.assertEquals("projects|http://server|", DiscoveryCache.getKey(DiscoveryCache.KIND_PROJECTS, URI.create("http://server"), null));
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        final File file = new File(dir, "discovery.dat");
+        final DiscoveryCache cache = new DiscoveryCache(TTL, MAX_STALE, executor);
+        cache.load(file);
+        cache.get(key, SERVER_URI, String.class, new MockLoader("repo1", "repo2"));
+        runBackgroundTasks();
+        Assert.assertTrue(file.exists());
+
+        final DiscoveryCache loadedCache = new DiscoveryCache(TTL, MAX_STALE, executor);
+        loadedCache.load(file);
+        final MockLoader loader = new MockLoader("repo3");
+        Assert.assertEquals(Arrays.asList("repo1", "repo2"), loadedCache.get(key, SERVER_URI, String.class, loader));
+        Assert.assertEquals(0, loader.loadCount);
+    }
+
+    private void runBackgroundTasks() {
+        while (!backgroundTasks.isEmpty()) {
+            backgroundTasks.remove(0).run();
+        }
+    }
+
+    private static class MockLoader implements DiscoveryCache.Loader<String> {
+        private List<String> values;
+        private int loadCount = 0;
+
+        public MockLoader(final String... values) {
+            this.values = Arrays.asList(values);
+        }
+
+        @Override
+        public List<String> load() {
+            loadCount++;
+            return values;
+        }
+    }
+}
@@ -95,7 +95,8 @@ public class ServerContextTest extends AbstractTest {
         final ClientConfig config = RestClientHelper.getClientConfig(ServerContext.Type.TFS, info, false);
 
         final Map<String, Object> properties = config.getProperties();
-        Assert.assertEquals(3, properties.size());
+        Assert.assertEquals(4, properties.size());
+        Assert.assertNotNull(properties.get(ApacheClientProperties.CONNECTION_MANAGER));
 
         Assert.assertEquals(false, properties.get(ApacheClientProperties.PREEMPTIVE_BASIC_AUTHENTICATION));
         Assert.assertEquals(RequestEntityProcessing.BUFFERED, properties.get(ClientProperties.REQUEST_ENTITY_PROCESSING));
@@ -109,14 +110,14 @@ public class ServerContextTest extends AbstractTest {
         final ClientConfig config2 = RestClientHelper.getClientConfig(ServerContext.Type.TFS, info, true);
         final Map<String, Object> properties2 = config2.getProperties();
         //proxy setting doesn't automatically mean we need to setup ssl trust store anymore
-        Assert.assertEquals(4, properties2.size());
+        Assert.assertEquals(5, properties2.size());
         Assert.assertNotNull(properties2.get(ClientProperties.PROXY_URI));
         Assert.assertNull(properties2.get(ApacheClientProperties.SSL_CONFIG));
 
         info = new AuthenticationInfo("users1", "pass", "https://tfsonprem.test", "4display");
         final ClientConfig config3 = RestClientHelper.getClientConfig(ServerContext.Type.TFS, info, false);
         final Map<String, Object> properties3 = config3.getProperties();
-        Assert.assertEquals(4, properties3.size());
+        Assert.assertEquals(5, properties3.size());
         Assert.assertNull(properties3.get(ClientProperties.PROXY_URI));
         Assert.assertNotNull(properties3.get(ApacheClientProperties.SSL_CONFIG));
     }
@@ -3,16 +3,27 @@
 
 package com.microsoft.alm.plugin.events;
 
+import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.context.ServerContextBuilder;
 import jersey.repackaged.com.google.common.util.concurrent.SettableFuture;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 public class ServerPollingManagerTest {
+    private final ServerContext context = new ServerContextBuilder().type(ServerContext.Type.TFS).uri("http://server/tfs").build();
+
     @Test
     public void testConstructor() {
         // Make sure we can construct one with our own event manager
@@ -31,37 +42,150 @@ public class ServerPollingManagerTest {
     @Test
     public void testPolling() throws InterruptedException, ExecutionException, TimeoutException {
         final ServerEventManager eventManager = new ServerEventManager();
-        final ServerPollingManager manager = new ServerPollingManager(eventManager);
+        final MockWatermarkProvider provider = new MockWatermarkProvider(Collections.singletonList(context));
+        final ServerPollingManager manager = new ServerPollingManager(eventManager, provider);
 
         final SettableFuture<Boolean> buildChangedCalled = SettableFuture.create();
-        final SettableFuture<Boolean> witChangedCalled = SettableFuture.create();
-        final SettableFuture<Boolean> prChangedCalled = SettableFuture.create();
+        final List<ServerEvent> events = new CopyOnWriteArrayList<ServerEvent>();
         eventManager.addListener(new ServerEventListener() {
             @Override
-            public void serverChanged(final ServerEvent event, final Map<String,Object> contextMap) {
+            public void serverChanged(final ServerEvent event, final Map<String, Object> contextMap) {
+                Assert.assertEquals("pollingManager", contextMap.get("sender"));
+                events.add(event);
                 if (event == ServerEvent.BUILDS_CHANGED) {
                     buildChangedCalled.set(true);
                 }
-                if (event == ServerEvent.PULL_REQUESTS_CHANGED) {
-                    prChangedCalled.set(true);
-                }
-                if (event == ServerEvent.WORK_ITEMS_CHANGED) {
-                    witChangedCalled.set(true);
-                }
             }
         });
 
-        // Make sure the events haven't fired yet
-        Assert.assertEquals(false, buildChangedCalled.isDone());
-        Assert.assertEquals(false, prChangedCalled.isDone());
-        Assert.assertEquals(false, witChangedCalled.isDone());
-
-        // Start polling every 10 ms
+        // Start polling every 10 ms, the first poll only reads the watermarks
         manager.startPolling(10);
-        // Make sure all futures get set
+        Assert.assertTrue(provider.polled.get(1, TimeUnit.SECONDS));
+        Assert.assertTrue(events.isEmpty());
+
+        // Only the event whose watermark changed is triggered
+        provider.watermarks.put(ServerEvent.BUILDS_CHANGED, "2");
         Assert.assertEquals(true, buildChangedCalled.get(1, TimeUnit.SECONDS));
-        Assert.assertEquals(true, prChangedCalled.get(1, TimeUnit.SECONDS));
-        Assert.assertEquals(true, witChangedCalled.get(1, TimeUnit.SECONDS));
         manager.stopPolling();
+        Assert.assertEquals(Collections.singletonList(ServerEvent.BUILDS_CHANGED), events);
+    }
+
+    @Test
+    public void testCheckForChanges() {
+        final ServerContext context2 = new ServerContextBuilder().type(ServerContext.Type.TFS).uri("http://server/tfs2").build();
+        final MockWatermarkProvider provider = new MockWatermarkProvider(new ArrayList<ServerContext>(Collections.nCopies(2, context)));
+        final ServerPollingManager manager = new ServerPollingManager(new ServerEventManager(), provider);
+
+        Assert.assertTrue(manager.checkForChanges(false).isEmpty());
+        // contexts sharing the same data are only checked once
+        Assert.assertEquals(3, provider.requestCount);
+
+        provider.watermarks.put(ServerEvent.PULL_REQUESTS_CHANGED, "2");
+        provider.watermarks.put(ServerEvent.WORK_ITEMS_CHANGED, "2");
+        Assert.assertEquals(EnumSet.of(ServerEvent.PULL_REQUESTS_CHANGED, ServerEvent.WORK_ITEMS_CHANGED), manager.checkForChanges(false));
+        Assert.assertTrue(manager.checkForChanges(false).isEmpty());
+
+        // a new context doesn't trigger anything the first time
+        provider.contexts.add(context2);
+        Assert.assertTrue(manager.checkForChanges(false).isEmpty());
+    }
+
+    @Test
+    public void testCheckForChanges_NewKeysChanged() {
+        final MockWatermarkProvider provider = new MockWatermarkProvider(Collections.singletonList(context));
+        final ServerPollingManager manager = new ServerPollingManager(new ServerEventManager(), provider);
+
+        // when the watermarks weren't read before the listeners loaded, every event is triggered once
+        Assert.assertEquals(EnumSet.of(ServerEvent.PULL_REQUESTS_CHANGED, ServerEvent.WORK_ITEMS_CHANGED,
+                ServerEvent.BUILDS_CHANGED), manager.checkForChanges(true));
+        Assert.assertTrue(manager.checkForChanges(true).isEmpty());
+    }
+
+    @Test
+    public void testStartPolling_ChangedBeforeFirstPoll() throws InterruptedException {
+        final MockWatermarkProvider provider = new MockWatermarkProvider(Collections.singletonList(context));
+        final ServerPollingManager manager = new ServerPollingManager(new ServerEventManager(), provider);
+
+        // the watermarks are read when polling starts, long before the first poll
+        manager.startPolling(60 * 60 * 1000);
+        try {
+            final long deadline = System.currentTimeMillis() + 1000;
+            while (provider.requestCount < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(3, provider.requestCount);
+        } finally {
+            manager.stopPolling();
+        }
+    }
+
+    @Test
+    public void testCheckForChanges_Failed() {
+        final MockWatermarkProvider provider = new MockWatermarkProvider(Collections.singletonList(context));
+        final ServerPollingManager manager = new ServerPollingManager(new ServerEventManager(), provider);
+        manager.checkForChanges(false);
+
+        provider.fail = true;
+        Assert.assertNull(manager.checkForChanges(false));
+
+        // the watermarks are kept while the server can't be reached
+        provider.fail = false;
+        provider.watermarks.put(ServerEvent.BUILDS_CHANGED, "2");
+        Assert.assertEquals(EnumSet.of(ServerEvent.BUILDS_CHANGED), manager.checkForChanges(false));
+    }
+
+    @Test
+    public void testSetActive() throws InterruptedException {
+        final MockWatermarkProvider provider = new MockWatermarkProvider(Collections.singletonList(context));
+        final ServerPollingManager manager = new ServerPollingManager(new ServerEventManager(), provider);
+
+        manager.setActive(false);
+        manager.startPolling(10);
+        Thread.sleep(100);
+        Assert.assertEquals(0, provider.requestCount);
+
+        manager.setActive(true);
+        try {
+            Assert.assertTrue(provider.polled.get(1, TimeUnit.SECONDS));
+        } catch (final Exception e) {
+            Assert.fail("polling should resume once active");
+        } finally {
+            manager.stopPolling();
+        }
+    }
+
+    private static class MockWatermarkProvider implements ServerPollingManager.WatermarkProvider {
+        private final List<ServerContext> contexts;
+        private final Map<ServerEvent, String> watermarks = new ConcurrentHashMap<ServerEvent, String>();
+        private final SettableFuture<Boolean> polled = SettableFuture.create();
+        private volatile int requestCount = 0;
+        private volatile boolean fail = false;
+
+        public MockWatermarkProvider(final List<ServerContext> contexts) {
+            this.contexts = new CopyOnWriteArrayList<ServerContext>(contexts);
+            for (final ServerEvent event : ServerEvent.values()) {
+                watermarks.put(event, "1");
+            }
+        }
+
+        @Override
+        public Collection<ServerContext> getContexts() {
+            return contexts;
+        }
+
+        @Override
+        public String getKey(final ServerContext context, final ServerEvent event) {
+            return context.getUri().toString();
+        }
+
+        @Override
+        public String getWatermark(final ServerContext context, final ServerEvent event) {
+            requestCount++;
+            if (fail) {
+                throw new IllegalStateException("server unavailable");
+            }
+            polled.set(true);
+            return watermarks.get(event);
+        }
     }
 }
@@ -0,0 +1,162 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external;
+
+import com.microsoft.alm.plugin.external.models.ToolVersion;
+import com.microsoft.alm.plugin.external.tools.TfTool;
+import com.microsoft.alm.plugin.external.utils.ProcessHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ProcessHelper.class, TfTool.class})
+public class ToolRunnerCacheTest {
+    private static final String TOOL_LOCATION = "/path/tf";
+
+    private final List<Process> processes = new ArrayList<Process>();
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMockito.mockStatic(TfTool.class);
+        when(TfTool.getCachedVersion()).thenReturn(new ToolVersion("14.0.3"));
+
+        PowerMockito.mockStatic(ProcessHelper.class);
+        when(ProcessHelper.startProcess(anyString(), anyList())).thenAnswer(new Answer<Process>() {
+            @Override
+            public Process answer(InvocationOnMock invocation) throws Throwable {
+                final Process process = createRunningProcess();
+                processes.add(process);
+                return process;
+            }
+        });
+
+        ToolRunnerCache.clear();
+        ToolRunnerCache.resetStatistics();
+    }
+
+    @After
+    public void tearDown() {
+        ToolRunnerCache.clear();
+        System.clearProperty(ToolRunnerCache.PROP_MAX_PROCESSES);
+        System.clearProperty(ToolRunnerCache.PROP_IDLE_TIMEOUT_SECONDS);
+    }
+
+    @Test
+    public void testMissThenHit() {
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir1"), new MockListener());
+        Assert.assertEquals(0, ToolRunnerCache.getHitCount());
+        Assert.assertEquals(1, ToolRunnerCache.getMissCount());
+        Assert.assertEquals(2, ToolRunnerCache.getSpawnCount());
+        Assert.assertEquals(1, ToolRunnerCache.getWarmRunnerCount());
+
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir1"), new MockListener());
+        Assert.assertEquals(1, ToolRunnerCache.getHitCount());
+        Assert.assertEquals(1, ToolRunnerCache.getMissCount());
+        Assert.assertEquals(3, ToolRunnerCache.getSpawnCount());
+        Assert.assertEquals(1, ToolRunnerCache.getWarmRunnerCount());
+    }
+
+    @Test
+    public void testDeadRunnerIsDiscarded() {
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir1"), new MockListener());
+
+        // Make the warm process look like it exited
+        Mockito.doReturn(1).when(processes.get(1)).exitValue();
+
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir1"), new MockListener());
+        Assert.assertEquals(0, ToolRunnerCache.getHitCount());
+        Assert.assertEquals(2, ToolRunnerCache.getMissCount());
+        Assert.assertEquals(1, ToolRunnerCache.getDiscardCount());
+    }
+
+    @Test
+    public void testGlobalCapEvictsLeastRecentlyUsed() {
+        System.setProperty(ToolRunnerCache.PROP_MAX_PROCESSES, "2");
+
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir1"), new MockListener());
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir2"), new MockListener());
+        Assert.assertEquals(2, ToolRunnerCache.getWarmRunnerCount());
+        Assert.assertEquals(0, ToolRunnerCache.getEvictionCount());
+
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir3"), new MockListener());
+        Assert.assertEquals(2, ToolRunnerCache.getWarmRunnerCount());
+        Assert.assertEquals(1, ToolRunnerCache.getEvictionCount());
+
+        // dir1 was the least recently used so its runner should be gone
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir1"), new MockListener());
+        Assert.assertEquals(4, ToolRunnerCache.getMissCount());
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir3"), new MockListener());
+        Assert.assertEquals(1, ToolRunnerCache.getHitCount());
+    }
+
+    @Test
+    public void testIdleRunnersAreEvicted() throws Exception {
+        System.setProperty(ToolRunnerCache.PROP_IDLE_TIMEOUT_SECONDS, "1");
+
+        ToolRunnerCache.getRunningToolRunner(TOOL_LOCATION, getArguments("/dir1"), new MockListener());
+        Assert.assertEquals(1, ToolRunnerCache.getWarmRunnerCount());
+
+        Thread.sleep(1100);
+        ToolRunnerCache.evictIdleRunners();
+        Assert.assertEquals(0, ToolRunnerCache.getWarmRunnerCount());
+        Assert.assertEquals(1, ToolRunnerCache.getEvictionCount());
+    }
+
+    private ToolRunner.ArgumentBuilder getArguments(final String workingDirectory) {
+        return new ToolRunner.ArgumentBuilder().setWorkingDirectory(workingDirectory).add("status");
+    }
+
+    private Process createRunningProcess() throws Exception {
+        final Process process = Mockito.mock(Process.class);
+        when(process.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(process.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(process.exitValue()).thenThrow(new IllegalThreadStateException());
+        when(process.waitFor()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                // Block until the runner is disposed
+                Thread.sleep(Long.MAX_VALUE);
+                return 0;
+            }
+        });
+        return process;
+    }
+
+    private static class MockListener implements ToolRunner.Listener {
+        @Override
+        public void processStandardOutput(final String line) {
+        }
+
+        @Override
+        public void processStandardError(final String line) {
+        }
+
+        @Override
+        public void processException(final Throwable throwable) {
+        }
+
+        @Override
+        public void completed(final int returnCode) {
+        }
+    }
+}
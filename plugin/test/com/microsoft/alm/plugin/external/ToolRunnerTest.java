@@ -0,0 +1,106 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external;
+
+import com.microsoft.alm.plugin.external.utils.ProcessHelper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ProcessHelper.class})
+public class ToolRunnerTest {
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMockito.mockStatic(ProcessHelper.class);
+        when(ProcessHelper.startProcess(anyString(), anyList())).thenAnswer(new Answer<Process>() {
+            @Override
+            public Process answer(InvocationOnMock invocation) throws Throwable {
+                return createCompletedProcess();
+            }
+        });
+    }
+
+    @Test
+    public void testThreadsAreReused() throws Exception {
+        final long overflowTaskCount = ToolRunner.getOverflowTaskCount();
+        runToCompletion();
+        final int threadCount = ToolRunner.getIoThreadCount();
+
+        for (int i = 0; i < 5; i++) {
+            runToCompletion();
+        }
+        // A single process never needs more than three threads, so running one after the other shouldn't add any
+        Assert.assertTrue(ToolRunner.getIoThreadCount() <= Math.max(threadCount, 3));
+        Assert.assertEquals(overflowTaskCount, ToolRunner.getOverflowTaskCount());
+    }
+
+    @Test
+    public void testActiveProcessCount() throws Exception {
+        final int activeProcessCount = ToolRunner.getActiveProcessCount();
+        final ToolRunner runner = runToCompletion();
+        Assert.assertEquals(activeProcessCount, ToolRunner.getActiveProcessCount());
+        runner.dispose();
+        Assert.assertEquals(activeProcessCount, ToolRunner.getActiveProcessCount());
+    }
+
+    private ToolRunner runToCompletion() throws Exception {
+        final CountDownLatch completed = new CountDownLatch(1);
+        final ToolRunner runner = new ToolRunner("/path/tf", null);
+        runner.addListener(new ToolRunner.Listener() {
+            @Override
+            public void processStandardOutput(final String line) {
+                Assert.assertTrue(Thread.currentThread().getName().startsWith("ToolRunner-io-"));
+            }
+
+            @Override
+            public void processStandardError(final String line) {
+            }
+
+            @Override
+            public void processException(final Throwable throwable) {
+            }
+
+            @Override
+            public void completed(final int returnCode) {
+                completed.countDown();
+            }
+        });
+        runner.start(new ToolRunner.ArgumentBuilder().add("status"));
+        Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+
+        // The callback is made before the waiter task ends, so give the threads a moment to become idle
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (ToolRunner.getActiveIoThreadCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, ToolRunner.getActiveIoThreadCount());
+        return runner;
+    }
+
+    private Process createCompletedProcess() throws Exception {
+        final Process process = Mockito.mock(Process.class);
+        when(process.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream("output\n".getBytes()));
+        when(process.waitFor()).thenReturn(0);
+        when(process.exitValue()).thenReturn(0);
+        return process;
+    }
+}
@@ -4,7 +4,9 @@
 package com.microsoft.alm.plugin.external.commands;
 
 import com.microsoft.alm.plugin.context.ServerContext;
+import com.microsoft.alm.plugin.external.exceptions.ToolCancelledException;
 import com.microsoft.alm.plugin.external.exceptions.ToolMemoryException;
+import com.microsoft.alm.plugin.external.exceptions.ToolTimeoutException;
 import com.microsoft.alm.plugin.external.tools.TfTool;
 import com.microsoft.alm.plugin.external.utils.ProcessHelper;
 import org.apache.commons.lang.StringUtils;
@@ -20,7 +22,10 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyList;
@@ -84,6 +89,139 @@ public class CommandTest extends AbstractCommandTest {
     }
 
 
+    /**
+     * This test makes sure that cancelling a command kills the process and reports the cancellation.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCancel() throws Exception {
+        PowerMockito.mockStatic(TfTool.class);
+        when(TfTool.getValidLocation()).thenReturn("/path/tf_home");
+
+        final CountDownLatch destroyed = new CountDownLatch(1);
+        final CountDownLatch outputRead = new CountDownLatch(1);
+        mockHangingProcess(destroyed, outputRead);
+
+        final MyCommand cmd = new MyCommand(null);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    outputRead.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cmd.cancel();
+            }
+        }.start();
+
+        try {
+            cmd.runSynchronously();
+            Assert.fail("The command should have been cancelled");
+        } catch (ToolCancelledException e) {
+            // expected
+        }
+        assertTrue(destroyed.await(0, TimeUnit.SECONDS));
+        assertTrue(cmd.isCancelled());
+    }
+
+    /**
+     * This test makes sure that a command that runs past its deadline is killed and reports the timeout.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        PowerMockito.mockStatic(TfTool.class);
+        when(TfTool.getValidLocation()).thenReturn("/path/tf_home");
+
+        final CountDownLatch destroyed = new CountDownLatch(1);
+        mockHangingProcess(destroyed, new CountDownLatch(1));
+
+        final long timeoutCount = Command.getTimeoutCount();
+        final MyCommand cmd = new MyCommand(null);
+        cmd.setTimeout(200, TimeUnit.MILLISECONDS);
+        assertEquals(200, cmd.getTimeoutMilliseconds());
+        try {
+            cmd.runSynchronously();
+            Assert.fail("The command should have timed out");
+        } catch (ToolTimeoutException e) {
+            // expected
+        }
+        assertTrue(destroyed.await(0, TimeUnit.SECONDS));
+        assertTrue(cmd.isTimedOut());
+        assertEquals(timeoutCount + 1, Command.getTimeoutCount());
+    }
+
+    @Test
+    public void testGetTimeoutMilliseconds() {
+        final MyCommand cmd = new MyCommand(null);
+        // commands have no deadline unless they opt in
+        assertEquals(0, cmd.getTimeoutMilliseconds());
+        cmd.setTimeout(5, TimeUnit.MINUTES);
+        assertEquals(TimeUnit.MINUTES.toMillis(5), cmd.getTimeoutMilliseconds());
+        cmd.setTimeout(0, TimeUnit.SECONDS);
+        assertEquals(0, cmd.getTimeoutMilliseconds());
+    }
+
+    /**
+     * Makes the next process started write one line and then hang until it is destroyed
+     */
+    private void mockHangingProcess(final CountDownLatch destroyed, final CountDownLatch outputRead) throws Exception {
+        final Process proc = Mockito.mock(Process.class);
+        PowerMockito.mockStatic(ProcessHelper.class);
+        when(ProcessHelper.startProcess(anyString(), anyList())).thenReturn(proc);
+        when(proc.getErrorStream()).thenReturn(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return -1;
+            }
+        });
+        // The process writes one line and then hangs until it is killed
+        when(proc.getInputStream()).thenReturn(new InputStream() {
+            private String result = "12345\n";
+            private int index = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (index < result.length()) {
+                    return result.charAt(index++);
+                }
+                outputRead.countDown();
+                try {
+                    destroyed.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return -1;
+            }
+        });
+        when(proc.waitFor()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                destroyed.await();
+                return 1;
+            }
+        });
+        when(proc.exitValue()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                if (destroyed.getCount() > 0) {
+                    throw new IllegalThreadStateException();
+                }
+                return 1;
+            }
+        });
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                destroyed.countDown();
+                return null;
+            }
+        }).when(proc).destroy();
+    }
+
     private class MyCommand extends Command<String> {
 
         public MyCommand(ServerContext context) {
@@ -9,6 +9,9 @@ import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+
 public class DownloadCommandTest extends AbstractCommandTest {
     @After
     public void cleanUp() {
@@ -53,5 +56,30 @@ public class DownloadCommandTest extends AbstractCommandTest {
         Assert.assertEquals("print -noprompt /path/localfile.txt -version:12", builder.toString());
     }
 
+    @Test
+    public void testParseOutput_fileNotFound() throws IOException {
+        final File destination = File.createTempFile("download", ".tmp");
+        try {
+            final DownloadCommand cmd = new DownloadCommand(context, "/path/localfile.txt", 12, destination.getPath(), true);
+            // an empty file is written, but null tells the caller that the file wasn't found
+            Assert.assertNull(cmd.parseOutput("", "The specified file does not exist at the specified version."));
+            Assert.assertEquals(0, destination.length());
+        } finally {
+            destination.delete();
+        }
+    }
+
+    @Test
+    public void testParseOutput_emptyFile() throws IOException {
+        final File destination = File.createTempFile("download", ".tmp");
+        try {
+            final DownloadCommand cmd = new DownloadCommand(context, "/path/localfile.txt", 12, destination.getPath(), true);
+            Assert.assertEquals(destination.getPath(), cmd.parseOutput("", ""));
+            Assert.assertEquals(0, destination.length());
+        } finally {
+            destination.delete();
+        }
+    }
+
     // TODO Need to mock the File usage in the parseOutput method so we can add more Unit tests
 }
@@ -0,0 +1,75 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.parsers;
+
+import com.microsoft.alm.plugin.external.models.ChangeSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HistoryOutputParserTest {
+    private final List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
+    private final OutputParser.ItemHandler<ChangeSet> collector = new OutputParser.ItemHandler<ChangeSet>() {
+        @Override
+        public void onItem(final ChangeSet item) {
+            changeSets.add(item);
+        }
+    };
+
+    @Test
+    public void testNoOutput() {
+        final HistoryOutputParser parser = new HistoryOutputParser(collector);
+        parser.finish();
+        Assert.assertEquals(0, changeSets.size());
+    }
+
+    @Test
+    public void testChangeSets() {
+        final HistoryOutputParser parser = new HistoryOutputParser(collector);
+        parser.processLine("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        parser.processLine("<history>");
+        parser.processLine("<changeset id=\"4\" owner=\"john\" committer=\"john\" date=\"2016-06-07T11:18:18.790-0400\">");
+        parser.processLine("<comment>add readme</comment>");
+        parser.processLine("<item change-type=\"add\" server-item=\"$/tfs01/readme.txt\"/>");
+        parser.processLine("</changeset>");
+        parser.processLine("<changeset id=\"3\" owner=\"jeff\" committer=\"jeff\" date=\"2016-06-07T11:13:51.747-0400\">");
+        parser.processLine("<comment>initial checkin");
+        parser.processLine("second line &amp; more</comment>");
+        parser.processLine("<item change-type=\"add\" server-item=\"$/tfs01/com.microsoft.core\"/>");
+        parser.processLine("<item change-type=\"add\" server-item=\"$/tfs01/com.microsoft.core/.classpath\"/>");
+        parser.processLine("</changeset>");
+        parser.processLine("<changeset id=\"2\" owner=\"jeff\" committer=\"jeff\" date=\"2016-06-07T11:13:51.747-0400\">");
+        parser.processLine("<item change-type=\"delete\" server-item=\"$/tfs01/old.txt\"/>");
+        parser.processLine("</changeset>");
+        parser.processLine("</history>");
+        parser.finish();
+
+        Assert.assertEquals(3, changeSets.size());
+        Assert.assertEquals("4", changeSets.get(0).getId());
+        Assert.assertEquals("john", changeSets.get(0).getOwner());
+        Assert.assertEquals("john", changeSets.get(0).getCommitter());
+        Assert.assertEquals("add readme", changeSets.get(0).getComment());
+        Assert.assertEquals("2016-06-07T11:18:18.790-0400", changeSets.get(0).getDate());
+        Assert.assertEquals(1, changeSets.get(0).getChanges().size());
+        Assert.assertEquals("$/tfs01/readme.txt", changeSets.get(0).getChanges().get(0).getServerItem());
+        Assert.assertEquals("3", changeSets.get(1).getId());
+        Assert.assertEquals("initial checkin\nsecond line & more", changeSets.get(1).getComment());
+        Assert.assertEquals(2, changeSets.get(1).getChanges().size());
+        Assert.assertEquals("", changeSets.get(2).getComment());
+        Assert.assertEquals(1, changeSets.get(2).getChanges().size());
+    }
+
+    @Test
+    public void testCancel() {
+        final HistoryOutputParser parser = new HistoryOutputParser(collector);
+        parser.processLine("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        parser.processLine("<history>");
+        parser.cancel();
+        parser.processLine("<changeset id=\"4\" owner=\"john\" committer=\"john\" date=\"2016-06-07T11:18:18.790-0400\">");
+        parser.processLine("</changeset>");
+        Assert.assertEquals(0, changeSets.size());
+    }
+}
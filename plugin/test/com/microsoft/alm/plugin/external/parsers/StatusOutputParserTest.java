@@ -0,0 +1,141 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.parsers;
+
+import com.microsoft.alm.plugin.external.exceptions.ToolParseFailureException;
+import com.microsoft.alm.plugin.external.models.PendingChange;
+import com.microsoft.alm.plugin.external.models.ServerStatusType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class StatusOutputParserTest {
+    private final List<PendingChange> changes = new ArrayList<PendingChange>();
+    private final OutputParser.ItemHandler<PendingChange> collector = new OutputParser.ItemHandler<PendingChange>() {
+        @Override
+        public void onItem(final PendingChange item) {
+            changes.add(item);
+        }
+    };
+
+    @Test
+    public void testNoOutput() {
+        final StatusOutputParser parser = new StatusOutputParser(collector);
+        parser.finish();
+        Assert.assertEquals(0, changes.size());
+    }
+
+    @Test
+    public void testCandidateAndPendingChanges() {
+        final StatusOutputParser parser = new StatusOutputParser(collector);
+        parser.processLine("WARN -- Unable to construct Telemetry Client");
+        parser.processLine("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        parser.processLine("<status>");
+        parser.processLine("<pending-changes>");
+        parser.processLine("<pending-change server-item=\"$/tfsTest_01/one.txt\" version=\"8\" owner=\"jason\" date=\"2016-07-13T12:36:51.060-0400\" lock=\"none\" change-type=\"edit\" workspace=\"MyNewWorkspace2\" computer=\"machine\" local-item=\"/path/path/one.txt\"/>");
+        parser.processLine("</pending-changes>");
+        parser.processLine("<candidate-pending-changes>");
+        parser.processLine("<pending-change server-item=\"$/tfsTest_01/test.txt\" version=\"0\" owner=\"jason\" date=\"2016-07-13T12:36:51.060-0400\" lock=\"none\" change-type=\"add\" workspace=\"MyNewWorkspace2\" computer=\"machine\" local-item=\"/path/path/text.txt\" source-item=\"$/tfsTest_01/old.txt\"/>");
+        parser.processLine("</candidate-pending-changes>");
+        parser.processLine("</status>");
+        parser.finish();
+
+        Assert.assertEquals(2, changes.size());
+        Assert.assertEquals("$/tfsTest_01/one.txt", changes.get(0).getServerItem());
+        Assert.assertEquals(ServerStatusType.EDIT, changes.get(0).getChangeTypes().get(0));
+        Assert.assertFalse(changes.get(0).isCandidate());
+        Assert.assertEquals("", changes.get(0).getSourceItem());
+        Assert.assertEquals("/path/path/text.txt", changes.get(1).getLocalItem());
+        Assert.assertEquals(ServerStatusType.ADD, changes.get(1).getChangeTypes().get(0));
+        Assert.assertEquals("2016-07-13T12:36:51.060-0400", changes.get(1).getDate());
+        Assert.assertTrue(changes.get(1).isCandidate());
+        Assert.assertEquals("$/tfsTest_01/old.txt", changes.get(1).getSourceItem());
+    }
+
+    @Test
+    public void testItemsAreEmittedBeforeFinish() throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        final StatusOutputParser parser = new StatusOutputParser(new OutputParser.ItemHandler<PendingChange>() {
+            @Override
+            public void onItem(final PendingChange item) {
+                received.countDown();
+            }
+        });
+        parser.processLine("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        parser.processLine("<status>");
+        parser.processLine("<pending-changes>");
+        parser.processLine("<pending-change server-item=\"$/a.txt\" change-type=\"edit\" local-item=\"/a.txt\"/>");
+        parser.processLine("<pending-change server-item=\"$/b.txt\" change-type=\"edit\" local-item=\"/b.txt\"/>");
+
+        Assert.assertTrue(received.await(10, TimeUnit.SECONDS));
+        parser.cancel();
+    }
+
+    @Test
+    public void testMoreOutputsThanParserThreads() throws Exception {
+        // the outputs that don't get a parser thread wait for one instead of buffering their lines
+        final List<Thread> producers = new ArrayList<Thread>();
+        final CountDownLatch started = new CountDownLatch(10);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 10; i++) {
+            final StatusOutputParser parser = new StatusOutputParser(new OutputParser.ItemHandler<PendingChange>() {
+                @Override
+                public void onItem(final PendingChange item) {
+                    synchronized (changes) {
+                        changes.add(item);
+                    }
+                }
+            });
+            final Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    parser.processLine("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+                    parser.processLine("<status>");
+                    parser.processLine("<pending-changes>");
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    parser.processLine("<pending-change server-item=\"$/a.txt\" change-type=\"edit\" local-item=\"/a.txt\"/>");
+                    parser.processLine("</pending-changes>");
+                    parser.processLine("</status>");
+                    parser.finish();
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        for (final Thread producer : producers) {
+            producer.join(TimeUnit.SECONDS.toMillis(10));
+            Assert.assertFalse(producer.isAlive());
+        }
+        Assert.assertEquals(10, changes.size());
+    }
+
+    @Test(expected = ToolParseFailureException.class)
+    public void testMalformedXml() {
+        final StatusOutputParser parser = new StatusOutputParser(collector);
+        parser.processLine("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        parser.processLine("<status>");
+        parser.processLine("<pending-changes>");
+        parser.processLine("</status>");
+        parser.finish();
+    }
+
+    @Test(expected = ToolParseFailureException.class)
+    public void testNotXml() {
+        final StatusOutputParser parser = new StatusOutputParser(collector);
+        parser.processLine("/path/path");
+        parser.finish();
+    }
+}
@@ -0,0 +1,59 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class BatchHelperTest {
+    @Test
+    public void testSplitIntoBatches_empty() {
+        Assert.assertTrue(BatchHelper.splitIntoBatches(Collections.<String>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testSplitIntoBatches_singleBatch() {
+        final List<String> arguments = Arrays.asList("/path/one", "/path/two", "/path/three");
+        final List<List<String>> batches = BatchHelper.splitIntoBatches(arguments);
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(arguments, batches.get(0));
+    }
+
+    @Test
+    public void testSplitIntoBatches_bySize() {
+        final List<String> arguments = new ArrayList<String>();
+        for (int i = 0; i < 7; i++) {
+            arguments.add("/path/" + i);
+        }
+
+        final List<List<String>> batches = BatchHelper.splitIntoBatches(arguments, 1000, 3);
+        Assert.assertEquals(3, batches.size());
+        Assert.assertEquals(Arrays.asList("/path/0", "/path/1", "/path/2"), batches.get(0));
+        Assert.assertEquals(Arrays.asList("/path/3", "/path/4", "/path/5"), batches.get(1));
+        Assert.assertEquals(Arrays.asList("/path/6"), batches.get(2));
+    }
+
+    @Test
+    public void testSplitIntoBatches_byLength() {
+        // each argument counts as 10 characters (7 + 3 for quotes and separator)
+        final List<String> arguments = Arrays.asList("/path/0", "/path/1", "/path/2", "/path/3");
+        final List<List<String>> batches = BatchHelper.splitIntoBatches(arguments, 25, 100);
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(Arrays.asList("/path/0", "/path/1"), batches.get(0));
+        Assert.assertEquals(Arrays.asList("/path/2", "/path/3"), batches.get(1));
+    }
+
+    @Test
+    public void testSplitIntoBatches_longArgument() {
+        final List<String> arguments = Arrays.asList("/a", "/a/very/long/path/that/does/not/fit", "/b");
+        final List<List<String>> batches = BatchHelper.splitIntoBatches(arguments, 10, 100);
+        Assert.assertEquals(3, batches.size());
+        Assert.assertEquals(Arrays.asList("/a/very/long/path/that/does/not/fit"), batches.get(1));
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.utils;
+
+import com.microsoft.alm.plugin.external.commands.StatusCommand;
+import com.microsoft.alm.plugin.external.exceptions.ToolBadExitCodeException;
+import com.microsoft.alm.plugin.external.models.PendingChange;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({CommandUtils.class})
+public class CommandUtilsTest {
+    private static final String BAD_FILE = "/path/bad.txt";
+
+    // The files passed to each status command that was run
+    private final List<List<String>> statusCalls = new ArrayList<List<String>>();
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMockito.whenNew(StatusCommand.class).withAnyArguments().thenAnswer(new Answer<StatusCommand>() {
+            @Override
+            public StatusCommand answer(final InvocationOnMock invocation) throws Throwable {
+                final List<String> files = new ArrayList<String>((List<String>) invocation.getArguments()[1]);
+                statusCalls.add(files);
+                final StatusCommand command = Mockito.mock(StatusCommand.class);
+                if (files.contains(BAD_FILE)) {
+                    when(command.runSynchronously()).thenThrow(new ToolBadExitCodeException(100));
+                } else {
+                    final List<PendingChange> changes = new ArrayList<PendingChange>();
+                    for (final String file : files) {
+                        changes.add(createChange(file, false));
+                    }
+                    when(command.runSynchronously()).thenReturn(changes);
+                }
+                return command;
+            }
+        });
+    }
+
+    @Test
+    public void testGetStatusForFilesInBatches() {
+        final List<String> files = createFiles(BatchHelper.MAX_BATCH_SIZE * 2 + 10);
+
+        final List<PendingChange> changes = CommandUtils.getStatusForFilesInBatches(null, files);
+
+        assertEquals(3, statusCalls.size());
+        assertEquals(files.size(), changes.size());
+        assertEquals(files.get(0), changes.get(0).getLocalItem());
+        assertEquals(files.get(files.size() - 1), changes.get(changes.size() - 1).getLocalItem());
+    }
+
+    @Test
+    public void testGetStatusForFilesInBatches_FailedBatchSplit() {
+        final List<String> files = createFiles(BatchHelper.MAX_BATCH_SIZE * 2 + 10);
+        files.set(BatchHelper.MAX_BATCH_SIZE + 7, BAD_FILE);
+        final List<String> failedFiles = new ArrayList<String>();
+
+        final List<PendingChange> changes = CommandUtils.getStatusForFilesInBatches(null, files, failedFiles);
+
+        assertEquals(Collections.singletonList(BAD_FILE), failedFiles);
+        assertEquals(files.size() - 1, changes.size());
+        // the batches that worked are read once and the failed one is split instead of reading each file
+        assertEquals(1, countCallsWith(files.get(0)));
+        assertEquals(1, countCallsWith(files.get(files.size() - 1)));
+        assertTrue(statusCalls.size() < 25);
+    }
+
+    @Test
+    public void testGetStatusForFilesInBatches_FailureThrown() {
+        try {
+            CommandUtils.getStatusForFilesInBatches(null, Arrays.asList("/path/file.txt", BAD_FILE));
+            fail("the failure should have been thrown");
+        } catch (final ToolBadExitCodeException e) {
+            assertEquals(1, statusCalls.size());
+        }
+    }
+
+    @Test
+    public void testGetStatusForFilesInBatches_Candidates() throws Exception {
+        final StatusCommand command = Mockito.mock(StatusCommand.class);
+        when(command.runSynchronously()).thenReturn(Arrays.asList(
+                createChange("/path/file.txt", false), createChange("/path/file.txt", true)));
+        PowerMockito.whenNew(StatusCommand.class).withAnyArguments().thenReturn(command);
+
+        // a file with both a versioned and an unversioned change keeps both
+        assertEquals(2, CommandUtils.getStatusForFilesInBatches(null, Collections.singletonList("/path/file.txt")).size());
+    }
+
+    private int countCallsWith(final String file) {
+        int count = 0;
+        for (final List<String> call : statusCalls) {
+            if (call.contains(file)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<String> createFiles(final int count) {
+        final List<String> files = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            files.add("/path/file" + i + ".txt");
+        }
+        return files;
+    }
+
+    private static PendingChange createChange(final String localItem, final boolean isCandidate) {
+        return new PendingChange("$/project" + localItem, localItem, "1", "owner", "date", "none", "edit",
+                "workspace", "computer", isCandidate, "");
+    }
+}
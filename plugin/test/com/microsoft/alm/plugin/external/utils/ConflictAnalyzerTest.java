@@ -0,0 +1,183 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.external.utils;
+
+import com.microsoft.alm.plugin.external.models.ChangeSet;
+import com.microsoft.alm.plugin.external.models.CheckedInChange;
+import com.microsoft.alm.plugin.external.models.Conflict;
+import com.microsoft.alm.plugin.external.models.ConflictResults;
+import com.microsoft.alm.plugin.external.models.ItemInfo;
+import com.microsoft.alm.plugin.external.models.MergeConflict;
+import com.microsoft.alm.plugin.external.models.MergeMapping;
+import com.microsoft.alm.plugin.external.models.MergeResults;
+import com.microsoft.alm.plugin.external.models.PendingChange;
+import com.microsoft.alm.plugin.external.models.RenameConflict;
+import com.microsoft.alm.plugin.external.models.ServerStatusType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ConflictAnalyzerTest {
+    private static final String ROOT = "/path/root";
+
+    @Test
+    public void testAnalyze_Renames() {
+        final MockConflictAnalyzer analyzer = new MockConflictAnalyzer(null);
+        analyzer.histories.put("$/project/new1.txt", createRenameHistory("$/project/new1.txt", "$/project/old1.txt"));
+        analyzer.histories.put("$/project/new2.txt", createRenameHistory("$/project/new2.txt", "$/project/old2.txt"));
+        analyzer.status.add(createRename("/path/root/local1.txt", "$/project/old1.txt"));
+        analyzer.status.add(createRename("/path/root/local2.txt", "$/Project/OLD2.txt"));
+
+        final Conflict content = new Conflict("/path/root/content.txt", Conflict.ConflictType.CONTENT);
+        final List<Conflict> conflicts = analyzer.analyze(Arrays.asList(
+                new Conflict("$/project/new1.txt", Conflict.ConflictType.RENAME),
+                content,
+                new Conflict("$/project/new2.txt", Conflict.ConflictType.NAME_AND_CONTENT)));
+
+        Assert.assertEquals(3, conflicts.size());
+        final RenameConflict rename1 = (RenameConflict) conflicts.get(0);
+        Assert.assertEquals("/path/root/local1.txt", rename1.getLocalPath());
+        Assert.assertEquals("$/project/old1.txt", rename1.getOldPath());
+        Assert.assertSame(content, conflicts.get(1));
+        Assert.assertEquals("/path/root/local2.txt", conflicts.get(2).getLocalPath());
+
+        // the status is only read once for all of the conflicts
+        Assert.assertEquals(1, analyzer.statusCount);
+        Assert.assertEquals(2, analyzer.historyCount);
+    }
+
+    @Test
+    public void testAnalyze_RenameSearchesAllHistory() {
+        final MockConflictAnalyzer analyzer = new MockConflictAnalyzer(null);
+        analyzer.fullHistories.put("$/project/new.txt", createRenameHistory("$/project/new.txt", "$/project/old.txt"));
+        analyzer.status.add(createRename("/path/root/local.txt", "$/project/old.txt"));
+
+        final List<Conflict> conflicts = analyzer.analyze(Collections.singletonList(
+                new Conflict("$/project/new.txt", Conflict.ConflictType.RENAME)));
+        Assert.assertEquals(1, conflicts.size());
+        Assert.assertEquals("$/project/old.txt", ((RenameConflict) conflicts.get(0)).getOldPath());
+        Assert.assertEquals(2, analyzer.historyCount);
+    }
+
+    @Test
+    public void testAnalyze_MergeConflicts() {
+        final MergeMapping mapping1 = createMapping("$/source/file1.txt", "$/target/file1.txt", ServerStatusType.EDIT);
+        final MergeMapping mapping2 = createMapping("$/source/file2.txt", "$/target/file2.txt", ServerStatusType.EDIT);
+        final MockConflictAnalyzer analyzer = new MockConflictAnalyzer(new MergeResults(
+                Arrays.asList(mapping1, mapping2), Collections.<String>emptyList(), Collections.<String>emptyList()));
+        analyzer.infos.add(createInfo("$/target/file1.txt", "/path/root/file1.txt"));
+        analyzer.infos.add(createInfo("$/target/file2.txt", "/path/root/file2.txt"));
+
+        final List<Conflict> conflicts = analyzer.analyze(Arrays.asList(
+                new Conflict("/path/root/file2.txt", Conflict.ConflictType.MERGE),
+                new Conflict("/path/root/file1.txt", Conflict.ConflictType.MERGE)));
+
+        Assert.assertEquals(2, conflicts.size());
+        Assert.assertSame(mapping2, ((MergeConflict) conflicts.get(0)).getMapping());
+        Assert.assertSame(mapping1, ((MergeConflict) conflicts.get(1)).getMapping());
+        // the item info of all of the conflicts is read at once
+        Assert.assertEquals(1, analyzer.infoCount);
+    }
+
+    @Test
+    public void testAnalyze_RenameOnBothSides() {
+        final MergeMapping edit = createMapping("$/source/edit.txt", "$/target/edit.txt", ServerStatusType.EDIT);
+        final MergeMapping rename = createMapping("$/source/renamed.txt", "$/target/renamed.txt", ServerStatusType.RENAME);
+        final MockConflictAnalyzer analyzer = new MockConflictAnalyzer(new MergeResults(
+                Arrays.asList(edit, rename), Collections.<String>emptyList(), Collections.<String>emptyList()));
+        // the local path of the conflict doesn't exist on the server
+        analyzer.infos.add(createInfo(null, "/path/root/conflict.txt"));
+        analyzer.infos.add(createInfo("$/target/renamed.txt", "/path/root/renamed.txt"));
+        analyzer.mappingConflicts.put("$/target/renamed.txt", new Conflict("conflict.txt", Conflict.ConflictType.RENAME));
+
+        final List<Conflict> conflicts = analyzer.analyze(Collections.singletonList(
+                new Conflict("/path/root/conflict.txt", Conflict.ConflictType.RENAME)));
+
+        Assert.assertEquals(1, conflicts.size());
+        Assert.assertEquals("/path/root/renamed.txt", conflicts.get(0).getLocalPath());
+        Assert.assertSame(rename, ((MergeConflict) conflicts.get(0)).getMapping());
+        Assert.assertEquals(1, analyzer.findConflictsCount);
+    }
+
+    @Test
+    public void testAnalyze_NotFound() {
+        final MockConflictAnalyzer analyzer = new MockConflictAnalyzer(new MergeResults());
+        final List<Conflict> conflicts = analyzer.analyze(Arrays.asList(
+                new Conflict("/path/root/merge.txt", Conflict.ConflictType.MERGE),
+                new Conflict("$/project/rename.txt", Conflict.ConflictType.RENAME)));
+        Assert.assertTrue(conflicts.isEmpty());
+    }
+
+    private static List<ChangeSet> createRenameHistory(final String newName, final String oldName) {
+        return Arrays.asList(
+                new ChangeSet("2", "owner", "owner", "date", "rename", Collections.singletonList(new CheckedInChange(newName, "rename", "2", "date"))),
+                new ChangeSet("1", "owner", "owner", "date", "add", Collections.singletonList(new CheckedInChange(oldName, "add", "1", "date"))));
+    }
+
+    private static PendingChange createRename(final String localItem, final String sourceItem) {
+        return new PendingChange("$/project/" + localItem, localItem, "1", "owner", "date", "none", "rename", "workspace", "computer", false, sourceItem);
+    }
+
+    private static MergeMapping createMapping(final String from, final String to, final ServerStatusType type) {
+        return new MergeMapping(from, to, null, null, Collections.singletonList(type), true);
+    }
+
+    private static ItemInfo createInfo(final String serverItem, final String localItem) {
+        return new ItemInfo(serverItem, localItem, "1", "1", "none", "file", "none", "", "0", "", "", "1");
+    }
+
+    private static class MockConflictAnalyzer extends ConflictAnalyzer {
+        private final Map<String, List<ChangeSet>> histories = new HashMap<String, List<ChangeSet>>();
+        private final Map<String, List<ChangeSet>> fullHistories = new HashMap<String, List<ChangeSet>>();
+        private final Map<String, Conflict> mappingConflicts = new HashMap<String, Conflict>();
+        private final List<PendingChange> status = new ArrayList<PendingChange>();
+        private final List<ItemInfo> infos = new ArrayList<ItemInfo>();
+        private int statusCount = 0;
+        private int historyCount = 0;
+        private int infoCount = 0;
+        private int findConflictsCount = 0;
+
+        public MockConflictAnalyzer(final MergeResults mergeResults) {
+            super(null, ROOT, mergeResults);
+        }
+
+        @Override
+        protected ConflictResults findConflicts(final String workingFolder, final String basePath) {
+            findConflictsCount++;
+            final Conflict conflict = mappingConflicts.get(basePath);
+            return new ConflictResults(conflict != null ? Collections.singletonList(conflict) : Collections.<Conflict>emptyList());
+        }
+
+        @Override
+        protected List<PendingChange> getStatus(final String path) {
+            statusCount++;
+            return status;
+        }
+
+        @Override
+        protected List<ChangeSet> getHistory(final String itemPath, final int stopAfter) {
+            historyCount++;
+            final List<ChangeSet> history = (stopAfter < 0 ? fullHistories : histories).get(itemPath);
+            return history != null ? history : Collections.<ChangeSet>emptyList();
+        }
+
+        @Override
+        protected List<ItemInfo> getItemInfos(final List<String> itemPaths) {
+            infoCount++;
+            final List<ItemInfo> results = new ArrayList<ItemInfo>();
+            for (final ItemInfo info : infos) {
+                if (itemPaths.contains(info.getLocalItem()) || itemPaths.contains(info.getServerItem())) {
+                    results.add(info);
+                }
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.operations;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OperationExecutorTest {
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final OperationExecutor executor = new OperationExecutor(OperationExecutor.MIN_THREADS, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger workCount = new AtomicInteger();
+        final MockOperation first = new MockOperation("key", release, workCount);
+        final MockOperation second = new MockOperation("key", release, workCount);
+        final RecordingListener firstListener = new RecordingListener(first);
+        final RecordingListener secondListener = new RecordingListener(second);
+
+        executor.executeAsync(first, null);
+        Assert.assertTrue(first.started.await(1, TimeUnit.SECONDS));
+        executor.executeAsync(second, null);
+        release.countDown();
+
+        Assert.assertTrue(firstListener.completed.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(secondListener.completed.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, workCount.get());
+        Assert.assertEquals(1, executor.getCoalescedCount());
+        // the results sent before the second operation joined are replayed
+        Assert.assertEquals(Collections.singletonList("started"), secondListener.events.subList(0, 1));
+        Assert.assertEquals(firstListener.results, secondListener.results);
+        Assert.assertEquals(2, secondListener.results.size());
+    }
+
+    @Test
+    public void testCoalescing_DifferentKeys() throws Exception {
+        final OperationExecutor executor = new OperationExecutor(OperationExecutor.MIN_THREADS, 10);
+        final CountDownLatch release = new CountDownLatch(0);
+        final AtomicInteger workCount = new AtomicInteger();
+        final MockOperation first = new MockOperation("key1", release, workCount);
+        final MockOperation second = new MockOperation("key2", release, workCount);
+        final RecordingListener firstListener = new RecordingListener(first);
+        final RecordingListener secondListener = new RecordingListener(second);
+
+        executor.executeAsync(first, null);
+        executor.executeAsync(second, null);
+        Assert.assertTrue(firstListener.completed.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(secondListener.completed.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(2, workCount.get());
+        Assert.assertEquals(0, executor.getCoalescedCount());
+    }
+
+    @Test
+    public void testCoalescing_FirstCancelled() throws Exception {
+        final OperationExecutor executor = new OperationExecutor(OperationExecutor.MIN_THREADS, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger workCount = new AtomicInteger();
+        final MockOperation first = new MockOperation("key", release, workCount);
+        final MockOperation second = new MockOperation("key", new CountDownLatch(0), workCount);
+        final RecordingListener secondListener = new RecordingListener(second);
+
+        executor.executeAsync(first, null);
+        Assert.assertTrue(first.started.await(1, TimeUnit.SECONDS));
+        executor.executeAsync(second, null);
+        first.cancel();
+        release.countDown();
+
+        // the second operation runs on its own
+        Assert.assertTrue(secondListener.completed.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(2, workCount.get());
+        Assert.assertFalse(secondListener.results.isEmpty());
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        final OperationExecutor executor = new OperationExecutor(OperationExecutor.MIN_THREADS, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        // keep all of the threads busy
+        final List<Future> blockers = new ArrayList<Future>();
+        for (int i = 0; i < OperationExecutor.MIN_THREADS; i++) {
+            blockers.add(executor.submitOperationTask(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+
+        final MockOperation background = new MockOperation(null, new CountDownLatch(0), new AtomicInteger(), order, "background");
+        background.setPriority(Operation.Priority.BACKGROUND);
+        final MockOperation user = new MockOperation(null, new CountDownLatch(0), new AtomicInteger(), order, "user");
+        final RecordingListener backgroundListener = new RecordingListener(background);
+        executor.executeAsync(background, null);
+        executor.executeAsync(user, null);
+        blockers.add(executor.submitOperationTask(new Runnable() {
+            @Override
+            public void run() {
+                order.add("task");
+            }
+        }));
+
+        release.countDown();
+        executor.wait(blockers);
+        Assert.assertTrue(backgroundListener.completed.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(order.indexOf("task") < order.indexOf("user"));
+        Assert.assertTrue(order.indexOf("user") < order.indexOf("background"));
+    }
+
+    @Test
+    public void testRejectBackground() throws Exception {
+        final OperationExecutor executor = new OperationExecutor(OperationExecutor.MIN_THREADS, 0);
+        final MockOperation background = new MockOperation(null, new CountDownLatch(0), new AtomicInteger());
+        background.setPriority(Operation.Priority.BACKGROUND);
+        final RecordingListener listener = new RecordingListener(background);
+
+        executor.executeAsync(background, null);
+        Assert.assertTrue(listener.completed.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, executor.getRejectedCount());
+        Assert.assertNotNull(background.error);
+
+        // user operations are never rejected
+        final MockOperation user = new MockOperation(null, new CountDownLatch(0), new AtomicInteger());
+        final RecordingListener userListener = new RecordingListener(user);
+        executor.executeAsync(user, null);
+        Assert.assertTrue(userListener.completed.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, executor.getRejectedCount());
+    }
+
+    @Test
+    public void testGetPriority() {
+        final MockOperation operation = new MockOperation(null, new CountDownLatch(0), new AtomicInteger());
+        final Operation.CredInputsImpl inputs = new Operation.CredInputsImpl();
+        Assert.assertEquals(Operation.Priority.USER, operation.getPriority(inputs));
+        inputs.setPromptForCreds(false);
+        Assert.assertEquals(Operation.Priority.BACKGROUND, operation.getPriority(inputs));
+        operation.setPriority(Operation.Priority.USER);
+        Assert.assertEquals(Operation.Priority.USER, operation.getPriority(inputs));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final OperationExecutor executor = new OperationExecutor(OperationExecutor.MIN_THREADS, 10);
+        final List<Future> tasks = new ArrayList<Future>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(executor.submitOperationTask(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+        executor.wait(tasks);
+
+        // the metrics are recorded right after the tasks complete
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (executor.getCompletedCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(3, executor.getCompletedCount());
+        Assert.assertTrue(executor.getAverageRunMilliseconds() >= 9);
+        Assert.assertEquals(0, executor.getQueueSize());
+    }
+
+    private static class MockOperation extends Operation {
+        private final String key;
+        private final CountDownLatch release;
+        private final AtomicInteger workCount;
+        private final List<String> order;
+        private final String name;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private Throwable error;
+
+        public MockOperation(final String key, final CountDownLatch release, final AtomicInteger workCount) {
+            this(key, release, workCount, null, null);
+        }
+
+        public MockOperation(final String key, final CountDownLatch release, final AtomicInteger workCount,
+                             final List<String> order, final String name) {
+            this.key = key;
+            this.release = release;
+            this.workCount = workCount;
+            this.order = order;
+            this.name = name;
+        }
+
+        @Override
+        protected String getCoalescingKey(final Inputs inputs) {
+            return key;
+        }
+
+        @Override
+        public void doWork(final Inputs inputs) {
+            workCount.incrementAndGet();
+            if (order != null) {
+                order.add(name);
+            }
+            onLookupStarted();
+            onLookupResults(new ResultsImpl());
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            onLookupResults(new ResultsImpl());
+            onLookupCompleted();
+        }
+
+        @Override
+        protected void terminate(final Throwable throwable) {
+            super.terminate(throwable);
+            error = throwable;
+            onLookupCompleted();
+        }
+    }
+
+    private static class RecordingListener implements Operation.Listener {
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Operation.Results> results = Collections.synchronizedList(new ArrayList<Operation.Results>());
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        public RecordingListener(final Operation operation) {
+            operation.addListener(this);
+        }
+
+        @Override
+        public void notifyLookupStarted() {
+            events.add("started");
+        }
+
+        @Override
+        public void notifyLookupCompleted() {
+            events.add("completed");
+            completed.countDown();
+        }
+
+        @Override
+        public void notifyLookupResults(final Operation.Results results) {
+            events.add("results");
+            this.results.add(results);
+        }
+    }
+}
@@ -16,9 +16,16 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ServerContextLookupOperationTest {
     private final ServerContext context = new ServerContextBuilder().type(ServerContext.Type.TFS).build();
@@ -195,6 +202,129 @@ public class ServerContextLookupOperationTest {
         results.cancel(true);
     }
 
+    @Test
+    public void testDoLookup_Parallel() {
+        final ParallelLookupOperation operation = new ParallelLookupOperation(2);
+        final List<ServerContext> results = new CopyOnWriteArrayList<ServerContext>();
+        operation.addListener(new Operation.Listener() {
+            public void notifyLookupStarted() {
+            }
+
+            public void notifyLookupCompleted() {
+            }
+
+            @Override
+            public void notifyLookupResults(Operation.Results lookupResults) {
+                results.addAll(((ServerContextLookupOperation.ServerContextLookupResults) lookupResults).getServerContexts());
+            }
+        });
+
+        operation.doLookup(context, createCollections(6));
+
+        // each collection is reported on its own, with no more than 2 looked up at the same time
+        Assert.assertEquals(6, operation.started.get());
+        Assert.assertEquals(6, results.size());
+        Assert.assertEquals(2, operation.maxRunning.get());
+        operation.executor.shutdownNow();
+    }
+
+    @Test
+    public void testDoLookup_FirstFailureCancelsRest() throws InterruptedException {
+        final ParallelLookupOperation operation = new ParallelLookupOperation(2);
+        operation.blockForever = true;
+        operation.failingCollection = "collection1";
+
+        try {
+            operation.doLookup(context, createCollections(4));
+            Assert.fail("expected the failure to be thrown");
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals("collection1", e.getMessage());
+        }
+
+        // the lookup that was still running got interrupted
+        Assert.assertTrue(operation.interrupted.await(5, TimeUnit.SECONDS));
+        operation.executor.shutdownNow();
+    }
+
+    @Test
+    public void testCancel_StopsRunningLookups() throws InterruptedException {
+        final ParallelLookupOperation operation = new ParallelLookupOperation(2);
+        operation.blockForever = true;
+        final CountDownLatch finished = new CountDownLatch(1);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                operation.doLookup(context, createCollections(4));
+                finished.countDown();
+            }
+        });
+        thread.start();
+
+        Assert.assertTrue(operation.running.await(5, TimeUnit.SECONDS));
+        operation.cancel();
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(operation.interrupted.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, operation.started.get());
+        operation.executor.shutdownNow();
+    }
+
+    private List<TeamProjectCollectionReference> createCollections(final int count) {
+        final List<TeamProjectCollectionReference> collections = new ArrayList<TeamProjectCollectionReference>();
+        for (int i = 0; i < count; i++) {
+            final TeamProjectCollectionReference collection = new TeamProjectCollectionReference();
+            collection.setName("collection" + i);
+            collections.add(collection);
+        }
+        return collections;
+    }
+
+    private class ParallelLookupOperation extends ServerContextLookupOperation {
+        private final ExecutorService executor;
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger current = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final CountDownLatch running = new CountDownLatch(2);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private boolean blockForever = false;
+        private String failingCollection;
+
+        public ParallelLookupOperation(final int maxThreads) {
+            super(Collections.singletonList(context), ContextScope.PROJECT);
+            executor = Executors.newFixedThreadPool(maxThreads);
+        }
+
+        @Override
+        protected ExecutorService getCollectionExecutor() {
+            return executor;
+        }
+
+        @Override
+        protected void lookupCollection(final ServerContext context, final TeamProjectCollectionReference collection) {
+            started.incrementAndGet();
+            final int now = current.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            running.countDown();
+            try {
+                if (collection.getName().equals(failingCollection)) {
+                    running.await();
+                    throw new IllegalStateException(collection.getName());
+                }
+                if (blockForever) {
+                    Thread.sleep(Long.MAX_VALUE);
+                } else {
+                    Thread.sleep(50);
+                }
+                addTeamProjectResults(Collections.singletonList(new TeamProjectReference()), context, collection);
+            } catch (final InterruptedException e) {
+                interrupted.countDown();
+            } finally {
+                current.decrementAndGet();
+            }
+        }
+    }
+
     private void setupListener(MockServerContextLookupOperation operation, final SettableFuture<Boolean> startedCalled, final SettableFuture<Boolean> completedCalled, final SettableFuture<Boolean> canceledCalled, final SettableFuture<List<ServerContext>> results) {
         operation.addListener(new Operation.Listener() {
             public void notifyLookupStarted() {
@@ -0,0 +1,138 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.operations;
+
+import com.microsoft.alm.plugin.exceptions.TeamServicesException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class TaskGroupTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testJoin() {
+        final TaskGroup<String> group = new TaskGroup<String>("test", executor, 5, TimeUnit.SECONDS);
+        group.add("a", new MockTask("a", 50));
+        group.add("b", new MockTask("b", 0));
+
+        final TaskGroup.Results<String> results = group.join();
+        Assert.assertFalse(results.hasError());
+        // the results come in the order the tasks finished
+        Assert.assertEquals(Arrays.asList("b", "a"), results.getResults());
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a", "b")), results.getLatencies().keySet());
+        Assert.assertTrue(results.getLatencies().get("a") >= 40);
+    }
+
+    @Test
+    public void testJoin_FirstFailureCancelsRest() throws Exception {
+        final TaskGroup<String> group = new TaskGroup<String>("test", executor, 5, TimeUnit.SECONDS);
+        final Future<String> slow = group.add("slow", new MockTask("slow", 5000));
+        group.add("fast", new MockTask("fast", 0));
+        final IllegalStateException failure = new IllegalStateException("failed");
+        group.add("failing", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep(20);
+                throw failure;
+            }
+        });
+
+        final long start = System.currentTimeMillis();
+        final TaskGroup.Results<String> results = group.join();
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+        Assert.assertSame(failure, results.getError());
+        Assert.assertFalse(results.isTimedOut());
+        Assert.assertTrue(slow.isCancelled());
+        // the partial results are kept
+        Assert.assertEquals(Arrays.asList("fast"), results.getResults());
+    }
+
+    @Test
+    public void testJoin_Deadline() {
+        final TaskGroup<String> group = new TaskGroup<String>("test", executor, 100, TimeUnit.MILLISECONDS);
+        final Future<String> slow = group.add("slow", new MockTask("slow", 5000));
+        group.add("fast", new MockTask("fast", 0));
+
+        final TaskGroup.Results<String> results = group.join();
+        Assert.assertTrue(results.isTimedOut());
+        Assert.assertTrue(results.getError() instanceof TimeoutException);
+        Assert.assertTrue(slow.isCancelled());
+        Assert.assertEquals(Arrays.asList("fast"), results.getResults());
+    }
+
+    @Test
+    public void testJoinOrThrow() {
+        final TaskGroup<String> group = new TaskGroup<String>("test", executor, 5, TimeUnit.SECONDS);
+        group.add("failing", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new Exception("failed");
+            }
+        });
+
+        try {
+            group.joinOrThrow();
+            Assert.fail("the failure should be thrown");
+        } catch (final TeamServicesException e) {
+            Assert.assertEquals("failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final TaskGroup<String> group = new TaskGroup<String>("test", executor, 5, TimeUnit.SECONDS);
+        final CountDownLatch started = new CountDownLatch(1);
+        final Future<String> task = group.add("blocked", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                Thread.sleep(5000);
+                return "blocked";
+            }
+        });
+        Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        group.cancel();
+        final TaskGroup.Results<String> results = group.join();
+        Assert.assertTrue(task.isCancelled());
+        Assert.assertTrue(results.isCancelled());
+        Assert.assertFalse(results.hasError());
+        Assert.assertTrue(results.getResults().isEmpty());
+
+        // tasks added after the group was cancelled don't run
+        Assert.assertTrue(group.add("late", new MockTask("late", 0)).isCancelled());
+    }
+
+    private static class MockTask implements Callable<String> {
+        private final String result;
+        private final long delay;
+
+        public MockTask(final String result, final long delay) {
+            this.result = result;
+            this.delay = delay;
+        }
+
+        @Override
+        public String call() throws Exception {
+            Thread.sleep(delay);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.plugin.versioncontrol.path;
+
+import com.microsoft.alm.plugin.external.models.Workspace;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class WorkspaceMappingIndexTest {
+    private static final String ROOT = File.separator + "ws";
+
+    private final List<Workspace.Mapping> mappings = Arrays.asList(
+            new Workspace.Mapping("$/project", local("project"), false),
+            new Workspace.Mapping("$/project/lib", local("libraries"), false),
+            new Workspace.Mapping("$/project/cloaked", null, true),
+            new Workspace.Mapping("$/other", local("project", "other"), false),
+            new Workspace.Mapping("$/other/deep", local("deep"), false));
+
+    @Test
+    public void testTranslateServerItemToLocalItem() {
+        final WorkspaceMappingIndex index = new WorkspaceMappingIndex(mappings, false);
+        Assert.assertEquals(local("project", "src", "file.txt"), index.translateServerItemToLocalItem("$/project/src/file.txt"));
+        // the closest mapping wins and the server ignores case
+        Assert.assertEquals(local("libraries", "a.jar"), index.translateServerItemToLocalItem("$/Project/LIB/a.jar"));
+        Assert.assertEquals(local("project"), index.translateServerItemToLocalItem("$/project"));
+        Assert.assertNull(index.translateServerItemToLocalItem("$/project/cloaked/file.txt"));
+        Assert.assertNull(index.translateServerItemToLocalItem("$/unmapped/file.txt"));
+        // a folder that only starts with the name of a mapping isn't under it
+        Assert.assertNull(index.translateServerItemToLocalItem("$/projectOther/file.txt"));
+    }
+
+    @Test
+    public void testTranslateLocalItemToServerItem() {
+        final WorkspaceMappingIndex index = new WorkspaceMappingIndex(mappings, false);
+        Assert.assertEquals("$/project/src/file.txt", index.translateLocalItemToServerItem(local("project", "src", "file.txt")));
+        // a mapping under the local folder of another one wins
+        Assert.assertEquals("$/other/file.txt", index.translateLocalItemToServerItem(local("project", "other", "file.txt")));
+        Assert.assertEquals("$/project/lib/a.jar", index.translateLocalItemToServerItem(local("libraries", "a.jar")));
+        Assert.assertNull(index.translateLocalItemToServerItem(local("unmapped", "file.txt")));
+    }
+
+    @Test
+    public void testTranslateLocalItemToServerItem_Cloaked() {
+        final WorkspaceMappingIndex index = new WorkspaceMappingIndex(mappings, false);
+        Assert.assertNull(index.translateLocalItemToServerItem(local("project", "cloaked", "file.txt")));
+
+        // a cloak above the mapping that was found doesn't hide its items
+        final WorkspaceMappingIndex cloakAbove = new WorkspaceMappingIndex(Arrays.asList(
+                new Workspace.Mapping("$/project", null, true),
+                new Workspace.Mapping("$/project/lib", local("libraries"), false)), false);
+        Assert.assertEquals("$/project/lib/a.jar", cloakAbove.translateLocalItemToServerItem(local("libraries", "a.jar")));
+    }
+
+    @Test
+    public void testTranslateLocalItemToServerItem_Case() {
+        Assert.assertNull(new WorkspaceMappingIndex(mappings, false).translateLocalItemToServerItem(local("PROJECT", "file.txt")));
+        Assert.assertEquals("$/project/file.txt",
+                new WorkspaceMappingIndex(mappings, true).translateLocalItemToServerItem(local("PROJECT", "file.txt")));
+    }
+
+    @Test
+    public void testTranslateMany() {
+        final WorkspaceMappingIndex index = new WorkspaceMappingIndex(mappings, false);
+        Assert.assertEquals(Arrays.asList("$/project/a.txt", null, "$/other/deep/b.txt"),
+                index.translateLocalItemsToServerItems(Arrays.asList(local("project", "a.txt"), local("unmapped"), local("deep", "b.txt"))));
+        Assert.assertEquals(Arrays.asList(null, local("project", "a.txt")),
+                index.translateServerItemsToLocalItems(Arrays.asList("$/project/cloaked", "$/project/a.txt")));
+    }
+
+    @Test
+    public void testNoMappings() {
+        final WorkspaceMappingIndex index = new WorkspaceMappingIndex(Collections.<Workspace.Mapping>emptyList(), false);
+        Assert.assertNull(index.translateServerItemToLocalItem("$/project/file.txt"));
+        Assert.assertNull(index.translateLocalItemToServerItem(local("project", "file.txt")));
+    }
+
+    private static String local(final String... components) {
+        final StringBuilder path = new StringBuilder(ROOT);
+        for (final String component : components) {
+            path.append(File.separator).append(component);
+        }
+        return path.toString();
+    }
+}